@@ -0,0 +1,154 @@
+package com.traceview.agent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * AgentMetrics - Self-metrics of one event collector and the producers feeding it
+ *
+ * Read live through {@link TraceAgentMXBean}; when the trace is finished the
+ * same figures are written into it (see {@link #snapshot()}), so the cost of
+ * a capture can be checked after the fact. The hook time only covers hooks
+ * that recorded something; the uncontended path of a hook is a few
+ * bytecodes and is not timed, which would cost more than it measures.
+ */
+public class AgentMetrics implements TraceAgentMXBean {
+
+    /** JMX name the agent registers its metrics under */
+    public static final String OBJECT_NAME = "com.traceview:type=TraceAgent";
+
+    private final EventCollector collector;
+    private volatile ConcurrencyInstrumentation instrumentation;
+    private volatile LockDep lockDep;
+
+    AgentMetrics(EventCollector collector) {
+        this.collector = collector;
+    }
+
+    /**
+     * Include the instrumented class count of this instrumentation
+     */
+    void setInstrumentation(ConcurrencyInstrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    /**
+     * Include the findings of this lock order checker
+     */
+    void setLockDep(LockDep lockDep) {
+        this.lockDep = lockDep;
+    }
+
+    @Override
+    public boolean isActive() {
+        return collector.isRunning();
+    }
+
+    @Override
+    public long getRecordedEvents() {
+        return collector.getRecordedEvents();
+    }
+
+    @Override
+    public long getDroppedEvents() {
+        return collector.getDroppedEvents();
+    }
+
+    @Override
+    public long getBufferFullCount() {
+        return collector.getBufferFullCount();
+    }
+
+    @Override
+    public double getEventsPerSecond() {
+        return collector.getEventsPerSecond();
+    }
+
+    @Override
+    public double getPeakEventsPerSecond() {
+        return collector.getPeakEventsPerSecond();
+    }
+
+    @Override
+    public double getBufferOccupancy() {
+        return collector.getBufferOccupancy();
+    }
+
+    @Override
+    public double getPeakBufferOccupancy() {
+        return collector.getPeakBufferOccupancy();
+    }
+
+    @Override
+    public int getThreadBufferCount() {
+        return collector.getBufferCount();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return collector.getBytesWritten();
+    }
+
+    @Override
+    public long getWriterLagNanos() {
+        return collector.getWriterLagNs();
+    }
+
+    @Override
+    public long getPeakWriterLagNanos() {
+        return collector.getPeakWriterLagNs();
+    }
+
+    @Override
+    public long getAdviceTimeNanos() {
+        return collector.getAdviceTimeNs();
+    }
+
+    @Override
+    public int getInstrumentedClassCount() {
+        ConcurrencyInstrumentation current = instrumentation;
+        return current != null ? current.getInstrumentedClassCount() : 0;
+    }
+
+    @Override
+    public int getSamplingMultiplier() {
+        return collector.getSamplingGovernor().getMultiplier();
+    }
+
+    @Override
+    public long getLockOrderInversions() {
+        LockDep current = lockDep;
+        return current != null ? current.getInversionCount() : 0;
+    }
+
+    @Override
+    public long getDeadlocks() {
+        LockDep current = lockDep;
+        return current != null ? current.getDeadlockCount() : 0;
+    }
+
+    /**
+     * Totals and peaks by name, as written into the trace; fractions are in
+     * parts per million so every value is an integer
+     */
+    public Map<String, Long> snapshot() {
+        long elapsedNs = collector.getElapsedNs();
+        long recorded = getRecordedEvents();
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("elapsedNs", elapsedNs);
+        metrics.put("recordedEvents", recorded);
+        metrics.put("droppedEvents", getDroppedEvents());
+        metrics.put("bufferFullCount", getBufferFullCount());
+        metrics.put("eventsPerSecond", elapsedNs > 0 ? Math.round(recorded * 1e9 / elapsedNs) : 0L);
+        metrics.put("peakEventsPerSecond", Math.round(getPeakEventsPerSecond()));
+        metrics.put("peakBufferOccupancyPpm", Math.round(getPeakBufferOccupancy() * 1e6));
+        metrics.put("bytesWritten", getBytesWritten());
+        metrics.put("peakWriterLagNs", getPeakWriterLagNanos());
+        metrics.put("adviceTimeNs", getAdviceTimeNanos());
+        metrics.put("instrumentedClasses", (long) getInstrumentedClassCount());
+        metrics.put("samplingMultiplier", (long) getSamplingMultiplier());
+        metrics.put("lockOrderInversions", getLockOrderInversions());
+        metrics.put("deadlocks", getDeadlocks());
+        return metrics;
+    }
+}
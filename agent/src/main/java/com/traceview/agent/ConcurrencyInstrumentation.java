@@ -0,0 +1,515 @@
+package com.traceview.agent;
+
+import static net.bytebuddy.matcher.ElementMatchers.any;
+import static net.bytebuddy.matcher.ElementMatchers.isBootstrapClassLoader;
+import static net.bytebuddy.matcher.ElementMatchers.isExtensionClassLoader;
+import static net.bytebuddy.matcher.ElementMatchers.nameStartsWith;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.none;
+import static net.bytebuddy.matcher.ElementMatchers.not;
+
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
+import net.bytebuddy.asm.AsmVisitorWrapper;
+import net.bytebuddy.description.field.FieldDescription;
+import net.bytebuddy.description.field.FieldList;
+import net.bytebuddy.description.method.MethodList;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.implementation.Implementation;
+import net.bytebuddy.jar.asm.ClassReader;
+import net.bytebuddy.jar.asm.ClassVisitor;
+import net.bytebuddy.jar.asm.Handle;
+import net.bytebuddy.jar.asm.Label;
+import net.bytebuddy.jar.asm.MethodVisitor;
+import net.bytebuddy.jar.asm.Opcodes;
+import net.bytebuddy.jar.asm.Type;
+import net.bytebuddy.matcher.ElementMatcher;
+import net.bytebuddy.pool.TypePool;
+import net.bytebuddy.utility.JavaModule;
+import net.bytebuddy.utility.OpenedClassReader;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConcurrencyInstrumentation - Rewrites application bytecode to report contention
+ *
+ * Rather than advising JDK classes (which would require the hooks on the boot
+ * class path), the call sites in application classes are rewritten:
+ * <ul>
+ *   <li>MONITORENTER is bracketed with a timestamp and {@link LockHooks#afterMonitorEnter}; the
+ *       call goes after the label that follows the instruction, so it lies within the range
+ *       javac protects with the handler that releases the monitor</li>
+ *   <li>MONITOREXIT is preceded by {@link LockHooks#beforeMonitorExit}, which records the
+ *       release of a monitor whose contended entry was recorded</li>
+ *   <li>synchronized methods are turned into an explicit MONITORENTER/MONITOREXIT
+ *       pair so they get the same treatment</li>
+ *   <li>Lock/ReentrantLock/ReentrantReadWriteLock lock, tryLock and unlock calls go through {@link LockHooks}</li>
+ *   <li>Object.wait/notify/notifyAll go through {@link LockHooks}</li>
+ *   <li>with lock order checking on, MONITORENTER is also preceded by
+ *       {@link LockHooks#beforeMonitorEnter}</li>
+ * </ul>
+ * Only classes loaded after installation are transformed, since changing a
+ * method's modifiers is not allowed when retransforming. Include and exclude
+ * filters are part of the type matcher, so filtered classes are never
+ * rewritten at all.
+ */
+public class ConcurrencyInstrumentation {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrencyInstrumentation.class);
+
+    private static final String HOOKS = Type.getInternalName(LockHooks.class);
+    private static final String LOCK_DESC = "(Ljava/util/concurrent/locks/Lock;";
+
+    // Receiver types whose lock()/unlock() calls are redirected
+    private static final Set<String> LOCK_OWNERS = new HashSet<>(Arrays.asList(
+        "java/util/concurrent/locks/Lock",
+        "java/util/concurrent/locks/ReentrantLock",
+        "java/util/concurrent/locks/ReentrantReadWriteLock$ReadLock",
+        "java/util/concurrent/locks/ReentrantReadWriteLock$WriteLock"
+    ));
+
+    // Stack slots needed on top of the original code by the inserted sequences
+    private static final int EXTRA_STACK = 5;
+
+    private static final ElementMatcher.Junction<TypeDescription> IGNORED_TYPES =
+        nameStartsWith("java.")
+            .or(nameStartsWith("javax."))
+            .or(nameStartsWith("jdk."))
+            .or(nameStartsWith("sun."))
+            .or(nameStartsWith("com.sun."))
+            .or(nameStartsWith("com.traceview.agent."))
+            .or(nameStartsWith("net.bytebuddy."))
+            .or(nameStartsWith("org.slf4j."))
+            .or(nameStartsWith("ch.qos.logback."))
+            .or(nameStartsWith("org.eclipse.collections."));
+
+    private final AtomicInteger instrumentedClasses = new AtomicInteger();
+    private final List<String> includes;
+    private final List<String> excludes;
+    private final long minWaitNs;
+    private final LockDep lockDep;
+
+    public ConcurrencyInstrumentation() {
+        this(Collections.emptyList(), Collections.emptyList(), LockHooks.DEFAULT_MIN_WAIT_NS, null);
+    }
+
+    /**
+     * @param includes Class name patterns to instrument (empty = all); "com.app.*" matches a package tree
+     * @param excludes Class name patterns never to instrument
+     * @param minWaitNs Minimum wait for a lock acquisition or wait to be recorded
+     * @param lockDep Lock order checker every acquisition and release is reported to, or null
+     */
+    public ConcurrencyInstrumentation(List<String> includes, List<String> excludes, long minWaitNs,
+                                      LockDep lockDep) {
+        this.includes = new ArrayList<>(includes);
+        this.excludes = new ArrayList<>(excludes);
+        this.minWaitNs = minWaitNs;
+        this.lockDep = lockDep;
+    }
+
+    /**
+     * Install the transformer; hooks report to the given collector
+     */
+    public ResettableClassFileTransformer install(Instrumentation instrumentation, EventCollector collector) {
+        LockHooks.install(collector, minWaitNs, lockDep);
+        if (!LockHooks.openWriteLocks(instrumentation)) {
+            logger.debug("Could not open ReentrantReadWriteLock internals; write lock handoffs are not recorded");
+        }
+        ElementMatcher.Junction<TypeDescription> typeFilter = includes.isEmpty()
+            ? any() : matching(includes);
+        if (!excludes.isEmpty()) {
+            typeFilter = typeFilter.and(not(matching(excludes)));
+        }
+        return new AgentBuilder.Default()
+            .with(AgentBuilder.TypeStrategy.Default.DECORATE)
+            .with(AgentBuilder.InitializationStrategy.NoOp.INSTANCE)
+            .with(new TransformListener())
+            .ignore(IGNORED_TYPES)
+            .or(any(), isBootstrapClassLoader().or(isExtensionClassLoader()))
+            .type(typeFilter)
+            .transform(ConcurrencyInstrumentation::transform)
+            .installOn(instrumentation);
+    }
+
+    /**
+     * Number of classes rewritten so far
+     */
+    public int getInstrumentedClassCount() {
+        return instrumentedClasses.get();
+    }
+
+    /**
+     * Build a matcher for prefix patterns ending in "*" (e.g. "com.app.*") and exact class names
+     */
+    static ElementMatcher.Junction<TypeDescription> matching(List<String> patterns) {
+        ElementMatcher.Junction<TypeDescription> matcher = none();
+        for (String pattern : patterns) {
+            if (pattern.endsWith("*")) {
+                matcher = matcher.or(nameStartsWith(pattern.substring(0, pattern.length() - 1)));
+            } else {
+                matcher = matcher.or(named(pattern));
+            }
+        }
+        return matcher;
+    }
+
+    private static DynamicType.Builder<?> transform(DynamicType.Builder<?> builder, TypeDescription type,
+                                                    ClassLoader classLoader, JavaModule module,
+                                                    ProtectionDomain protectionDomain) {
+        return builder.visit(CallSiteRewriter.INSTANCE);
+    }
+
+    private final class TransformListener extends AgentBuilder.Listener.Adapter {
+        @Override
+        public void onTransformation(TypeDescription typeDescription, ClassLoader classLoader, JavaModule module,
+                                     boolean loaded, DynamicType dynamicType) {
+            instrumentedClasses.incrementAndGet();
+        }
+
+        @Override
+        public void onError(String typeName, ClassLoader classLoader, JavaModule module,
+                            boolean loaded, Throwable throwable) {
+            logger.debug("Could not instrument {}", typeName, throwable);
+        }
+    }
+
+    /**
+     * Applies the rewriting visitors to every method of a class
+     */
+    enum CallSiteRewriter implements AsmVisitorWrapper {
+        INSTANCE;
+
+        @Override
+        public int mergeWriter(int flags) {
+            return flags;
+        }
+
+        @Override
+        public int mergeReader(int flags) {
+            // Expanded frames let the synchronized-method handler frame be emitted as F_NEW
+            return flags | ClassReader.EXPAND_FRAMES;
+        }
+
+        @Override
+        public ClassVisitor wrap(TypeDescription instrumentedType, ClassVisitor classVisitor,
+                                 Implementation.Context implementationContext, TypePool typePool,
+                                 FieldList<FieldDescription.InDefinedShape> fields, MethodList<?> methods,
+                                 int writerFlags, int readerFlags) {
+            return new RewritingClassVisitor(classVisitor);
+        }
+    }
+
+    private static final class RewritingClassVisitor extends ClassVisitor {
+        private String owner;
+        private int version;
+
+        RewritingClassVisitor(ClassVisitor classVisitor) {
+            super(OpenedClassReader.ASM_API, classVisitor);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName,
+                          String[] interfaces) {
+            this.version = version;
+            this.owner = name;
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                                         String[] exceptions) {
+            // Class literals and stack map frames need a 1.6+ class file
+            boolean unwrapSynchronized = (access & Opcodes.ACC_SYNCHRONIZED) != 0
+                && (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) == 0
+                && (version & 0xFFFF) >= Opcodes.V1_6;
+            int adjusted = unwrapSynchronized ? access & ~Opcodes.ACC_SYNCHRONIZED : access;
+
+            MethodVisitor mv = super.visitMethod(adjusted, name, descriptor, signature, exceptions);
+            if (mv == null) {
+                return null;
+            }
+            mv = new CallSiteMethodVisitor(mv);
+            if (unwrapSynchronized) {
+                mv = new SynchronizedMethodVisitor(mv, owner, access);
+            }
+            return mv;
+        }
+    }
+
+    /**
+     * Redirects monitor instructions, lock calls and wait/notify to {@link LockHooks}
+     *
+     * The afterMonitorEnter call is held back after MONITORENTER: javac starts
+     * the protected range at the label right after it, so the call is emitted
+     * after that label and its line numbers. Only if the label carries a stack
+     * map frame, which the extra stack values would contradict, does the call
+     * go before the label, outside the range.
+     */
+    private static final class CallSiteMethodVisitor extends MethodVisitor {
+        private boolean enterPending;
+        private Label heldLabel;
+        private final IntArrayList heldLines = new IntArrayList();
+
+        CallSiteMethodVisitor(MethodVisitor methodVisitor) {
+            super(OpenedClassReader.ASM_API, methodVisitor);
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            flushEnter();
+            if (opcode == Opcodes.MONITOREXIT) {
+                super.visitInsn(Opcodes.DUP);
+                super.visitMethodInsn(Opcodes.INVOKESTATIC, HOOKS, "beforeMonitorExit", "(Ljava/lang/Object;)V", false);
+            }
+            if (opcode != Opcodes.MONITORENTER) {
+                super.visitInsn(opcode);
+                return;
+            }
+            if (LockHooks.tracksLockOrder()) {
+                super.visitInsn(Opcodes.DUP);
+                super.visitMethodInsn(Opcodes.INVOKESTATIC, HOOKS, "beforeMonitorEnter", "(Ljava/lang/Object;)V", false);
+            }
+            // [obj] -> [obj obj] -> [obj obj t] -> [obj t obj t] -> [obj t obj] -> [obj t] -> (after the label) []
+            super.visitInsn(Opcodes.DUP);
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
+            super.visitInsn(Opcodes.DUP2_X1);
+            super.visitInsn(Opcodes.POP2);
+            super.visitInsn(Opcodes.MONITORENTER);
+            enterPending = true;
+        }
+
+        @Override
+        public void visitLabel(Label label) {
+            if (enterPending && heldLabel == null) {
+                heldLabel = label;
+                return;
+            }
+            flushEnter();
+            super.visitLabel(label);
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start) {
+            if (heldLabel != null && start == heldLabel) {
+                heldLines.add(line);
+                return;
+            }
+            super.visitLineNumber(line, start);
+        }
+
+        @Override
+        public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
+            if (enterPending) {
+                // A frame describes the stack without the hook's arguments, so they must be consumed first
+                callAfterMonitorEnter();
+            }
+            flushEnter();
+            super.visitFrame(type, numLocal, local, numStack, stack);
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            flushEnter();
+            super.visitIntInsn(opcode, operand);
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var) {
+            flushEnter();
+            super.visitVarInsn(opcode, var);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            flushEnter();
+            super.visitTypeInsn(opcode, type);
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            flushEnter();
+            super.visitFieldInsn(opcode, owner, name, descriptor);
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle,
+                                           Object... bootstrapMethodArguments) {
+            flushEnter();
+            super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label) {
+            flushEnter();
+            super.visitJumpInsn(opcode, label);
+        }
+
+        @Override
+        public void visitLdcInsn(Object value) {
+            flushEnter();
+            super.visitLdcInsn(value);
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment) {
+            flushEnter();
+            super.visitIincInsn(var, increment);
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            flushEnter();
+            super.visitTableSwitchInsn(min, max, dflt, labels);
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            flushEnter();
+            super.visitLookupSwitchInsn(dflt, keys, labels);
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            flushEnter();
+            super.visitMultiANewArrayInsn(descriptor, numDimensions);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor, boolean isInterface) {
+            flushEnter();
+            if (opcode == Opcodes.INVOKEVIRTUAL && isMonitorMethod(name, descriptor)) {
+                super.visitMethodInsn(Opcodes.INVOKESTATIC, HOOKS, name,
+                    "(Ljava/lang/Object;" + descriptor.substring(1), false);
+                return;
+            }
+            if ((opcode == Opcodes.INVOKEINTERFACE || opcode == Opcodes.INVOKEVIRTUAL)
+                    && LOCK_OWNERS.contains(owner) && isLockMethod(name, descriptor)) {
+                super.visitMethodInsn(Opcodes.INVOKESTATIC, HOOKS, name, LOCK_DESC + descriptor.substring(1), false);
+                return;
+            }
+            super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals) {
+            flushEnter();
+            super.visitMaxs(maxStack + EXTRA_STACK, maxLocals);
+        }
+
+        /**
+         * Emit the held label and line numbers, then the pending afterMonitorEnter call
+         */
+        private void flushEnter() {
+            if (heldLabel != null) {
+                Label label = heldLabel;
+                heldLabel = null;
+                super.visitLabel(label);
+                for (int i = 0; i < heldLines.size(); i++) {
+                    super.visitLineNumber(heldLines.get(i), label);
+                }
+                heldLines.clear();
+            }
+            if (enterPending) {
+                callAfterMonitorEnter();
+            }
+        }
+
+        private void callAfterMonitorEnter() {
+            enterPending = false;
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, HOOKS, "afterMonitorEnter", "(Ljava/lang/Object;J)V", false);
+        }
+
+        private static boolean isMonitorMethod(String name, String descriptor) {
+            switch (name) {
+                case "wait":
+                    return "()V".equals(descriptor) || "(J)V".equals(descriptor) || "(JI)V".equals(descriptor);
+                case "notify":
+                case "notifyAll":
+                    return "()V".equals(descriptor);
+                default:
+                    return false;
+            }
+        }
+
+        private static boolean isLockMethod(String name, String descriptor) {
+            switch (name) {
+                case "lock":
+                case "lockInterruptibly":
+                case "unlock":
+                    return "()V".equals(descriptor);
+                case "tryLock":
+                    return "()Z".equals(descriptor) || "(JLjava/util/concurrent/TimeUnit;)Z".equals(descriptor);
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Replaces ACC_SYNCHRONIZED with explicit monitor instructions, the way
+     * javac compiles a synchronized block around the whole body
+     */
+    private static final class SynchronizedMethodVisitor extends MethodVisitor {
+        private final String owner;
+        private final boolean isStatic;
+        private final Label bodyStart = new Label();
+
+        SynchronizedMethodVisitor(MethodVisitor methodVisitor, String owner, int access) {
+            super(OpenedClassReader.ASM_API, methodVisitor);
+            this.owner = owner;
+            this.isStatic = (access & Opcodes.ACC_STATIC) != 0;
+        }
+
+        @Override
+        public void visitCode() {
+            super.visitCode();
+            loadMonitor();
+            super.visitInsn(Opcodes.MONITORENTER);
+            super.visitLabel(bodyStart);
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            if (opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN) {
+                loadMonitor();
+                super.visitInsn(Opcodes.MONITOREXIT);
+            }
+            super.visitInsn(opcode);
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals) {
+            // Catch-all handler registered last so the method's own handlers keep precedence
+            Label handler = new Label();
+            super.visitLabel(handler);
+            super.visitTryCatchBlock(bodyStart, handler, handler, null);
+            // Only 'this' is needed by the handler; leaving the other locals out keeps the
+            // frame valid even if the body reuses parameter slots for other types
+            Object[] locals = isStatic ? new Object[0] : new Object[] {owner};
+            super.visitFrame(Opcodes.F_NEW, locals.length, locals, 1, new Object[] {"java/lang/Throwable"});
+            loadMonitor();
+            super.visitInsn(Opcodes.MONITOREXIT);
+            super.visitInsn(Opcodes.ATHROW);
+            super.visitMaxs(maxStack, maxLocals);
+        }
+
+        private void loadMonitor() {
+            if (isStatic) {
+                super.visitLdcInsn(Type.getObjectType(owner));
+            } else {
+                super.visitVarInsn(Opcodes.ALOAD, 0);
+            }
+        }
+    }
+}
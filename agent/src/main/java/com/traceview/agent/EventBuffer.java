@@ -0,0 +1,244 @@
+package com.traceview.agent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EventBuffer - Single-producer/single-consumer ring of primitive event slots
+ *
+ * Each recording thread owns one buffer and is its only producer; the
+ * collector's drainer thread is the only consumer. An event occupies
+ * {@link #SLOT_LONGS} consecutive longs.
+ *
+ * A ring starts with room for {@link #INITIAL_CAPACITY} events and doubles,
+ * copying the events not yet drained, whenever it runs full below its
+ * capacity, so threads that record little keep a small ring. Once grown,
+ * recording never allocates. The drainer reads the tail before the ring, so
+ * every event it sees published is in the ring it reads.
+ */
+final class EventBuffer {
+
+    /** Longs per event: timestamp, type, arg0, arg1 */
+    static final int SLOT_LONGS = 4;
+
+    /** Events a ring has room for before it first grows */
+    static final int INITIAL_CAPACITY = 256;
+
+    // Replaced by a larger copy when the ring grows; read by the drainer
+    private volatile long[] slots;
+    private final int capacity;
+
+    private final int threadId;
+    private final String threadName;
+    private final long startTimeNs;
+    private final Thread owner;
+
+    // Producer position, published with lazySet after the slot is written
+    private final AtomicLong tail = new AtomicLong();
+    // Consumer position, published with lazySet after the slots are read
+    private final AtomicLong head = new AtomicLong();
+
+    // Producer-local state
+    private long[] writeSlots;
+    private int writeMask;
+    private long cachedHead;
+    private boolean full;
+    private final int[] sampleCounters = new int[32];
+
+    // Consumer-local state
+    private boolean announced;
+
+    // Written by the producer only, read by anyone
+    private volatile long droppedEvents;
+    private volatile long fullCount;
+    private volatile long adviceNs;
+
+    EventBuffer(Thread owner, int capacity, long startTimeNs) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Buffer capacity must be a power of two: " + capacity);
+        }
+        int initial = Math.min(capacity, INITIAL_CAPACITY);
+        this.writeSlots = new long[initial * SLOT_LONGS];
+        this.writeMask = initial - 1;
+        this.slots = writeSlots;
+        this.capacity = capacity;
+        this.owner = owner;
+        this.threadId = (int) owner.getId();
+        this.threadName = owner.getName();
+        this.startTimeNs = startTimeNs;
+    }
+
+    /**
+     * Append an event; called only from the owning thread
+     *
+     * @return false if the buffer was full and the event was dropped
+     */
+    boolean offer(long timestampNs, int threadId, byte eventType, long arg0, long arg1) {
+        long t = tail.get();
+        if (t - cachedHead > writeMask) {
+            cachedHead = head.get();
+            if (t - cachedHead > writeMask && !grow(t)) {
+                if (!full) {
+                    full = true;
+                    fullCount++;
+                }
+                droppedEvents++;
+                return false;
+            }
+        }
+        full = false;
+
+        long[] s = writeSlots;
+        int i = (int) (t & writeMask) * SLOT_LONGS;
+        s[i] = timestampNs;
+        s[i + 1] = ((long) threadId << 8) | (eventType & 0xFF);
+        s[i + 2] = arg0;
+        s[i + 3] = arg1;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Double a full ring that is below its capacity, copying the events the
+     * drainer has not taken yet; called only from the owning thread
+     *
+     * @param t Current tail
+     * @return false if the ring is already at its capacity
+     */
+    private boolean grow(long t) {
+        int current = writeMask + 1;
+        if (current >= capacity) {
+            return false;
+        }
+        int grown = Math.min(capacity, current * 2);
+        long[] old = writeSlots;
+        long[] copy = new long[grown * SLOT_LONGS];
+        int mask = grown - 1;
+        // The drainer may still be reading these from the old ring; it never writes to either
+        for (long p = cachedHead; p < t; p++) {
+            System.arraycopy(old, (int) (p & writeMask) * SLOT_LONGS, copy, (int) (p & mask) * SLOT_LONGS, SLOT_LONGS);
+        }
+        writeSlots = copy;
+        writeMask = mask;
+        // Published before any event written into the copy
+        slots = copy;
+        return true;
+    }
+
+    /**
+     * Add time the owning thread spent recording in a hook; called only from the owning thread
+     */
+    void addAdviceNs(long ns) {
+        adviceNs += ns;
+    }
+
+    /**
+     * Per-thread 1-in-period sampling decision; called only from the owning thread
+     */
+    boolean nextSample(int eventType, int period) {
+        int count = sampleCounters[eventType] + 1;
+        if (count >= period) {
+            sampleCounters[eventType] = 0;
+            return true;
+        }
+        sampleCounters[eventType] = count;
+        return false;
+    }
+
+    /**
+     * Hand every published event to the sink; called only from the drainer
+     *
+     * @return number of events drained
+     */
+    int drainTo(EventSink sink) {
+        long h = head.get();
+        long t = tail.get();
+        if (h == t) {
+            return 0;
+        }
+        long[] slots = this.slots;
+        int mask = slots.length / SLOT_LONGS - 1;
+        for (long p = h; p < t; p++) {
+            int i = (int) (p & mask) * SLOT_LONGS;
+            long meta = slots[i + 1];
+            sink.onEvent(slots[i], (int) (meta >>> 8), (byte) meta, slots[i + 2], slots[i + 3]);
+        }
+        head.lazySet(t);
+        return (int) (t - h);
+    }
+
+    /**
+     * Mark the buffer's thread as announced to the sink
+     *
+     * @return true the first time it is called
+     */
+    boolean announce() {
+        if (announced) {
+            return false;
+        }
+        announced = true;
+        return true;
+    }
+
+    /**
+     * Timestamp of the oldest event waiting to be drained, or Long.MAX_VALUE
+     * if there is none; called only from the drainer
+     */
+    long oldestTimestampNs() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return Long.MAX_VALUE;
+        }
+        long[] slots = this.slots;
+        return slots[(int) (h & (slots.length / SLOT_LONGS - 1)) * SLOT_LONGS];
+    }
+
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    boolean isOwnerAlive() {
+        return owner.isAlive();
+    }
+
+    /**
+     * Number of events currently waiting to be drained
+     */
+    int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Number of events the ring can hold once fully grown
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    long recordedEvents() {
+        return tail.get();
+    }
+
+    long droppedEvents() {
+        return droppedEvents;
+    }
+
+    long fullCount() {
+        return fullCount;
+    }
+
+    long adviceNs() {
+        return adviceNs;
+    }
+
+    int threadId() {
+        return threadId;
+    }
+
+    String threadName() {
+        return threadName;
+    }
+
+    long startTimeNs() {
+        return startTimeNs;
+    }
+}
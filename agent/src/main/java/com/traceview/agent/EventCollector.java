@@ -1,26 +1,127 @@
 package com.traceview.agent;
 
+import com.traceview.shared.TraceFormat;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * EventCollector - Collects and stores events for TraceView
+ *
+ * Every recording thread writes primitive events into its own lock-free
+ * {@link EventBuffer}; a background drainer thread empties the buffers into
+ * the {@link EventSink}. Recording never takes a shared lock and only
+ * allocates while a buffer grows towards its capacity; when a buffer is full
+ * the event is dropped and counted instead of blocking the application thread. By default the drained events are
+ * streamed to the output file by a {@link TraceWriter}. A {@link SamplingGovernor}
+ * on the drainer thread lowers the recorded volume when the agent runs over
+ * its budget.
+ *
+ * The drainer also measures what capture costs: the event rate, how full the
+ * fullest buffer is and how long the oldest waiting event has waited at each
+ * pass. These and the counters are published through {@link AgentMetrics}
+ * and written into the trace when it is finished.
  */
 public class EventCollector {
 
     private static final Logger logger = LoggerFactory.getLogger(EventCollector.class);
+
+    /** Default per-thread buffer capacity in events (must be a power of two); buffers start smaller */
+    public static final int DEFAULT_BUFFER_CAPACITY = 16384;
+
+    // Capacity the buffer behind recordFor may grow to: JFR hands over the events
+    // of all threads from the last second or so at once, on a single thread
+    static final int FORWARD_BUFFER_CAPACITY = 1 << 18;
+
+    // How long the drainer parks when a pass found nothing to drain
+    private static final long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // Interval over which the event rate is measured
+    private static final long RATE_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1);
+
+    // Used until a sink is attached so buffers still get emptied
+    private static final EventSink DISCARD = (timestampNs, threadId, eventType, arg0, arg1) -> { };
+
     private final String outputPath;
+    private final int bufferCapacity;
+    private final CopyOnWriteArrayList<EventBuffer> buffers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<EventBuffer> localBuffer = ThreadLocal.withInitial(this::registerBuffer);
+    private final ThreadLocal<EventBuffer> forwardBuffer = ThreadLocal.withInitial(this::registerForwardBuffer);
+    private final StringTable stringTable = new StringTable();
+    private final StackTable stackTable = new StackTable(stringTable);
+    // Names of threads that have no buffer of their own (events recorded via recordFor)
+    private final ConcurrentLinkedQueue<ThreadName> pendingThreads = new ConcurrentLinkedQueue<>();
+    private final AgentMetrics metrics = new AgentMetrics(this);
+
+    private SamplingGovernor governor = new SamplingGovernor(this, 0, 0, Collections.emptyMap());
+    private volatile EventSink sink;
+    // The default file writer, if it is in use
+    private TraceWriter writer;
+    private boolean compress = true;
+    private int stackDepth = StackTable.DEFAULT_MAX_DEPTH;
+    private int livePort = -1;
+    private volatile boolean running;
+    private volatile long startNanos;
+    // Read by producers such as the JFR stream as soon as the collector runs
+    private volatile long startEpochNs;
+    private Thread drainer;
+
+    // Counters folded in from buffers of threads that have terminated
+    private volatile long retiredRecorded;
+    private volatile long retiredDropped;
+    private volatile long retiredFullCount;
+    private volatile long retiredAdviceNs;
+
+    // Measured by the drainer, read by anyone
+    private volatile double eventsPerSecond;
+    private volatile double peakEventsPerSecond;
+    private volatile double bufferOccupancy;
+    private volatile double peakBufferOccupancy;
+    private volatile long writerLagNs;
+    private volatile long peakWriterLagNs;
+    private volatile long bytesWritten;
+    private volatile long stopNanos;
+
+    // Drainer-local start of the current rate interval
+    private long rateStartNanos;
+    private long rateStartRecorded;
 
     public EventCollector(String outputPath) {
+        this(outputPath, DEFAULT_BUFFER_CAPACITY);
+    }
+
+    public EventCollector(String outputPath, int bufferCapacity) {
         this.outputPath = outputPath;
+        this.bufferCapacity = bufferCapacity;
     }
 
     /**
      * Start collecting events
+     *
+     * @throws IOException if the output file cannot be created
      */
-    public void start() {
+    public void start() throws IOException {
         logger.info("EventCollector started with output: {}", outputPath);
-        // TODO: Initialize resources for collecting events
+        startEpochNs = TraceWriter.epochNanos();
+        startNanos = System.nanoTime();
+        if (sink == null && outputPath != null) {
+            writer = new TraceWriter(outputPath, stringTable, stackTable, startEpochNs, compress);
+            sink = writer;
+        }
+        if (livePort >= 0) {
+            sink = new LiveStreamSink(sink != null ? sink : DISCARD, livePort, startEpochNs);
+        }
+        running = true;
+
+        drainer = new Thread(this::drainLoop, "traceview-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
     }
 
     /**
@@ -28,16 +129,426 @@ public class EventCollector {
      */
     public void stop() {
         logger.info("EventCollector stopped, writing to: {}", outputPath);
-        // TODO: Finalize the trace and write to the file
+        running = false;
+
+        if (drainer != null) {
+            LockSupport.unpark(drainer);
+            try {
+                drainer.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Pick up anything recorded after the drainer's last pass, then let
+        // the sink patch the header and append the tables and metrics
+        drainAll();
+        stopNanos = System.nanoTime();
+        EventSink current = sink;
+        if (current != null) {
+            current.onAgentMetrics(metrics.snapshot());
+            current.close();
+        }
+
+        logger.info("EventCollector recorded {} events, dropped {} ({} buffer-full episodes)",
+            getRecordedEvents(), getDroppedEvents(), getBufferFullCount());
     }
 
     /**
      * Record a custom annotation in the trace
      *
-     * @param message Annotation message
+     * @param message Annotation message; null is recorded as "null"
      */
     public void recordAnnotation(String message) {
         logger.debug("Annotation recorded: {}", message);
-        // TODO: Append the annotation to the trace
+        record(TraceFormat.EventType.ANNOTATION, stringTable.intern(String.valueOf(message)), 0L);
+    }
+
+    /**
+     * Decide whether the current thread should record an operation of the given type
+     *
+     * Producers call this once per operation and then record all of its events
+     * (e.g. attempt and acquired), so sampled traces stay consistent.
+     */
+    public boolean shouldSample(TraceFormat.EventType type) {
+        int period = governor.periods()[type.getValue()];
+        return period <= 1 || localBuffer.get().nextSample(type.getValue(), period);
+    }
+
+    /**
+     * Record an event for the current thread, timestamped now
+     *
+     * @param type Event type
+     * @param arg0 First event argument (object id, string offset, duration...)
+     * @param arg1 Second event argument (timeout, string offset...)
+     * @return false if the event was dropped
+     */
+    public boolean record(TraceFormat.EventType type, long arg0, long arg1) {
+        if (!running) {
+            return false;
+        }
+        EventBuffer buffer = localBuffer.get();
+        return buffer.offer(System.nanoTime() - startNanos, buffer.threadId(), type.getValue(), arg0, arg1);
+    }
+
+    /**
+     * Record an event for the current thread at a time taken earlier
+     *
+     * @param nanoTime Raw {@link System#nanoTime()} value of the event
+     */
+    public boolean recordAt(long nanoTime, TraceFormat.EventType type, long arg0, long arg1) {
+        if (!running) {
+            return false;
+        }
+        EventBuffer buffer = localBuffer.get();
+        return buffer.offer(nanoTime - startNanos, buffer.threadId(), type.getValue(), arg0, arg1);
+    }
+
+    /**
+     * Count the time since the given {@link System#nanoTime()} value as spent
+     * recording by an instrumentation hook of the current thread
+     */
+    public void addAdviceTime(long sinceNanos) {
+        localBuffer.get().addAdviceNs(System.nanoTime() - sinceNanos);
+    }
+
+    /**
+     * Record a STACK_TRACE event with the calling thread's stack, unless stack capture is off
+     *
+     * Call it right after the event the stack belongs to.
+     *
+     * @param nanoTime Raw {@link System#nanoTime()} value of the event
+     */
+    public void recordStackAt(long nanoTime) {
+        if (stackDepth > 0 && running) {
+            int stackId = stackTable.capture(stackDepth);
+            if (stackId >= 0) {
+                recordAt(nanoTime, TraceFormat.EventType.STACK_TRACE, stackId, 0L);
+            }
+        }
+    }
+
+    /**
+     * Record an event on behalf of another thread at an explicit time
+     *
+     * The event goes into a buffer of the calling thread that may grow much
+     * larger than the one its own events go through, so this is meant for
+     * producers that translate events observed elsewhere in bursts.
+     *
+     * @param threadId Thread the event belongs to
+     * @param timestampNs Nanoseconds since trace start
+     */
+    public boolean recordFor(int threadId, long timestampNs, TraceFormat.EventType type, long arg0, long arg1) {
+        if (!running) {
+            return false;
+        }
+        return forwardBuffer.get().offer(timestampNs, threadId, type.getValue(), arg0, arg1);
+    }
+
+    /**
+     * Configure sampling budgets; must be called before {@link #start()}
+     *
+     * @param maxEventsPerSecond Recorded-event budget, 0 for unlimited
+     * @param maxOverhead Target fraction of total CPU spent recording, 0 for unlimited
+     * @param periods Baseline 1-in-N sampling period per event type
+     */
+    public void configureSampling(long maxEventsPerSecond, double maxOverhead,
+                                  Map<TraceFormat.EventType, Integer> periods) {
+        this.governor = new SamplingGovernor(this, maxEventsPerSecond, maxOverhead, periods);
+    }
+
+    /**
+     * Get the governor that controls the sampling rates
+     */
+    public SamplingGovernor getSamplingGovernor() {
+        return governor;
+    }
+
+    /**
+     * Report the name of a thread whose events are recorded via {@link #recordFor}
+     */
+    public void announceThread(int threadId, String name) {
+        pendingThreads.add(new ThreadName(threadId, name));
+    }
+
+    /**
+     * Set the sink that drained events are delivered to, replacing the
+     * default file writer; must be called before {@link #start()}
+     */
+    public void setSink(EventSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Whether the default file writer deflates event blocks; must be called before {@link #start()}
+     */
+    public void setCompression(boolean compress) {
+        this.compress = compress;
+    }
+
+    /**
+     * Also stream drained events to a viewer on this loopback port, 0 for any
+     * free port and -1 to disable; must be called before {@link #start()}
+     */
+    public void setLivePort(int livePort) {
+        this.livePort = livePort;
+    }
+
+    /**
+     * Number of frames captured per contention stack, 0 to disable stacks
+     */
+    public void setStackDepth(int stackDepth) {
+        this.stackDepth = stackDepth;
+    }
+
+    /**
+     * Wall-clock start of the trace in nanoseconds since the epoch
+     */
+    public long getStartEpochNs() {
+        return startEpochNs;
+    }
+
+    /**
+     * Current trace time in nanoseconds since the collector started
+     */
+    public long nowNs() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Get the string table shared by all events of this trace
+     */
+    public StringTable getStringTable() {
+        return stringTable;
+    }
+
+    /**
+     * Get the table of captured call stacks
+     */
+    public StackTable getStackTable() {
+        return stackTable;
+    }
+
+    /**
+     * Total number of events accepted into buffers
+     */
+    public long getRecordedEvents() {
+        long total = retiredRecorded;
+        for (EventBuffer buffer : buffers) {
+            total += buffer.recordedEvents();
+        }
+        return total;
+    }
+
+    /**
+     * Total number of events dropped because a buffer was full
+     */
+    public long getDroppedEvents() {
+        long total = retiredDropped;
+        for (EventBuffer buffer : buffers) {
+            total += buffer.droppedEvents();
+        }
+        return total;
+    }
+
+    /**
+     * Number of times any buffer ran full
+     */
+    public long getBufferFullCount() {
+        long total = retiredFullCount;
+        for (EventBuffer buffer : buffers) {
+            total += buffer.fullCount();
+        }
+        return total;
+    }
+
+    /**
+     * Number of live per-thread buffers
+     */
+    public int getBufferCount() {
+        return buffers.size();
+    }
+
+    /**
+     * Total time instrumentation hooks spent recording events and capturing stacks
+     */
+    public long getAdviceTimeNs() {
+        long total = retiredAdviceNs;
+        for (EventBuffer buffer : buffers) {
+            total += buffer.adviceNs();
+        }
+        return total;
+    }
+
+    /**
+     * Events recorded per second over the last full second
+     */
+    public double getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    public double getPeakEventsPerSecond() {
+        return peakEventsPerSecond;
+    }
+
+    /**
+     * Fill level, from 0 to 1, of the fullest buffer at the last drain pass
+     */
+    public double getBufferOccupancy() {
+        return bufferOccupancy;
+    }
+
+    public double getPeakBufferOccupancy() {
+        return peakBufferOccupancy;
+    }
+
+    /**
+     * How long the oldest event waiting at the last drain pass had waited;
+     * events recorded for other threads carry their own times, so JFR
+     * translation delays are included
+     */
+    public long getWriterLagNs() {
+        return writerLagNs;
+    }
+
+    public long getPeakWriterLagNs() {
+        return peakWriterLagNs;
+    }
+
+    /**
+     * Bytes of events the file writer has written, 0 with another sink
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Time from the start of collection to now, or to its end once stopped
+     */
+    public long getElapsedNs() {
+        long stopped = stopNanos;
+        return (stopped != 0 ? stopped : System.nanoTime()) - startNanos;
+    }
+
+    /**
+     * Whether events are being collected
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * The self-metrics of this collector
+     */
+    public AgentMetrics getMetrics() {
+        return metrics;
+    }
+
+    private EventBuffer registerBuffer() {
+        return registerBuffer(bufferCapacity);
+    }
+
+    private EventBuffer registerForwardBuffer() {
+        return registerBuffer(Math.max(bufferCapacity, FORWARD_BUFFER_CAPACITY));
+    }
+
+    private EventBuffer registerBuffer(int capacity) {
+        EventBuffer buffer = new EventBuffer(Thread.currentThread(), capacity, nowNs());
+        buffers.add(buffer);
+        return buffer;
+    }
+
+    private void drainLoop() {
+        governor.start();
+        rateStartNanos = System.nanoTime();
+        rateStartRecorded = getRecordedEvents();
+        while (running) {
+            governor.tick();
+            measureRate();
+            if (drainAll() == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NS);
+            }
+        }
+    }
+
+    /**
+     * Update the event rate once every RATE_INTERVAL_NS
+     */
+    private void measureRate() {
+        long now = System.nanoTime();
+        long elapsed = now - rateStartNanos;
+        if (elapsed < RATE_INTERVAL_NS) {
+            return;
+        }
+        long recorded = getRecordedEvents();
+        double rate = (recorded - rateStartRecorded) * 1e9 / elapsed;
+        eventsPerSecond = rate;
+        peakEventsPerSecond = Math.max(peakEventsPerSecond, rate);
+        rateStartNanos = now;
+        rateStartRecorded = recorded;
+    }
+
+    /**
+     * Drain every buffer once and retire buffers of terminated threads
+     *
+     * @return number of events drained
+     */
+    private synchronized int drainAll() {
+        EventSink current = sink;
+        EventSink target = current != null ? current : DISCARD;
+        int drained = 0;
+        ThreadName pending;
+        while (current != null && (pending = pendingThreads.poll()) != null) {
+            current.onThread(pending.threadId, pending.name);
+        }
+        long oldestNs = Long.MAX_VALUE;
+        double fullest = 0;
+        for (EventBuffer buffer : buffers) {
+            int queued = buffer.size();
+            if (queued > 0) {
+                fullest = Math.max(fullest, (double) queued / buffer.capacity());
+                oldestNs = Math.min(oldestNs, buffer.oldestTimestampNs());
+            }
+            // Check liveness first so nothing recorded before death is missed
+            boolean dead = !buffer.isOwnerAlive();
+            if (current != null && buffer.announce()) {
+                current.onThread(buffer.threadId(), buffer.threadName());
+            }
+            drained += buffer.drainTo(target);
+            if (dead && buffer.isEmpty()) {
+                retire(buffer);
+            }
+        }
+        if (drained > 0) {
+            target.onDrainComplete();
+        }
+
+        long lag = oldestNs == Long.MAX_VALUE ? 0 : Math.max(0, nowNs() - oldestNs);
+        bufferOccupancy = fullest;
+        peakBufferOccupancy = Math.max(peakBufferOccupancy, fullest);
+        writerLagNs = lag;
+        peakWriterLagNs = Math.max(peakWriterLagNs, lag);
+        if (writer != null) {
+            bytesWritten = writer.getBytesWritten();
+        }
+        return drained;
+    }
+
+    private void retire(EventBuffer buffer) {
+        buffers.remove(buffer);
+        retiredRecorded += buffer.recordedEvents();
+        retiredDropped += buffer.droppedEvents();
+        retiredFullCount += buffer.fullCount();
+        retiredAdviceNs += buffer.adviceNs();
+    }
+
+    private static final class ThreadName {
+        final int threadId;
+        final String name;
+
+        ThreadName(int threadId, String name) {
+            this.threadId = threadId;
+            this.name = name;
+        }
     }
 }
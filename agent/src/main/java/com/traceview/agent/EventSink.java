@@ -0,0 +1,51 @@
+package com.traceview.agent;
+
+import java.util.Map;
+
+/**
+ * EventSink - Receives events drained from the per-thread buffers
+ *
+ * All methods are called from the collector's drainer thread only, so
+ * implementations do not need to be thread-safe.
+ */
+public interface EventSink {
+
+    /**
+     * Consume one event
+     *
+     * @param timestampNs Nanoseconds since trace start
+     * @param threadId Thread the event belongs to
+     * @param eventType Raw {@link com.traceview.shared.TraceFormat.EventType} value
+     * @param arg0 First event argument (object id, string id, duration...)
+     * @param arg1 Second event argument (timeout, string id...)
+     */
+    void onEvent(long timestampNs, int threadId, byte eventType, long arg0, long arg1);
+
+    /**
+     * Called before the first event of a thread is delivered
+     *
+     * @param threadId Thread ID used in events
+     * @param name Thread name when the thread was first seen
+     */
+    default void onThread(int threadId, String name) {
+    }
+
+    /**
+     * Called once per drain pass after all pending events were delivered
+     */
+    default void onDrainComplete() {
+    }
+
+    /**
+     * Called once after the final drain, before {@link #close()}, with the
+     * agent's self-metrics by name
+     */
+    default void onAgentMetrics(Map<String, Long> metrics) {
+    }
+
+    /**
+     * Called once after the final drain, before the collector stops
+     */
+    default void close() {
+    }
+}
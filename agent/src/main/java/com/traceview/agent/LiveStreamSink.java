@@ -0,0 +1,293 @@
+package com.traceview.agent;
+
+import com.traceview.shared.TraceFormat;
+import com.traceview.shared.VarInt;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LiveStreamSink - Publishes drained events to a viewer over a loopback socket
+ *
+ * Wraps the sink that writes the trace file and forwards every call to it.
+ * While a viewer is connected, events are also encoded as in a trace block
+ * into frames that are sent as soon as they are full and at the end of every
+ * drain pass. The drainer never waits for the viewer: frames are queued in a
+ * bounded buffer and written without blocking, and a frame that does not fit
+ * is dropped and reported to the viewer as a count. A thread name that does
+ * not fit is kept and queued again after the next write. One viewer is
+ * served at a time; a new connection replaces the previous one and first
+ * receives the names of all threads.
+ */
+public class LiveStreamSink implements EventSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(LiveStreamSink.class);
+
+    // Events payload sent once this large, and at the end of every drain pass
+    private static final int FRAME_SIZE = 64 * 1024;
+    // Bytes queued for a slow viewer before frames are dropped
+    private static final int MAX_PENDING_BYTES = 8 * 1024 * 1024;
+    // Frame header and event count in front of the encoded events
+    private static final int EVENTS_PREFIX = TraceFormat.LIVE_FRAME_HEADER_SIZE + 4;
+    // How long closing waits for the viewer to take the queued frames
+    private static final long CLOSE_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(1);
+
+    private final EventSink delegate;
+    private final long startEpochNs;
+    private final ServerSocketChannel server;
+    private final IntObjectHashMap<String> threadNames = new IntObjectHashMap<>();
+    private final ByteBuffer frame = ByteBuffer.allocateDirect(EVENTS_PREFIX + FRAME_SIZE + TraceFormat.MAX_ENCODED_EVENT_SIZE)
+        .order(TraceFormat.BYTE_ORDER);
+    private final ByteBuffer pending = ByteBuffer.allocateDirect(MAX_PENDING_BYTES).order(TraceFormat.BYTE_ORDER);
+    // Threads whose names did not fit into the send queue yet
+    private final IntArrayList unsentThreads = new IntArrayList();
+
+    private SocketChannel viewer;
+    private int frameEvents;
+    private long lastTimestampNs;
+    private int lastThreadId = -1;
+    private long droppedEvents;
+
+    /**
+     * @param delegate Sink every call is forwarded to
+     * @param port Loopback port to listen on, 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public LiveStreamSink(EventSink delegate, int port, long startEpochNs) throws IOException {
+        this.delegate = delegate;
+        this.startEpochNs = startEpochNs;
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.configureBlocking(false);
+        resetFrame();
+        logger.info("Live stream listening on {}", server.getLocalAddress());
+    }
+
+    /**
+     * Port the live stream listens on
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    @Override
+    public void onEvent(long timestampNs, int threadId, byte eventType, long arg0, long arg1) {
+        delegate.onEvent(timestampNs, threadId, eventType, arg0, arg1);
+        if (viewer == null) {
+            return;
+        }
+        if (frame.position() >= EVENTS_PREFIX + FRAME_SIZE) {
+            finishFrame();
+        }
+
+        TraceFormat.EventType type = TraceFormat.EventType.fromValue(eventType);
+        boolean sameThread = threadId == lastThreadId;
+        frame.put((byte) (sameThread ? eventType | TraceFormat.TAG_SAME_THREAD : eventType));
+        VarInt.putVarLong(frame, VarInt.zigzag(timestampNs - lastTimestampNs));
+        if (!sameThread) {
+            VarInt.putVarLong(frame, Integer.toUnsignedLong(threadId));
+        }
+        int argCount = type.getArgCount();
+        if (argCount > 0) {
+            VarInt.putVarLong(frame, arg0);
+            if (argCount > 1) {
+                VarInt.putVarLong(frame, arg1);
+            }
+        }
+        lastTimestampNs = timestampNs;
+        lastThreadId = threadId;
+        frameEvents++;
+    }
+
+    @Override
+    public void onThread(int threadId, String name) {
+        delegate.onThread(threadId, name);
+        threadNames.put(threadId, name);
+        if (viewer != null) {
+            queueThread(threadId, name);
+        }
+    }
+
+    @Override
+    public void onDrainComplete() {
+        delegate.onDrainComplete();
+        acceptViewer();
+        if (viewer != null) {
+            finishFrame();
+            flush();
+        }
+    }
+
+    @Override
+    public void onAgentMetrics(Map<String, Long> metrics) {
+        delegate.onAgentMetrics(metrics);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+        if (viewer != null) {
+            finishFrame();
+            queueDropped();
+            long deadline = System.nanoTime() + CLOSE_TIMEOUT_NS;
+            flush();
+            while (viewer != null && pending.position() > 0 && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                flush();
+            }
+            closeViewer();
+        }
+        try {
+            server.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close live stream", e);
+        }
+    }
+
+    private void acceptViewer() {
+        SocketChannel channel;
+        try {
+            channel = server.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException e) {
+            logger.warn("Failed to accept live viewer", e);
+            return;
+        }
+
+        closeViewer();
+        logger.info("Live viewer connected from {}", channel.socket().getRemoteSocketAddress());
+        viewer = channel;
+        pending.clear();
+        unsentThreads.clear();
+        droppedEvents = 0;
+        resetFrame();
+        pending.putInt(TraceFormat.TRACE_MAGIC);
+        pending.putInt(TraceFormat.TRACE_FORMAT_VERSION);
+        pending.putLong(startEpochNs);
+        threadNames.forEachKeyValue(this::queueThread);
+    }
+
+    private void queueThread(int threadId, String name) {
+        if (!tryQueueThread(threadId, name)) {
+            unsentThreads.add(threadId);
+        }
+    }
+
+    private boolean tryQueueThread(int threadId, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (pending.remaining() < TraceFormat.LIVE_FRAME_HEADER_SIZE + 4 + bytes.length) {
+            return false;
+        }
+        pending.putInt(TraceFormat.LIVE_FRAME_THREAD);
+        pending.putInt(4 + bytes.length);
+        pending.putInt(threadId);
+        pending.put(bytes);
+        return true;
+    }
+
+    /**
+     * Queue the thread names that did not fit before, as far as there is room now
+     */
+    private void queueUnsentThreads() {
+        while (!unsentThreads.isEmpty()) {
+            int last = unsentThreads.size() - 1;
+            int threadId = unsentThreads.get(last);
+            if (!tryQueueThread(threadId, threadNames.get(threadId))) {
+                return;
+            }
+            unsentThreads.removeAtIndex(last);
+        }
+    }
+
+    /**
+     * Move the events encoded so far to the send queue, or drop them if it is
+     * full, and start writing them to the viewer
+     */
+    private void finishFrame() {
+        if (frameEvents == 0) {
+            return;
+        }
+        int length = frame.position();
+        queueDropped();
+        if (droppedEvents == 0 && pending.remaining() >= length) {
+            frame.putInt(0, TraceFormat.LIVE_FRAME_EVENTS);
+            frame.putInt(4, length - TraceFormat.LIVE_FRAME_HEADER_SIZE);
+            frame.putInt(8, frameEvents);
+            frame.flip();
+            pending.put(frame);
+        } else {
+            droppedEvents += frameEvents;
+        }
+        resetFrame();
+        flush();
+    }
+
+    /**
+     * Report the events dropped since the last report, once there is room for it
+     */
+    private void queueDropped() {
+        if (droppedEvents > 0 && pending.remaining() >= TraceFormat.LIVE_FRAME_HEADER_SIZE + 8) {
+            pending.putInt(TraceFormat.LIVE_FRAME_DROPPED);
+            pending.putInt(8);
+            pending.putLong(droppedEvents);
+            droppedEvents = 0;
+        }
+    }
+
+    private void resetFrame() {
+        frame.clear();
+        frame.position(EVENTS_PREFIX);
+        frameEvents = 0;
+        lastTimestampNs = 0;
+        lastThreadId = -1;
+    }
+
+    private void flush() {
+        if (viewer == null) {
+            return;
+        }
+        pending.flip();
+        try {
+            viewer.write(pending);
+            pending.compact();
+        } catch (IOException e) {
+            logger.info("Live viewer disconnected: {}", e.getMessage());
+            closeViewer();
+            return;
+        }
+        if (!unsentThreads.isEmpty()) {
+            queueUnsentThreads();
+        }
+    }
+
+    private void closeViewer() {
+        if (viewer == null) {
+            return;
+        }
+        try {
+            viewer.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close live viewer", e);
+        }
+        viewer = null;
+        pending.clear();
+        unsentThreads.clear();
+    }
+}
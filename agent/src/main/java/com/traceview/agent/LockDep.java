@@ -0,0 +1,522 @@
+package com.traceview.agent;
+
+import com.traceview.shared.TraceFormat.EventType;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.IntIntHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+import org.eclipse.collections.impl.set.mutable.primitive.IntHashSet;
+import org.eclipse.collections.impl.set.mutable.primitive.LongHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LockDep - Runtime lock-order and deadlock checking
+ *
+ * Every thread keeps the stack of locks it holds. Acquiring a lock while
+ * holding others adds held-before-acquired edges to a global lock-order
+ * graph; an edge that closes a cycle in the graph means two code paths take
+ * the same locks in opposite orders and can deadlock, even if they have not
+ * yet. The check runs on the acquiring thread, but only for edges it has not
+ * seen before: each thread caches the edges it added, and the graph is split
+ * into stripes locked independently, so steady-state locking touches no
+ * shared state.
+ *
+ * Threads also publish the lock they are about to block on. A scanner thread
+ * periodically follows waiting thread to lock holder to the lock that holder
+ * waits for; a cycle present in two consecutive scans is a deadlock.
+ *
+ * Both are logged at once and recorded as LOCK_ORDER_INVERSION and DEADLOCK
+ * events. Locks are identified by identity hash code, as in the trace. Those
+ * 31-bit codes can collide, so every graph node keeps a weak reference to
+ * its lock, and a cycle is only reported if each lock on it is still alive
+ * and no other lock was seen with its code; a wait-for cycle is confirmed
+ * against the lock objects the threads hold. Read locks are shared and not
+ * tracked.
+ */
+public final class LockDep {
+
+    private static final Logger logger = LoggerFactory.getLogger(LockDep.class);
+
+    private static final long SCAN_INTERVAL_MS = 200;
+    // Graph stripes, a power of two
+    private static final int STRIPES = 64;
+    // Edges remembered per thread before its cache starts over
+    private static final int MAX_CACHED_EDGES = 4096;
+    // Locks visited when searching the graph for a path
+    private static final int MAX_SEARCH = 10_000;
+    // The graph stops growing, and checking new orders, past this many edges
+    private static final int MAX_EDGES = 1_000_000;
+    // Locks a thread can hold at once before further ones are not tracked
+    private static final int MAX_HELD = 64;
+    private static final long NOT_WAITING = Long.MIN_VALUE;
+
+    private final EventCollector collector;
+    private final ThreadLocal<HeldLocks> heldLocks = ThreadLocal.withInitial(this::register);
+    private final CopyOnWriteArrayList<HeldLocks> threads = new CopyOnWriteArrayList<>();
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicInteger edgeCount = new AtomicInteger();
+    private final AtomicLong inversions = new AtomicLong();
+    private final AtomicLong deadlocks = new AtomicLong();
+    private volatile boolean running;
+    private Thread scanner;
+
+    // Cycles found by the previous scan, and cycles already reported; scanner thread only
+    private Set<String> lastCycles = new HashSet<>();
+    private final Set<String> reportedCycles = new HashSet<>();
+
+    /**
+     * Locks held by one thread, innermost last, and the lock it is blocking on
+     */
+    private static final class HeldLocks {
+        final Thread thread;
+        final int threadId;
+        // Edges this thread already added to the graph, held lock in the high half
+        final LongHashSet seenEdges = new LongHashSet();
+        int[] locks = new int[8];
+        Object[] lockObjects = new Object[8];
+        // Locks acquired past MAX_HELD, innermost last; not checked, only matched on release
+        final IntArrayList untracked = new IntArrayList();
+        // Written last by the owner so the scanner sees the locks below it
+        volatile int depth;
+        volatile Object waitingForLock;
+        volatile long waitingFor = NOT_WAITING;
+
+        HeldLocks(Thread thread) {
+            this.thread = thread;
+            this.threadId = (int) thread.getId();
+        }
+    }
+
+    private static final class Stripe {
+        final IntObjectHashMap<Node> nodes = new IntObjectHashMap<>();
+    }
+
+    /**
+     * A lock in the order graph and the locks acquired while holding it; guarded by its stripe
+     */
+    private static final class Node {
+        final WeakReference<Object> lock;
+        final IntHashSet successors = new IntHashSet();
+        // Another lock was seen with the same identity hash code
+        boolean ambiguous;
+
+        Node(Object lock) {
+            this.lock = new WeakReference<>(lock);
+        }
+
+        void seen(Object other) {
+            if (lock.get() != other) {
+                ambiguous = true;
+            }
+        }
+    }
+
+    public LockDep(EventCollector collector) {
+        this.collector = collector;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Start the deadlock scanner
+     */
+    public void start() {
+        running = true;
+        scanner = new Thread(this::scanLoop, "traceview-lockdep");
+        scanner.setDaemon(true);
+        scanner.start();
+        logger.info("Lock order checking enabled");
+    }
+
+    public void stop() {
+        running = false;
+        if (scanner != null) {
+            scanner.interrupt();
+        }
+        logger.info("Lock order checking found {} inversions and {} deadlocks", inversions.get(), deadlocks.get());
+    }
+
+    /**
+     * Number of lock-order inversions found so far
+     */
+    public long getInversionCount() {
+        return inversions.get();
+    }
+
+    /**
+     * Number of deadlocks found so far
+     */
+    public long getDeadlockCount() {
+        return deadlocks.get();
+    }
+
+    // ---- Hooks, called on the locking thread ----
+
+    /**
+     * The current thread may block acquiring the lock; its order is checked now,
+     * so an inversion is reported even if this acquisition deadlocks
+     */
+    void beforeAcquire(Object lock) {
+        int lockId = System.identityHashCode(lock);
+        HeldLocks held = heldLocks.get();
+        held.waitingForLock = lock;
+        held.waitingFor = lockId;
+        checkOrder(held, lockId, lock);
+    }
+
+    /**
+     * The current thread now holds the lock
+     *
+     * @param ordered false for acquisitions that cannot block, such as a timed tryLock,
+     *                which add no order of their own
+     */
+    void acquired(Object lock, boolean ordered) {
+        int lockId = System.identityHashCode(lock);
+        HeldLocks held = heldLocks.get();
+        if (ordered && held.waitingFor != lockId) {
+            checkOrder(held, lockId, lock);
+        }
+        held.waitingFor = NOT_WAITING;
+        held.waitingForLock = null;
+        int depth = held.depth;
+        int[] locks = held.locks;
+        if (depth == locks.length) {
+            if (depth == MAX_HELD) {
+                held.untracked.add(lockId);
+                return;
+            }
+            held.locks = locks = Arrays.copyOf(locks, depth * 2);
+            held.lockObjects = Arrays.copyOf(held.lockObjects, depth * 2);
+        }
+        locks[depth] = lockId;
+        held.lockObjects[depth] = lock;
+        held.depth = depth + 1;
+    }
+
+    /**
+     * The current thread gave up waiting for a lock, e.g. when interrupted
+     */
+    void abandoned() {
+        HeldLocks held = heldLocks.get();
+        held.waitingFor = NOT_WAITING;
+        held.waitingForLock = null;
+    }
+
+    /**
+     * The current thread is releasing the lock
+     */
+    void released(Object lock) {
+        int lockId = System.identityHashCode(lock);
+        HeldLocks held = heldLocks.get();
+        // Locks past MAX_HELD were acquired last, so a release matches them first
+        IntArrayList untracked = held.untracked;
+        for (int i = untracked.size() - 1; i >= 0; i--) {
+            if (untracked.get(i) == lockId) {
+                untracked.removeAtIndex(i);
+                return;
+            }
+        }
+        int depth = held.depth;
+        int[] locks = held.locks;
+        Object[] lockObjects = held.lockObjects;
+        // Usually the innermost lock; explicit locks may be released in any order
+        for (int i = depth - 1; i >= 0; i--) {
+            if (lockObjects[i] == lock) {
+                System.arraycopy(locks, i + 1, locks, i, depth - i - 1);
+                System.arraycopy(lockObjects, i + 1, lockObjects, i, depth - i - 1);
+                lockObjects[depth - 1] = null;
+                held.depth = depth - 1;
+                return;
+            }
+        }
+    }
+
+    private HeldLocks register() {
+        HeldLocks held = new HeldLocks(Thread.currentThread());
+        threads.add(held);
+        return held;
+    }
+
+    // ---- Lock-order graph ----
+
+    /**
+     * Add an edge from every lock the thread holds to the one it acquires, unless it re-enters a held lock
+     */
+    private void checkOrder(HeldLocks held, int acquiredLock, Object acquired) {
+        int depth = held.depth;
+        Object[] lockObjects = held.lockObjects;
+        for (int i = 0; i < depth; i++) {
+            if (lockObjects[i] == acquired) {
+                return;
+            }
+        }
+        int[] locks = held.locks;
+        for (int i = 0; i < depth; i++) {
+            checkEdge(held, locks[i], lockObjects[i], acquiredLock, acquired);
+        }
+    }
+
+    private void checkEdge(HeldLocks held, int heldLock, Object heldObject, int acquiredLock, Object acquired) {
+        long edge = ((long) heldLock << 32) | (acquiredLock & 0xFFFFFFFFL);
+        if (held.seenEdges.contains(edge)) {
+            return;
+        }
+        if (held.seenEdges.size() >= MAX_CACHED_EDGES) {
+            held.seenEdges.clear();
+        }
+        held.seenEdges.add(edge);
+        if (!addEdge(heldLock, heldObject, acquiredLock, acquired)) {
+            return;
+        }
+        // The new edge closes a cycle if the acquired lock already leads back to the held one
+        IntArrayList path = findPath(acquiredLock, heldLock);
+        if (path != null && isConfirmed(path)) {
+            reportInversion(held, heldLock, acquiredLock, path);
+        }
+    }
+
+    /**
+     * @return true if the edge was not in the graph before
+     */
+    private boolean addEdge(int from, Object fromLock, int to, Object toLock) {
+        if (edgeCount.get() >= MAX_EDGES) {
+            return false;
+        }
+        boolean added;
+        Stripe stripe = stripes[from & (STRIPES - 1)];
+        synchronized (stripe) {
+            added = node(stripe, from, fromLock).successors.add(to);
+        }
+        if (!added) {
+            return false;
+        }
+        // Only one stripe is locked at a time, so stripes cannot deadlock with each other
+        stripe = stripes[to & (STRIPES - 1)];
+        synchronized (stripe) {
+            node(stripe, to, toLock);
+        }
+        if (edgeCount.incrementAndGet() == MAX_EDGES) {
+            logger.warn("Lock order graph reached {} edges; new lock orders are no longer checked", MAX_EDGES);
+        }
+        return true;
+    }
+
+    /**
+     * The node of a lock, created for it or marked ambiguous if another lock had the same id
+     */
+    private static Node node(Stripe stripe, int lockId, Object lock) {
+        Node node = stripe.nodes.get(lockId);
+        if (node == null) {
+            node = new Node(lock);
+            stripe.nodes.put(lockId, node);
+        } else {
+            node.seen(lock);
+        }
+        return node;
+    }
+
+    private int[] successors(int lock) {
+        Stripe stripe = stripes[lock & (STRIPES - 1)];
+        synchronized (stripe) {
+            Node node = stripe.nodes.get(lock);
+            return node == null ? new int[0] : node.successors.toArray();
+        }
+    }
+
+    /**
+     * Whether every lock of a path is a single, live object, so that the path is
+     * not made up of edges of different locks that share an identity hash code
+     */
+    private boolean isConfirmed(IntArrayList path) {
+        for (int i = 0; i < path.size(); i++) {
+            int lock = path.get(i);
+            Stripe stripe = stripes[lock & (STRIPES - 1)];
+            synchronized (stripe) {
+                Node node = stripe.nodes.get(lock);
+                if (node == null || node.ambiguous || node.lock.get() == null) {
+                    logger.debug("Lock order cycle through {} not reported, its id is ambiguous", formatLock(lock));
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Breadth-first search for a path between two locks
+     *
+     * @return the locks of the path from first to last, or null if there is none
+     */
+    private IntArrayList findPath(int from, int to) {
+        IntIntHashMap parents = new IntIntHashMap();
+        IntArrayList queue = IntArrayList.newListWith(from);
+        parents.put(from, from);
+        for (int head = 0; head < queue.size() && queue.size() < MAX_SEARCH; head++) {
+            int lock = queue.get(head);
+            for (int next : successors(lock)) {
+                if (parents.containsKey(next)) {
+                    continue;
+                }
+                parents.put(next, lock);
+                if (next == to) {
+                    IntArrayList path = IntArrayList.newListWith(to);
+                    for (int step = to; step != from; ) {
+                        step = parents.get(step);
+                        path.add(step);
+                    }
+                    return path.reverseThis();
+                }
+                queue.add(next);
+            }
+        }
+        return null;
+    }
+
+    private void reportInversion(HeldLocks held, int heldLock, int acquiredLock, IntArrayList path) {
+        inversions.incrementAndGet();
+        StringBuilder order = new StringBuilder();
+        path.forEach(lock -> order.append(order.length() == 0 ? "" : " -> ").append(formatLock(lock)));
+        logger.warn("Lock order inversion: thread '{}' acquires {} while holding {}, but {} was taken before",
+            held.thread.getName(), formatLock(acquiredLock), formatLock(heldLock), order);
+
+        long now = System.nanoTime();
+        if (collector.recordAt(now, EventType.LOCK_ORDER_INVERSION, heldLock, acquiredLock)) {
+            collector.recordStackAt(now);
+        }
+    }
+
+    // ---- Wait-for cycles ----
+
+    private void scanLoop() {
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(SCAN_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                scan();
+            } catch (RuntimeException e) {
+                logger.warn("Deadlock scan failed", e);
+            }
+        }
+    }
+
+    /**
+     * Look for wait-for cycles once; only one thread may scan, the scanner when started
+     */
+    void scan() {
+        IntObjectHashMap<HeldLocks> holders = new IntObjectHashMap<>();
+        List<HeldLocks> waiting = new ArrayList<>();
+        for (HeldLocks held : threads) {
+            if (!held.thread.isAlive()) {
+                threads.remove(held);
+                continue;
+            }
+            int depth = held.depth;
+            int[] locks = held.locks;
+            for (int i = 0; i < Math.min(depth, locks.length); i++) {
+                holders.put(locks[i], held);
+            }
+            if (held.waitingFor != NOT_WAITING) {
+                waiting.add(held);
+            }
+        }
+
+        Set<String> cycles = new HashSet<>();
+        for (HeldLocks start : waiting) {
+            // Follow waiter -> holder of the lock it waits for, until the chain ends or loops
+            List<HeldLocks> chain = new ArrayList<>();
+            List<Integer> waitedLocks = new ArrayList<>();
+            HeldLocks current = start;
+            while (current != null && !chain.contains(current)) {
+                Object waitedFor = current.waitingForLock;
+                long lock = current.waitingFor;
+                if (lock == NOT_WAITING || waitedFor == null) {
+                    current = null;
+                    break;
+                }
+                chain.add(current);
+                waitedLocks.add((int) lock);
+                current = holders.get((int) lock);
+                if (current != null && !holds(current, waitedFor)) {
+                    // Another lock with the same id
+                    current = null;
+                }
+            }
+            if (current == null || current != start) {
+                // No cycle, or one this thread only leads into; its members report it
+                continue;
+            }
+            String key = cycleKey(chain, waitedLocks);
+            cycles.add(key);
+            if (lastCycles.contains(key) && reportedCycles.add(key)) {
+                reportDeadlock(chain, waitedLocks);
+            }
+        }
+        lastCycles = cycles;
+    }
+
+    /**
+     * Whether a thread holds the lock object, as far as the scanner can see
+     */
+    private static boolean holds(HeldLocks held, Object lock) {
+        Object[] lockObjects = held.lockObjects;
+        int depth = Math.min(held.depth, lockObjects.length);
+        for (int i = 0; i < depth; i++) {
+            if (lockObjects[i] == lock) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Same key for a cycle whichever of its threads it was found from
+     */
+    private static String cycleKey(List<HeldLocks> chain, List<Integer> waitedLocks) {
+        int first = 0;
+        for (int i = 1; i < chain.size(); i++) {
+            if (chain.get(i).threadId < chain.get(first).threadId) {
+                first = i;
+            }
+        }
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < chain.size(); i++) {
+            int index = (first + i) % chain.size();
+            key.append(chain.get(index).threadId).append(':').append(waitedLocks.get(index)).append(' ');
+        }
+        return key.toString();
+    }
+
+    private void reportDeadlock(List<HeldLocks> chain, List<Integer> waitedLocks) {
+        deadlocks.incrementAndGet();
+        StringBuilder cycle = new StringBuilder();
+        long now = collector.nowNs();
+        for (int i = 0; i < chain.size(); i++) {
+            HeldLocks waiter = chain.get(i);
+            HeldLocks holder = chain.get((i + 1) % chain.size());
+            int lock = waitedLocks.get(i);
+            cycle.append(String.format("%n  '%s' waits for %s held by '%s'",
+                waiter.thread.getName(), formatLock(lock), holder.thread.getName()));
+            collector.recordFor(waiter.threadId, now, EventType.DEADLOCK, lock, holder.threadId);
+        }
+        logger.error("Deadlock between {} threads:{}", chain.size(), cycle);
+    }
+
+    private static String formatLock(int lockId) {
+        return String.format("lock 0x%x", lockId);
+    }
+}
@@ -0,0 +1,470 @@
+package com.traceview.agent;
+
+import com.traceview.shared.TraceFormat.EventType;
+import java.lang.instrument.Instrumentation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * LockHooks - Static entry points called from instrumented application code
+ *
+ * {@link ConcurrencyInstrumentation} rewrites monitor instructions and lock
+ * call sites to call these methods. Each hook is a few bytecodes on the
+ * uncontended path so the JIT can inline it into the caller. The start time
+ * of an acquisition or wait stays in a local until it completes, and the
+ * pair of events is only recorded if the wait reached the minimum duration.
+ * The call stack of an explicit lock acquisition is only walked once the
+ * acquisition is known to have waited that long and is sampled, so
+ * uncontended and briefly contended acquisitions never pay for it; the walk
+ * then happens with the lock held. Monitor entries and waits are recorded
+ * without a stack. The time a hook spends recording is added to the agent's
+ * self-metrics.
+ *
+ * The release that ends a hold whose acquisition was recorded is recorded
+ * too, as MUTEX_UNLOCK or MONITOR_EXIT, so that hold times can be measured.
+ * Each thread keeps those holds with their re-entry depth, and a count of
+ * open holds over all threads lets every other acquisition and release skip
+ * the lookup while there are none. Re-entries by code that is not
+ * instrumented are not seen, and holds of a thread that dies holding them
+ * keep the count up. Explicit locks also record a release that hands the
+ * lock to a queued thread.
+ *
+ * With lock order checking on, every acquisition and release of an
+ * exclusive lock is also reported to {@link LockDep}, and MONITORENTER is
+ * preceded by {@link #beforeMonitorEnter}.
+ */
+public final class LockHooks {
+
+    /** Default minimum wait; shorter waits are treated as uncontended and not recorded */
+    public static final long DEFAULT_MIN_WAIT_NS = 1_000;
+
+    private static volatile EventCollector collector;
+    // Set once before any class is instrumented
+    private static long minWaitNs = DEFAULT_MIN_WAIT_NS;
+    private static LockDep lockDep;
+    // WriteLock -> its AbstractQueuedSynchronizer, or null if the JDK's internals could not be opened
+    private static MethodHandle writeLockSync;
+    // Recorded holds not yet released, over all threads
+    private static final AtomicInteger openHolds = new AtomicInteger();
+    private static final ThreadLocal<RecordedHolds> recordedHolds = ThreadLocal.withInitial(RecordedHolds::new);
+
+    private LockHooks() {
+    }
+
+    /**
+     * Route hook events to the given collector (null disables recording)
+     *
+     * @param minWait Minimum wait in nanoseconds for an acquisition or wait to be recorded
+     * @param lockOrder Lock order checker, or null to leave it off
+     */
+    static void install(EventCollector eventCollector, long minWait, LockDep lockOrder) {
+        minWaitNs = minWait;
+        lockDep = lockOrder;
+        collector = eventCollector;
+    }
+
+    /**
+     * Open the write lock's synchronizer to the hooks, since WriteLock does not
+     * tell whether threads are queued; without it write lock releases are not
+     * recorded as handoffs
+     *
+     * @return false if the internals could not be opened
+     */
+    static boolean openWriteLocks(Instrumentation instrumentation) {
+        try {
+            instrumentation.redefineModule(Lock.class.getModule(), Collections.emptySet(), Collections.emptyMap(),
+                Collections.singletonMap(Lock.class.getPackageName(), Collections.singleton(LockHooks.class.getModule())),
+                Collections.emptySet(), Collections.emptyMap());
+            Field sync = ReentrantReadWriteLock.WriteLock.class.getDeclaredField("sync");
+            sync.setAccessible(true);
+            writeLockSync = MethodHandles.lookup().unreflectGetter(sync).asType(
+                MethodType.methodType(AbstractQueuedSynchronizer.class, ReentrantReadWriteLock.WriteLock.class));
+            return true;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether monitor instructions must report to the lock order checker
+     */
+    static boolean tracksLockOrder() {
+        return lockDep != null;
+    }
+
+    // ---- synchronized blocks and methods ----
+
+    /**
+     * Called right before MONITORENTER when lock order checking is on
+     */
+    public static void beforeMonitorEnter(Object monitor) {
+        LockDep d = lockDep;
+        if (d != null) {
+            d.beforeAcquire(monitor);
+        }
+    }
+
+    /**
+     * Called right after MONITORENTER with the System.nanoTime() taken before it
+     */
+    public static void afterMonitorEnter(Object monitor, long startNanos) {
+        long now = System.nanoTime();
+        LockDep d = lockDep;
+        if (d != null) {
+            d.acquired(monitor, true);
+        }
+        acquired(monitor, startNanos, now, false);
+    }
+
+    /**
+     * Called right before MONITOREXIT
+     */
+    public static void beforeMonitorExit(Object monitor) {
+        LockDep d = lockDep;
+        if (d != null) {
+            d.released(monitor);
+        }
+        if (openHolds.get() != 0 && endsRecordedHold(monitor)) {
+            recordRelease(EventType.MONITOR_EXIT, monitor);
+        }
+    }
+
+    // ---- java.util.concurrent.locks ----
+
+    public static void lock(Lock lock) {
+        LockDep d = tracked(lock);
+        if (tryBarge(lock)) {
+            if (d != null) {
+                d.acquired(lock, true);
+            }
+            reentered(lock);
+            return;
+        }
+        if (d != null) {
+            d.beforeAcquire(lock);
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        long now = System.nanoTime();
+        if (d != null) {
+            d.acquired(lock, true);
+        }
+        acquired(lock, start, now, true);
+    }
+
+    public static void lockInterruptibly(Lock lock) throws InterruptedException {
+        // lockInterruptibly() throws for an interrupted thread even if the lock is free, tryLock() would not
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        LockDep d = tracked(lock);
+        if (tryBarge(lock)) {
+            if (d != null) {
+                d.acquired(lock, true);
+            }
+            reentered(lock);
+            return;
+        }
+        if (d != null) {
+            d.beforeAcquire(lock);
+        }
+        long start = System.nanoTime();
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            if (d != null) {
+                d.abandoned();
+            }
+            throw e;
+        }
+        long now = System.nanoTime();
+        if (d != null) {
+            d.acquired(lock, true);
+        }
+        acquired(lock, start, now, true);
+    }
+
+    public static boolean tryLock(Lock lock, long time, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        boolean acquired = lock.tryLock(time, unit);
+        long now = System.nanoTime();
+        if (acquired) {
+            LockDep d = tracked(lock);
+            if (d != null) {
+                // A timed attempt cannot deadlock, but later acquisitions are ordered after it
+                d.acquired(lock, false);
+            }
+            acquired(lock, start, now, true);
+        }
+        return acquired;
+    }
+
+    public static boolean tryLock(Lock lock) {
+        boolean acquired = lock.tryLock();
+        if (acquired) {
+            LockDep d = tracked(lock);
+            if (d != null) {
+                d.acquired(lock, false);
+            }
+            reentered(lock);
+        }
+        return acquired;
+    }
+
+    public static void unlock(Lock lock) {
+        LockDep d = tracked(lock);
+        if (d != null) {
+            d.released(lock);
+        }
+        // Only a final release with waiters queued hands the lock to another thread
+        boolean handoff = false;
+        if (lock instanceof ReentrantLock) {
+            ReentrantLock reentrantLock = (ReentrantLock) lock;
+            handoff = reentrantLock.getHoldCount() == 1 && reentrantLock.hasQueuedThreads();
+        } else if (lock instanceof ReentrantReadWriteLock.WriteLock) {
+            handoff = isWriteHandoff((ReentrantReadWriteLock.WriteLock) lock);
+        }
+        boolean endsHold = openHolds.get() != 0 && endsRecordedHold(lock);
+        lock.unlock();
+        if (endsHold) {
+            // Its acquisition was sampled, so the release is recorded with it
+            recordRelease(EventType.MUTEX_UNLOCK, lock);
+        } else if (handoff) {
+            EventCollector c = collector;
+            if (c != null && c.shouldSample(EventType.MUTEX_UNLOCK)) {
+                recordRelease(EventType.MUTEX_UNLOCK, lock);
+            }
+        }
+    }
+
+    // ---- Object.wait / notify ----
+
+    public static void wait(Object monitor) throws InterruptedException {
+        wait(monitor, 0L);
+    }
+
+    public static void wait(Object monitor, long timeoutMillis) throws InterruptedException {
+        long start = System.nanoTime();
+        releasedForWait(monitor);
+        try {
+            monitor.wait(timeoutMillis);
+        } finally {
+            waited(monitor, start, TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+        }
+    }
+
+    public static void wait(Object monitor, long timeoutMillis, int nanos) throws InterruptedException {
+        long start = System.nanoTime();
+        releasedForWait(monitor);
+        try {
+            monitor.wait(timeoutMillis, nanos);
+        } finally {
+            waited(monitor, start, TimeUnit.MILLISECONDS.toNanos(timeoutMillis) + nanos);
+        }
+    }
+
+    public static void notify(Object monitor) {
+        monitor.notify();
+        notified(monitor);
+    }
+
+    public static void notifyAll(Object monitor) {
+        monitor.notifyAll();
+        notified(monitor);
+    }
+
+    /**
+     * Non-fair ReentrantLock.lock() barges anyway, so a tryLock() first keeps
+     * its semantics and skips the timing on the uncontended path
+     */
+    private static boolean tryBarge(Lock lock) {
+        return lock instanceof ReentrantLock && !((ReentrantLock) lock).isFair() && lock.tryLock();
+    }
+
+    /**
+     * The write lock's counterpart of getHoldCount() == 1 && hasQueuedThreads()
+     */
+    private static boolean isWriteHandoff(ReentrantReadWriteLock.WriteLock lock) {
+        MethodHandle sync = writeLockSync;
+        if (sync == null || lock.getHoldCount() != 1) {
+            return false;
+        }
+        try {
+            return ((AbstractQueuedSynchronizer) sync.invokeExact(lock)).hasQueuedThreads();
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /**
+     * Lock order checking only applies to exclusive locks
+     */
+    private static LockDep tracked(Lock lock) {
+        LockDep d = lockDep;
+        return d != null && !(lock instanceof ReentrantReadWriteLock.ReadLock) ? d : null;
+    }
+
+    /**
+     * wait() gives up the monitor until it returns
+     */
+    private static void releasedForWait(Object monitor) {
+        LockDep d = lockDep;
+        if (d != null) {
+            d.released(monitor);
+        }
+    }
+
+    private static void waited(Object monitor, long startNanos, long timeoutNs) {
+        // wait() returns with the monitor re-acquired
+        long now = System.nanoTime();
+        LockDep d = lockDep;
+        if (d != null) {
+            d.acquired(monitor, false);
+        }
+        EventCollector c = collector;
+        if (now - startNanos >= minWaitNs && c != null && c.shouldSample(EventType.MONITOR_WAIT)) {
+            long id = System.identityHashCode(monitor);
+            c.recordAt(startNanos, EventType.MONITOR_WAIT, id, timeoutNs);
+            c.recordAt(now, EventType.MUTEX_LOCK_ACQUIRED, id, 0L);
+            c.addAdviceTime(now);
+        }
+    }
+
+    private static void notified(Object monitor) {
+        EventCollector c = collector;
+        if (c != null && c.shouldSample(EventType.MONITOR_NOTIFY)) {
+            long start = System.nanoTime();
+            c.recordAt(start, EventType.MONITOR_NOTIFY, System.identityHashCode(monitor), 0L);
+            c.addAdviceTime(start);
+        }
+    }
+
+    /**
+     * Record an acquisition that waited at least the minimum, or count a re-entry of a recorded hold
+     *
+     * @param withStack Whether to capture the acquiring thread's stack; the hook's own frames are left out
+     */
+    private static void acquired(Object lock, long startNanos, long acquiredNanos, boolean withStack) {
+        if (acquiredNanos - startNanos < minWaitNs || !contended(lock, startNanos, acquiredNanos, withStack)) {
+            reentered(lock);
+        }
+    }
+
+    /**
+     * @return false if the acquisition was not sampled
+     */
+    private static boolean contended(Object lock, long startNanos, long acquiredNanos, boolean withStack) {
+        EventCollector c = collector;
+        if (c == null || !c.shouldSample(EventType.MUTEX_LOCK_ATTEMPT)) {
+            return false;
+        }
+        long id = System.identityHashCode(lock);
+        c.recordAt(startNanos, EventType.MUTEX_LOCK_ATTEMPT, id, 0L);
+        if (withStack) {
+            c.recordStackAt(startNanos);
+        }
+        c.recordAt(acquiredNanos, EventType.MUTEX_LOCK_ACQUIRED, id, 0L);
+        if (recordedHolds.get().add(lock)) {
+            openHolds.incrementAndGet();
+        }
+        c.addAdviceTime(acquiredNanos);
+        return true;
+    }
+
+    private static void reentered(Object lock) {
+        if (openHolds.get() != 0) {
+            recordedHolds.get().reenter(lock);
+        }
+    }
+
+    /**
+     * Whether the current thread's release of the lock ends a hold whose acquisition was recorded
+     */
+    private static boolean endsRecordedHold(Object lock) {
+        if (!recordedHolds.get().release(lock)) {
+            return false;
+        }
+        openHolds.decrementAndGet();
+        return true;
+    }
+
+    private static void recordRelease(EventType type, Object lock) {
+        EventCollector c = collector;
+        if (c != null) {
+            long start = System.nanoTime();
+            c.recordAt(start, type, System.identityHashCode(lock), 0L);
+            c.addAdviceTime(start);
+        }
+    }
+
+    /**
+     * Locks the current thread holds whose acquisition was recorded, and how
+     * often each is held, so that only the final release is recorded
+     */
+    private static final class RecordedHolds {
+        private Object[] locks = new Object[4];
+        private int[] depths = new int[4];
+        private int size;
+
+        /**
+         * @return true if the lock was not held with a recorded acquisition before
+         */
+        boolean add(Object lock) {
+            int i = indexOf(lock);
+            if (i >= 0) {
+                depths[i]++;
+                return false;
+            }
+            if (size == locks.length) {
+                locks = Arrays.copyOf(locks, size * 2);
+                depths = Arrays.copyOf(depths, size * 2);
+            }
+            locks[size] = lock;
+            depths[size] = 1;
+            size++;
+            return true;
+        }
+
+        void reenter(Object lock) {
+            int i = indexOf(lock);
+            if (i >= 0) {
+                depths[i]++;
+            }
+        }
+
+        /**
+         * @return true if this was the final release of a recorded hold
+         */
+        boolean release(Object lock) {
+            int i = indexOf(lock);
+            if (i < 0 || --depths[i] > 0) {
+                return false;
+            }
+            size--;
+            System.arraycopy(locks, i + 1, locks, i, size - i);
+            System.arraycopy(depths, i + 1, depths, i, size - i);
+            locks[size] = null;
+            return true;
+        }
+
+        private int indexOf(Object lock) {
+            // Usually the innermost hold
+            for (int i = size - 1; i >= 0; i--) {
+                if (locks[i] == lock) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
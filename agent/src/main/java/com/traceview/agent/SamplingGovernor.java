@@ -0,0 +1,200 @@
+package com.traceview.agent;
+
+import com.traceview.shared.TraceFormat.EventType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SamplingGovernor - Keeps the agent within its event-rate and CPU budgets
+ *
+ * Each sampled event type has a period: one in {@code period} operations of
+ * that type is recorded, decided per thread without shared state. The
+ * governor runs on the drainer thread, estimates the agent's CPU cost from
+ * the drainer's own CPU time plus a calibrated per-event recording cost, and
+ * doubles every period while over budget, halving it again once there is
+ * room. Every period change is written into the trace as a SAMPLING_RATE
+ * event so counts can be scaled back up during analysis.
+ */
+public class SamplingGovernor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SamplingGovernor.class);
+
+    /** Operations that may be sampled; their paired end events follow the decision */
+    private static final EventType[] SAMPLED_TYPES = {
+        EventType.MUTEX_LOCK_ATTEMPT,
+        EventType.MUTEX_UNLOCK,
+        EventType.MONITOR_WAIT,
+        EventType.MONITOR_NOTIFY,
+        EventType.SLEEP_START,
+        EventType.IO_START
+    };
+
+    private static final long TICK_NS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final int MAX_MULTIPLIER = 1 << 16;
+    // Only lower the sampling once the doubled volume would stay below this share of the budget
+    private static final double RESTORE_HEADROOM = 0.8;
+
+    private final EventCollector collector;
+    private final long maxEventsPerSecond;
+    private final double maxOverhead;
+    private final Map<EventType, Integer> configuredPeriods;
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final int cores = Runtime.getRuntime().availableProcessors();
+
+    // Indexed by EventType value; replaced as a whole so readers never see a partial update
+    private volatile int[] periods;
+
+    private int multiplier = 1;
+    private double recordCostNs;
+    private long lastTickNanos;
+    private long lastRecorded;
+    private long lastCpuNs;
+
+    /**
+     * @param maxEventsPerSecond Recorded-event budget, 0 for unlimited
+     * @param maxOverhead Target fraction of total CPU spent in the agent, 0 for unlimited
+     * @param configuredPeriods Baseline sampling period per event type
+     */
+    public SamplingGovernor(EventCollector collector, long maxEventsPerSecond, double maxOverhead,
+                            Map<EventType, Integer> configuredPeriods) {
+        this.collector = collector;
+        this.maxEventsPerSecond = maxEventsPerSecond;
+        this.maxOverhead = maxOverhead;
+        this.configuredPeriods = new EnumMap<>(EventType.class);
+        this.configuredPeriods.putAll(configuredPeriods);
+        this.periods = computePeriods(1);
+    }
+
+    /**
+     * Whether the governor adapts at all; fixed periods still apply otherwise
+     */
+    public boolean isAdaptive() {
+        return maxEventsPerSecond > 0 || maxOverhead > 0;
+    }
+
+    /**
+     * Current sampling period for an event type (1 = record everything)
+     */
+    public int periodOf(EventType type) {
+        return periods[type.getValue()];
+    }
+
+    int[] periods() {
+        return periods;
+    }
+
+    /**
+     * Current factor applied on top of the configured periods
+     */
+    public int getMultiplier() {
+        return multiplier;
+    }
+
+    /**
+     * Called on the drainer thread once recording has started
+     */
+    void start() {
+        recordCostNs = calibrateRecordCost();
+        lastTickNanos = System.nanoTime();
+        lastRecorded = collector.getRecordedEvents();
+        lastCpuNs = currentThreadCpu();
+        logRates(new int[periods.length]);
+        logger.info("Sampling governor started: maxEventsPerSec={}, maxOverhead={}%, record cost ~{} ns",
+            maxEventsPerSecond, maxOverhead * 100, Math.round(recordCostNs));
+    }
+
+    /**
+     * Re-evaluate the budget; called from the drainer loop, acts at most every TICK_NS
+     */
+    void tick() {
+        if (!isAdaptive()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long elapsed = now - lastTickNanos;
+        if (elapsed < TICK_NS) {
+            return;
+        }
+        long recorded = collector.getRecordedEvents();
+        long cpu = currentThreadCpu();
+        long events = recorded - lastRecorded;
+        double rate = events * 1e9 / elapsed;
+        double overhead = ((cpu - lastCpuNs) + events * recordCostNs) / ((double) elapsed * cores);
+        lastTickNanos = now;
+        lastRecorded = recorded;
+        lastCpuNs = cpu;
+
+        boolean overBudget = (maxEventsPerSecond > 0 && rate > maxEventsPerSecond)
+            || (maxOverhead > 0 && overhead > maxOverhead);
+        boolean roomToRestore = (maxEventsPerSecond <= 0 || rate * 2 < maxEventsPerSecond * RESTORE_HEADROOM)
+            && (maxOverhead <= 0 || overhead * 2 < maxOverhead * RESTORE_HEADROOM);
+
+        int next = multiplier;
+        if (overBudget && multiplier < MAX_MULTIPLIER) {
+            next = multiplier * 2;
+        } else if (roomToRestore && multiplier > 1) {
+            next = multiplier / 2;
+        }
+        if (next != multiplier) {
+            logger.debug("Sampling multiplier {} -> {} (rate {}/s, overhead {}%)",
+                multiplier, next, Math.round(rate), String.format("%.2f", overhead * 100));
+            multiplier = next;
+            int[] previous = periods;
+            periods = computePeriods(next);
+            logRates(previous);
+        }
+    }
+
+    /**
+     * Write a SAMPLING_RATE event for every type whose period changed
+     */
+    private void logRates(int[] previous) {
+        int[] current = periods;
+        for (EventType type : SAMPLED_TYPES) {
+            int value = type.getValue();
+            if (current[value] != previous[value]) {
+                collector.record(EventType.SAMPLING_RATE, value, current[value]);
+            }
+        }
+    }
+
+    private int[] computePeriods(int factor) {
+        int[] result = new int[32];
+        for (EventType type : EventType.values()) {
+            result[type.getValue()] = 1;
+        }
+        for (EventType type : SAMPLED_TYPES) {
+            long period = (long) configuredPeriods.getOrDefault(type, 1) * factor;
+            result[type.getValue()] = (int) Math.min(period, Integer.MAX_VALUE);
+        }
+        return result;
+    }
+
+    private long currentThreadCpu() {
+        return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : 0L;
+    }
+
+    /**
+     * Measure what one offer into a thread buffer costs on this machine; the
+     * cheapest round is used so interpreter warm-up does not inflate it
+     */
+    private static double calibrateRecordCost() {
+        EventBuffer scratch = new EventBuffer(Thread.currentThread(), 1024, 0L);
+        EventSink discard = (timestampNs, threadId, eventType, arg0, arg1) -> { };
+        double costNs = Double.MAX_VALUE;
+        for (int round = 0; round < 32; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 1024; i++) {
+                scratch.offer(System.nanoTime(), 0, EventType.ANNOTATION.getValue(), i, 0L);
+            }
+            costNs = Math.min(costNs, (System.nanoTime() - start) / 1024.0);
+            scratch.drainTo(discard);
+        }
+        return costNs;
+    }
+}
@@ -0,0 +1,181 @@
+package com.traceview.agent;
+
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * StackTable - Captures and deduplicates call stacks for contention events
+ *
+ * Stacks are walked with {@link StackWalker} into a per-thread scratch array
+ * while a 64-bit hash of the frames is computed; a stack the thread has seen
+ * before costs that walk plus one lookup in the thread's own primitive map
+ * of stack ids. Other stacks are looked up in the shared table under its
+ * lock, and only new ones are turned into frame strings, which go through a
+ * frame-hash cache into the {@link StringTable} so that a frame shared by
+ * many stacks is stored once. Each distinct stack is a list of frame string
+ * offsets, written to the trace's stack table on close.
+ *
+ * The cache is keyed on the walked frames, so it cannot spare the walk
+ * itself: a known stack still costs a full StackWalker pass and its hash.
+ * Skipping the walk would take a key known beforehand, such as a call-site
+ * id passed in by the instrumented code, which the hooks do not have.
+ * Callers therefore only capture stacks for events that are recorded
+ * anyway, such as acquisitions that waited the minimum duration.
+ */
+public class StackTable {
+
+    /** Default number of frames kept per stack */
+    public static final int DEFAULT_MAX_DEPTH = 16;
+
+    /** Distinct stacks kept before new ones are no longer recorded */
+    public static final int MAX_STACKS = 1 << 16;
+
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    private final StringTable stringTable;
+    // Guarded by this, like stacks
+    private final LongIntHashMap stackIds = new LongIntHashMap();
+    private final LongIntHashMap frameOffsets = new LongIntHashMap();
+    private final List<int[]> stacks = new ArrayList<>();
+    private final ThreadLocal<Walk> walks = ThreadLocal.withInitial(Walk::new);
+
+    public StackTable(StringTable stringTable) {
+        this.stringTable = stringTable;
+    }
+
+    /**
+     * Capture the calling thread's stack, without agent frames
+     *
+     * @param maxDepth Maximum number of frames to keep
+     * @return the stack id, or -1 if the table is full or the stack is empty
+     */
+    public int capture(int maxDepth) {
+        Walk walk = walks.get();
+        walk.begin(maxDepth);
+        try {
+            WALKER.walk(walk);
+            if (walk.depth == 0) {
+                return -1;
+            }
+            int id = walk.knownStacks.getIfAbsent(walk.hash, -1);
+            if (id < 0) {
+                id = add(walk);
+                if (id >= 0) {
+                    walk.knownStacks.put(walk.hash, id);
+                }
+            }
+            return id;
+        } finally {
+            walk.clear();
+        }
+    }
+
+    /**
+     * Number of distinct stacks captured so far
+     */
+    public synchronized int size() {
+        return stacks.size();
+    }
+
+    /**
+     * Frame string offsets of a stack, innermost frame first
+     */
+    public synchronized int[] frames(int stackId) {
+        return stacks.get(stackId);
+    }
+
+    /**
+     * Look a stack up in the shared table, adding it if it is new
+     */
+    private synchronized int add(Walk walk) {
+        // A hash collision between two different stacks would merge them; at 64 bits it is ignored
+        int id = stackIds.getIfAbsent(walk.hash, -1);
+        if (id >= 0 || stacks.size() >= MAX_STACKS) {
+            return id;
+        }
+        int[] frames = new int[walk.depth];
+        for (int i = 0; i < frames.length; i++) {
+            long frameHash = walk.frameHashes[i];
+            int offset = frameOffsets.getIfAbsent(frameHash, -1);
+            if (offset < 0) {
+                offset = stringTable.intern(describe(walk.frames[i]));
+                frameOffsets.put(frameHash, offset);
+            }
+            frames[i] = offset;
+        }
+        stacks.add(frames);
+        id = stacks.size() - 1;
+        stackIds.put(walk.hash, id);
+        return id;
+    }
+
+    /**
+     * Format a frame like a Throwable stack trace line
+     */
+    private static String describe(StackWalker.StackFrame frame) {
+        StringBuilder text = new StringBuilder(frame.getClassName()).append('.').append(frame.getMethodName()).append('(');
+        text.append(frame.getFileName() != null ? frame.getFileName() : "Unknown Source");
+        if (frame.getLineNumber() >= 0) {
+            text.append(':').append(frame.getLineNumber());
+        }
+        return text.append(')').toString();
+    }
+
+    /**
+     * Reusable per-thread state of one stack walk
+     */
+    private static final class Walk implements Function<Stream<StackWalker.StackFrame>, Void>,
+            Consumer<StackWalker.StackFrame> {
+        // Ids of the stacks this thread has captured, so that repeats need no lock
+        final LongIntHashMap knownStacks = new LongIntHashMap();
+        StackWalker.StackFrame[] frames = new StackWalker.StackFrame[DEFAULT_MAX_DEPTH];
+        long[] frameHashes = new long[DEFAULT_MAX_DEPTH];
+        int maxDepth;
+        int depth;
+        long hash;
+
+        void begin(int maxDepth) {
+            if (frames.length < maxDepth) {
+                frames = new StackWalker.StackFrame[maxDepth];
+                frameHashes = new long[maxDepth];
+            }
+            this.maxDepth = maxDepth;
+            depth = 0;
+            hash = 1;
+        }
+
+        void clear() {
+            for (int i = 0; i < depth; i++) {
+                frames[i] = null;
+            }
+        }
+
+        @Override
+        public Void apply(Stream<StackWalker.StackFrame> stream) {
+            stream.dropWhile(frame -> frame.getClassName().startsWith("com.traceview.agent."))
+                .limit(maxDepth)
+                .forEach(this);
+            return null;
+        }
+
+        @Override
+        public void accept(StackWalker.StackFrame frame) {
+            long frameHash = mix(frame.getClassName().hashCode() * 31L + frame.getMethodName().hashCode(),
+                frame.getByteCodeIndex());
+            frames[depth] = frame;
+            frameHashes[depth] = frameHash;
+            hash = mix(hash, frameHash);
+            depth++;
+        }
+
+        private static long mix(long a, long b) {
+            long h = (a ^ (b + 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L;
+            return h ^ (h >>> 31);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.traceview.agent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * StringTable - Assigns each distinct string a stable offset into the trace string table
+ *
+ * Events only carry the offset; the strings themselves are written once when
+ * the trace is finalized. Each entry is stored as an unsigned 16-bit length
+ * followed by the UTF-8 bytes, so an offset is known as soon as a string is
+ * first seen.
+ *
+ * Lookups of known strings are a single lock-free hash lookup without
+ * allocation, so hot annotation and I/O paths stay cheap. Memory is capped:
+ * offsets already handed out must stay valid until the table is written, so
+ * instead of evicting, every new string past the budget is mapped to one
+ * shared overflow entry and counted.
+ */
+public class StringTable {
+
+    // Longer strings are truncated to fit the 16-bit length prefix
+    static final int MAX_STRING_BYTES = 0xFFFF;
+
+    /** Default heap budget for interned strings */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    /** Stands in for every string interned after the budget was used up */
+    public static final String OVERFLOW = "<string table full>";
+
+    // Rough heap cost of an entry beyond its UTF-8 bytes (key, node, entry, array headers)
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger nextOffset = new AtomicInteger();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private volatile long maxBytes = DEFAULT_MAX_BYTES;
+
+    /**
+     * Get the offset for a string, assigning a new one on first sight
+     */
+    public int intern(String value) {
+        Entry entry = entries.get(value);
+        if (entry != null) {
+            return entry.offset;
+        }
+        if (usedBytes.get() >= maxBytes) {
+            // Full: skip encoding so repeated misses do not allocate
+            overflowCount.incrementAndGet();
+            return overflowOffset();
+        }
+        byte[] bytes = encode(value);
+        long cost = (long) bytes.length + value.length() * 2L + ENTRY_OVERHEAD;
+        if (usedBytes.addAndGet(cost) > maxBytes) {
+            usedBytes.addAndGet(-cost);
+            overflowCount.incrementAndGet();
+            return overflowOffset();
+        }
+        // Reserve the range before publishing so readers never see an unassigned
+        // entry; a racing loser leaves a small unused gap in the table
+        Entry created = new Entry(nextOffset.getAndAdd(2 + bytes.length), bytes);
+        Entry existing = entries.putIfAbsent(value, created);
+        if (existing != null) {
+            usedBytes.addAndGet(-cost);
+            return existing.offset;
+        }
+        return created.offset;
+    }
+
+    /**
+     * Limit the approximate heap used by interned strings
+     *
+     * Offsets are 32-bit, so the budget is capped at {@link Integer#MAX_VALUE};
+     * an entry's heap cost always exceeds its serialized size, so the offsets
+     * stay within range.
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Number of interned strings that were mapped to {@link #OVERFLOW}
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    /**
+     * Total size of the serialized table in bytes
+     */
+    public int sizeInBytes() {
+        return nextOffset.get();
+    }
+
+    /**
+     * Number of distinct strings interned so far
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Visit every entry that lies completely within the first {@code limit} bytes
+     */
+    public void forEach(int limit, EntryVisitor visitor) {
+        for (Entry entry : entries.values()) {
+            if (entry.offset + 2 + entry.bytes.length <= limit) {
+                visitor.visit(entry.offset, entry.bytes);
+            }
+        }
+    }
+
+    /**
+     * Callback for {@link #forEach}
+     */
+    public interface EntryVisitor {
+        void visit(int offset, byte[] utf8);
+    }
+
+    private int overflowOffset() {
+        // The overflow entry itself is exempt from the budget
+        Entry entry = entries.get(OVERFLOW);
+        if (entry == null) {
+            byte[] bytes = encode(OVERFLOW);
+            entry = entries.computeIfAbsent(OVERFLOW, key -> new Entry(nextOffset.getAndAdd(2 + bytes.length), bytes));
+        }
+        return entry.offset;
+    }
+
+    private static byte[] encode(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_STRING_BYTES) {
+            byte[] truncated = new byte[MAX_STRING_BYTES];
+            System.arraycopy(bytes, 0, truncated, 0, MAX_STRING_BYTES);
+            return truncated;
+        }
+        return bytes;
+    }
+
+    private static final class Entry {
+        final int offset;
+        final byte[] bytes;
+
+        Entry(int offset, byte[] bytes) {
+            this.offset = offset;
+            this.bytes = bytes;
+        }
+    }
+}
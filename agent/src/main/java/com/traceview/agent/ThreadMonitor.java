@@ -1,18 +1,53 @@
 package com.traceview.agent;
 
+import com.traceview.shared.TraceFormat.EventType;
+import java.lang.reflect.Method;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * ThreadMonitor - Monitors thread activity for TraceView
+ *
+ * In JFR mode the monitor runs a JDK Flight Recorder RecordingStream and
+ * translates monitor, park, thread and I/O events into trace events as they
+ * arrive, so nothing has to be retransformed. RecordingStream was added in
+ * JDK 14; it is looked up reflectively so the agent still builds for Java 11.
  */
 public class ThreadMonitor {
 
     private static final Logger logger = LoggerFactory.getLogger(ThreadMonitor.class);
+
+    // JFR only emits I/O events that lasted at least this long
+    private static final String JFR_IO_THRESHOLD = "1 ms";
+
     private final EventCollector eventCollector;
+    private final boolean useJfr;
+    private final long minWaitNs;
+    private AutoCloseable recordingStream;
+
+    // Offsets of the fixed I/O operation names
+    private int readOffset;
+    private int writeOffset;
 
     public ThreadMonitor(EventCollector eventCollector) {
+        this(eventCollector, false, LockHooks.DEFAULT_MIN_WAIT_NS);
+    }
+
+    /**
+     * @param useJfr Translate JFR events instead of relying on instrumentation
+     * @param minWaitNs Minimum blocking time for JFR lock and wait events
+     */
+    public ThreadMonitor(EventCollector eventCollector, boolean useJfr, long minWaitNs) {
         this.eventCollector = eventCollector;
+        this.useJfr = useJfr;
+        this.minWaitNs = minWaitNs;
     }
 
     /**
@@ -20,7 +55,16 @@ public class ThreadMonitor {
      */
     public void start() {
         logger.info("ThreadMonitor started");
-        // TODO: Begin monitoring thread activity
+        if (useJfr) {
+            try {
+                startRecordingStream();
+                logger.info("JFR event stream started");
+            } catch (ClassNotFoundException e) {
+                logger.error("mode=jfr requires JDK 14 or later (jdk.jfr.consumer.RecordingStream not found)");
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                logger.error("Failed to start JFR event stream", e);
+            }
+        }
     }
 
     /**
@@ -28,6 +72,175 @@ public class ThreadMonitor {
      */
     public void stop() {
         logger.info("ThreadMonitor stopped");
-        // TODO: Stop monitoring and cleanup resources
+        if (recordingStream != null) {
+            try {
+                recordingStream.close();
+            } catch (Exception e) {
+                logger.warn("Failed to close JFR event stream", e);
+            }
+            recordingStream = null;
+        }
+    }
+
+    private void startRecordingStream() throws ReflectiveOperationException {
+        StringTable strings = eventCollector.getStringTable();
+        readOffset = strings.intern("read");
+        writeOffset = strings.intern("write");
+
+        // Threads started before the stream only get named here
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            eventCollector.announceThread((int) thread.getId(), thread.getName());
+        }
+
+        Class<?> streamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+        Object stream = streamClass.getConstructor().newInstance();
+        streamClass.getMethod("setSettings", Map.class).invoke(stream, jfrSettings());
+        // Reused, unordered events keep the stream's own allocation and latency down
+        streamClass.getMethod("setReuse", boolean.class).invoke(stream, true);
+        streamClass.getMethod("setOrdered", boolean.class).invoke(stream, false);
+
+        Method onEvent = streamClass.getMethod("onEvent", String.class, Consumer.class);
+        onEvent.invoke(stream, "jdk.JavaMonitorEnter", (Consumer<RecordedEvent>) this::onMonitorEnter);
+        onEvent.invoke(stream, "jdk.JavaMonitorWait", (Consumer<RecordedEvent>) this::onMonitorWait);
+        onEvent.invoke(stream, "jdk.ThreadPark", (Consumer<RecordedEvent>) this::onThreadPark);
+        onEvent.invoke(stream, "jdk.ThreadStart", (Consumer<RecordedEvent>) this::onThreadStart);
+        onEvent.invoke(stream, "jdk.ThreadEnd", (Consumer<RecordedEvent>) this::onThreadEnd);
+        onEvent.invoke(stream, "jdk.FileRead", (Consumer<RecordedEvent>) e -> onIo(e, readOffset, "path"));
+        onEvent.invoke(stream, "jdk.FileWrite", (Consumer<RecordedEvent>) e -> onIo(e, writeOffset, "path"));
+        onEvent.invoke(stream, "jdk.SocketRead", (Consumer<RecordedEvent>) e -> onIo(e, readOffset, "host"));
+        onEvent.invoke(stream, "jdk.SocketWrite", (Consumer<RecordedEvent>) e -> onIo(e, writeOffset, "host"));
+
+        // start() blocks; run it on a daemon thread so the stream never keeps the JVM alive
+        Method startMethod = streamClass.getMethod("start");
+        Thread streamThread = new Thread(() -> {
+            try {
+                startMethod.invoke(stream);
+            } catch (ReflectiveOperationException e) {
+                logger.error("JFR event stream failed", e);
+            }
+        }, "traceview-jfr");
+        streamThread.setDaemon(true);
+        recordingStream = (AutoCloseable) stream;
+        streamThread.start();
+    }
+
+    private Map<String, String> jfrSettings() {
+        Map<String, String> settings = new HashMap<>();
+        for (String event : new String[] {"jdk.JavaMonitorEnter", "jdk.JavaMonitorWait", "jdk.ThreadPark"}) {
+            settings.put(event + "#enabled", "true");
+            settings.put(event + "#threshold", minWaitNs + " ns");
+            settings.put(event + "#stackTrace", "false");
+        }
+        for (String event : new String[] {"jdk.FileRead", "jdk.FileWrite", "jdk.SocketRead", "jdk.SocketWrite"}) {
+            settings.put(event + "#enabled", "true");
+            settings.put(event + "#threshold", JFR_IO_THRESHOLD);
+            settings.put(event + "#stackTrace", "false");
+        }
+        settings.put("jdk.ThreadStart#enabled", "true");
+        settings.put("jdk.ThreadEnd#enabled", "true");
+        return settings;
+    }
+
+    private void onMonitorEnter(RecordedEvent event) {
+        if (!eventCollector.shouldSample(EventType.MUTEX_LOCK_ATTEMPT)) {
+            return;
+        }
+        int threadId = threadId(event.getThread());
+        long address = event.getLong("address");
+        eventCollector.recordFor(threadId, traceTime(event.getStartTime()), EventType.MUTEX_LOCK_ATTEMPT, address, 0L);
+        eventCollector.recordFor(threadId, traceTime(event.getEndTime()), EventType.MUTEX_LOCK_ACQUIRED, address, 0L);
+    }
+
+    private void onMonitorWait(RecordedEvent event) {
+        if (!eventCollector.shouldSample(EventType.MONITOR_WAIT)) {
+            return;
+        }
+        int threadId = threadId(event.getThread());
+        long address = event.getLong("address");
+        long timeoutNs = event.getDuration("timeout").toNanos();
+        eventCollector.recordFor(threadId, traceTime(event.getStartTime()), EventType.MONITOR_WAIT, address, timeoutNs);
+        eventCollector.recordFor(threadId, traceTime(event.getEndTime()), EventType.MUTEX_LOCK_ACQUIRED, address, 0L);
+    }
+
+    /**
+     * LockSupport.park backs every j.u.c blocking primitive; the blocker class
+     * tells a lock acquisition apart from a condition wait or a bare park
+     *
+     * Only the synchronizers of ReentrantLock and ReentrantReadWriteLock park
+     * to acquire a lock. Every other blocker, such as a condition, FutureTask,
+     * CountDownLatch, Semaphore, SynchronousQueue or ForkJoinPool, parks to
+     * wait for something to happen and is recorded as a wait on the blocker.
+     */
+    private void onThreadPark(RecordedEvent event) {
+        int threadId = threadId(event.getThread());
+        long start = traceTime(event.getStartTime());
+        long end = traceTime(event.getEndTime());
+        long address = event.getLong("address");
+        RecordedClass blocker = event.getClass("parkedClass");
+
+        if (blocker == null) {
+            if (!eventCollector.shouldSample(EventType.SLEEP_START)) {
+                return;
+            }
+            long durationNs = event.getDuration().toNanos();
+            eventCollector.recordFor(threadId, start, EventType.SLEEP_START, durationNs, 0L);
+            eventCollector.recordFor(threadId, end, EventType.SLEEP_END, durationNs, 0L);
+        } else if (isLockBlocker(blocker.getName())) {
+            if (eventCollector.shouldSample(EventType.MUTEX_LOCK_ATTEMPT)) {
+                eventCollector.recordFor(threadId, start, EventType.MUTEX_LOCK_ATTEMPT, address, 0L);
+                eventCollector.recordFor(threadId, end, EventType.MUTEX_LOCK_ACQUIRED, address, 0L);
+            }
+        } else if (eventCollector.shouldSample(EventType.MONITOR_WAIT)) {
+            long timeoutNs = Math.max(event.getLong("timeout"), 0L);
+            eventCollector.recordFor(threadId, start, EventType.MONITOR_WAIT, address, timeoutNs);
+            eventCollector.recordFor(threadId, end, EventType.MUTEX_LOCK_ACQUIRED, address, 0L);
+        }
+    }
+
+    /**
+     * Whether a park blocker is the AQS synchronizer of an exclusive or read-write lock
+     */
+    static boolean isLockBlocker(String className) {
+        return className.startsWith("java.util.concurrent.locks.ReentrantLock$")
+            || className.startsWith("java.util.concurrent.locks.ReentrantReadWriteLock$");
+    }
+
+    private void onThreadStart(RecordedEvent event) {
+        RecordedThread thread = event.getThread("thread");
+        if (thread == null) {
+            return;
+        }
+        int threadId = threadId(thread);
+        eventCollector.announceThread(threadId, thread.getJavaName());
+        eventCollector.recordFor(threadId, traceTime(event.getStartTime()), EventType.THREAD_START, 0L, 0L);
+    }
+
+    private void onThreadEnd(RecordedEvent event) {
+        RecordedThread thread = event.getThread("thread");
+        if (thread != null) {
+            eventCollector.recordFor(threadId(thread), traceTime(event.getStartTime()), EventType.THREAD_END, 0L, 0L);
+        }
+    }
+
+    private void onIo(RecordedEvent event, int operationOffset, String targetField) {
+        if (!eventCollector.shouldSample(EventType.IO_START)) {
+            return;
+        }
+        int threadId = threadId(event.getThread());
+        String target = event.getString(targetField);
+        int targetOffset = eventCollector.getStringTable().intern(target != null ? target : "");
+        eventCollector.recordFor(threadId, traceTime(event.getStartTime()), EventType.IO_START, operationOffset, targetOffset);
+        eventCollector.recordFor(threadId, traceTime(event.getEndTime()), EventType.IO_END, operationOffset, targetOffset);
+    }
+
+    private static int threadId(RecordedThread thread) {
+        return thread != null ? (int) thread.getJavaThreadId() : 0;
+    }
+
+    /**
+     * Convert a JFR wall-clock timestamp to nanoseconds since trace start
+     */
+    private long traceTime(Instant time) {
+        return time.getEpochSecond() * 1_000_000_000L + time.getNano() - eventCollector.getStartEpochNs();
     }
 }
@@ -1,7 +1,16 @@
 package com.traceview.agent;
 
+import com.traceview.shared.TraceFormat;
 import java.lang.instrument.Instrumentation;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,6 +20,9 @@ import org.slf4j.LoggerFactory;
  * This agent can be used in two ways:
  * 1. As a traditional Java agent: java -javaagent:trace-agent.jar=output=trace.tview MyApp
  * 2. As a library: TraceAgent.init() in your application code
+ *
+ * While active, the agent's own cost is published as a {@link TraceAgentMXBean}
+ * named {@value AgentMetrics#OBJECT_NAME}.
  */
 public class TraceAgent {
     
@@ -20,7 +32,23 @@ public class TraceAgent {
     
     private static EventCollector eventCollector;
     private static ThreadMonitor threadMonitor;
+    private static ConcurrencyInstrumentation concurrencyInstrumentation;
+    private static LockDep lockDep;
     private static String outputPath = "trace.tview";
+    private static int bufferCapacity = EventCollector.DEFAULT_BUFFER_CAPACITY;
+    private static boolean jfrMode = false;
+    private static long maxEventRate = 0;
+    private static double maxOverhead = 0;
+    private static boolean compress = true;
+    private static long maxStringBytes = StringTable.DEFAULT_MAX_BYTES;
+    private static int stackDepth = StackTable.DEFAULT_MAX_DEPTH;
+    private static long minWaitNs = LockHooks.DEFAULT_MIN_WAIT_NS;
+    private static int livePort = -1;
+    private static boolean checkLockOrder = false;
+    private static final List<String> includes = new ArrayList<>();
+    private static final List<String> excludes = new ArrayList<>();
+    private static final Map<TraceFormat.EventType, Integer> samplePeriods =
+        new EnumMap<>(TraceFormat.EventType.class);
     
     /**
      * Java agent premain method - called when used as -javaagent
@@ -83,21 +111,40 @@ public class TraceAgent {
             logger.info("Initializing TraceView Agent with output path: {}", outputPath);
             
             // Create event collector
-            eventCollector = new EventCollector(outputPath);
+            eventCollector = new EventCollector(outputPath, bufferCapacity);
+            eventCollector.configureSampling(maxEventRate, maxOverhead, samplePeriods);
+            eventCollector.setCompression(compress);
+            eventCollector.getStringTable().setMaxBytes(maxStringBytes);
+            eventCollector.setStackDepth(stackDepth);
+            eventCollector.setLivePort(livePort);
             
             // Create and start thread monitor
-            threadMonitor = new ThreadMonitor(eventCollector);
+            threadMonitor = new ThreadMonitor(eventCollector, jfrMode, minWaitNs);
             
-            // If we have instrumentation, set up bytecode modification
-            if (instrumentation != null) {
+            // Lock order checking needs every acquisition and release, so only instrumentation can feed it
+            if (checkLockOrder && (instrumentation == null || jfrMode)) {
+                logger.warn("lockdep requires the instrumentation mode of the agent; ignoring it");
+            } else if (checkLockOrder) {
+                lockDep = new LockDep(eventCollector);
+                eventCollector.getMetrics().setLockDep(lockDep);
+            }
+            
+            // If we have instrumentation, set up bytecode modification;
+            // in JFR mode events come from the recording stream instead
+            if (instrumentation != null && !jfrMode) {
                 setupInstrumentation(instrumentation);
             }
             
             // Start monitoring
-            threadMonitor.start();
+            // The collector first: the JFR stream converts times against its start
             eventCollector.start();
+            threadMonitor.start();
+            if (lockDep != null) {
+                lockDep.start();
+            }
             
             active.set(true);
+            registerMetrics();
             logger.info("TraceView Agent initialized successfully");
             return true;
             
@@ -126,9 +173,14 @@ public class TraceAgent {
                 threadMonitor.stop();
             }
             
+            if (lockDep != null) {
+                lockDep.stop();
+            }
+            
             if (eventCollector != null) {
                 eventCollector.stop();
             }
+            unregisterMetrics();
             
             logger.info("TraceView Agent finalized, trace written to: {}", outputPath);
             return true;
@@ -146,6 +198,14 @@ public class TraceAgent {
         return active.get();
     }
     
+    /**
+     * Self-metrics of the running agent, or null before it was initialized
+     */
+    public static TraceAgentMXBean getMetrics() {
+        EventCollector collector = eventCollector;
+        return collector != null ? collector.getMetrics() : null;
+    }
+    
     /**
      * Add a custom annotation to the trace
      */
@@ -180,23 +240,233 @@ public class TraceAgent {
                             System.setProperty("traceview.debug", "true");
                         }
                         break;
+                    case "mode":
+                        if ("jfr".equalsIgnoreCase(value)) {
+                            jfrMode = true;
+                        } else if ("instrument".equalsIgnoreCase(value)) {
+                            jfrMode = false;
+                        } else {
+                            logger.warn("Unknown agent mode, using instrumentation: {}", value);
+                        }
+                        break;
+                    case "bufferSize":
+                        bufferCapacity = parseBufferCapacity(value);
+                        break;
+                    case "maxEventRate":
+                        maxEventRate = parseLong(key, value, 0);
+                        break;
+                    case "maxOverhead":
+                        // Percent of total CPU, e.g. maxOverhead=2 or maxOverhead=2%
+                        maxOverhead = parsePercent(key, value);
+                        break;
+                    case "compress":
+                        // Deflate event blocks (default) or store them only varint-encoded
+                        compress = !"false".equalsIgnoreCase(value) && !"none".equalsIgnoreCase(value);
+                        break;
+                    case "maxStringBytes":
+                        // Heap budget for interned strings, e.g. maxStringBytes=4m
+                        maxStringBytes = parseSize(key, value, StringTable.DEFAULT_MAX_BYTES);
+                        break;
+                    case "stackDepth":
+                        // Frames captured per contended event, 0 disables stacks
+                        stackDepth = (int) Math.min(parseLong(key, value, StackTable.DEFAULT_MAX_DEPTH), 1024);
+                        break;
+                    case "minWait":
+                        // Shortest wait worth recording, e.g. minWait=50us
+                        minWaitNs = parseDuration(key, value, LockHooks.DEFAULT_MIN_WAIT_NS);
+                        break;
+                    case "live":
+                        // Stream events to a viewer on a loopback port, e.g. live=7077 or live=true
+                        if ("true".equalsIgnoreCase(value)) {
+                            livePort = TraceFormat.DEFAULT_LIVE_PORT;
+                        } else if (!"false".equalsIgnoreCase(value)) {
+                            livePort = (int) Math.min(parseLong(key, value, TraceFormat.DEFAULT_LIVE_PORT), 65535);
+                        }
+                        break;
+                    case "lockdep":
+                        // Check lock order and detect deadlocks on every lock operation
+                        checkLockOrder = "true".equalsIgnoreCase(value);
+                        break;
+                    case "include":
+                        // Classes to instrument, ';'-separated, e.g. include=com.app.*;org.lib.Pool
+                        parsePatterns(value, includes);
+                        break;
+                    case "exclude":
+                        parsePatterns(value, excludes);
+                        break;
                     default:
-                        logger.warn("Unknown agent argument: {}", key);
+                        if (key.startsWith("sample.")) {
+                            parseSamplePeriod(key.substring("sample.".length()), value);
+                        } else {
+                            logger.warn("Unknown agent argument: {}", key);
+                        }
                 }
             }
         }
     }
     
+    /**
+     * Parse a non-negative integer argument, falling back to a default
+     */
+    private static long parseLong(String key, String value, long defaultValue) {
+        try {
+            long parsed = Long.parseLong(value.trim());
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        logger.warn("Invalid value for {}, using {}: {}", key, defaultValue, value);
+        return defaultValue;
+    }
+    
+    /**
+     * Parse a byte count with an optional k/m/g suffix
+     */
+    private static long parseSize(String key, String value, long defaultValue) {
+        String text = value.trim().toLowerCase();
+        long unit = 1L;
+        if (text.endsWith("k")) {
+            unit = 1L << 10;
+        } else if (text.endsWith("m")) {
+            unit = 1L << 20;
+        } else if (text.endsWith("g")) {
+            unit = 1L << 30;
+        }
+        if (unit != 1L) {
+            text = text.substring(0, text.length() - 1);
+        }
+        return parseLong(key, text, defaultValue / unit) * unit;
+    }
+    
+    /**
+     * Parse a duration with an optional ns/us/ms/s unit (default ns) into nanoseconds
+     */
+    private static long parseDuration(String key, String value, long defaultNs) {
+        String text = value.trim().toLowerCase();
+        long unitNs = 1L;
+        if (text.endsWith("ns")) {
+            text = text.substring(0, text.length() - 2);
+        } else if (text.endsWith("us")) {
+            unitNs = 1_000L;
+            text = text.substring(0, text.length() - 2);
+        } else if (text.endsWith("ms")) {
+            unitNs = 1_000_000L;
+            text = text.substring(0, text.length() - 2);
+        } else if (text.endsWith("s")) {
+            unitNs = 1_000_000_000L;
+            text = text.substring(0, text.length() - 1);
+        }
+        try {
+            double amount = Double.parseDouble(text.trim());
+            if (amount >= 0) {
+                return Math.round(amount * unitNs);
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        logger.warn("Invalid value for {}, using {} ns: {}", key, defaultNs, value);
+        return defaultNs;
+    }
+    
+    /**
+     * Split a ';'-separated list of class name patterns
+     */
+    private static void parsePatterns(String value, List<String> patterns) {
+        for (String pattern : value.split(";")) {
+            if (!pattern.trim().isEmpty()) {
+                patterns.add(pattern.trim());
+            }
+        }
+    }
+    
+    /**
+     * Parse a percentage such as "2" or "0.5%" into a fraction
+     */
+    private static double parsePercent(String key, String value) {
+        try {
+            double percent = Double.parseDouble(value.replace("%", "").trim());
+            if (percent >= 0 && percent <= 100) {
+                return percent / 100.0;
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        logger.warn("Invalid value for {}, ignoring: {}", key, value);
+        return 0;
+    }
+    
+    /**
+     * Parse a fixed 1-in-N sampling period, e.g. sample.MONITOR_NOTIFY=100
+     */
+    private static void parseSamplePeriod(String typeName, String value) {
+        try {
+            TraceFormat.EventType type = TraceFormat.EventType.valueOf(typeName.toUpperCase());
+            long period = parseLong("sample." + typeName, value, 1);
+            samplePeriods.put(type, (int) Math.max(1, Math.min(period, Integer.MAX_VALUE)));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown event type in sampling argument: {}", typeName);
+        }
+    }
+    
+    /**
+     * Parse the per-thread buffer capacity, rounding up to a power of two
+     */
+    private static int parseBufferCapacity(String value) {
+        try {
+            int requested = Integer.parseInt(value);
+            if (requested < 2 || requested > (1 << 24)) {
+                logger.warn("bufferSize out of range, using default: {}", value);
+                return EventCollector.DEFAULT_BUFFER_CAPACITY;
+            }
+            int capacity = Integer.highestOneBit(requested);
+            return capacity == requested ? capacity : capacity << 1;
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid bufferSize, using default: {}", value);
+            return EventCollector.DEFAULT_BUFFER_CAPACITY;
+        }
+    }
+    
     /**
      * Set up bytecode instrumentation for automatic monitoring
      */
     private static void setupInstrumentation(Instrumentation instrumentation) {
         try {
-            // TODO: Implement bytecode instrumentation for automatic 
-            // monitoring of synchronization operations
+            concurrencyInstrumentation = new ConcurrencyInstrumentation(includes, excludes, minWaitNs, lockDep);
+            concurrencyInstrumentation.install(instrumentation, eventCollector);
+            eventCollector.getMetrics().setInstrumentation(concurrencyInstrumentation);
             logger.info("Bytecode instrumentation setup complete");
         } catch (Exception e) {
             logger.warn("Failed to setup bytecode instrumentation", e);
         }
     }
+    
+    /**
+     * Publish the collector's metrics over JMX; tracing goes on without them if that fails
+     */
+    private static void registerMetrics() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(AgentMetrics.OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(eventCollector.getMetrics(), name);
+        } catch (JMException | RuntimeException e) {
+            logger.warn("Could not register the agent metrics MBean", e);
+        }
+    }
+    
+    private static void unregisterMetrics() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(AgentMetrics.OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException | RuntimeException e) {
+            logger.debug("Could not unregister the agent metrics MBean", e);
+        }
+    }
 }
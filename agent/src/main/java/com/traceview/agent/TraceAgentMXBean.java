@@ -0,0 +1,64 @@
+package com.traceview.agent;
+
+/**
+ * TraceAgentMXBean - What the agent costs the application it traces, over JMX
+ *
+ * Registered by {@link TraceAgent} as {@value AgentMetrics#OBJECT_NAME}.
+ * Counters and times are totals since the agent started; rates, occupancy
+ * and lag are the latest measurements, with their peaks alongside for
+ * alerting between polls.
+ */
+public interface TraceAgentMXBean {
+
+    boolean isActive();
+
+    long getRecordedEvents();
+
+    long getDroppedEvents();
+
+    /**
+     * Number of times a thread buffer ran full and started dropping events
+     */
+    long getBufferFullCount();
+
+    double getEventsPerSecond();
+
+    double getPeakEventsPerSecond();
+
+    /**
+     * Fill level, from 0 to 1, of the fullest thread buffer at the last drain pass
+     */
+    double getBufferOccupancy();
+
+    double getPeakBufferOccupancy();
+
+    int getThreadBufferCount();
+
+    /**
+     * Bytes of events written to the trace file so far
+     */
+    long getBytesWritten();
+
+    /**
+     * How long the oldest event waiting to be written had waited at the last drain pass
+     */
+    long getWriterLagNanos();
+
+    long getPeakWriterLagNanos();
+
+    /**
+     * Time application threads spent recording events and capturing stacks in instrumentation hooks
+     */
+    long getAdviceTimeNanos();
+
+    int getInstrumentedClassCount();
+
+    /**
+     * Factor the sampling governor currently applies to the sampling periods, 1 when recording everything
+     */
+    int getSamplingMultiplier();
+
+    long getLockOrderInversions();
+
+    long getDeadlocks();
+}
@@ -0,0 +1,420 @@
+package com.traceview.agent;
+
+import com.traceview.shared.TraceFormat;
+import com.traceview.shared.VarInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.Deflater;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+import org.eclipse.collections.impl.set.mutable.primitive.IntHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * TraceWriter - Streams drained events into a .tview file
+ *
+ * Events are varint/delta encoded into a fixed-size block and
+ * each full block, optionally deflated, is copied into a memory-mapped window
+ * of the file, so writer memory stays constant no matter how long the trace
+ * runs. Encoding and compression happen on the drainer thread, never on the
+ * application threads. Every block is an independently decodable chunk; its
+ * offset, time range and threads are kept in a small in-memory index. The
+ * string table, thread table, chunk index, stack table and agent metrics are
+ * appended on {@link #close()}, after which the header is patched with the
+ * final 64-bit counts and offsets.
+ */
+public class TraceWriter implements EventSink {
+
+    private static final Logger logger = LoggerFactory.getLogger(TraceWriter.class);
+
+    /** Size of the staging block that is flushed to the file when full */
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    // Size of each memory-mapped window of the file
+    private static final int WINDOW_SIZE = 4 * 1024 * 1024;
+
+    // A partly filled block is cut into a chunk once it covers this much trace time,
+    // so the index stays selective when events arrive slowly
+    private static final long MAX_CHUNK_SPAN_NS = 1_000_000_000L;
+
+    private final Path path;
+    private final StringTable stringTable;
+    private final StackTable stackTable;
+    private final long startEpochNs;
+    private final FileChannel channel;
+    private final ByteBuffer block;
+    private final Deflater deflater;
+    private final ByteBuffer compressed;
+    private final IntObjectHashMap<ThreadRecord> threads = new IntObjectHashMap<>();
+    private Map<String, Long> agentMetrics = Collections.emptyMap();
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+    private long numEvents;
+    private long rawBytes;
+    private boolean closed;
+    // Set once an event is earlier than a previous event of its thread
+    private boolean unordered;
+
+    // Delta state of the block being filled; reset for every block
+    private int blockEvents;
+    private long lastTimestampNs;
+    private int lastThreadId = -1;
+    private long blockMinNs = Long.MAX_VALUE;
+    private long blockMaxNs = Long.MIN_VALUE;
+    private final IntHashSet blockThreads = new IntHashSet();
+
+    // Chunk index, one entry per flushed block; thread ids are stored flat
+    private final LongArrayList chunkOffsets = new LongArrayList();
+    private final LongArrayList chunkMinNs = new LongArrayList();
+    private final LongArrayList chunkMaxNs = new LongArrayList();
+    private final IntArrayList chunkEvents = new IntArrayList();
+    private final IntArrayList chunkThreadCounts = new IntArrayList();
+    private final IntArrayList chunkThreadIds = new IntArrayList();
+
+    // Last thread looked up, since consecutive events usually share a thread
+    private ThreadRecord lastThread;
+
+    public TraceWriter(String outputPath, StringTable stringTable, long startEpochNs) throws IOException {
+        this(outputPath, stringTable, null, startEpochNs, true);
+    }
+
+    /**
+     * @param stackTable Stacks referenced by STACK_TRACE events, null if there are none
+     * @param compress Deflate every block whose compressed form is smaller
+     */
+    public TraceWriter(String outputPath, StringTable stringTable, StackTable stackTable, long startEpochNs,
+                       boolean compress) throws IOException {
+        this.path = Paths.get(outputPath);
+        this.stringTable = stringTable;
+        this.stackTable = stackTable;
+        this.startEpochNs = startEpochNs;
+        this.channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.block = ByteBuffer.allocateDirect(BLOCK_SIZE).order(TraceFormat.BYTE_ORDER);
+        this.deflater = compress ? new Deflater(Deflater.BEST_SPEED, true) : null;
+        this.compressed = compress ? ByteBuffer.allocateDirect(BLOCK_SIZE) : null;
+
+        // Header placeholder; the counts are patched in close()
+        this.position = TraceFormat.HEADER_SIZE;
+        mapWindow(0, WINDOW_SIZE);
+        writeHeader(window, 0L, 0, 0, 0L, 0L, 0L, 0L);
+    }
+
+    @Override
+    public void onThread(int threadId, String name) {
+        threadRecord(threadId).nameOffset = stringTable.intern(name);
+    }
+
+    @Override
+    public void onEvent(long timestampNs, int threadId, byte eventType, long arg0, long arg1) {
+        if (block.remaining() < TraceFormat.MAX_ENCODED_EVENT_SIZE) {
+            flushBlock();
+        }
+
+        TraceFormat.EventType type = TraceFormat.EventType.fromValue(eventType);
+        boolean sameThread = threadId == lastThreadId;
+        block.put((byte) (sameThread ? eventType | TraceFormat.TAG_SAME_THREAD : eventType));
+        VarInt.putVarLong(block, VarInt.zigzag(timestampNs - lastTimestampNs));
+        if (!sameThread) {
+            VarInt.putVarLong(block, Integer.toUnsignedLong(threadId));
+            blockThreads.add(threadId);
+        }
+        int argCount = type.getArgCount();
+        if (argCount > 0) {
+            VarInt.putVarLong(block, arg0);
+            if (argCount > 1) {
+                VarInt.putVarLong(block, arg1);
+            }
+        }
+        lastTimestampNs = timestampNs;
+        lastThreadId = threadId;
+        blockMinNs = Math.min(blockMinNs, timestampNs);
+        blockMaxNs = Math.max(blockMaxNs, timestampNs);
+        blockEvents++;
+
+        ThreadRecord thread = threadRecord(threadId);
+        if (thread.startTimeNs < 0) {
+            thread.startTimeNs = timestampNs;
+        } else if (timestampNs < thread.endTimeNs) {
+            unordered = true;
+        }
+        thread.endTimeNs = Math.max(thread.endTimeNs, timestampNs);
+        numEvents++;
+    }
+
+    @Override
+    public void onAgentMetrics(Map<String, Long> metrics) {
+        agentMetrics = metrics;
+    }
+
+    @Override
+    public void onDrainComplete() {
+        if (blockEvents > 0 && blockMaxNs - blockMinNs >= MAX_CHUNK_SPAN_NS) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * Append the string table, thread table, chunk index, stack table and agent metrics and patch the header
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flushBlock();
+            long eventsEnd = position;
+
+            // String table: entries are placed at the offsets handed out while tracing
+            int stringTableSize = stringTable.sizeInBytes();
+            if (stringTableSize > 0) {
+                MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_WRITE, eventsEnd, stringTableSize);
+                table.order(TraceFormat.BYTE_ORDER);
+                stringTable.forEach(stringTableSize, (offset, utf8) -> {
+                    table.putShort(offset, (short) utf8.length);
+                    for (int i = 0; i < utf8.length; i++) {
+                        table.put(offset + 2 + i, utf8[i]);
+                    }
+                });
+            }
+            position = eventsEnd + stringTableSize;
+            window = null;
+            if (stringTable.getOverflowCount() > 0) {
+                logger.warn("String table budget exhausted: {} strings were recorded as \"{}\"",
+                    stringTable.getOverflowCount(), StringTable.OVERFLOW);
+            }
+
+            // Thread table
+            for (ThreadRecord thread : threads.values()) {
+                ensureWindow(TraceFormat.THREAD_INFO_SIZE);
+                window.putInt(thread.threadId);
+                window.putInt(thread.nameOffset);
+                window.putLong(Math.max(thread.startTimeNs, 0L));
+                window.putLong(thread.endTimeNs);
+                position += TraceFormat.THREAD_INFO_SIZE;
+            }
+
+            // Chunk index
+            long indexOffset = position;
+            ensureWindow(TraceFormat.INDEX_HEADER_SIZE);
+            window.putInt(chunkOffsets.size());
+            window.putInt(0);
+            position += TraceFormat.INDEX_HEADER_SIZE;
+            int threadIndex = 0;
+            for (int i = 0; i < chunkOffsets.size(); i++) {
+                int threadCount = chunkThreadCounts.get(i);
+                ensureWindow(TraceFormat.INDEX_ENTRY_SIZE + threadCount * 4);
+                window.putLong(chunkOffsets.get(i));
+                window.putLong(chunkMinNs.get(i));
+                window.putLong(chunkMaxNs.get(i));
+                window.putInt(chunkEvents.get(i));
+                window.putInt(threadCount);
+                for (int t = 0; t < threadCount; t++) {
+                    window.putInt(chunkThreadIds.get(threadIndex++));
+                }
+                position += TraceFormat.INDEX_ENTRY_SIZE + threadCount * 4;
+            }
+
+            // Stack table
+            int flags = unordered ? TraceFormat.HEADER_FLAG_UNORDERED : 0;
+            if (stackTable != null && stackTable.size() > 0) {
+                flags |= TraceFormat.HEADER_FLAG_STACK_TABLE;
+                int stackCount = stackTable.size();
+                ensureWindow(TraceFormat.STACK_TABLE_HEADER_SIZE);
+                window.putInt(stackCount);
+                window.putInt(0);
+                position += TraceFormat.STACK_TABLE_HEADER_SIZE;
+                for (int i = 0; i < stackCount; i++) {
+                    int[] frames = stackTable.frames(i);
+                    ensureWindow(4 + frames.length * 4);
+                    window.putInt(frames.length);
+                    for (int frame : frames) {
+                        window.putInt(frame);
+                    }
+                    position += 4 + frames.length * 4;
+                }
+            }
+
+            // Agent metrics
+            if (!agentMetrics.isEmpty()) {
+                flags |= TraceFormat.HEADER_FLAG_AGENT_METRICS;
+                ensureWindow(TraceFormat.AGENT_METRICS_HEADER_SIZE);
+                window.putInt(agentMetrics.size());
+                window.putInt(0);
+                position += TraceFormat.AGENT_METRICS_HEADER_SIZE;
+                for (Map.Entry<String, Long> metric : agentMetrics.entrySet()) {
+                    byte[] name = metric.getKey().getBytes(StandardCharsets.UTF_8);
+                    ensureWindow(2 + name.length + 8);
+                    window.putShort((short) name.length);
+                    window.put(name);
+                    window.putLong(metric.getValue());
+                    position += 2 + name.length + 8;
+                }
+            }
+
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, TraceFormat.HEADER_SIZE);
+            header.order(TraceFormat.BYTE_ORDER);
+            writeHeader(header, epochNanos(), threads.size(), flags, numEvents, eventsEnd, stringTableSize, indexOffset);
+            header.force();
+
+            // Mapping extends the file in whole windows; cut it back to what was written
+            window = null;
+            channel.truncate(position);
+            channel.force(true);
+            channel.close();
+
+            logger.info("Trace written to {}: {} events, {} threads, {} chunks, {} bytes ({} bytes of events before compression)",
+                path, numEvents, threads.size(), chunkOffsets.size(), position, rawBytes);
+        } catch (IOException e) {
+            logger.error("Failed to finalize trace file: {}", path, e);
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    /**
+     * Number of events written so far
+     */
+    public long getNumEvents() {
+        return numEvents;
+    }
+
+    /**
+     * Number of bytes written so far, including the header
+     */
+    public long getBytesWritten() {
+        return position + block.position();
+    }
+
+    private void flushBlock() {
+        block.flip();
+        int rawSize = block.remaining();
+        if (rawSize > 0) {
+            ByteBuffer payload = block;
+            byte flags = 0;
+            if (deflater != null) {
+                deflater.reset();
+                deflater.setInput(block);
+                deflater.finish();
+                compressed.clear();
+                deflater.deflate(compressed);
+                // Incompressible blocks are stored as they are
+                if (deflater.finished() && compressed.position() < rawSize) {
+                    compressed.flip();
+                    payload = compressed;
+                    flags = TraceFormat.BLOCK_FLAG_DEFLATE;
+                } else {
+                    block.rewind();
+                }
+            }
+            int storedSize = payload.remaining();
+            try {
+                ensureWindow(TraceFormat.BLOCK_HEADER_SIZE + storedSize);
+                addChunk(position);
+                window.putInt(storedSize);
+                window.putInt(rawSize);
+                window.putInt(blockEvents);
+                window.putInt(flags);
+                window.put(payload);
+                position += TraceFormat.BLOCK_HEADER_SIZE + storedSize;
+                rawBytes += rawSize;
+            } catch (IOException e) {
+                logger.error("Failed to write trace block to {}", path, e);
+            }
+        }
+        block.clear();
+        blockEvents = 0;
+        lastTimestampNs = 0;
+        lastThreadId = -1;
+        blockMinNs = Long.MAX_VALUE;
+        blockMaxNs = Long.MIN_VALUE;
+        blockThreads.clear();
+    }
+
+    private void addChunk(long offset) {
+        chunkOffsets.add(offset);
+        chunkMinNs.add(blockMinNs);
+        chunkMaxNs.add(blockMaxNs);
+        chunkEvents.add(blockEvents);
+        chunkThreadCounts.add(blockThreads.size());
+        blockThreads.forEach(chunkThreadIds::add);
+    }
+
+    private void ensureWindow(int length) throws IOException {
+        if (window == null || window.remaining() < length) {
+            mapWindow(position, Math.max(WINDOW_SIZE, length));
+        }
+    }
+
+    private void mapWindow(long start, int size) throws IOException {
+        window = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        window.order(TraceFormat.BYTE_ORDER);
+        windowStart = start;
+        window.position((int) (position - windowStart));
+    }
+
+    private void writeHeader(ByteBuffer buffer, long endEpochNs, int numThreads, int flags, long events,
+                             long stringTableOffset, long stringTableSize, long indexOffset) {
+        buffer.putInt(TraceFormat.HEADER_MAGIC_OFFSET, TraceFormat.TRACE_MAGIC);
+        buffer.putInt(TraceFormat.HEADER_VERSION_OFFSET, TraceFormat.TRACE_FORMAT_VERSION);
+        buffer.putLong(TraceFormat.HEADER_START_TIME_OFFSET, startEpochNs);
+        buffer.putLong(TraceFormat.HEADER_END_TIME_OFFSET, endEpochNs);
+        buffer.putInt(TraceFormat.HEADER_NUM_THREADS_OFFSET, numThreads);
+        buffer.putInt(TraceFormat.HEADER_FLAGS_OFFSET, flags);
+        buffer.putLong(TraceFormat.HEADER_NUM_EVENTS_OFFSET, events);
+        buffer.putLong(TraceFormat.HEADER_STRING_TABLE_OFFSET_OFFSET, stringTableOffset);
+        buffer.putLong(TraceFormat.HEADER_STRING_TABLE_SIZE_OFFSET, stringTableSize);
+        buffer.putLong(TraceFormat.HEADER_INDEX_OFFSET_OFFSET, indexOffset);
+    }
+
+    private ThreadRecord threadRecord(int threadId) {
+        ThreadRecord thread = lastThread;
+        if (thread != null && thread.threadId == threadId) {
+            return thread;
+        }
+        thread = threads.get(threadId);
+        if (thread == null) {
+            thread = new ThreadRecord(threadId);
+            threads.put(threadId, thread);
+        }
+        lastThread = thread;
+        return thread;
+    }
+
+    /**
+     * Current wall-clock time in nanoseconds since the epoch
+     */
+    static long epochNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    private static final class ThreadRecord {
+        final int threadId;
+        int nameOffset = -1;
+        long startTimeNs = -1;
+        long endTimeNs;
+
+        ThreadRecord(int threadId) {
+            this.threadId = threadId;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.traceview.agent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class ConcurrencyInstrumentationTest {
+
+    @AfterEach
+    void uninstall() {
+        LockHooks.install(null, LockHooks.DEFAULT_MIN_WAIT_NS, null);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void synchronizedMethodsBecomeExplicitMonitors(boolean lockOrder) throws Exception {
+        Sample sample = rewrite(lockOrder);
+
+        for (String name : new String[] {"holdsItself", "fail", "countDown", "holdsClassStatic"}) {
+            Method method = findMethod(sample.getClass(), name);
+            assertThat(Modifier.isSynchronized(method.getModifiers())).as(name).isFalse();
+        }
+        assertThat(sample.holdsItself()).isTrue();
+        assertThat(sample.holdsClass()).isTrue();
+        assertThat(Thread.holdsLock(sample)).isFalse();
+        assertThat(Thread.holdsLock(sample.getClass())).isFalse();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void throwingReleasesTheMonitor(boolean lockOrder) throws Exception {
+        Sample sample = rewrite(lockOrder);
+        Object other = new Object();
+
+        assertThatThrownBy(sample::fail).isInstanceOf(IllegalStateException.class);
+        assertThat(Thread.holdsLock(sample)).isFalse();
+
+        assertThatThrownBy(() -> sample.nested(other, true)).isInstanceOf(IllegalStateException.class);
+        assertThat(Thread.holdsLock(sample)).isFalse();
+        assertThat(Thread.holdsLock(other)).isFalse();
+        assertReleased(sample);
+        assertReleased(other);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void reentrantAndNestedBlocksAreReleasedInTurn(boolean lockOrder) throws Exception {
+        Sample sample = rewrite(lockOrder);
+        Object other = new Object();
+
+        // Held: the method's monitor, re-entered by the block, and the other object inside it
+        assertThat(sample.nested(other, false)).isEqualTo(3);
+        assertThat(sample.nested(sample, false)).isEqualTo(3);
+        assertThat(Thread.holdsLock(sample)).isFalse();
+        assertThat(Thread.holdsLock(other)).isFalse();
+        assertReleased(sample);
+        assertReleased(other);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void loopsRightAtTheMonitorEntryStillVerify(boolean lockOrder) throws Exception {
+        Sample sample = rewrite(lockOrder);
+
+        assertThat(sample.countDown(5)).isZero();
+        assertThat(sample.countDownInBlock(5)).isZero();
+        assertThat(Thread.holdsLock(sample)).isFalse();
+        assertReleased(sample);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void waitAndNotifyStillNeedTheMonitor(boolean lockOrder) throws Exception {
+        Sample sample = rewrite(lockOrder);
+
+        sample.waitBriefly();
+        assertThatThrownBy(sample::notifyWithoutMonitor).isInstanceOf(IllegalMonitorStateException.class);
+        assertThat(Thread.holdsLock(sample)).isFalse();
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void lockInterruptiblyHonorsInterrupts(boolean lockOrder) throws Exception {
+        Sample sample = rewrite(lockOrder);
+        ReentrantLock lock = new ReentrantLock();
+
+        // Interrupted before the call, with the lock free
+        Thread.currentThread().interrupt();
+        assertThatThrownBy(() -> sample.lockInterruptibly(lock)).isInstanceOf(InterruptedException.class);
+        assertThat(Thread.interrupted()).isFalse();
+        assertThat(lock.isLocked()).isFalse();
+
+        // Interrupted while blocked behind another holder
+        lock.lock();
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                sample.lockInterruptibly(lock);
+            } catch (Throwable e) {
+                thrown.set(e);
+            }
+        });
+        try {
+            waiter.start();
+            while (!lock.hasQueuedThread(waiter)) {
+                Thread.onSpinWait();
+            }
+            waiter.interrupt();
+            waiter.join(10_000);
+        } finally {
+            lock.unlock();
+        }
+        assertThat(waiter.isAlive()).isFalse();
+        assertThat(thrown.get()).isInstanceOf(InterruptedException.class);
+        assertThat(lock.isLocked()).isFalse();
+
+        // And still locks and unlocks when not interrupted
+        sample.lockInterruptibly(lock);
+        assertThat(lock.isLocked()).isFalse();
+    }
+
+    /**
+     * Rewrite {@link Samples} the way the agent does and load it in a class
+     * loader of its own, which verifies it
+     */
+    private static Sample rewrite(boolean lockOrder) throws Exception {
+        // Whether monitor instructions report to the lock order checker is decided when rewriting
+        LockHooks.install(null, 0L, lockOrder ? new LockDep(null) : null);
+        Class<?> rewritten = new ByteBuddy()
+            .redefine(Samples.class)
+            .visit(ConcurrencyInstrumentation.CallSiteRewriter.INSTANCE)
+            .make()
+            .load(Samples.class.getClassLoader(), ClassLoadingStrategy.Default.CHILD_FIRST)
+            .getLoaded();
+        assertThat(rewritten).isNotSameAs(Samples.class);
+        return (Sample) rewritten.getDeclaredConstructor().newInstance();
+    }
+
+    private static Method findMethod(Class<?> type, String name) {
+        for (Method method : type.getDeclaredMethods()) {
+            if (method.getName().equals(name)) {
+                return method;
+            }
+        }
+        throw new AssertionError("No method " + name);
+    }
+
+    /**
+     * Another thread can take the monitor, so this one no longer holds it even re-entrantly
+     */
+    private static void assertReleased(Object monitor) throws InterruptedException {
+        CountDownLatch entered = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            synchronized (monitor) {
+                entered.countDown();
+            }
+        });
+        thread.start();
+        thread.join(10_000);
+        assertThat(entered.getCount()).isZero();
+    }
+
+    public interface Sample {
+        boolean holdsItself();
+
+        void fail();
+
+        int nested(Object other, boolean fail);
+
+        int countDown(int n);
+
+        int countDownInBlock(int n);
+
+        boolean holdsClass();
+
+        void waitBriefly() throws InterruptedException;
+
+        void notifyWithoutMonitor();
+
+        void lockInterruptibly(Lock lock) throws InterruptedException;
+    }
+
+    /**
+     * Rewritten and loaded anew by each test; public since it is loaded in another class loader
+     */
+    public static class Samples implements Sample {
+
+        @Override
+        public synchronized boolean holdsItself() {
+            return Thread.holdsLock(this);
+        }
+
+        @Override
+        public synchronized void fail() {
+            throw new IllegalStateException("fail");
+        }
+
+        @Override
+        public synchronized int nested(Object other, boolean fail) {
+            int held = 0;
+            synchronized (this) {
+                synchronized (other) {
+                    if (fail) {
+                        throw new IllegalStateException("fail");
+                    }
+                    held += Thread.holdsLock(this) ? 1 : 0;
+                    held += Thread.holdsLock(other) ? 1 : 0;
+                }
+                held += Thread.holdsLock(this) ? 1 : 0;
+            }
+            return held;
+        }
+
+        @Override
+        public synchronized int countDown(int n) {
+            // javac puts the loop condition at offset 0, a branch target ahead of the inserted MONITORENTER
+            while (n > 0) {
+                n--;
+            }
+            return n;
+        }
+
+        @Override
+        public int countDownInBlock(int n) {
+            synchronized (this) {
+                // The loop starts at the label javac places right after MONITORENTER, which has a frame
+                while (n > 0) {
+                    n--;
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public boolean holdsClass() {
+            return holdsClassStatic();
+        }
+
+        static synchronized boolean holdsClassStatic() {
+            return Thread.holdsLock(Samples.class);
+        }
+
+        @Override
+        public synchronized void waitBriefly() throws InterruptedException {
+            wait(1);
+            notifyAll();
+        }
+
+        @Override
+        public void notifyWithoutMonitor() {
+            notify();
+        }
+
+        @Override
+        public void lockInterruptibly(Lock lock) throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                // Re-entered through the hook as well
+                lock.lockInterruptibly();
+                lock.unlock();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.traceview.agent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class EventBufferTest {
+
+    @Test
+    void growsUpToItsCapacityAndThenDrops() {
+        int capacity = EventBuffer.INITIAL_CAPACITY * 4;
+        EventBuffer buffer = new EventBuffer(Thread.currentThread(), capacity, 0L);
+
+        for (int i = 0; i < capacity; i++) {
+            assertThat(buffer.offer(i, 1, (byte) 3, i * 2L, i * 3L)).isTrue();
+        }
+        assertThat(buffer.offer(capacity, 1, (byte) 3, 0L, 0L)).isFalse();
+        assertThat(buffer.droppedEvents()).isEqualTo(1);
+        assertThat(buffer.fullCount()).isEqualTo(1);
+        assertThat(buffer.size()).isEqualTo(capacity);
+        assertThat(buffer.oldestTimestampNs()).isZero();
+
+        AtomicLong expected = new AtomicLong();
+        int drained = buffer.drainTo((timestampNs, threadId, eventType, arg0, arg1) -> {
+            long i = expected.getAndIncrement();
+            assertThat(timestampNs).isEqualTo(i);
+            assertThat(threadId).isEqualTo(1);
+            assertThat(eventType).isEqualTo((byte) 3);
+            assertThat(arg0).isEqualTo(i * 2);
+            assertThat(arg1).isEqualTo(i * 3);
+        });
+        assertThat(drained).isEqualTo(capacity);
+        assertThat(buffer.isEmpty()).isTrue();
+    }
+
+    @Test
+    void growingKeepsTheEventsNotYetDrained() {
+        EventBuffer buffer = new EventBuffer(Thread.currentThread(), EventBuffer.INITIAL_CAPACITY * 8, 0L);
+        AtomicLong next = new AtomicLong();
+        EventSink inOrder = (timestampNs, threadId, eventType, arg0, arg1) ->
+            assertThat(timestampNs).isEqualTo(next.getAndIncrement());
+
+        long written = 0;
+        // Wrap around the initial ring before it has to grow
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < EventBuffer.INITIAL_CAPACITY - 10; i++) {
+                buffer.offer(written++, 1, (byte) 3, 0L, 0L);
+            }
+            buffer.drainTo(inOrder);
+        }
+        for (int i = 0; i < EventBuffer.INITIAL_CAPACITY * 3; i++) {
+            assertThat(buffer.offer(written++, 1, (byte) 3, 0L, 0L)).isTrue();
+        }
+        buffer.drainTo(inOrder);
+
+        assertThat(next.get()).isEqualTo(written);
+        assertThat(buffer.droppedEvents()).isZero();
+    }
+
+    @Test
+    void drainerSeesEveryEventWhileTheRingGrows() throws InterruptedException {
+        int events = 2_000_000;
+        EventBuffer buffer = new EventBuffer(Thread.currentThread(), 1 << 16, 0L);
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicLong next = new AtomicLong();
+        AtomicLong mismatches = new AtomicLong();
+        EventSink sink = (timestampNs, threadId, eventType, arg0, arg1) -> {
+            long expected = next.getAndIncrement();
+            if (timestampNs != expected || arg0 != ~expected) {
+                mismatches.incrementAndGet();
+            }
+        };
+        Thread drainer = new Thread(() -> {
+            while (!done.get() || !buffer.isEmpty()) {
+                buffer.drainTo(sink);
+            }
+        });
+        drainer.start();
+
+        long written = 0;
+        while (written < events) {
+            // Dropped events are retried, so the sequence has no gaps
+            if (buffer.offer(written, 1, (byte) 3, ~written, 0L)) {
+                written++;
+            }
+        }
+        done.set(true);
+        drainer.join();
+
+        assertThat(mismatches.get()).isZero();
+        assertThat(next.get()).isEqualTo(events);
+    }
+}
@@ -0,0 +1,25 @@
+package com.traceview.agent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class EventCollectorTest {
+
+    @Test
+    void nullAnnotationIsInternedAsText() {
+        EventCollector collector = new EventCollector(null);
+
+        collector.recordAnnotation(null);
+        collector.recordAnnotation("null");
+
+        List<String> strings = new ArrayList<>();
+        collector.getStringTable().forEach(Integer.MAX_VALUE,
+            (offset, utf8) -> strings.add(new String(utf8, StandardCharsets.UTF_8)));
+        assertThat(strings).containsExactly("null");
+    }
+}
@@ -0,0 +1,228 @@
+package com.traceview.agent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.jupiter.api.Test;
+
+class LockDepTest {
+
+    // Not started, so reports are only counted and logged
+    private final LockDep lockDep = new LockDep(new EventCollector(null));
+
+    @Test
+    void oppositeOrdersAreAnInversion() {
+        Object a = new Object();
+        Object b = new Object();
+
+        lock(a);
+        lock(b);
+        unlock(b);
+        unlock(a);
+        assertThat(lockDep.getInversionCount()).isZero();
+
+        lock(b);
+        lock(a);
+        unlock(a);
+        unlock(b);
+        assertThat(lockDep.getInversionCount()).isEqualTo(1);
+
+        // The same inversion again is not reported twice
+        lock(b);
+        lock(a);
+        unlock(a);
+        unlock(b);
+        assertThat(lockDep.getInversionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void reenteringAHeldLockAddsNoOrder() {
+        Object a = new Object();
+        Object b = new Object();
+
+        lock(a);
+        lock(b);
+        lock(a);
+        unlock(a);
+        unlock(b);
+        unlock(a);
+
+        assertThat(lockDep.getInversionCount()).isZero();
+    }
+
+    @Test
+    void threeLockCycleIsAnInversion() {
+        Object a = new Object();
+        Object b = new Object();
+        Object c = new Object();
+
+        lockPair(a, b);
+        lockPair(b, c);
+        assertThat(lockDep.getInversionCount()).isZero();
+        lockPair(a, c);
+        assertThat(lockDep.getInversionCount()).isZero();
+
+        lockPair(c, a);
+        assertThat(lockDep.getInversionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void locksSharingAnIdAreNotReported() {
+        Object[] twins = sameIdentityHash();
+        Object other = new Object();
+
+        // A cycle by ids only: twins[0] -> other -> twins[1]
+        lockPair(twins[0], other);
+        lockPair(other, twins[1]);
+
+        assertThat(lockDep.getInversionCount()).isZero();
+    }
+
+    @Test
+    void holdsPastTheTrackedDepthAreMatchedOnRelease() {
+        List<Object> locks = new ArrayList<>();
+        for (int i = 0; i < 70; i++) {
+            locks.add(new Object());
+            lock(locks.get(i));
+        }
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            unlock(locks.get(i));
+        }
+
+        // Had the first lock been left on the held stack, x would now be ordered after it
+        Object x = new Object();
+        lockPair(x, locks.get(0));
+        assertThat(lockDep.getInversionCount()).isZero();
+
+        // Untracked holds released out of order leave the tracked ones alone
+        for (Object lock : locks) {
+            lock(lock);
+        }
+        unlock(locks.get(66));
+        unlock(locks.get(68));
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            if (i != 66 && i != 68) {
+                unlock(locks.get(i));
+            }
+        }
+        Object y = new Object();
+        lockPair(y, locks.get(1));
+        assertThat(lockDep.getInversionCount()).isZero();
+    }
+
+    @Test
+    void deadlockIsConfirmedOnTheSecondScan() throws InterruptedException {
+        ReentrantLock a = new ReentrantLock();
+        ReentrantLock b = new ReentrantLock();
+        CountDownLatch bothHeld = new CountDownLatch(2);
+        Thread first = new Thread(() -> deadlock(a, b, bothHeld), "first");
+        Thread second = new Thread(() -> deadlock(b, a, bothHeld), "second");
+        first.start();
+        second.start();
+        try {
+            while (!a.hasQueuedThread(second) || !b.hasQueuedThread(first)) {
+                Thread.onSpinWait();
+            }
+
+            lockDep.scan();
+            assertThat(lockDep.getDeadlockCount()).isZero();
+            lockDep.scan();
+            assertThat(lockDep.getDeadlockCount()).isEqualTo(1);
+            // Reported once, though both threads lead into the cycle
+            lockDep.scan();
+            assertThat(lockDep.getDeadlockCount()).isEqualTo(1);
+        } finally {
+            first.interrupt();
+            second.interrupt();
+            first.join(10_000);
+            second.join(10_000);
+        }
+        assertThat(first.isAlive()).isFalse();
+        assertThat(second.isAlive()).isFalse();
+    }
+
+    @Test
+    void waitingBehindAHolderIsNoDeadlock() throws InterruptedException {
+        ReentrantLock a = new ReentrantLock();
+        a.lock();
+        lockDep.acquired(a, true);
+        Thread waiter = new Thread(() -> {
+            lockDep.beforeAcquire(a);
+            a.lock();
+            lockDep.acquired(a, true);
+            lockDep.released(a);
+            a.unlock();
+        });
+        waiter.start();
+        try {
+            while (!a.hasQueuedThread(waiter)) {
+                Thread.onSpinWait();
+            }
+            lockDep.scan();
+            lockDep.scan();
+            assertThat(lockDep.getDeadlockCount()).isZero();
+        } finally {
+            lockDep.released(a);
+            a.unlock();
+            waiter.join(10_000);
+        }
+    }
+
+    /**
+     * Hold the first lock, then block on the second until interrupted
+     */
+    private void deadlock(ReentrantLock held, ReentrantLock wanted, CountDownLatch bothHeld) {
+        held.lock();
+        lockDep.acquired(held, true);
+        try {
+            bothHeld.countDown();
+            bothHeld.await();
+            lockDep.beforeAcquire(wanted);
+            wanted.lockInterruptibly();
+            lockDep.acquired(wanted, true);
+            lockDep.released(wanted);
+            wanted.unlock();
+        } catch (InterruptedException e) {
+            lockDep.abandoned();
+        } finally {
+            lockDep.released(held);
+            held.unlock();
+        }
+    }
+
+    private void lock(Object lock) {
+        lockDep.beforeAcquire(lock);
+        lockDep.acquired(lock, true);
+    }
+
+    private void unlock(Object lock) {
+        lockDep.released(lock);
+    }
+
+    private void lockPair(Object outer, Object inner) {
+        lock(outer);
+        lock(inner);
+        unlock(inner);
+        unlock(outer);
+    }
+
+    /**
+     * Two live objects with the same identity hash code, found by allocating until codes collide
+     */
+    private static Object[] sameIdentityHash() {
+        Map<Integer, Object> seen = new HashMap<>();
+        while (true) {
+            Object object = new Object();
+            Object twin = seen.putIfAbsent(System.identityHashCode(object), object);
+            if (twin != null) {
+                return new Object[] {twin, object};
+            }
+        }
+    }
+}
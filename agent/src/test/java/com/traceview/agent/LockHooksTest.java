@@ -0,0 +1,95 @@
+package com.traceview.agent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.traceview.shared.TraceFormat.EventType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class LockHooksTest {
+
+    private final List<long[]> events = new ArrayList<>();
+    private final EventCollector collector = new EventCollector(null);
+
+    @AfterEach
+    void uninstall() {
+        LockHooks.install(null, LockHooks.DEFAULT_MIN_WAIT_NS, null);
+    }
+
+    @Test
+    void monitorExitEndsAContendedEntryOnly() throws IOException {
+        start(TimeUnit.SECONDS.toNanos(1));
+        Object contended = new Object();
+        Object uncontended = new Object();
+
+        // Entered after a long wait, re-entered without one
+        LockHooks.afterMonitorEnter(contended, System.nanoTime() - TimeUnit.SECONDS.toNanos(2));
+        LockHooks.afterMonitorEnter(contended, System.nanoTime());
+        LockHooks.afterMonitorEnter(uncontended, System.nanoTime());
+        LockHooks.beforeMonitorExit(uncontended);
+        LockHooks.beforeMonitorExit(contended);
+        LockHooks.beforeMonitorExit(contended);
+        collector.stop();
+
+        assertThat(types()).containsExactly(EventType.MUTEX_LOCK_ATTEMPT, EventType.MUTEX_LOCK_ACQUIRED,
+            EventType.MONITOR_EXIT);
+        assertThat(events).allSatisfy(event -> assertThat(event[2]).isEqualTo(System.identityHashCode(contended)));
+    }
+
+    @Test
+    void unlockIsRecordedForTheFinalReleaseOfAContendedHold() throws IOException {
+        // Every acquisition waits long enough; a fair lock is never barged
+        start(0);
+        ReentrantLock lock = new ReentrantLock(true);
+
+        LockHooks.lock(lock);
+        assertThat(LockHooks.tryLock(lock)).isTrue();
+        LockHooks.unlock(lock);
+        LockHooks.unlock(lock);
+        collector.stop();
+
+        assertThat(lock.isLocked()).isFalse();
+        assertThat(types()).containsExactly(EventType.MUTEX_LOCK_ATTEMPT, EventType.MUTEX_LOCK_ACQUIRED,
+            EventType.MUTEX_UNLOCK);
+    }
+
+    @Test
+    void reentrantAcquisitionsAreReleasedInTurn() throws IOException {
+        start(0);
+        ReentrantLock lock = new ReentrantLock(true);
+
+        LockHooks.lock(lock);
+        LockHooks.lock(lock);
+        LockHooks.unlock(lock);
+        LockHooks.unlock(lock);
+        collector.stop();
+
+        assertThat(types()).containsExactly(EventType.MUTEX_LOCK_ATTEMPT, EventType.MUTEX_LOCK_ACQUIRED,
+            EventType.MUTEX_LOCK_ATTEMPT, EventType.MUTEX_LOCK_ACQUIRED, EventType.MUTEX_UNLOCK);
+    }
+
+    private void start(long minWaitNs) throws IOException {
+        collector.setStackDepth(0);
+        collector.setSink((timestampNs, threadId, eventType, arg0, arg1) ->
+            events.add(new long[] {timestampNs, eventType, arg0}));
+        collector.start();
+        LockHooks.install(collector, minWaitNs, null);
+    }
+
+    /**
+     * Types of the events delivered, once the collector stopped
+     */
+    private List<EventType> types() {
+        List<EventType> types = new ArrayList<>();
+        for (long[] event : events) {
+            types.add(EventType.fromValue((byte) event[1]));
+        }
+        return types;
+    }
+}
@@ -0,0 +1,213 @@
+package com.traceview.agent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.traceview.shared.EventCursor;
+import com.traceview.shared.TraceFormat;
+import com.traceview.shared.TraceReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class TraceWriterTest {
+
+    private static final String[] THREAD_NAMES = {"main", "worker-1", "worker-2", "worker-é"};
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void eventsReadBackAsWritten(boolean compress) throws IOException {
+        List<long[]> events = randomEvents(new Random(1), 50_000);
+        StringTable strings = new StringTable();
+        Path trace = directory.resolve("trace.tview");
+
+        TraceWriter writer = new TraceWriter(trace.toString(), strings, null, 0L, compress);
+        for (int i = 0; i < THREAD_NAMES.length; i++) {
+            writer.onThread(i, THREAD_NAMES[i]);
+        }
+        write(writer, events);
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("droppedEvents", 0L);
+        metrics.put("bufferedBytes", 123_456_789_012L);
+        writer.onAgentMetrics(metrics);
+        writer.close();
+
+        try (TraceReader reader = TraceReader.open(trace)) {
+            assertThat(reader.getVersion()).isEqualTo(TraceFormat.TRACE_FORMAT_VERSION);
+            assertThat(reader.getNumEvents()).isEqualTo(events.size());
+            assertThat(reader.isTimeOrdered()).isTrue();
+            assertThat(reader.getChunks().size()).isGreaterThan(1);
+            assertThat(reader.getAgentMetrics()).containsExactlyEntriesOf(metrics);
+            assertThat(reader.getStackCount()).isZero();
+
+            assertThat(reader.getThreads()).hasSize(THREAD_NAMES.length);
+            for (TraceFormat.ThreadInfo thread : reader.getThreads()) {
+                assertThat(reader.getString(thread.nameOffset)).isEqualTo(THREAD_NAMES[thread.threadId]);
+                assertThat(thread.startTimeNs).isEqualTo(firstTimestamp(events, thread.threadId));
+                assertThat(thread.endTimeNs).isEqualTo(lastTimestamp(events, thread.threadId));
+            }
+
+            List<long[]> read = new ArrayList<>();
+            reader.forEachEvent((timestampNs, threadId, type, arg0, arg1) ->
+                read.add(new long[] {timestampNs, threadId, type.getValue(), arg0, arg1}));
+            assertSameEvents(read, events);
+        }
+    }
+
+    @Test
+    void chunkIndexNarrowsQueries() throws IOException {
+        List<long[]> events = randomEvents(new Random(2), 50_000);
+        Path trace = directory.resolve("trace.tview");
+        TraceWriter writer = new TraceWriter(trace.toString(), new StringTable(), 0L);
+        write(writer, events);
+        writer.close();
+
+        long fromNs = events.get(events.size() / 3)[0];
+        long toNs = events.get(events.size() / 2)[0];
+        try (TraceReader reader = TraceReader.open(trace)) {
+            for (TraceFormat.ChunkIndexEntry chunk : reader.getChunks()) {
+                assertThat(chunk.minTimestampNs).isLessThanOrEqualTo(chunk.maxTimestampNs);
+            }
+
+            List<long[]> read = new ArrayList<>();
+            try (EventCursor cursor = reader.cursor(fromNs, toNs, 2)) {
+                while (cursor.next()) {
+                    read.add(new long[] {cursor.timestampNs(), cursor.threadId(), cursor.type().getValue(),
+                        cursor.arg0(), cursor.arg1()});
+                }
+            }
+
+            List<long[]> expected = new ArrayList<>();
+            for (long[] event : events) {
+                if (event[1] == 2 && event[0] >= fromNs && event[0] <= toNs) {
+                    expected.add(event);
+                }
+            }
+            assertThat(expected).isNotEmpty();
+            assertSameEvents(read, expected);
+        }
+    }
+
+    @Test
+    void stacksReadBackByTheirIds() throws IOException {
+        StringTable strings = new StringTable();
+        StackTable stacks = new StackTable(strings);
+        int stackId = stacks.capture(8);
+        assertThat(stackId).isNotNegative();
+
+        Path trace = directory.resolve("trace.tview");
+        TraceWriter writer = new TraceWriter(trace.toString(), strings, stacks, 0L, true);
+        writer.onEvent(10, 0, TraceFormat.EventType.MUTEX_LOCK_ATTEMPT.getValue(), 7, 0);
+        writer.onEvent(10, 0, TraceFormat.EventType.STACK_TRACE.getValue(), stackId, 0);
+        writer.close();
+
+        try (TraceReader reader = TraceReader.open(trace)) {
+            assertThat(reader.getStackCount()).isEqualTo(stacks.size());
+            List<String> frames = reader.getStackFrames(stackId);
+            assertThat(frames).hasSize(stacks.frames(stackId).length).doesNotContain("<unknown>");
+            assertThat(reader.getStackFrames(stacks.size())).isEmpty();
+        }
+    }
+
+    @Test
+    void threadGoingBackInTimeMarksTheTraceUnordered() throws IOException {
+        Path trace = directory.resolve("trace.tview");
+        TraceWriter writer = new TraceWriter(trace.toString(), new StringTable(), 0L);
+        writer.onEvent(100, 1, TraceFormat.EventType.THREAD_START.getValue(), 0, 0);
+        writer.onEvent(50, 2, TraceFormat.EventType.THREAD_START.getValue(), 0, 0);
+        writer.onEvent(90, 1, TraceFormat.EventType.THREAD_END.getValue(), 0, 0);
+        writer.close();
+
+        try (TraceReader reader = TraceReader.open(trace)) {
+            assertThat(reader.isTimeOrdered()).isFalse();
+            List<long[]> read = new ArrayList<>();
+            reader.forEachEvent((timestampNs, threadId, type, arg0, arg1) ->
+                read.add(new long[] {timestampNs, threadId}));
+            assertThat(read).extracting(event -> event[0]).containsExactly(100L, 50L, 90L);
+        }
+    }
+
+    @Test
+    void interleavedThreadsKeepTheTraceOrdered() throws IOException {
+        Path trace = directory.resolve("trace.tview");
+        TraceWriter writer = new TraceWriter(trace.toString(), new StringTable(), 0L);
+        // Each thread's events are in order even where the threads' are not
+        writer.onEvent(100, 1, TraceFormat.EventType.THREAD_START.getValue(), 0, 0);
+        writer.onEvent(50, 2, TraceFormat.EventType.THREAD_START.getValue(), 0, 0);
+        writer.onEvent(100, 1, TraceFormat.EventType.THREAD_END.getValue(), 0, 0);
+        writer.close();
+
+        try (TraceReader reader = TraceReader.open(trace)) {
+            assertThat(reader.isTimeOrdered()).isTrue();
+        }
+    }
+
+    private static void write(TraceWriter writer, List<long[]> events) {
+        for (int i = 0; i < events.size(); i++) {
+            long[] event = events.get(i);
+            writer.onEvent(event[0], (int) event[1], (byte) event[2], event[3], event[4]);
+            if (i % 1_000 == 999) {
+                writer.onDrainComplete();
+            }
+        }
+    }
+
+    /**
+     * Events in time order, in runs on the same thread as the collector drains them:
+     * timestamp, thread id, type value, arg0, arg1
+     */
+    private static List<long[]> randomEvents(Random random, int count) {
+        TraceFormat.EventType[] types = TraceFormat.EventType.values();
+        List<long[]> events = new ArrayList<>();
+        long time = 1_000;
+        int threadId = 0;
+        for (int i = 0; i < count; i++) {
+            // Steps of up to 50 us, and now and then a long pause that starts a new chunk
+            time += random.nextInt(100) == 0 ? 2_000_000_000L : random.nextInt(50_000);
+            if (random.nextInt(4) == 0) {
+                threadId = random.nextInt(THREAD_NAMES.length);
+            }
+            TraceFormat.EventType type = types[random.nextInt(types.length)];
+            long arg0 = type.getArgCount() > 0 ? (random.nextLong() >>> 1) >>> random.nextInt(63) : 0;
+            long arg1 = type.getArgCount() > 1 ? random.nextInt(1 << 20) : 0;
+            events.add(new long[] {time, threadId, type.getValue(), arg0, arg1});
+        }
+        return events;
+    }
+
+    private static long firstTimestamp(List<long[]> events, int threadId) {
+        for (long[] event : events) {
+            if (event[1] == threadId) {
+                return event[0];
+            }
+        }
+        return -1;
+    }
+
+    private static long lastTimestamp(List<long[]> events, int threadId) {
+        for (int i = events.size() - 1; i >= 0; i--) {
+            if (events.get(i)[1] == threadId) {
+                return events.get(i)[0];
+            }
+        }
+        return -1;
+    }
+
+    private static void assertSameEvents(List<long[]> actual, List<long[]> expected) {
+        assertThat(actual).hasSameSizeAs(expected);
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(actual.get(i)).as("event %d", i).containsExactly(expected.get(i));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.traceview.benchmarks;
+
+import com.traceview.agent.StringTable;
+import com.traceview.agent.TraceWriter;
+import com.traceview.shared.EventCursor;
+import com.traceview.shared.TraceReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DecodingBenchmark - Cost per event of decoding a memory-mapped trace
+ *
+ * A trace of {@link #EVENT_COUNT} synthetic events is written once per
+ * trial and then read back completely by every invocation, through the
+ * flyweight cursor and through the visitor the analyses use. Scores are per
+ * event.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodingBenchmark {
+
+    static final int EVENT_COUNT = 1 << 20;
+
+    @Param({"false", "true"})
+    public boolean compress;
+
+    private Path file;
+    private TraceReader reader;
+
+    @Setup(Level.Trial)
+    public void writeTrace() throws IOException {
+        file = Files.createTempFile("traceview-decoding", ".tview");
+        TraceWriter writer = new TraceWriter(file.toString(), new StringTable(), null, 0L, compress);
+        for (int threadId = 1; threadId <= SyntheticEvents.THREAD_COUNT; threadId++) {
+            writer.onThread(threadId, "worker-" + threadId);
+        }
+        SyntheticEvents events = new SyntheticEvents();
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            events.emitNext(writer);
+        }
+        writer.close();
+        reader = TraceReader.open(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTrace() throws IOException {
+        reader.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public long decodeWithCursor() throws IOException {
+        long checksum = 0;
+        try (EventCursor cursor = reader.cursor()) {
+            while (cursor.next()) {
+                checksum += cursor.timestampNs() + cursor.threadId() + cursor.arg0() + cursor.arg1();
+            }
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public long decodeWithVisitor() throws IOException {
+        long[] checksum = new long[1];
+        reader.forEachEvent((timestampNs, threadId, type, arg0, arg1) ->
+            checksum[0] += timestampNs + threadId + arg0 + arg1);
+        return checksum[0];
+    }
+}
@@ -0,0 +1,66 @@
+package com.traceview.benchmarks;
+
+import com.traceview.agent.StringTable;
+import com.traceview.agent.TraceWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EncodingBenchmark - Cost of encoding one drained event into trace blocks
+ *
+ * This is the drainer's share of the work: varint encoding into the current
+ * block, deflating full blocks when compression is on, and writing them to
+ * the memory-mapped trace file. Every iteration writes a fresh file in the
+ * temporary directory, which is finalized and deleted afterwards.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodingBenchmark {
+
+    @Param({"false", "true"})
+    public boolean compress;
+
+    private final SyntheticEvents events = new SyntheticEvents();
+    private Path file;
+    private TraceWriter writer;
+
+    @Setup(Level.Iteration)
+    public void openWriter() throws IOException {
+        file = Files.createTempFile("traceview-encoding", ".tview");
+        writer = new TraceWriter(file.toString(), new StringTable(), null, 0L, compress);
+        for (int threadId = 1; threadId <= SyntheticEvents.THREAD_COUNT; threadId++) {
+            writer.onThread(threadId, "worker-" + threadId);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeWriter() throws IOException {
+        writer.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void encode() {
+        events.emitNext(writer);
+    }
+}
@@ -0,0 +1,97 @@
+package com.traceview.benchmarks;
+
+import com.traceview.agent.EventCollector;
+import com.traceview.agent.EventSink;
+import com.traceview.shared.TraceFormat;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RecordingBenchmark - Cost of recording one event from application threads
+ *
+ * Events go through the real per-thread buffers and drainer into a sink
+ * that discards them, so only the producer side is measured. When the
+ * drainer falls behind, events are dropped instead of recorded; the
+ * recorded and dropped counts are reported next to the time per event so a
+ * fast score that only measures dropping is easy to spot.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordingBenchmark {
+
+    private static final EventSink DISCARD = (timestampNs, threadId, eventType, arg0, arg1) -> { };
+
+    private EventCollector collector;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        collector = new EventCollector(null);
+        collector.setSink(DISCARD);
+        collector.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        collector.stop();
+    }
+
+    /**
+     * Per-thread outcome of the recorded events
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcome {
+        public long recorded;
+        public long dropped;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean recordSingleThread(Outcome outcome) {
+        return record(outcome);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean recordFourThreads(Outcome outcome) {
+        return record(outcome);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean sampleAndRecord(Outcome outcome) {
+        if (!collector.shouldSample(TraceFormat.EventType.MUTEX_LOCK_ACQUIRED)) {
+            return false;
+        }
+        return record(outcome);
+    }
+
+    private boolean record(Outcome outcome) {
+        boolean recorded = collector.record(TraceFormat.EventType.MUTEX_LOCK_ACQUIRED, 0x1234L, 0L);
+        if (recorded) {
+            outcome.recorded++;
+        } else {
+            outcome.dropped++;
+        }
+        return recorded;
+    }
+}
@@ -0,0 +1,110 @@
+package com.traceview.benchmarks;
+
+import com.traceview.agent.StringTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StringTableBenchmark - Cost of interning annotation, thread and frame strings
+ *
+ * Known strings are the common case on hot paths and should neither lock
+ * nor allocate. New strings are interned into an empty table per
+ * invocation, and a full table maps every new string to the overflow
+ * entry without encoding it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StringTableBenchmark {
+
+    // Distinct strings per pass; a power of two so the index can be masked
+    private static final int STRING_COUNT = 4096;
+
+    private String[] strings;
+    private StringTable known;
+    private StringTable full;
+
+    @Setup(Level.Trial)
+    public void createStrings() {
+        strings = new String[STRING_COUNT];
+        for (int i = 0; i < STRING_COUNT; i++) {
+            strings[i] = "com.example.orders.OrderService.process#" + i;
+        }
+        known = new StringTable();
+        for (String value : strings) {
+            known.intern(value);
+        }
+        full = new StringTable();
+        full.setMaxBytes(0);
+    }
+
+    /**
+     * A new table for every invocation, kept out of the shared state so the
+     * other benchmarks do not pay for the per-invocation setup
+     */
+    @State(Scope.Thread)
+    public static class EmptyTable {
+        StringTable table;
+
+        @Setup(Level.Invocation)
+        public void create() {
+            table = new StringTable();
+        }
+    }
+
+    /**
+     * Per-thread position in the strings, so threads do not share a counter
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        String nextOf(String[] strings) {
+            return strings[next++ & (STRING_COUNT - 1)];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int internKnown(Cursor cursor) {
+        return known.intern(cursor.nextOf(strings));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int internKnownFourThreads(Cursor cursor) {
+        return known.intern(cursor.nextOf(strings));
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(STRING_COUNT)
+    public void internNew(EmptyTable empty, Blackhole blackhole) {
+        for (String value : strings) {
+            blackhole.consume(empty.table.intern(value));
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int internWhenFull(Cursor cursor) {
+        return full.intern(cursor.nextOf(strings));
+    }
+}
@@ -0,0 +1,79 @@
+package com.traceview.benchmarks;
+
+import com.traceview.agent.EventSink;
+import com.traceview.shared.TraceFormat;
+
+import java.util.SplittableRandom;
+
+/**
+ * SyntheticEvents - A repeating pattern of lock events shaped like a contended application
+ *
+ * A few threads take turns on a small set of locks, each acquisition being
+ * an attempt, an acquire and an unlock a few microseconds apart, with the
+ * occasional wait and notify. Drain passes deliver runs of events from one
+ * thread, as the collector does. The pattern is generated once from a fixed
+ * seed so every run encodes the same bytes.
+ */
+final class SyntheticEvents {
+
+    // Events in one repetition of the pattern; a power of two so the index can be masked
+    static final int PATTERN_SIZE = 1 << 16;
+
+    static final int THREAD_COUNT = 8;
+
+    private static final int LOCK_COUNT = 64;
+    private static final int RUN_LENGTH = 32;
+
+    private final long[] deltaNs = new long[PATTERN_SIZE];
+    private final int[] threadIds = new int[PATTERN_SIZE];
+    private final byte[] types = new byte[PATTERN_SIZE];
+    private final long[] arg0 = new long[PATTERN_SIZE];
+    private final long[] arg1 = new long[PATTERN_SIZE];
+
+    private int next;
+    private long timestampNs;
+
+    SyntheticEvents() {
+        SplittableRandom random = new SplittableRandom(42);
+        long[] locks = new long[LOCK_COUNT];
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            // Identity hash codes, as the agent records them
+            locks[i] = random.nextInt() & 0x7FFFFFFFL;
+        }
+        int i = 0;
+        while (i < PATTERN_SIZE) {
+            int threadId = 1 + random.nextInt(THREAD_COUNT);
+            for (int run = 0; run < RUN_LENGTH && i < PATTERN_SIZE; run++) {
+                long lock = locks[random.nextInt(LOCK_COUNT)];
+                i = add(i, random.nextInt(5_000), threadId, TraceFormat.EventType.MUTEX_LOCK_ATTEMPT, lock, 0);
+                i = add(i, random.nextInt(20_000), threadId, TraceFormat.EventType.MUTEX_LOCK_ACQUIRED, lock, 0);
+                if (random.nextInt(16) == 0) {
+                    i = add(i, random.nextInt(2_000), threadId, TraceFormat.EventType.MONITOR_NOTIFY, lock, 0);
+                } else if (random.nextInt(16) == 0) {
+                    i = add(i, random.nextInt(2_000), threadId, TraceFormat.EventType.MONITOR_WAIT, lock, 10_000);
+                }
+                i = add(i, random.nextInt(5_000), threadId, TraceFormat.EventType.MUTEX_UNLOCK, lock, 0);
+            }
+        }
+    }
+
+    /**
+     * Deliver the next event of the pattern, with timestamps that keep increasing across repetitions
+     */
+    void emitNext(EventSink sink) {
+        int index = next++ & (PATTERN_SIZE - 1);
+        timestampNs += deltaNs[index];
+        sink.onEvent(timestampNs, threadIds[index], types[index], arg0[index], arg1[index]);
+    }
+
+    private int add(int i, long delta, int threadId, TraceFormat.EventType type, long first, long second) {
+        if (i < PATTERN_SIZE) {
+            deltaNs[i] = delta;
+            threadIds[i] = threadId;
+            types[i] = type.getValue();
+            arg0[i] = first;
+            arg1[i] = second;
+        }
+        return i + 1;
+    }
+}
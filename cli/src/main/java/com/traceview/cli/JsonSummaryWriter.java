@@ -0,0 +1,170 @@
+package com.traceview.cli;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.traceview.shared.LockStats;
+import com.traceview.shared.LogHistogram;
+import com.traceview.shared.TraceFormat;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * JsonSummaryWriter - One JSON document with a summary per trace, for tools
+ *
+ * <pre>
+ *   { "traces": [ { "path", "events", "durationNs", "threads": [...],
+ *                   "contention": { "locks", "totals", "topLocks": [...] },
+ *                   "deadlocks": [...], "inversions": [...], "agent": {...} }, ... ],
+ *     "totals": { "traces", "failed", "events", "deadlocks", "elapsedNs" } }
+ * </pre>
+ *
+ * Durations are in nanoseconds and lock ids are numbers, as in the trace.
+ * "agent" holds the self-metrics the agent wrote into the trace, by their
+ * names in the file, and is left out for traces without them.
+ * The document is streamed, so it never has to be held in memory.
+ */
+public class JsonSummaryWriter implements SummaryWriter {
+
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private final JsonGenerator json;
+
+    public JsonSummaryWriter(Writer out) throws IOException {
+        this.json = new JsonFactory().createGenerator(out);
+        json.useDefaultPrettyPrinter();
+        json.writeStartObject();
+        json.writeArrayFieldStart("traces");
+    }
+
+    @Override
+    public void write(TraceSummary summary) throws IOException {
+        json.writeStartObject();
+        json.writeStringField("path", summary.path.toString());
+        if (summary.failed()) {
+            json.writeStringField("error", summary.error);
+            json.writeEndObject();
+            return;
+        }
+        json.writeNumberField("version", summary.version);
+        json.writeNumberField("events", summary.eventCount);
+        json.writeNumberField("durationNs", summary.durationNs);
+        json.writeNumberField("analysisNs", summary.analysisNs);
+
+        json.writeArrayFieldStart("threads");
+        for (TraceSummary.ThreadSummary thread : summary.threads) {
+            json.writeStartObject();
+            json.writeNumberField("id", thread.threadId);
+            json.writeStringField("name", thread.name);
+            json.writeObjectFieldStart("stateNs");
+            for (TraceFormat.ThreadState state : TraceFormat.ThreadState.values()) {
+                json.writeNumberField(state.name().toLowerCase(), thread.stateNs(state));
+            }
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+
+        json.writeObjectFieldStart("contention");
+        json.writeNumberField("locks", summary.lockCount);
+        json.writeFieldName("totals");
+        writeLock(summary.lockTotals, summary);
+        json.writeArrayFieldStart("topLocks");
+        for (LockStats lock : summary.topLocks) {
+            writeLock(lock, summary);
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+
+        writeFindings("deadlocks", summary.deadlockCount(), summary.deadlocks, "lockId", "holderThreadId");
+        writeFindings("inversions", summary.inversionCount(), summary.inversions, "heldLockId", "acquiredLockId");
+        if (!summary.agentMetrics.isEmpty()) {
+            json.writeObjectFieldStart("agent");
+            for (Map.Entry<String, Long> metric : summary.agentMetrics.entrySet()) {
+                json.writeNumberField(metric.getKey(), metric.getValue());
+            }
+            json.writeEndObject();
+        }
+        json.writeEndObject();
+    }
+
+    @Override
+    public void finish(int traceCount, int failedCount, long eventCount, long deadlockCount, long elapsedNs)
+            throws IOException {
+        json.writeEndArray();
+        json.writeObjectFieldStart("totals");
+        json.writeNumberField("traces", traceCount);
+        json.writeNumberField("failed", failedCount);
+        json.writeNumberField("events", eventCount);
+        json.writeNumberField("deadlocks", deadlockCount);
+        json.writeNumberField("elapsedNs", elapsedNs);
+        json.writeEndObject();
+        json.writeEndObject();
+        json.writeRaw('\n');
+        json.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        json.close();
+    }
+
+    private void writeLock(LockStats lock, TraceSummary summary) throws IOException {
+        json.writeStartObject();
+        if (lock != summary.lockTotals) {
+            json.writeNumberField("id", lock.getObjectId());
+            json.writeStringField("type", lock.getType() == TraceFormat.SYNC_OBJECT_MUTEX ? "mutex" : "monitor");
+        }
+        json.writeNumberField("acquisitions", lock.getAcquisitions());
+        json.writeNumberField("blockedNs", lock.getBlockedNs());
+        writeHistogram("waitNs", lock.getWaitTimes());
+        writeHistogram("holdNs", lock.getHoldTimes());
+        json.writeNumberField("monitorWaits", lock.getMonitorWaits());
+        json.writeNumberField("monitorWaitNs", lock.getMonitorWaitNs());
+        json.writeNumberField("notifies", lock.getNotifies());
+        json.writeNumberField("inversions", lock.getInversions());
+        json.writeNumberField("deadlocks", lock.getDeadlocks());
+        json.writeArrayFieldStart("topThreads");
+        for (LockStats.ThreadContention thread : lock.getTopThreads(3)) {
+            json.writeStartObject();
+            json.writeNumberField("id", thread.getThreadId());
+            json.writeStringField("name", summary.threadNames.get(thread.getThreadId()));
+            json.writeNumberField("acquisitions", thread.getAcquisitions());
+            json.writeNumberField("blockedNs", thread.getBlockedNs());
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    private void writeHistogram(String name, LogHistogram histogram) throws IOException {
+        json.writeObjectFieldStart(name);
+        json.writeNumberField("count", histogram.getCount());
+        json.writeNumberField("min", histogram.getMin());
+        json.writeNumberField("mean", Math.round(histogram.getMean()));
+        for (double percentile : PERCENTILES) {
+            json.writeNumberField("p" + (int) percentile, histogram.getValueAtPercentile(percentile));
+        }
+        json.writeNumberField("max", histogram.getMax());
+        json.writeEndObject();
+    }
+
+    private void writeFindings(String name, long count, List<TraceSummary.Finding> findings, String lockField,
+                               String otherField) throws IOException {
+        json.writeObjectFieldStart(name);
+        json.writeNumberField("count", count);
+        json.writeArrayFieldStart("events");
+        for (TraceSummary.Finding finding : findings) {
+            json.writeStartObject();
+            json.writeNumberField("timestampNs", finding.timestampNs);
+            json.writeNumberField("threadId", finding.threadId);
+            json.writeNumberField(lockField, finding.lockId);
+            json.writeNumberField(otherField, finding.otherId);
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+}
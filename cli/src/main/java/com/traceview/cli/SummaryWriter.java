@@ -0,0 +1,21 @@
+package com.traceview.cli;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * SummaryWriter - Output format of the trace summaries
+ *
+ * Summaries are written one at a time, in the order the traces were given,
+ * followed by the totals over all of them.
+ */
+public interface SummaryWriter extends Closeable {
+
+    void write(TraceSummary summary) throws IOException;
+
+    /**
+     * Write the totals over all traces and flush
+     */
+    void finish(int traceCount, int failedCount, long eventCount, long deadlockCount, long elapsedNs)
+        throws IOException;
+}
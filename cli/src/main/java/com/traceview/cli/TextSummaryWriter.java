@@ -0,0 +1,135 @@
+package com.traceview.cli;
+
+import com.traceview.shared.ContentionStats;
+import com.traceview.shared.TraceFormat;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TextSummaryWriter - Plain text summaries for reading in a build log
+ */
+public class TextSummaryWriter implements SummaryWriter {
+
+    private static final TraceFormat.ThreadState[] STATES = TraceFormat.ThreadState.values();
+
+    private final PrintWriter out;
+    private final int topThreads;
+
+    /**
+     * @param topThreads Threads listed per trace, longest blocked first
+     */
+    public TextSummaryWriter(Writer out, int topThreads) {
+        this.out = new PrintWriter(out);
+        this.topThreads = topThreads;
+    }
+
+    @Override
+    public void write(TraceSummary summary) {
+        out.printf("== %s ==%n", summary.path);
+        if (summary.failed()) {
+            out.printf("Could not analyze: %s%n%n", summary.error);
+            return;
+        }
+        out.printf("Format v%d, %,d events, %s, %,d threads, analyzed in %s%n%n", summary.version,
+            summary.eventCount, ContentionStats.formatDuration(summary.durationNs), summary.threads.size(),
+            ContentionStats.formatDuration(summary.analysisNs));
+
+        writeAgentMetrics(summary.agentMetrics, summary.eventCount);
+        writeThreadStates(summary.threads);
+        out.println();
+        out.print(ContentionStats.report(summary.lockCount, summary.lockTotals, summary.topLocks,
+            summary.threadNames));
+
+        if (summary.deadlockCount() > 0) {
+            out.printf("%nDeadlocks: %,d threads reported deadlocked%n", summary.deadlockCount());
+            for (TraceSummary.Finding deadlock : summary.deadlocks) {
+                out.printf("  at %s: %s waits for lock 0x%x held by %s%n",
+                    ContentionStats.formatDuration(deadlock.timestampNs),
+                    ContentionStats.threadName(summary.threadNames, deadlock.threadId), deadlock.lockId,
+                    ContentionStats.threadName(summary.threadNames, (int) deadlock.otherId));
+            }
+        }
+        if (summary.inversionCount() > 0) {
+            out.printf("%nLock-order inversions: %,d%n", summary.inversionCount());
+            for (TraceSummary.Finding inversion : summary.inversions) {
+                out.printf("  at %s: %s acquires lock 0x%x while holding lock 0x%x%n",
+                    ContentionStats.formatDuration(inversion.timestampNs),
+                    ContentionStats.threadName(summary.threadNames, inversion.threadId), inversion.otherId,
+                    inversion.lockId);
+            }
+        }
+        out.println();
+    }
+
+    @Override
+    public void finish(int traceCount, int failedCount, long eventCount, long deadlockCount, long elapsedNs) {
+        out.printf("%,d traces, %,d failed, %,d events, %,d deadlocked threads, in %s%n", traceCount, failedCount,
+            eventCount, deadlockCount, ContentionStats.formatDuration(elapsedNs));
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * What the capture cost the traced application, when the agent recorded it
+     */
+    private void writeAgentMetrics(Map<String, Long> metrics, long eventCount) {
+        if (metrics.isEmpty()) {
+            return;
+        }
+        long recorded = metrics.getOrDefault("recordedEvents", eventCount);
+        long dropped = metrics.getOrDefault("droppedEvents", 0L);
+        out.printf("Agent: %,d events/s (peak %,d), %,d dropped (%.2f%%), buffers up to %.2f%% full, "
+                + "writer lag up to %s, %s in hooks, %,d classes instrumented%n%n",
+            metrics.getOrDefault("eventsPerSecond", 0L), metrics.getOrDefault("peakEventsPerSecond", 0L), dropped,
+            recorded + dropped == 0 ? 0.0 : 100.0 * dropped / (recorded + dropped),
+            metrics.getOrDefault("peakBufferOccupancyPpm", 0L) / 1e4,
+            ContentionStats.formatDuration(metrics.getOrDefault("peakWriterLagNs", 0L)),
+            ContentionStats.formatDuration(metrics.getOrDefault("adviceTimeNs", 0L)),
+            metrics.getOrDefault("instrumentedClasses", 0L));
+    }
+
+    /**
+     * Share of time in each state, over all threads and for those blocked the longest
+     */
+    private void writeThreadStates(List<TraceSummary.ThreadSummary> threads) {
+        long[] total = new long[STATES.length + 1];
+        for (TraceSummary.ThreadSummary thread : threads) {
+            for (int i = 0; i < thread.stateNs.length; i++) {
+                total[i] += thread.stateNs[i];
+            }
+        }
+        out.printf("%-28s %10s", "Thread states", "Time");
+        for (TraceFormat.ThreadState state : STATES) {
+            out.printf(" %12s", state.name().toLowerCase());
+        }
+        out.println();
+        writeStateRow("all threads", total);
+        for (int i = 0; i < threads.size() && i < topThreads; i++) {
+            writeStateRow(threads.get(i).name, threads.get(i).stateNs);
+        }
+        if (threads.size() > topThreads) {
+            out.printf("  ... %,d more threads%n", threads.size() - topThreads);
+        }
+    }
+
+    private void writeStateRow(String name, long[] stateNs) {
+        long totalNs = 0;
+        for (long ns : stateNs) {
+            totalNs += ns;
+        }
+        out.printf("  %-26s %10s", name.length() > 26 ? name.substring(0, 25) + "~" : name,
+            ContentionStats.formatDuration(totalNs));
+        for (TraceFormat.ThreadState state : STATES) {
+            out.printf(" %11.1f%%", totalNs == 0 ? 0.0 : 100.0 * stateNs[state.getValue()] / totalNs);
+        }
+        out.println();
+    }
+}
@@ -0,0 +1,95 @@
+package com.traceview.cli;
+
+import com.traceview.shared.ContentionStats;
+import com.traceview.shared.IntervalBuilder;
+import com.traceview.shared.TraceFormat;
+import com.traceview.shared.TraceLoader;
+import com.traceview.shared.TraceReader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TraceAnalyzer - Summarizes one trace in a single streaming pass
+ *
+ * Events are decoded straight from the mapped file into an
+ * {@link IntervalBuilder} that only totals thread states and a
+ * {@link ContentionStats}; neither keeps events or intervals, so memory
+ * depends on the numbers of threads and locks, not on the size of the
+ * trace. Traces whose threads' events are not stored in time order, such
+ * as JFR traces, are the exception: they are loaded and sorted per thread
+ * by a {@link TraceLoader} and then replayed in time order. Deadlock and
+ * lock-order inversion events are listed up to a limit and counted beyond it.
+ */
+public final class TraceAnalyzer {
+
+    // Deadlock and inversion events listed per trace
+    static final int MAX_FINDINGS = 100;
+
+    private final int topLocks;
+
+    /**
+     * @param topLocks Number of most contended locks kept per trace
+     */
+    public TraceAnalyzer(int topLocks) {
+        this.topLocks = topLocks;
+    }
+
+    /**
+     * Analyze the trace; a trace that cannot be read yields a failed summary rather than an exception
+     */
+    public TraceSummary analyze(Path path) {
+        long startTime = System.nanoTime();
+        try (TraceReader reader = TraceReader.open(path)) {
+            IntervalBuilder states = new IntervalBuilder(false);
+            ContentionStats contention = new ContentionStats();
+            List<TraceSummary.Finding> deadlocks = new ArrayList<>();
+            List<TraceSummary.Finding> inversions = new ArrayList<>();
+            // First and last event time; header times are wall-clock and absent from some writers
+            long[] span = {Long.MAX_VALUE, Long.MIN_VALUE};
+            TraceReader.EventVisitor visitor = (timestampNs, threadId, type, arg0, arg1) -> {
+                span[0] = Math.min(span[0], timestampNs);
+                span[1] = Math.max(span[1], timestampNs);
+                states.onEvent(timestampNs, threadId, type, arg0, arg1);
+                contention.onEvent(timestampNs, threadId, type, arg0, arg1);
+                if (type == TraceFormat.EventType.DEADLOCK && deadlocks.size() < MAX_FINDINGS) {
+                    deadlocks.add(new TraceSummary.Finding(timestampNs, threadId, arg0, arg1));
+                } else if (type == TraceFormat.EventType.LOCK_ORDER_INVERSION && inversions.size() < MAX_FINDINGS) {
+                    inversions.add(new TraceSummary.Finding(timestampNs, threadId, arg0, arg1));
+                }
+            };
+            if (reader.isTimeOrdered()) {
+                reader.forEachEvent(visitor);
+            } else {
+                try (TraceLoader loader = new TraceLoader(reader)) {
+                    TraceLoader.replay(loader.load().values(), visitor);
+                }
+            }
+
+            Map<Integer, String> threadNames = new HashMap<>();
+            for (TraceFormat.ThreadInfo thread : reader.getThreads()) {
+                threadNames.put(thread.threadId, reader.getString(thread.nameOffset));
+            }
+            List<TraceSummary.ThreadSummary> threads = new ArrayList<>();
+            states.buildStateTotals().forEach((threadId, stateNs) -> threads.add(
+                new TraceSummary.ThreadSummary(threadId, ContentionStats.threadName(threadNames, threadId), stateNs)));
+            // Threads that were blocked the longest first
+            threads.sort(Comparator.comparingLong(
+                (TraceSummary.ThreadSummary thread) -> thread.stateNs(TraceFormat.ThreadState.BLOCKED_SYNC)).reversed()
+                .thenComparingInt(thread -> thread.threadId));
+
+            return new TraceSummary(path, reader.getVersion(), reader.getNumEvents(),
+                span[1] >= span[0] ? span[1] - span[0] : 0, threads, contention.getLockCount(),
+                contention.getTotals(), contention.getTopLocks(topLocks), threadNames, deadlocks, inversions,
+                reader.getAgentMetrics(), System.nanoTime() - startTime);
+        } catch (IOException | RuntimeException e) {
+            return TraceSummary.failed(path, e.getMessage() != null ? e.getMessage() : e.toString(),
+                System.nanoTime() - startTime);
+        }
+    }
+}
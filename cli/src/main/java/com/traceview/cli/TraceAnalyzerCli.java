@@ -0,0 +1,230 @@
+package com.traceview.cli;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * TraceAnalyzerCli - Command line entry point for analyzing traces without a display
+ *
+ * Takes trace files and directories, searched recursively for .tview files,
+ * and analyzes up to --jobs traces at once. Summaries are written in the
+ * order the traces were found; only a few traces per job are analyzed ahead
+ * of the one being written, so memory stays bounded for any number of
+ * traces.
+ *
+ * Exit status: 0 on success, 1 if any trace could not be read, 2 on a usage
+ * error, 3 with --fail-on-deadlock if any trace recorded a deadlock.
+ */
+public final class TraceAnalyzerCli {
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+    static final int EXIT_DEADLOCK = 3;
+
+    // Traces analyzed ahead of the one being written, per job
+    private static final int READ_AHEAD_PER_JOB = 2;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+        "Usage: traceview-cli [options] <trace.tview | directory>...",
+        "",
+        "Options:",
+        "  --format text|json    Output format (default text)",
+        "  --top N               Locks and threads listed per trace (default 10)",
+        "  --jobs N              Traces analyzed at once (default: number of cores)",
+        "  --output FILE         Write to FILE instead of standard output",
+        "  --fail-on-deadlock    Exit with status 3 if any trace recorded a deadlock",
+        "  --help                Show this help");
+
+    private String format = "text";
+    private int top = 10;
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    private Path output;
+    private boolean failOnDeadlock;
+    private final List<Path> inputs = new ArrayList<>();
+
+    private TraceAnalyzerCli() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Run the command and return its exit status
+     */
+    static int run(String[] args) {
+        TraceAnalyzerCli cli = new TraceAnalyzerCli();
+        try {
+            if (!cli.parse(args)) {
+                System.out.println(USAGE);
+                return EXIT_OK;
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        try {
+            return cli.analyze();
+        } catch (IOException e) {
+            System.err.println("traceview-cli: " + e.getMessage());
+            return EXIT_FAILED;
+        }
+    }
+
+    /**
+     * @return false if only help was asked for
+     * @throws IllegalArgumentException on a usage error
+     */
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--help":
+                case "-h":
+                    return false;
+                case "--format":
+                    format = value(args, ++i, arg);
+                    if (!format.equals("text") && !format.equals("json")) {
+                        throw new IllegalArgumentException("Unknown format: " + format);
+                    }
+                    break;
+                case "--top":
+                    top = positive(value(args, ++i, arg), arg);
+                    break;
+                case "--jobs":
+                    jobs = positive(value(args, ++i, arg), arg);
+                    break;
+                case "--output":
+                    output = Paths.get(value(args, ++i, arg));
+                    break;
+                case "--fail-on-deadlock":
+                    failOnDeadlock = true;
+                    break;
+                default:
+                    if (arg.startsWith("--")) {
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                    inputs.add(Paths.get(arg));
+                    break;
+            }
+        }
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No trace files or directories given");
+        }
+        return true;
+    }
+
+    private int analyze() throws IOException {
+        long startTime = System.nanoTime();
+        List<Path> traces = findTraces();
+        TraceAnalyzer analyzer = new TraceAnalyzer(top);
+
+        int failed = 0;
+        long events = 0;
+        long deadlocks = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(jobs, runnable -> {
+            Thread thread = new Thread(runnable, "traceview-cli");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Writer out = output != null
+            ? Files.newBufferedWriter(output, StandardCharsets.UTF_8)
+            : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try (SummaryWriter writer = format.equals("json") ? new JsonSummaryWriter(out) : new TextSummaryWriter(out, top)) {
+            ArrayDeque<Future<TraceSummary>> pending = new ArrayDeque<>();
+            int next = 0;
+            while (next < traces.size() || !pending.isEmpty()) {
+                while (next < traces.size() && pending.size() < jobs * READ_AHEAD_PER_JOB) {
+                    Path trace = traces.get(next++);
+                    pending.addLast(pool.submit(() -> analyzer.analyze(trace)));
+                }
+                TraceSummary summary = await(pending.pollFirst());
+                if (summary.failed()) {
+                    failed++;
+                    System.err.println("traceview-cli: " + summary.path + ": " + summary.error);
+                }
+                events += summary.eventCount;
+                deadlocks += summary.deadlockCount();
+                writer.write(summary);
+            }
+            writer.finish(traces.size(), failed, events, deadlocks, System.nanoTime() - startTime);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        if (failed > 0) {
+            return EXIT_FAILED;
+        }
+        return failOnDeadlock && deadlocks > 0 ? EXIT_DEADLOCK : EXIT_OK;
+    }
+
+    /**
+     * The given files, and the .tview files under the given directories in name order
+     */
+    private List<Path> findTraces() throws IOException {
+        List<Path> traces = new ArrayList<>();
+        for (Path input : inputs) {
+            if (Files.isDirectory(input)) {
+                try (Stream<Path> files = Files.walk(input)) {
+                    traces.addAll(files
+                        .filter(file -> file.getFileName().toString().endsWith(".tview") && Files.isRegularFile(file))
+                        .sorted()
+                        .collect(Collectors.toList()));
+                }
+            } else if (Files.exists(input)) {
+                traces.add(input);
+            } else {
+                throw new IOException("No such file or directory: " + input);
+            }
+        }
+        return traces;
+    }
+
+    private static TraceSummary await(Future<TraceSummary> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            // analyze() reports failures in the summary, so this is a bug or an Error such as OutOfMemoryError
+            throw new IOException("Analysis failed", e.getCause());
+        }
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static int positive(String value, String option) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(option + " needs a positive number, not " + value);
+    }
+}
@@ -0,0 +1,141 @@
+package com.traceview.cli;
+
+import com.traceview.shared.LockStats;
+import com.traceview.shared.TraceFormat;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TraceSummary - What the analysis of one trace file found
+ *
+ * Holds only aggregates, so summaries of many traces can wait to be written
+ * without keeping any of their events.
+ */
+public final class TraceSummary {
+
+    final Path path;
+    // Why the trace could not be analyzed, or null
+    final String error;
+    final int version;
+    final long eventCount;
+    final long durationNs;
+    final List<ThreadSummary> threads;
+    final int lockCount;
+    final LockStats lockTotals;
+    final List<LockStats> topLocks;
+    final Map<Integer, String> threadNames;
+    final List<Finding> deadlocks;
+    final List<Finding> inversions;
+    // Self-metrics the agent wrote into the trace, by name; empty for older traces
+    final Map<String, Long> agentMetrics;
+    final long analysisNs;
+
+    /**
+     * Time one thread spent in each state
+     */
+    static final class ThreadSummary {
+        final int threadId;
+        final String name;
+        // By ThreadState value
+        final long[] stateNs;
+
+        ThreadSummary(int threadId, String name, long[] stateNs) {
+            this.threadId = threadId;
+            this.name = name;
+            this.stateNs = stateNs;
+        }
+
+        long stateNs(TraceFormat.ThreadState state) {
+            return stateNs[state.getValue()];
+        }
+
+        long totalNs() {
+            long total = 0;
+            for (long ns : stateNs) {
+                total += ns;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * A deadlock or lock-order inversion event recorded by the agent: the
+     * thread, and the lock and holder it waited for, or the held lock and the
+     * lock it acquired out of order
+     */
+    static final class Finding {
+        final long timestampNs;
+        final int threadId;
+        final long lockId;
+        final long otherId;
+
+        Finding(long timestampNs, int threadId, long lockId, long otherId) {
+            this.timestampNs = timestampNs;
+            this.threadId = threadId;
+            this.lockId = lockId;
+            this.otherId = otherId;
+        }
+    }
+
+    TraceSummary(Path path, int version, long eventCount, long durationNs, List<ThreadSummary> threads,
+                 int lockCount, LockStats lockTotals, List<LockStats> topLocks, Map<Integer, String> threadNames,
+                 List<Finding> deadlocks, List<Finding> inversions, Map<String, Long> agentMetrics,
+                 long analysisNs) {
+        this.path = path;
+        this.error = null;
+        this.version = version;
+        this.eventCount = eventCount;
+        this.durationNs = durationNs;
+        this.threads = threads;
+        this.lockCount = lockCount;
+        this.lockTotals = lockTotals;
+        this.topLocks = topLocks;
+        this.threadNames = threadNames;
+        this.deadlocks = deadlocks;
+        this.inversions = inversions;
+        this.agentMetrics = agentMetrics;
+        this.analysisNs = analysisNs;
+    }
+
+    private TraceSummary(Path path, String error, long analysisNs) {
+        this.path = path;
+        this.error = error;
+        this.version = 0;
+        this.eventCount = 0;
+        this.durationNs = 0;
+        this.threads = Collections.emptyList();
+        this.lockCount = 0;
+        this.lockTotals = null;
+        this.topLocks = Collections.emptyList();
+        this.threadNames = Collections.emptyMap();
+        this.deadlocks = Collections.emptyList();
+        this.inversions = Collections.emptyList();
+        this.agentMetrics = Collections.emptyMap();
+        this.analysisNs = analysisNs;
+    }
+
+    /**
+     * Summary of a trace that could not be read
+     */
+    static TraceSummary failed(Path path, String error, long analysisNs) {
+        return new TraceSummary(path, error, analysisNs);
+    }
+
+    boolean failed() {
+        return error != null;
+    }
+
+    /**
+     * Threads reported deadlocked, counting those past the listed findings
+     */
+    long deadlockCount() {
+        return lockTotals != null ? lockTotals.getDeadlocks() : 0;
+    }
+
+    long inversionCount() {
+        return lockTotals != null ? lockTotals.getInversions() : 0;
+    }
+}
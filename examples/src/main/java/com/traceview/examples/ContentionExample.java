@@ -0,0 +1,63 @@
+package com.traceview.examples;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ContentionExample - Threads updating a few shared counters under contended locks
+ *
+ * Operations alternate between synchronized blocks and ReentrantLocks, so
+ * both kinds of lock hooks are exercised. With more threads than locks,
+ * most acquisitions have to wait.
+ */
+public class ContentionExample implements Workload {
+
+    private static final int LOCK_COUNT = 4;
+
+    // Rounds of arithmetic inside and outside the critical section
+    private static final int WORK = 32;
+
+    private final Object[] monitors = new Object[LOCK_COUNT];
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_COUNT];
+    private final long[] counters = new long[LOCK_COUNT];
+
+    public static void main(String[] args) throws Exception {
+        WorkloadRunner.runExample(new ContentionExample(), args);
+    }
+
+    @Override
+    public void setUp(int threads) {
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            monitors[i] = new Object();
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public void operation(int worker, long iteration) {
+        int index = (int) ((worker + iteration) % LOCK_COUNT);
+        long value = work(worker + iteration);
+        if ((iteration & 1) == 0) {
+            synchronized (monitors[index]) {
+                counters[index] = work(counters[index] + value);
+            }
+        } else {
+            ReentrantLock lock = locks[index];
+            lock.lock();
+            try {
+                counters[index] = work(counters[index] + value);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static long work(long seed) {
+        long x = seed | 1;
+        for (int i = 0; i < WORK; i++) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+        }
+        return x;
+    }
+}
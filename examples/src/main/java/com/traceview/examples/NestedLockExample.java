@@ -0,0 +1,56 @@
+package com.traceview.examples;
+
+/**
+ * NestedLockExample - Transfers between accounts that lock both accounts in a fixed order
+ *
+ * Every operation holds two monitors at once, always taking the lower
+ * account first, so it cannot deadlock but gives the lock order checker a
+ * nested acquisition to verify on every operation.
+ */
+public class NestedLockExample implements Workload {
+
+    private static final int ACCOUNT_COUNT = 64;
+
+    private final Account[] accounts = new Account[ACCOUNT_COUNT];
+
+    public static void main(String[] args) throws Exception {
+        WorkloadRunner.runExample(new NestedLockExample(), args);
+    }
+
+    @Override
+    public void setUp(int threads) {
+        for (int i = 0; i < ACCOUNT_COUNT; i++) {
+            accounts[i] = new Account(1_000_000);
+        }
+    }
+
+    @Override
+    public void operation(int worker, long iteration) {
+        long mixed = (worker * 0x9E3779B97F4A7C15L) ^ (iteration * 0xC2B2AE3D27D4EB4FL);
+        int from = (int) ((mixed >>> 16) % ACCOUNT_COUNT);
+        int to = (int) ((mixed >>> 40) % ACCOUNT_COUNT);
+        if (from == to) {
+            to = (to + 1) % ACCOUNT_COUNT;
+        }
+        transfer(accounts[from], accounts[to], from < to, 1 + (mixed & 0xFF));
+    }
+
+    private static void transfer(Account from, Account to, boolean fromFirst, long amount) {
+        Account first = fromFirst ? from : to;
+        Account second = fromFirst ? to : from;
+        synchronized (first) {
+            synchronized (second) {
+                from.balance -= amount;
+                to.balance += amount;
+            }
+        }
+    }
+
+    private static final class Account {
+        long balance;
+
+        Account(long balance) {
+            this.balance = balance;
+        }
+    }
+}
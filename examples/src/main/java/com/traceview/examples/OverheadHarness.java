@@ -0,0 +1,322 @@
+package com.traceview.examples;
+
+import com.traceview.shared.ContentionStats;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * OverheadHarness - Measures what the agent costs each workload and fails past a limit
+ *
+ * Every workload is run for every thread count in three modes, each in a
+ * JVM of its own:
+ * <ul>
+ *   <li>off - without the agent</li>
+ *   <li>idle - with the agent attached and collecting, but told to exclude
+ *       the workload classes, so nothing the workload does is recorded</li>
+ *   <li>recording - with the agent recording every lock operation</li>
+ * </ul>
+ * The modes take turns within each repetition so that drift in the machine's
+ * speed affects them alike, and the median of the repetitions is compared
+ * with the median run without the agent.
+ *
+ * Exit status: 0 if every overhead is within its limit, 1 if any is not,
+ * 2 on a usage error, 3 if a workload JVM failed or the harness was
+ * interrupted, so that no overhead could be measured.
+ */
+public final class OverheadHarness {
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_OVER_LIMIT = 1;
+    static final int EXIT_USAGE = 2;
+    static final int EXIT_FAILED = 3;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+        "Usage: OverheadHarness --agent trace-agent.jar [options]",
+        "",
+        "Options:",
+        "  --workloads A,B,...         Workloads to run (default: " + String.join(",", WorkloadRunner.WORKLOADS.keySet())
+            + ")",
+        "  --threads N,N,...           Thread counts (default 2,4,16,64,256)",
+        "  --warmup SECONDS            Warmup per run (default 1)",
+        "  --duration SECONDS          Measured time per run (default 3)",
+        "  --runs N                    Repetitions per mode, the median counts (default 3)",
+        "  --agent-args ARGS           Extra agent arguments for recording, e.g. lockdep=true",
+        "  --max-overhead PCT          Throughput lost to recording (default 50)",
+        "  --max-idle-overhead PCT     Throughput lost to the idle agent (default 10)",
+        "  --max-p99-overhead PCT      Increase of the p99 latency when recording (default 200)",
+        "  --help                      Show this help",
+        "",
+        "Exit status: 0 within the limits, 1 over a limit, 2 usage error, 3 a workload run failed");
+
+    /**
+     * How the agent is attached to a workload JVM
+     */
+    enum Mode {
+        OFF("off"),
+        IDLE("idle"),
+        RECORDING("recording");
+
+        final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+    }
+
+    private Path agentJar;
+    private List<String> workloads = new ArrayList<>(WorkloadRunner.WORKLOADS.keySet());
+    private int[] threadCounts = {2, 4, 16, 64, 256};
+    private long warmupMs = 1000;
+    private long durationMs = 3000;
+    private int runs = 3;
+    private String agentArgs = "";
+    private double maxOverhead = 50;
+    private double maxIdleOverhead = 10;
+    private double maxP99Overhead = 200;
+
+    private final List<String> violations = new ArrayList<>();
+
+    private OverheadHarness() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Run the harness and return its exit status
+     */
+    static int run(String[] args) {
+        OverheadHarness harness = new OverheadHarness();
+        try {
+            if (!harness.parse(args)) {
+                System.out.println(USAGE);
+                return EXIT_OK;
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        try {
+            return harness.measure();
+        } catch (IOException e) {
+            System.err.println("overhead: " + e.getMessage());
+            return EXIT_FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("overhead: interrupted");
+            return EXIT_FAILED;
+        }
+    }
+
+    /**
+     * @return false if only help was asked for
+     * @throws IllegalArgumentException on a usage error
+     */
+    private boolean parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--help":
+                case "-h":
+                    return false;
+                case "--agent":
+                    agentJar = Paths.get(value(args, ++i, arg));
+                    break;
+                case "--workloads":
+                    workloads = Arrays.asList(value(args, ++i, arg).split(","));
+                    for (String workload : workloads) {
+                        if (!WorkloadRunner.WORKLOADS.containsKey(workload)) {
+                            throw new IllegalArgumentException("Unknown workload: " + workload);
+                        }
+                    }
+                    break;
+                case "--threads":
+                    threadCounts = Arrays.stream(value(args, ++i, arg).split(","))
+                        .mapToInt(count -> (int) positive(count, arg)).toArray();
+                    break;
+                case "--warmup":
+                    warmupMs = Math.round(positive(value(args, ++i, arg), arg) * 1000);
+                    break;
+                case "--duration":
+                    durationMs = Math.round(positive(value(args, ++i, arg), arg) * 1000);
+                    break;
+                case "--runs":
+                    runs = (int) positive(value(args, ++i, arg), arg);
+                    break;
+                case "--agent-args":
+                    agentArgs = value(args, ++i, arg);
+                    break;
+                case "--max-overhead":
+                    maxOverhead = positive(value(args, ++i, arg), arg);
+                    break;
+                case "--max-idle-overhead":
+                    maxIdleOverhead = positive(value(args, ++i, arg), arg);
+                    break;
+                case "--max-p99-overhead":
+                    maxP99Overhead = positive(value(args, ++i, arg), arg);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (agentJar == null) {
+            throw new IllegalArgumentException("No agent JAR given");
+        }
+        if (!Files.isRegularFile(agentJar)) {
+            throw new IllegalArgumentException("No such agent JAR: " + agentJar);
+        }
+        return true;
+    }
+
+    private int measure() throws IOException, InterruptedException {
+        Path traceDir = Files.createTempDirectory("traceview-overhead");
+        try {
+            for (String workload : workloads) {
+                for (int threads : threadCounts) {
+                    measure(workload, threads, traceDir);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(traceDir);
+        }
+
+        if (violations.isEmpty()) {
+            System.out.println("Agent overhead within limits");
+            return EXIT_OK;
+        }
+        System.out.printf("Agent overhead over the limit in %d case(s):%n", violations.size());
+        for (String violation : violations) {
+            System.out.println("  " + violation);
+        }
+        return EXIT_OVER_LIMIT;
+    }
+
+    private void measure(String workload, int threads, Path traceDir) throws IOException, InterruptedException {
+        Mode[] modes = Mode.values();
+        List<List<WorkloadRunner.Result>> results = new ArrayList<>();
+        for (int m = 0; m < modes.length; m++) {
+            results.add(new ArrayList<>());
+        }
+        for (int run = 0; run < runs; run++) {
+            for (Mode mode : modes) {
+                results.get(mode.ordinal()).add(runWorkload(workload, threads, mode, traceDir));
+            }
+        }
+
+        System.out.printf("%s, %d threads (median of %d runs)%n", workload, threads, runs);
+        System.out.printf("  %-10s %14s %9s %10s %9s %12s%n", "mode", "ops/s", "overhead", "p99", "p99 +", "alloc MB/s");
+        double baseOps = median(results.get(Mode.OFF.ordinal()), WorkloadRunner.Result::opsPerSecond);
+        double baseP99 = median(results.get(Mode.OFF.ordinal()), result -> result.p99Ns);
+        for (Mode mode : modes) {
+            List<WorkloadRunner.Result> modeResults = results.get(mode.ordinal());
+            double ops = median(modeResults, WorkloadRunner.Result::opsPerSecond);
+            double p99 = median(modeResults, result -> result.p99Ns);
+            double overhead = baseOps == 0 ? 0 : 100.0 * (baseOps - ops) / baseOps;
+            double p99Increase = baseP99 == 0 ? 0 : 100.0 * (p99 - baseP99) / baseP99;
+            System.out.printf("  %-10s %,14.0f %8.1f%% %10s %8.1f%% %12.1f%n", mode.label, ops, overhead,
+                ContentionStats.formatDuration(Math.round(p99)), p99Increase,
+                median(modeResults, WorkloadRunner.Result::allocationRate) / 1e6);
+
+            if (mode == Mode.IDLE) {
+                check(workload, threads, mode, "throughput overhead", overhead, maxIdleOverhead);
+            } else if (mode == Mode.RECORDING) {
+                check(workload, threads, mode, "throughput overhead", overhead, maxOverhead);
+                check(workload, threads, mode, "p99 increase", p99Increase, maxP99Overhead);
+            }
+        }
+        System.out.println();
+    }
+
+    private void check(String workload, int threads, Mode mode, String what, double percent, double limit) {
+        if (percent > limit) {
+            violations.add(String.format("%s, %d threads, %s: %s %.1f%% > %.1f%%", workload, threads, mode.label,
+                what, percent, limit));
+        }
+    }
+
+    /**
+     * Run the workload in a new JVM with this JVM's class path
+     */
+    private WorkloadRunner.Result runWorkload(String workload, int threads, Mode mode, Path traceDir)
+            throws IOException, InterruptedException {
+        Path trace = traceDir.resolve(workload + "-" + threads + "-" + mode.label + ".tview");
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (mode != Mode.OFF) {
+            StringBuilder options = new StringBuilder("output=").append(trace);
+            if (!agentArgs.isEmpty()) {
+                options.append(',').append(agentArgs);
+            }
+            if (mode == Mode.IDLE) {
+                options.append(",exclude=").append(OverheadHarness.class.getPackage().getName()).append(".*");
+            }
+            command.add("-javaagent:" + agentJar.toAbsolutePath() + "=" + options);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(WorkloadRunner.class.getName());
+        command.add(workload);
+        command.add(Integer.toString(threads));
+        command.add(Long.toString(warmupMs));
+        command.add(Long.toString(durationMs));
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        List<String> output = new ArrayList<>();
+        WorkloadRunner.Result result = null;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.add(line);
+                WorkloadRunner.Result parsed = WorkloadRunner.Result.parse(line);
+                if (parsed != null) {
+                    result = parsed;
+                }
+            }
+        }
+        int status = process.waitFor();
+        Files.deleteIfExists(trace);
+        if (status != 0 || result == null) {
+            throw new IOException(String.format("%s on %d threads (%s) failed with status %d:%n%s", workload,
+                threads, mode.label, status, String.join(System.lineSeparator(), output)));
+        }
+        return result;
+    }
+
+    private static double median(List<WorkloadRunner.Result> results, ToDoubleFunction<WorkloadRunner.Result> metric) {
+        double[] values = results.stream().mapToDouble(metric).sorted().toArray();
+        int middle = values.length / 2;
+        return values.length % 2 == 1 ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[index];
+    }
+
+    private static double positive(String value, String option) {
+        try {
+            double number = Double.parseDouble(value);
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(option + " needs a positive number, not " + value);
+    }
+}
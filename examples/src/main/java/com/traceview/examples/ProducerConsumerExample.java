@@ -0,0 +1,79 @@
+package com.traceview.examples;
+
+/**
+ * ProducerConsumerExample - Producers and consumers handing items over a bounded buffer
+ *
+ * Even workers produce and odd workers consume, through one buffer guarded
+ * by its monitor with wait and notifyAll, so the trace shows monitor waits
+ * and the notifies that end them. Waits time out now and then so the
+ * workers can see that the run is over.
+ */
+public class ProducerConsumerExample implements Workload {
+
+    private static final int CAPACITY = 64;
+    private static final long WAIT_MS = 10;
+
+    private final Object monitor = new Object();
+    private final long[] items = new long[CAPACITY];
+    private int head;
+    private int size;
+    private volatile boolean stopped;
+
+    public static void main(String[] args) throws Exception {
+        WorkloadRunner.runExample(new ProducerConsumerExample(), args);
+    }
+
+    @Override
+    public void setUp(int threads) {
+        head = 0;
+        size = 0;
+        stopped = false;
+    }
+
+    @Override
+    public void operation(int worker, long iteration) throws InterruptedException {
+        if ((worker & 1) == 0) {
+            put(iteration);
+        } else {
+            take();
+        }
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        synchronized (monitor) {
+            monitor.notifyAll();
+        }
+    }
+
+    private void put(long item) throws InterruptedException {
+        synchronized (monitor) {
+            while (size == CAPACITY) {
+                if (stopped) {
+                    return;
+                }
+                monitor.wait(WAIT_MS);
+            }
+            items[(head + size) % CAPACITY] = item;
+            size++;
+            monitor.notifyAll();
+        }
+    }
+
+    private long take() throws InterruptedException {
+        synchronized (monitor) {
+            while (size == 0) {
+                if (stopped) {
+                    return -1;
+                }
+                monitor.wait(WAIT_MS);
+            }
+            long item = items[head];
+            head = (head + 1) % CAPACITY;
+            size--;
+            monitor.notifyAll();
+            return item;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.traceview.examples;
+
+/**
+ * Workload - A repeatable concurrent operation for measuring what the agent costs
+ *
+ * Every worker thread calls {@link #operation} in a loop; the runner times
+ * each call, so an operation should be short and take the same locks the
+ * example would take in an application.
+ */
+public interface Workload {
+
+    /**
+     * Create the shared state for the given number of worker threads
+     */
+    void setUp(int threads);
+
+    /**
+     * Perform one operation
+     *
+     * @param worker Index of the calling worker, from 0 to threads - 1
+     * @param iteration Number of operations the worker performed before this one
+     */
+    void operation(int worker, long iteration) throws InterruptedException;
+
+    /**
+     * Release workers blocked in {@link #operation} once the run is over
+     */
+    default void stop() {
+    }
+}
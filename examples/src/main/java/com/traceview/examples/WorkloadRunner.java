@@ -0,0 +1,222 @@
+package com.traceview.examples;
+
+import com.traceview.shared.ContentionStats;
+import com.traceview.shared.LogHistogram;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * WorkloadRunner - Runs one workload on a number of threads and measures it
+ *
+ * Workers run the workload through a warmup and then a measured window.
+ * Within the window every operation is timed into a per-thread
+ * {@link LogHistogram}, and the bytes allocated by all threads of the JVM,
+ * the agent's included, are taken from the thread MX bean at both ends.
+ *
+ * Run as a program, it prints one result line for {@link OverheadHarness},
+ * which starts a JVM per run so the agent can be attached or not:
+ * <pre>
+ *   WorkloadRunner &lt;workload&gt; &lt;threads&gt; &lt;warmupMs&gt; &lt;durationMs&gt;
+ * </pre>
+ */
+public final class WorkloadRunner {
+
+    /** Workloads by the name used on the command line */
+    static final Map<String, Supplier<Workload>> WORKLOADS = new LinkedHashMap<>();
+
+    static {
+        WORKLOADS.put("contention", ContentionExample::new);
+        WORKLOADS.put("producer-consumer", ProducerConsumerExample::new);
+        WORKLOADS.put("nested-locks", NestedLockExample::new);
+    }
+
+    private static final int PHASE_WARMUP = 0;
+    private static final int PHASE_MEASURE = 1;
+    private static final int PHASE_DONE = 2;
+
+    private static final int DEFAULT_THREADS = 8;
+    private static final int DEFAULT_SECONDS = 5;
+
+    private WorkloadRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4 || !WORKLOADS.containsKey(args[0])) {
+            System.err.println("Usage: WorkloadRunner <" + String.join("|", WORKLOADS.keySet())
+                + "> <threads> <warmupMs> <durationMs>");
+            System.exit(2);
+        }
+        Result result = run(WORKLOADS.get(args[0]).get(), Integer.parseInt(args[1]),
+            TimeUnit.MILLISECONDS.toNanos(Long.parseLong(args[2])),
+            TimeUnit.MILLISECONDS.toNanos(Long.parseLong(args[3])));
+        System.out.println(result.toLine());
+    }
+
+    /**
+     * Run an example on its own: optional thread count and seconds, then a readable summary
+     */
+    static void runExample(Workload workload, String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SECONDS;
+        Result result = run(workload, threads, TimeUnit.SECONDS.toNanos(1), TimeUnit.SECONDS.toNanos(seconds));
+        System.out.printf("%s on %d threads: %,.0f ops/s, p50 %s, p99 %s, %.1f MB/s allocated%n",
+            workload.getClass().getSimpleName(), threads, result.opsPerSecond(),
+            ContentionStats.formatDuration(result.p50Ns), ContentionStats.formatDuration(result.p99Ns),
+            result.allocationRate() / 1e6);
+    }
+
+    /**
+     * Warm up, then measure the workload for the given time
+     */
+    static Result run(Workload workload, int threads, long warmupNs, long durationNs) throws InterruptedException {
+        workload.setUp(threads);
+        List<Worker> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Worker(workload, i));
+        }
+        for (Worker worker : workers) {
+            worker.start();
+        }
+
+        TimeUnit.NANOSECONDS.sleep(warmupNs);
+        Map<Long, Long> allocatedBefore = allocatedBytesByThread();
+        long startNanos = System.nanoTime();
+        Worker.setPhase(workers, PHASE_MEASURE);
+        TimeUnit.NANOSECONDS.sleep(durationNs);
+        Worker.setPhase(workers, PHASE_DONE);
+        long elapsedNs = System.nanoTime() - startNanos;
+        Map<Long, Long> allocatedAfter = allocatedBytesByThread();
+
+        workload.stop();
+        LogHistogram latencies = new LogHistogram();
+        for (Worker worker : workers) {
+            worker.join();
+            if (worker.failure != null) {
+                throw new IllegalStateException("Worker failed", worker.failure);
+            }
+            latencies.add(worker.latencies);
+        }
+
+        // Threads that ended within the window are not counted; the workers and the agent's threads live throughout
+        long allocatedBytes = 0;
+        for (Map.Entry<Long, Long> thread : allocatedAfter.entrySet()) {
+            allocatedBytes += Math.max(0, thread.getValue() - allocatedBefore.getOrDefault(thread.getKey(), 0L));
+        }
+        return new Result(latencies.getCount(), elapsedNs, latencies.getValueAtPercentile(50),
+            latencies.getValueAtPercentile(99), allocatedBytes);
+    }
+
+    private static Map<Long, Long> allocatedBytesByThread() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return Collections.emptyMap();
+        }
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(ids);
+        Map<Long, Long> byThread = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                byThread.put(ids[i], bytes[i]);
+            }
+        }
+        return byThread;
+    }
+
+    /**
+     * Calls the workload in a loop and times the calls made while measuring
+     */
+    private static final class Worker extends Thread {
+        private final Workload workload;
+        private final int index;
+        private final LogHistogram latencies = new LogHistogram();
+        private volatile int phase = PHASE_WARMUP;
+        private Throwable failure;
+
+        Worker(Workload workload, int index) {
+            super("workload-" + index);
+            this.workload = workload;
+            this.index = index;
+            setDaemon(true);
+        }
+
+        static void setPhase(List<Worker> workers, int phase) {
+            for (Worker worker : workers) {
+                worker.phase = phase;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                long iteration = 0;
+                int current;
+                while ((current = phase) != PHASE_DONE) {
+                    long start = System.nanoTime();
+                    workload.operation(index, iteration++);
+                    if (current == PHASE_MEASURE) {
+                        latencies.record(System.nanoTime() - start);
+                    }
+                }
+            } catch (Throwable e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Measurements of one run, passed from the workload JVM to the harness as one line
+     */
+    static final class Result {
+
+        private static final String PREFIX = "workload-result";
+
+        final long operations;
+        final long elapsedNs;
+        final long p50Ns;
+        final long p99Ns;
+        final long allocatedBytes;
+
+        Result(long operations, long elapsedNs, long p50Ns, long p99Ns, long allocatedBytes) {
+            this.operations = operations;
+            this.elapsedNs = elapsedNs;
+            this.p50Ns = p50Ns;
+            this.p99Ns = p99Ns;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        double opsPerSecond() {
+            return elapsedNs == 0 ? 0 : operations * 1e9 / elapsedNs;
+        }
+
+        /**
+         * Bytes allocated per second
+         */
+        double allocationRate() {
+            return elapsedNs == 0 ? 0 : allocatedBytes * 1e9 / elapsedNs;
+        }
+
+        String toLine() {
+            return PREFIX + " " + operations + " " + elapsedNs + " " + p50Ns + " " + p99Ns + " " + allocatedBytes;
+        }
+
+        /**
+         * @return null if the line is not a result line
+         */
+        static Result parse(String line) {
+            String[] fields = line.trim().split(" ");
+            if (fields.length != 6 || !fields[0].equals(PREFIX)) {
+                return null;
+            }
+            return new Result(Long.parseLong(fields[1]), Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                Long.parseLong(fields[4]), Long.parseLong(fields[5]));
+        }
+    }
+}
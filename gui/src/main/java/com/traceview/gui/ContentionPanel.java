@@ -0,0 +1,118 @@
+package com.traceview.gui;
+
+import com.traceview.shared.LockStats;
+import com.traceview.shared.TraceFormat;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableCell;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TitledPane;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Contention Panel
+ *
+ * Collapsible table of the locks threads waited longest for: contended acquisitions,
+ * total blocked time, wait and hold time percentiles from the lock's histograms, and
+ * the thread that waited longest. Columns sort on click; the title sums up the trace.
+ */
+public class ContentionPanel extends TitledPane {
+
+    // Locks shown; the rest of a trace with many locks only adds scrolling
+    static final int MAX_LOCKS = 200;
+
+    private final TableView<LockStats> table = new TableView<>();
+    private Map<Integer, String> threadNames = Collections.emptyMap();
+
+    public ContentionPanel() {
+        setText("Lock Contention");
+        setExpanded(false);
+        setAnimated(false);
+        getStyleClass().add("contention-panel");
+
+        TableColumn<LockStats, String> lockColumn = new TableColumn<>("Lock");
+        lockColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(String.format("%s 0x%x",
+            cell.getValue().getType() == TraceFormat.SYNC_OBJECT_MUTEX ? "Lock" : "Monitor",
+            cell.getValue().getObjectId())));
+        lockColumn.setPrefWidth(150);
+
+        TableColumn<LockStats, String> threadColumn = new TableColumn<>("Longest Waiter");
+        threadColumn.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(topThread(cell.getValue())));
+        threadColumn.setPrefWidth(200);
+        threadColumn.setSortable(false);
+
+        table.getColumns().add(lockColumn);
+        table.getColumns().add(countColumn("Acquisitions", LockStats::getAcquisitions));
+        table.getColumns().add(durationColumn("Blocked", LockStats::getBlockedNs));
+        table.getColumns().add(durationColumn("Wait p50", lock -> lock.getWaitTimes().getValueAtPercentile(50)));
+        table.getColumns().add(durationColumn("Wait p99", lock -> lock.getWaitTimes().getValueAtPercentile(99)));
+        table.getColumns().add(durationColumn("Wait Max", lock -> lock.getWaitTimes().getMax()));
+        table.getColumns().add(durationColumn("Hold p50", lock -> lock.getHoldTimes().getValueAtPercentile(50)));
+        table.getColumns().add(durationColumn("Hold p99", lock -> lock.getHoldTimes().getValueAtPercentile(99)));
+        table.getColumns().add(countColumn("Deadlocks", LockStats::getDeadlocks));
+        table.getColumns().add(threadColumn);
+        table.setPlaceholder(new Label("No contended locks"));
+        table.setPrefHeight(220);
+        setContent(table);
+    }
+
+    /**
+     * Show the given locks, longest blocked first unless the user sorted a column
+     *
+     * @param lockCount Number of locks in the trace, which may be more than are shown
+     * @param totals Statistics of all locks together, see {@link com.traceview.shared.ContentionStats#getTotals()}
+     */
+    void setLocks(List<LockStats> locks, int lockCount, LockStats totals, Map<Integer, String> names) {
+        threadNames = names;
+        setText(lockCount == 0 ? "Lock Contention"
+            : String.format("Lock Contention · %,d locks · %s blocked", lockCount,
+                TimelineCanvas.formatDuration(totals.getBlockedNs())));
+        table.setItems(FXCollections.observableArrayList(locks));
+        table.sort();
+    }
+
+    private String topThread(LockStats lock) {
+        List<LockStats.ThreadContention> top = lock.getTopThreads(1);
+        if (top.isEmpty()) {
+            return "-";
+        }
+        LockStats.ThreadContention thread = top.get(0);
+        String name = threadNames.get(thread.getThreadId());
+        return String.format("%s (%s)", name != null ? name : "Thread " + thread.getThreadId(),
+            TimelineCanvas.formatDuration(thread.getBlockedNs()));
+    }
+
+    private static TableColumn<LockStats, Long> countColumn(String title, ToLongFunction<LockStats> value) {
+        TableColumn<LockStats, Long> column = new TableColumn<>(title);
+        column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.applyAsLong(cell.getValue())));
+        column.setCellFactory(c -> new TableCell<LockStats, Long>() {
+            @Override
+            protected void updateItem(Long item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty || item == null ? null : String.format("%,d", item));
+            }
+        });
+        column.setStyle("-fx-alignment: center-right;");
+        return column;
+    }
+
+    private static TableColumn<LockStats, Long> durationColumn(String title, ToLongFunction<LockStats> value) {
+        TableColumn<LockStats, Long> column = new TableColumn<>(title);
+        column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.applyAsLong(cell.getValue())));
+        column.setCellFactory(c -> new TableCell<LockStats, Long>() {
+            @Override
+            protected void updateItem(Long item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty || item == null ? null : item == 0 ? "-" : TimelineCanvas.formatDuration(item));
+            }
+        });
+        column.setStyle("-fx-alignment: center-right;");
+        return column;
+    }
+}
@@ -0,0 +1,135 @@
+package com.traceview.gui;
+
+import com.traceview.shared.ContentionStats;
+import com.traceview.shared.IntervalBuilder;
+import com.traceview.shared.LiveStream;
+import com.traceview.shared.TraceFormat;
+import javafx.concurrent.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Live Trace Task
+ *
+ * Follows the event stream of a running agent and publishes the lanes of the most
+ * recent stretch of the run through the task value, like {@link TraceLoadTask} does
+ * while a file loads. Events are folded into intervals as each frame arrives; only the
+ * last ten seconds, and at most a few million events of them, are kept, so memory stays
+ * bounded however long the run goes on. Lock contention statistics cover everything
+ * received since connecting. The message reports the event rate and how many events the
+ * agent dropped because the viewer fell behind. Cancelling disconnects.
+ */
+public class LiveTraceTask extends Task<TraceLoadTask.Snapshot> {
+
+    private static final Logger logger = LoggerFactory.getLogger(LiveTraceTask.class);
+
+    private static final long LIVE_WINDOW_NS = 10_000_000_000L;
+    // At most one interval per event, 29 bytes each, so at most about 60 MB of intervals
+    private static final long MAX_LIVE_EVENTS = 2_000_000L;
+    private static final int PRUNES_PER_WINDOW = 8;
+    private static final long MIN_PUBLISH_INTERVAL_NS = 100_000_000L;
+    private static final int PUBLISH_COST_RATIO = 4;
+
+    private final int port;
+
+    public LiveTraceTask(int port) {
+        this.port = port;
+    }
+
+    @Override
+    protected TraceLoadTask.Snapshot call() throws Exception {
+        Receiver receiver = new Receiver();
+        // Trace time and events received so far at every pruning, oldest first
+        ArrayDeque<long[]> checkpoints = new ArrayDeque<>();
+        updateMessage("Connecting to port " + port + "...");
+        try (LiveStream stream = LiveStream.connect(port)) {
+            logger.info("Connected to live agent on port {}", port);
+            updateMessage("Live");
+
+            long lastPublish = System.nanoTime();
+            long publishedEvents = 0;
+            long publishCost = 0;
+            long prunedEvents = 0;
+            while (!isCancelled() && stream.readFrame(receiver)) {
+                // Prune often enough that the window never holds much more than its budget
+                boolean prune = receiver.events - prunedEvents >= MAX_LIVE_EVENTS / PRUNES_PER_WINDOW;
+                long now = System.nanoTime();
+                boolean publish = now - lastPublish >= Math.max(MIN_PUBLISH_INTERVAL_NS, publishCost * PUBLISH_COST_RATIO);
+                if (prune || publish) {
+                    long cutoffNs = receiver.latestNs - LIVE_WINDOW_NS;
+                    while (!checkpoints.isEmpty() && (checkpoints.peekFirst()[0] <= cutoffNs
+                            || receiver.events - checkpoints.peekFirst()[1] > MAX_LIVE_EVENTS)) {
+                        cutoffNs = Math.max(cutoffNs, checkpoints.pollFirst()[0]);
+                    }
+                    checkpoints.addLast(new long[] {receiver.latestNs, receiver.events});
+                    receiver.builder.discardBefore(cutoffNs);
+                    prunedEvents = receiver.events;
+                }
+                if (publish) {
+                    updateValue(receiver.snapshot(false));
+                    updateMessage(String.format("Live \u00b7 %,d events/s \u00b7 %,d dropped",
+                        (receiver.events - publishedEvents) * 1_000_000_000L / (now - lastPublish), receiver.dropped));
+                    publishedEvents = receiver.events;
+                    lastPublish = System.nanoTime();
+                    publishCost = lastPublish - now;
+                }
+            }
+        } catch (IOException e) {
+            if (isCancelled()) {
+                // Cancelling interrupts the blocked read, which closes the connection
+                return null;
+            }
+            throw e;
+        }
+        if (isCancelled()) {
+            return null;
+        }
+
+        logger.info("Live agent on port {} closed the stream after {} events", port, receiver.events);
+        updateMessage(String.format("Ended \u00b7 %,d events \u00b7 %,d dropped", receiver.events, receiver.dropped));
+        return receiver.snapshot(true);
+    }
+
+    /**
+     * Folds the frames of the stream into intervals and thread names
+     */
+    private static final class Receiver implements LiveStream.Listener {
+        final IntervalBuilder builder = new IntervalBuilder();
+        // Lock statistics cover the whole connection, not just the window
+        final ContentionStats contention = new ContentionStats();
+        final Map<Integer, String> threadNames = new HashMap<>();
+        long events;
+        long dropped;
+        long latestNs;
+
+        @Override
+        public void onEvent(long timestampNs, int threadId, TraceFormat.EventType type, long arg0, long arg1) {
+            builder.onEvent(timestampNs, threadId, type, arg0, arg1);
+            contention.onEvent(timestampNs, threadId, type, arg0, arg1);
+            latestNs = Math.max(latestNs, timestampNs);
+            events++;
+        }
+
+        @Override
+        public void onThread(int threadId, String name) {
+            threadNames.put(threadId, name);
+        }
+
+        @Override
+        public void onDropped(long eventCount) {
+            dropped += eventCount;
+        }
+
+        TraceLoadTask.Snapshot snapshot(boolean complete) {
+            // Stacks are only resolved when the agent writes its trace file
+            return new TraceLoadTask.Snapshot(TimelineCanvas.buildLanes(builder.snapshot(), builder.buildHandoffs(),
+                threadNames), Collections.emptyList(), contention, new HashMap<>(threadNames), complete);
+        }
+    }
+}
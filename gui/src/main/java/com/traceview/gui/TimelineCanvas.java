@@ -0,0 +1,805 @@
+package com.traceview.gui;
+
+import com.traceview.shared.CriticalPath;
+import com.traceview.shared.LockHandoffs;
+import com.traceview.shared.StatePyramid;
+import com.traceview.shared.ThreadIntervals;
+import com.traceview.shared.TraceFormat.ThreadState;
+import javafx.animation.AnimationTimer;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Tooltip;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.text.TextAlignment;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Timeline Canvas
+ *
+ * Draws every thread lane of a trace on one Canvas instead of one Node per segment.
+ * Only the lanes and the time range in view are drawn: zoomed out, a lane is drawn
+ * from its level-of-detail pyramid one bucket per pixel; zoomed in, interval by interval.
+ * Redraws are coalesced into at most one per frame, and hovering repaints only the rows it changes.
+ * Clicks and hovers are resolved to an interval by binary search over the lane's columns.
+ */
+public class TimelineCanvas extends Region {
+    
+    static final double LABEL_WIDTH = 140;
+    static final double RULER_HEIGHT = 24;
+    static final double LANE_HEIGHT = 20;
+    private static final double BAR_INSET = 3;
+    private static final double ZOOM_STEP = 1.25;
+    private static final double MIN_NS_PER_PIXEL = 0.1;
+    private static final double MIN_TICK_SPACING = 90;
+    private static final double ARROW_SIZE = 5;
+    
+    // Handoff arrows are skipped when the view holds more than this; they would be unreadable
+    private static final int MAX_ARROWS = 500;
+    
+    // State colors by ThreadState value, matching styles.css
+    private static final Color[] LIGHT_STATES = {
+        null, Color.web("#2E7D32"), Color.web("#C62828"), Color.web("#1976D2"), Color.web("#757575")
+    };
+    private static final Color[] DARK_STATES = {
+        null, Color.web("#00E676"), Color.web("#F44336"), Color.web("#2196F3"), Color.web("#9E9E9E")
+    };
+    
+    private final Canvas canvas = new Canvas();
+    private final List<Lane> lanes = new ArrayList<>();
+    private final Map<Integer, Integer> laneByThread = new HashMap<>();
+    private final AnimationTimer painter;
+    private final Tooltip hoverTip = new Tooltip();
+    private Consumer<Hit> onSegmentClicked;
+    private CriticalPath criticalPath;
+    
+    // Time range covered by the lanes; the origin moves forward when a live trace drops old intervals
+    private long originNs;
+    private long endNs = 1;
+    private long viewStartNs;
+    private double nsPerPixel = Double.NaN;
+    private double scrollY;
+    private boolean fitted = true;
+    private boolean darkTheme;
+    
+    // Pending repaint: everything, or the rows between the dirty lanes
+    private boolean fullRedraw = true;
+    private int firstDirtyLane = Integer.MAX_VALUE;
+    private int lastDirtyLane = -1;
+    
+    private int hoverLane = -1;
+    private double dragX;
+    private double dragY;
+    
+    /**
+     * One thread lane with its intervals, their summary and the handoffs it received
+     */
+    static final class Lane {
+        final int threadId;
+        final String name;
+        final ThreadIntervals intervals;
+        final StatePyramid pyramid;
+        final LockHandoffs handoffs;
+        
+        Lane(int threadId, String name, ThreadIntervals intervals, LockHandoffs handoffs) {
+            this.threadId = threadId;
+            this.name = name;
+            this.intervals = intervals;
+            this.pyramid = StatePyramid.build(intervals);
+            this.handoffs = handoffs;
+        }
+    }
+    
+    /**
+     * The interval under a point and, for a lock wait ended by a recorded handoff,
+     * the thread that released the lock or notified the monitor
+     */
+    static final class Hit {
+        final Lane lane;
+        final int interval;
+        final int holderThread;
+        final String holderName;
+        final boolean notified;
+        
+        Hit(Lane lane, int interval, int holderThread, String holderName, boolean notified) {
+            this.lane = lane;
+            this.interval = interval;
+            this.holderThread = holderThread;
+            this.holderName = holderName;
+            this.notified = notified;
+        }
+        
+        ThreadState state() {
+            return lane.intervals.state(interval);
+        }
+        
+        long durationNs() {
+            return lane.intervals.end(interval) - lane.intervals.start(interval);
+        }
+    }
+    
+    public TimelineCanvas() {
+        getChildren().add(canvas);
+        getStyleClass().add("timeline-canvas");
+        
+        painter = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                paint();
+            }
+        };
+        
+        setOnScroll(this::handleScroll);
+        setOnMousePressed(this::handleMousePressed);
+        setOnMouseDragged(this::handleMouseDragged);
+        setOnMouseMoved(this::handleMouseMoved);
+        setOnMouseClicked(this::handleMouseClicked);
+        setOnMouseExited(event -> {
+            setHoverLane(-1);
+            hoverTip.hide();
+        });
+    }
+    
+    /**
+     * Build one lane per thread in thread id order; safe to call off the JavaFX thread
+     */
+    static List<Lane> buildLanes(Map<Integer, ThreadIntervals> intervals, Map<Integer, LockHandoffs> handoffs,
+                                 Map<Integer, String> threadNames) {
+        List<Lane> lanes = new ArrayList<>();
+        for (Map.Entry<Integer, ThreadIntervals> entry : new TreeMap<>(intervals).entrySet()) {
+            int threadId = entry.getKey();
+            String name = threadNames.getOrDefault(threadId, "Thread " + threadId);
+            lanes.add(new Lane(threadId, name, entry.getValue(), handoffs.get(threadId)));
+        }
+        return lanes;
+    }
+    
+    /**
+     * Replace the lanes shown; the view is kept unless it was showing the whole trace,
+     * so a trace that is still loading can be refreshed while the user explores it.
+     * A view reaching the end of the trace keeps its zoom and scrolls with the new end.
+     */
+    void setLanes(List<Lane> newLanes) {
+        boolean first = lanes.isEmpty();
+        long oldEndNs = endNs;
+        boolean following = !first && !fitted && !Double.isNaN(nsPerPixel) && timeAt(canvas.getWidth()) >= oldEndNs;
+        lanes.clear();
+        laneByThread.clear();
+        originNs = Long.MAX_VALUE;
+        endNs = 1;
+        for (Lane lane : newLanes) {
+            laneByThread.put(lane.threadId, lanes.size());
+            lanes.add(lane);
+            if (lane.intervals.size() > 0) {
+                originNs = Math.min(originNs, lane.intervals.firstStart());
+                endNs = Math.max(endNs, lane.intervals.lastEnd());
+            }
+        }
+        originNs = Math.min(originNs, endNs - 1);
+        if (first) {
+            scrollY = 0;
+            hoverLane = -1;
+        }
+        if ((first || fitted) && plotWidth() > 0) {
+            zoomToFit();
+        } else {
+            if (following) {
+                viewStartNs += endNs - oldEndNs;
+            }
+            clampView();
+            requestRedraw();
+        }
+    }
+    
+    /**
+     * Called with the interval under the pointer when the timeline is clicked without dragging
+     */
+    void setOnSegmentClicked(Consumer<Hit> onSegmentClicked) {
+        this.onSegmentClicked = onSegmentClicked;
+    }
+    
+    /**
+     * Underline the segments of a critical path on their lanes, with a link at
+     * every handoff; null removes it
+     */
+    void setCriticalPath(CriticalPath criticalPath) {
+        this.criticalPath = criticalPath;
+        requestRedraw();
+    }
+    
+    /**
+     * Switch the state palette between light and dark themes
+     */
+    public void setDarkTheme(boolean darkTheme) {
+        this.darkTheme = darkTheme;
+        requestRedraw();
+    }
+    
+    /**
+     * Show the whole trace, or all of a live trace that is still kept
+     */
+    public void zoomToFit() {
+        nsPerPixel = maxNsPerPixel();
+        viewStartNs = originNs;
+        fitted = true;
+        requestRedraw();
+    }
+    
+    /**
+     * Pyramid level used to draw a lane at the current zoom; -1 draws the intervals themselves
+     */
+    int lodLevel(Lane lane) {
+        return lane.pyramid.levelFor(nsPerPixel);
+    }
+    
+    /**
+     * Find the interval under a point in O(log n); thin intervals within a pixel are picked too
+     *
+     * @return The hit, or null over the labels, the ruler or a gap
+     */
+    Hit hitTest(double x, double y) {
+        int laneIndex = laneAt(y);
+        if (laneIndex < 0 || x < LABEL_WIDTH || Double.isNaN(nsPerPixel)) {
+            return null;
+        }
+        Lane lane = lanes.get(laneIndex);
+        ThreadIntervals intervals = lane.intervals;
+        long time = timeAt(x);
+        int interval = intervals.indexAt(time);
+        if (interval < 0) {
+            long slack = (long) Math.ceil(nsPerPixel);
+            interval = intervals.firstEndingAfter(time - slack);
+            if (interval >= intervals.size() || intervals.start(interval) > time + slack) {
+                return null;
+            }
+        }
+        
+        int holder = -1;
+        boolean notified = false;
+        LockHandoffs handoffs = lane.handoffs;
+        if (intervals.state(interval) == ThreadState.BLOCKED_SYNC && handoffs != null) {
+            long acquireNs = intervals.end(interval);
+            int handoff = handoffs.firstAcquiredFrom(acquireNs);
+            if (handoff < handoffs.size() && handoffs.acquireNs(handoff) == acquireNs) {
+                holder = handoffs.fromThread(handoff);
+                notified = handoffs.isNotify(handoff);
+            }
+        }
+        Integer holderLane = laneByThread.get(holder);
+        String holderName = holderLane != null ? lanes.get(holderLane).name : null;
+        return new Hit(lane, interval, holder, holderName, notified);
+    }
+    
+    /**
+     * Display name of a thread state
+     */
+    static String stateLabel(ThreadState state) {
+        switch (state) {
+            case BLOCKED_SYNC:
+                return "Blocked on Sync";
+            case BLOCKED_IO:
+                return "Blocked on I/O";
+            case SLEEPING:
+                return "Sleeping";
+            default:
+                return "Executing";
+        }
+    }
+    
+    /**
+     * Format a duration with a unit suited to its magnitude
+     */
+    static String formatDuration(double ns) {
+        double magnitude = Math.abs(ns);
+        if (magnitude >= 1e9) {
+            return String.format("%.3g s", ns / 1e9);
+        } else if (magnitude >= 1e6) {
+            return String.format("%.3g ms", ns / 1e6);
+        } else if (magnitude >= 1e3) {
+            return String.format("%.3g µs", ns / 1e3);
+        }
+        return String.format("%.0f ns", ns);
+    }
+    
+    /**
+     * Format a ruler tick in the unit of formatDuration, with as many decimals
+     * as the tick step needs, so that ticks far from the origin stay distinct
+     */
+    static String formatTick(double ns, double step) {
+        double magnitude = Math.abs(ns);
+        double unit;
+        String suffix;
+        if (magnitude >= 1e9) {
+            unit = 1e9;
+            suffix = " s";
+        } else if (magnitude >= 1e6) {
+            unit = 1e6;
+            suffix = " ms";
+        } else if (magnitude >= 1e3) {
+            unit = 1e3;
+            suffix = " µs";
+        } else {
+            unit = 1;
+            suffix = " ns";
+        }
+        int decimals = Math.max(0, (int) Math.ceil(-Math.log10(step / unit) - 1e-9));
+        return String.format("%." + decimals + "f", ns / unit) + suffix;
+    }
+    
+    @Override
+    protected void layoutChildren() {
+        double width = snapSizeX(getWidth());
+        double height = snapSizeY(getHeight());
+        if (canvas.getWidth() != width || canvas.getHeight() != height) {
+            canvas.setWidth(width);
+            canvas.setHeight(height);
+            if (Double.isNaN(nsPerPixel)) {
+                zoomToFit();
+            }
+            clampView();
+            requestRedraw();
+        }
+    }
+    
+    // ---- Invalidation ----
+    
+    private void requestRedraw() {
+        fullRedraw = true;
+        painter.start();
+    }
+    
+    private void invalidateLane(int lane) {
+        if (lane < 0) {
+            return;
+        }
+        firstDirtyLane = Math.min(firstDirtyLane, lane);
+        lastDirtyLane = Math.max(lastDirtyLane, lane);
+        painter.start();
+    }
+    
+    private void paint() {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        if (Double.isNaN(nsPerPixel) || canvas.getWidth() <= LABEL_WIDTH) {
+            return;
+        }
+        int first = firstVisibleLane();
+        int last = lastVisibleLane();
+        if (fullRedraw) {
+            gc.setFill(background());
+            gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+            drawLanes(gc, first, last);
+            drawRuler(gc);
+        } else if (lastDirtyLane >= 0) {
+            // Repaint the dirty rows only; handoff arrows crossing them are redrawn under the same clip
+            int from = Math.max(first, firstDirtyLane);
+            int to = Math.min(last, lastDirtyLane);
+            if (from <= to) {
+                double top = Math.max(RULER_HEIGHT, laneTop(from));
+                double bottom = laneTop(to) + LANE_HEIGHT;
+                gc.save();
+                gc.beginPath();
+                gc.rect(0, top, canvas.getWidth(), bottom - top);
+                gc.closePath();
+                gc.clip();
+                gc.setFill(background());
+                gc.fillRect(0, top, canvas.getWidth(), bottom - top);
+                drawLanes(gc, from, to);
+                gc.restore();
+            }
+        }
+        fullRedraw = false;
+        firstDirtyLane = Integer.MAX_VALUE;
+        lastDirtyLane = -1;
+    }
+    
+    // ---- Drawing ----
+    
+    private void drawLanes(GraphicsContext gc, int first, int last) {
+        for (int i = first; i <= last; i++) {
+            Lane lane = lanes.get(i);
+            double top = laneTop(i);
+            if (i == hoverLane) {
+                gc.setFill(darkTheme ? Color.web("#263238") : Color.web("#EAF2FC"));
+                gc.fillRect(LABEL_WIDTH, top, plotWidth(), LANE_HEIGHT);
+            }
+            int level = lodLevel(lane);
+            if (level >= 0) {
+                drawSummary(gc, lane.pyramid, level, top);
+            } else {
+                drawIntervals(gc, lane.intervals, top);
+            }
+            gc.setStroke(gridColor());
+            gc.strokeLine(LABEL_WIDTH, top + LANE_HEIGHT - 0.5, canvas.getWidth(), top + LANE_HEIGHT - 0.5);
+        }
+        drawHandoffs(gc, first, last);
+        drawCriticalPath(gc, first, last);
+        for (int i = first; i <= last; i++) {
+            drawLabel(gc, lanes.get(i), laneTop(i), i == hoverLane);
+        }
+    }
+    
+    /**
+     * One sample per pixel at a level whose buckets are no wider than a pixel, merged into runs
+     */
+    private void drawSummary(GraphicsContext gc, StatePyramid pyramid, int level, double top) {
+        long width = pyramid.bucketWidthNs(level);
+        int buckets = pyramid.bucketCount(level);
+        int pixels = (int) Math.ceil(plotWidth());
+        ThreadState runState = null;
+        int runStart = 0;
+        for (int px = 0; px <= pixels; px++) {
+            ThreadState state = null;
+            if (px < pixels) {
+                long bucket = Math.floorDiv(timeAt(LABEL_WIDTH + px + 0.5) - pyramid.originNs(), width);
+                if (bucket >= 0 && bucket < buckets) {
+                    state = pyramid.dominantState(level, (int) bucket);
+                }
+            }
+            if (state != runState || px == pixels) {
+                if (runState != null) {
+                    gc.setFill(stateColor(runState));
+                    gc.fillRect(LABEL_WIDTH + runStart, top + BAR_INSET, px - runStart, LANE_HEIGHT - 2 * BAR_INSET);
+                }
+                runState = state;
+                runStart = px;
+            }
+        }
+    }
+    
+    /**
+     * Intervals merged into runs of one state; an interval narrower than a
+     * pixel fills its pixel column, and the other intervals in that column
+     * are skipped
+     */
+    private void drawIntervals(GraphicsContext gc, ThreadIntervals intervals, double top) {
+        double right = canvas.getWidth();
+        long viewEnd = timeAt(right);
+        ThreadState runState = null;
+        double runStart = 0;
+        double runEnd = 0;
+        int i = intervals.firstEndingAfter(viewStartNs);
+        while (i < intervals.size() && intervals.start(i) < viewEnd) {
+            double x0 = Math.max(LABEL_WIDTH, xAt(intervals.start(i)));
+            double x1 = Math.min(right, xAt(intervals.end(i)));
+            int next = i + 1;
+            if (x1 - x0 < 1) {
+                x0 = Math.floor(x0);
+                x1 = x0 + 1;
+                next = Math.max(next, intervals.firstEndingAfter(timeAt(x1)));
+            }
+            ThreadState state = intervals.state(i);
+            if (state != runState || x0 > runEnd) {
+                fillRun(gc, runState, runStart, runEnd, top);
+                runState = state;
+                runStart = x0;
+                runEnd = x1;
+            } else {
+                runEnd = Math.max(runEnd, x1);
+            }
+            i = next;
+        }
+        fillRun(gc, runState, runStart, runEnd, top);
+    }
+    
+    private void fillRun(GraphicsContext gc, ThreadState state, double x0, double x1, double top) {
+        if (state != null) {
+            gc.setFill(stateColor(state));
+            gc.fillRect(x0, top + BAR_INSET, x1 - x0, LANE_HEIGHT - 2 * BAR_INSET);
+        }
+    }
+    
+    /**
+     * Arrows from the releasing lane to the acquiring lane for handoffs received by visible lanes
+     */
+    private void drawHandoffs(GraphicsContext gc, int first, int last) {
+        long viewEnd = timeAt(canvas.getWidth());
+        int total = 0;
+        for (int i = first; i <= last; i++) {
+            LockHandoffs handoffs = lanes.get(i).handoffs;
+            if (handoffs != null) {
+                total += handoffs.firstAcquiredFrom(viewEnd + 1) - handoffs.firstAcquiredFrom(viewStartNs);
+            }
+        }
+        if (total == 0 || total > MAX_ARROWS) {
+            return;
+        }
+        
+        gc.save();
+        gc.beginPath();
+        gc.rect(LABEL_WIDTH, RULER_HEIGHT, plotWidth(), canvas.getHeight() - RULER_HEIGHT);
+        gc.closePath();
+        gc.clip();
+        gc.setStroke(textColor());
+        gc.setFill(textColor());
+        gc.setLineWidth(1);
+        for (int i = first; i <= last; i++) {
+            LockHandoffs handoffs = lanes.get(i).handoffs;
+            if (handoffs == null) {
+                continue;
+            }
+            for (int h = handoffs.firstAcquiredFrom(viewStartNs); h < handoffs.size() && handoffs.acquireNs(h) <= viewEnd; h++) {
+                Integer from = laneByThread.get(handoffs.fromThread(h));
+                if (from == null) {
+                    continue;
+                }
+                double x0 = xAt(handoffs.releaseNs(h));
+                double y0 = laneTop(from) + LANE_HEIGHT / 2;
+                double x1 = xAt(handoffs.acquireNs(h));
+                double y1 = laneTop(i) + LANE_HEIGHT / 2;
+                gc.strokeLine(x0, y0, x1, y1);
+                double angle = Math.atan2(y1 - y0, x1 - x0);
+                gc.fillPolygon(
+                    new double[] {x1, x1 - ARROW_SIZE * Math.cos(angle - 0.4), x1 - ARROW_SIZE * Math.cos(angle + 0.4)},
+                    new double[] {y1, y1 - ARROW_SIZE * Math.sin(angle - 0.4), y1 - ARROW_SIZE * Math.sin(angle + 0.4)},
+                    3);
+            }
+        }
+        gc.restore();
+    }
+    
+    /**
+     * A line under the path's segments on visible lanes, merged per pixel, and a
+     * link from the waking lane at every handoff when few enough are in view
+     */
+    private void drawCriticalPath(GraphicsContext gc, int first, int last) {
+        CriticalPath path = criticalPath;
+        if (path == null || path.size() == 0) {
+            return;
+        }
+        long viewEnd = timeAt(canvas.getWidth());
+        int from = path.firstEndingAfter(viewStartNs);
+        int to = path.firstEndingAfter(viewEnd);
+        int handoffs = 0;
+        for (int i = from; i < to && i < path.size() && handoffs <= MAX_ARROWS; i++) {
+            if (path.wakerThread(i) >= 0) {
+                handoffs++;
+            }
+        }
+        
+        gc.save();
+        gc.beginPath();
+        gc.rect(LABEL_WIDTH, RULER_HEIGHT, plotWidth(), canvas.getHeight() - RULER_HEIGHT);
+        gc.closePath();
+        gc.clip();
+        gc.setStroke(pathColor());
+        gc.setLineWidth(2);
+        int runLane = -1;
+        double runX0 = 0;
+        double runX1 = 0;
+        for (int i = from; i < path.size() && path.start(i) < viewEnd; i++) {
+            Integer lane = laneByThread.get(path.threadId(i));
+            if (lane == null || lane < first || lane > last) {
+                continue;
+            }
+            double x0 = xAt(path.start(i));
+            double x1 = xAt(path.end(i));
+            if (lane != runLane || x0 > runX1 + 1) {
+                strokePathRun(gc, runLane, runX0, runX1);
+                runLane = lane;
+                runX0 = x0;
+                runX1 = x0;
+            }
+            runX1 = Math.max(runX1, x1);
+            
+            Integer waker = laneByThread.get(path.wakerThread(i));
+            if (waker != null && handoffs <= MAX_ARROWS) {
+                gc.strokeLine(x0, laneTop(waker) + LANE_HEIGHT - 1, x0, laneTop(lane) + LANE_HEIGHT - 1);
+            }
+        }
+        strokePathRun(gc, runLane, runX0, runX1);
+        gc.restore();
+    }
+    
+    private void strokePathRun(GraphicsContext gc, int lane, double x0, double x1) {
+        if (lane >= 0) {
+            double y = laneTop(lane) + LANE_HEIGHT - 1;
+            gc.strokeLine(Math.max(LABEL_WIDTH, x0), y, Math.min(canvas.getWidth(), Math.max(x1, x0 + 1)), y);
+        }
+    }
+    
+    private void drawLabel(GraphicsContext gc, Lane lane, double top, boolean hovered) {
+        gc.setFill(hovered ? gridColor() : labelBackground());
+        gc.fillRect(0, top, LABEL_WIDTH, LANE_HEIGHT);
+        gc.setStroke(gridColor());
+        gc.strokeLine(LABEL_WIDTH - 0.5, top, LABEL_WIDTH - 0.5, top + LANE_HEIGHT);
+        gc.setFill(textColor());
+        gc.setTextAlign(TextAlignment.LEFT);
+        gc.setTextBaseline(VPos.CENTER);
+        gc.fillText(lane.name, 8, top + LANE_HEIGHT / 2, LABEL_WIDTH - 16);
+    }
+    
+    /**
+     * Time ticks at a 1-2-5 step at least MIN_TICK_SPACING pixels apart
+     */
+    private void drawRuler(GraphicsContext gc) {
+        gc.setFill(labelBackground());
+        gc.fillRect(0, 0, canvas.getWidth(), RULER_HEIGHT);
+        gc.setStroke(gridColor());
+        gc.strokeLine(0, RULER_HEIGHT - 0.5, canvas.getWidth(), RULER_HEIGHT - 0.5);
+        
+        double minStep = MIN_TICK_SPACING * nsPerPixel;
+        double step = Math.pow(10, Math.floor(Math.log10(minStep)));
+        if (step * 2 >= minStep) {
+            step *= 2;
+        } else if (step * 5 >= minStep) {
+            step *= 5;
+        } else {
+            step *= 10;
+        }
+        gc.setFill(textColor());
+        gc.setTextAlign(TextAlignment.LEFT);
+        gc.setTextBaseline(VPos.CENTER);
+        for (double t = Math.ceil(viewStartNs / step) * step; xAt((long) t) < canvas.getWidth(); t += step) {
+            double x = Math.floor(xAt((long) t)) + 0.5;
+            gc.strokeLine(x, RULER_HEIGHT - 6, x, RULER_HEIGHT);
+            gc.fillText(formatTick(t, step), x + 3, RULER_HEIGHT / 2);
+        }
+        gc.setFill(labelBackground());
+        gc.fillRect(0, 0, LABEL_WIDTH, RULER_HEIGHT - 1);
+    }
+    
+    // ---- Interaction ----
+    
+    /**
+     * Ctrl/Cmd + wheel zooms around the pointer; the wheel alone scrolls lanes and pans time
+     */
+    private void handleScroll(ScrollEvent event) {
+        if (Double.isNaN(nsPerPixel)) {
+            return;
+        }
+        if (event.isShortcutDown() || event.isControlDown()) {
+            double x = Math.max(LABEL_WIDTH, event.getX());
+            long anchor = timeAt(x);
+            double factor = event.getDeltaY() > 0 ? 1 / ZOOM_STEP : ZOOM_STEP;
+            nsPerPixel = Math.max(MIN_NS_PER_PIXEL, Math.min(maxNsPerPixel(), nsPerPixel * factor));
+            viewStartNs = anchor - (long) ((x - LABEL_WIDTH) * nsPerPixel);
+            fitted = false;
+        } else {
+            scrollY -= event.getDeltaY();
+            if (event.getDeltaX() != 0) {
+                viewStartNs -= (long) (event.getDeltaX() * nsPerPixel);
+                fitted = false;
+            }
+        }
+        clampView();
+        requestRedraw();
+        event.consume();
+    }
+    
+    private void handleMousePressed(MouseEvent event) {
+        dragX = event.getX();
+        dragY = event.getY();
+    }
+    
+    private void handleMouseClicked(MouseEvent event) {
+        if (event.isStillSincePress() && onSegmentClicked != null) {
+            Hit hit = hitTest(event.getX(), event.getY());
+            if (hit != null) {
+                onSegmentClicked.accept(hit);
+            }
+        }
+    }
+    
+    private void handleMouseDragged(MouseEvent event) {
+        hoverTip.hide();
+        if (event.getX() != dragX) {
+            viewStartNs -= (long) ((event.getX() - dragX) * nsPerPixel);
+            fitted = false;
+        }
+        scrollY -= event.getY() - dragY;
+        dragX = event.getX();
+        dragY = event.getY();
+        clampView();
+        requestRedraw();
+    }
+    
+    private void handleMouseMoved(MouseEvent event) {
+        setHoverLane(laneAt(event.getY()));
+        Hit hit = hitTest(event.getX(), event.getY());
+        if (hit == null) {
+            hoverTip.hide();
+            return;
+        }
+        String text = stateLabel(hit.state()) + " \u00b7 " + formatDuration(hit.durationNs());
+        if (hit.holderName != null) {
+            text += (hit.notified ? "\nNotified by " : "\nReleased by ") + hit.holderName;
+        }
+        hoverTip.setText(text);
+        hoverTip.show(this, event.getScreenX() + 14, event.getScreenY() + 14);
+    }
+    
+    private void setHoverLane(int lane) {
+        if (lane != hoverLane) {
+            invalidateLane(hoverLane);
+            hoverLane = lane;
+            invalidateLane(lane);
+        }
+    }
+    
+    // ---- Geometry ----
+    
+    private void clampView() {
+        double maxScroll = Math.max(0, lanes.size() * LANE_HEIGHT - (canvas.getHeight() - RULER_HEIGHT));
+        scrollY = Math.max(0, Math.min(maxScroll, scrollY));
+        if (!Double.isNaN(nsPerPixel)) {
+            long maxStart = Math.max(originNs, endNs - (long) (plotWidth() * nsPerPixel));
+            viewStartNs = Math.max(originNs, Math.min(maxStart, viewStartNs));
+        }
+    }
+    
+    private double maxNsPerPixel() {
+        return Math.max(MIN_NS_PER_PIXEL, (endNs - originNs) / Math.max(1.0, plotWidth()));
+    }
+    
+    private double plotWidth() {
+        return Math.max(0, canvas.getWidth() - LABEL_WIDTH);
+    }
+    
+    long timeAt(double x) {
+        return viewStartNs + (long) ((x - LABEL_WIDTH) * nsPerPixel);
+    }
+    
+    double xAt(long timeNs) {
+        return LABEL_WIDTH + (timeNs - viewStartNs) / nsPerPixel;
+    }
+    
+    double laneTop(int lane) {
+        return RULER_HEIGHT + lane * LANE_HEIGHT - scrollY;
+    }
+    
+    /**
+     * Lane under a y coordinate, or -1 over the ruler or below the last lane
+     */
+    int laneAt(double y) {
+        if (y < RULER_HEIGHT) {
+            return -1;
+        }
+        int lane = (int) Math.floor((y - RULER_HEIGHT + scrollY) / LANE_HEIGHT);
+        return lane < lanes.size() ? lane : -1;
+    }
+    
+    private int firstVisibleLane() {
+        return Math.max(0, (int) Math.floor(scrollY / LANE_HEIGHT));
+    }
+    
+    private int lastVisibleLane() {
+        int last = (int) Math.floor((scrollY + canvas.getHeight() - RULER_HEIGHT) / LANE_HEIGHT);
+        return Math.min(lanes.size() - 1, last);
+    }
+    
+    // ---- Theme ----
+    
+    private Color stateColor(ThreadState state) {
+        return (darkTheme ? DARK_STATES : LIGHT_STATES)[state.getValue()];
+    }
+    
+    private Color background() {
+        return darkTheme ? Color.web("#1A1A1A") : Color.web("#F7F7F7");
+    }
+    
+    private Color labelBackground() {
+        return darkTheme ? Color.web("#222222") : Color.web("#F1F1F1");
+    }
+    
+    private Color gridColor() {
+        return darkTheme ? Color.web("#333333") : Color.web("#DEDEDE");
+    }
+    
+    private Color pathColor() {
+        return darkTheme ? Color.web("#FFB300") : Color.web("#EF6C00");
+    }
+    
+    private Color textColor() {
+        return darkTheme ? Color.web("#EAEAEA") : Color.web("#2F2F2F");
+    }
+}
@@ -0,0 +1,156 @@
+package com.traceview.gui;
+
+import com.traceview.shared.ContentionStats;
+import com.traceview.shared.IntervalBuilder;
+import com.traceview.shared.LockStats;
+import com.traceview.shared.ThreadEvents;
+import com.traceview.shared.TraceFormat;
+import com.traceview.shared.TraceLoader;
+import com.traceview.shared.TraceReader;
+import javafx.concurrent.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trace Load Task
+ *
+ * Decodes a trace in the background, chunk batch by chunk batch in file order, and
+ * publishes the lanes built so far through the task value as it goes, so the timeline
+ * fills in from the left while the rest of the file is read. Each batch is decoded in
+ * parallel by a {@link TraceLoader} and replayed in time order into the interval builder
+ * and contention statistics. Snapshots are published at most every quarter second and
+ * never take more than a fifth of the loading time. Cancelling stops decoding and leaves
+ * the last published snapshot in place.
+ *
+ * The events of a thread in a JFR trace are not stored in time order, so such traces
+ * are decoded in full, each thread sorted, and shown once loading is complete.
+ */
+public class TraceLoadTask extends Task<TraceLoadTask.Snapshot> {
+
+    private static final Logger logger = LoggerFactory.getLogger(TraceLoadTask.class);
+
+    // Chunks decoded per decoding thread between cancellation checks; at most 8 MB of raw events each
+    private static final int CHUNKS_PER_BATCH = 8;
+    private static final long MIN_PUBLISH_INTERVAL_NS = 250_000_000L;
+    private static final int PUBLISH_COST_RATIO = 4;
+
+    private final Path tracePath;
+
+    /**
+     * The lanes decoded so far, the captured stacks they refer to, the most contended locks
+     * and the totals of all locks
+     */
+    public static final class Snapshot {
+        final List<TimelineCanvas.Lane> lanes;
+        final List<String> stackTraces;
+        final List<LockStats> locks;
+        final int lockCount;
+        final LockStats lockTotals;
+        final Map<Integer, String> threadNames;
+        final boolean complete;
+
+        Snapshot(List<TimelineCanvas.Lane> lanes, List<String> stackTraces, ContentionStats contention,
+                 Map<Integer, String> threadNames, boolean complete) {
+            this.lanes = lanes;
+            this.stackTraces = stackTraces;
+            this.locks = contention.getTopLocks(ContentionPanel.MAX_LOCKS);
+            this.lockCount = contention.getLockCount();
+            this.lockTotals = contention.getTotals();
+            this.threadNames = threadNames;
+            this.complete = complete;
+        }
+    }
+
+    public TraceLoadTask(Path tracePath) {
+        this.tracePath = tracePath;
+    }
+
+    @Override
+    protected Snapshot call() throws Exception {
+        long startTime = System.nanoTime();
+        try (TraceReader reader = TraceReader.open(tracePath)) {
+            // Thread names and stacks sit in the footer, so they are known before any event
+            Map<Integer, String> threadNames = new HashMap<>();
+            for (TraceFormat.ThreadInfo thread : reader.getThreads()) {
+                threadNames.put(thread.threadId, reader.getString(thread.nameOffset));
+            }
+            List<String> stackTraces = new ArrayList<>();
+            for (int stackId = 0; stackId < reader.getStackCount(); stackId++) {
+                StringBuilder stack = new StringBuilder();
+                for (String frame : reader.getStackFrames(stackId)) {
+                    stack.append("at ").append(frame).append('\n');
+                }
+                stackTraces.add(stack.toString());
+            }
+            stackTraces = Collections.unmodifiableList(stackTraces);
+
+            IntervalBuilder builder = new IntervalBuilder();
+            ContentionStats contention = new ContentionStats();
+            int chunkCount = reader.getChunks().size();
+            if (chunkCount == 0) {
+                // Version 1 traces have no chunks to report progress on
+                updateProgress(-1, 1);
+                reader.forEachEvent((timestampNs, threadId, type, arg0, arg1) -> {
+                    builder.onEvent(timestampNs, threadId, type, arg0, arg1);
+                    contention.onEvent(timestampNs, threadId, type, arg0, arg1);
+                });
+            }
+
+            // Parts of every thread's events in file order, for traces that must be sorted first
+            boolean ordered = reader.isTimeOrdered();
+            Map<Integer, List<ThreadEvents>> unsorted = new HashMap<>();
+            TraceReader.EventVisitor consumer = (timestampNs, threadId, type, arg0, arg1) -> {
+                builder.onEvent(timestampNs, threadId, type, arg0, arg1);
+                contention.onEvent(timestampNs, threadId, type, arg0, arg1);
+            };
+            try (TraceLoader loader = new TraceLoader(reader)) {
+                int batchChunks = CHUNKS_PER_BATCH * loader.getParallelism();
+                long lastPublish = 0;
+                long publishCost = 0;
+                for (int chunk = 0; chunk < chunkCount && !isCancelled(); chunk += batchChunks) {
+                    int endChunk = Math.min(chunkCount, chunk + batchChunks);
+                    Map<Integer, ThreadEvents> batch = loader.load(chunk, endChunk);
+                    if (ordered) {
+                        TraceLoader.replay(batch.values(), consumer);
+                    } else {
+                        batch.forEach((threadId, events) ->
+                            unsorted.computeIfAbsent(threadId, id -> new ArrayList<>()).add(events));
+                    }
+                    updateProgress(endChunk, chunkCount);
+
+                    long now = System.nanoTime();
+                    if (ordered && endChunk < chunkCount
+                            && now - lastPublish >= Math.max(MIN_PUBLISH_INTERVAL_NS, publishCost * PUBLISH_COST_RATIO)) {
+                        updateValue(new Snapshot(TimelineCanvas.buildLanes(builder.snapshot(),
+                            builder.buildHandoffs(), threadNames), stackTraces, contention, threadNames, false));
+                        lastPublish = System.nanoTime();
+                        publishCost = lastPublish - now;
+                    }
+                }
+            }
+            if (!unsorted.isEmpty() && !isCancelled()) {
+                List<ThreadEvents> threads = new ArrayList<>();
+                unsorted.forEach((threadId, parts) -> threads.add(ThreadEvents.concat(threadId, parts)));
+                unsorted.clear();
+                TraceLoader.replay(threads, consumer);
+            }
+            if (isCancelled()) {
+                logger.info("Loading {} cancelled", tracePath);
+                return null;
+            }
+
+            Snapshot snapshot = new Snapshot(TimelineCanvas.buildLanes(builder.build(),
+                builder.buildHandoffs(), threadNames), stackTraces, contention, threadNames, true);
+            logger.info("Loaded {} events from {} in {} ms", reader.getNumEvents(), tracePath,
+                (System.nanoTime() - startTime) / 1_000_000);
+            return snapshot;
+        }
+    }
+}
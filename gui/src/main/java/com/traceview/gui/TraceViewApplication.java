@@ -111,6 +111,31 @@ public class TraceViewApplication extends Application {
         }
     }
     
+    /**
+     * Show the main analysis view following a running agent that streams on the given port
+     */
+    public void showLiveView(int port) {
+        try {
+            logger.info("Loading live view for port: {}", port);
+            
+            FXMLLoader loader = new FXMLLoader(getClass().getResource("/traceview.fxml"));
+            TraceViewController controller = new TraceViewController(this, port);
+            loader.setController(controller);
+            
+            VBox mainRoot = loader.load();
+            
+            scene = new Scene(mainRoot);
+            applyTheme();
+            
+            primaryStage.setScene(scene);
+            primaryStage.setTitle(APP_TITLE + " - Live :" + port);
+            
+        } catch (IOException e) {
+            logger.error("Failed to load live view", e);
+            throw new RuntimeException("Failed to load live view", e);
+        }
+    }
+    
     /**
      * Toggle between light and dark themes
      */
@@ -1,14 +1,27 @@
 package com.traceview.gui;
 
+import com.traceview.shared.CriticalPath;
+import com.traceview.shared.LockHandoffs;
+import com.traceview.shared.ThreadIntervals;
+import com.traceview.shared.TraceFormat;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextArea;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Trace View Controller
@@ -20,6 +33,9 @@ public class TraceViewController {
     
     private static final Logger logger = LoggerFactory.getLogger(TraceViewController.class);
     
+    // Threads and locks listed in the critical path report
+    private static final int CRITICAL_PATH_LIMIT = 10;
+    
     // FXML injected components
     @FXML private Label fileNameLabel;
     @FXML private Button themeToggleButton;
@@ -29,13 +45,38 @@ public class TraceViewController {
     @FXML private Label durationDetail;
     @FXML private Label waitingDetail;
     @FXML private TextArea stackTraceArea;
+    @FXML private TextArea criticalPathArea;
     
     private final TraceViewApplication application;
     private final String traceFilePath;
+    // Port of the agent followed live, or -1 when showing a trace file
+    private final int livePort;
+    
+    private final TimelineCanvas timeline = new TimelineCanvas();
+    private final ContentionPanel contentionPanel = new ContentionPanel();
+    
+    // Captured stacks by stack table id, formatted for the context panel
+    private List<String> stackTraces = Collections.emptyList();
+    private List<TimelineCanvas.Lane> lanes = Collections.emptyList();
+    private Map<Integer, String> threadNames = Collections.emptyMap();
+    private TimelineCanvas.Hit selectedHit;
+    
+    private Task<TraceLoadTask.Snapshot> loadTask;
+    private Task<CriticalPath> criticalPathTask;
     
     public TraceViewController(TraceViewApplication application, String traceFilePath) {
         this.application = application;
         this.traceFilePath = traceFilePath;
+        this.livePort = -1;
+    }
+    
+    /**
+     * Controller following the live stream of an agent instead of a trace file
+     */
+    public TraceViewController(TraceViewApplication application, int livePort) {
+        this.application = application;
+        this.traceFilePath = null;
+        this.livePort = livePort;
     }
     
     /**
@@ -43,7 +84,7 @@ public class TraceViewController {
      */
     @FXML
     private void initialize() {
-        logger.info("Initializing TraceViewController for file: {}", traceFilePath);
+        logger.info("Initializing TraceViewController for {}", livePort >= 0 ? "live port " + livePort : traceFilePath);
         
         // Set file name in header
         setFileName();
@@ -64,6 +105,10 @@ public class TraceViewController {
      * Set the file name in the header bar
      */
     private void setFileName() {
+        if (livePort >= 0) {
+            fileNameLabel.setText("Live agent on port " + livePort);
+            return;
+        }
         File file = new File(traceFilePath);
         fileNameLabel.setText(file.getName());
     }
@@ -79,22 +124,112 @@ public class TraceViewController {
      * Initialize the timeline visualization
      */
     private void initializeTimeline() {
-        // For MVP, we'll show a placeholder
-        // TODO: Implement actual timeline rendering
-        
         timelineContainer.getChildren().clear();
+        timeline.setDarkTheme(application.isDarkTheme());
+        timeline.setOnSegmentClicked(this::handleTimelineSegmentClick);
+        VBox.setVgrow(timeline, Priority.ALWAYS);
+        timelineContainer.getChildren().add(timeline);
+        timelineContainer.getChildren().add(contentionPanel);
         
-        Label placeholder = new Label("Timeline visualization will be implemented here");
-        placeholder.getStyleClass().add("timeline-placeholder-label");
-        timelineContainer.getChildren().add(placeholder);
-        
-        // TODO: Parse trace file and create timeline visualization
-        // This would include:
-        // 1. Reading the .tview file
-        // 2. Creating thread lanes
-        // 3. Rendering state segments with appropriate colors
-        // 4. Adding interaction handlers for clicking segments
-        // 5. Implementing zoom and pan functionality
+        if (livePort >= 0) {
+            startLive();
+        } else {
+            startLoading();
+        }
+    }
+    
+    /**
+     * Decode the trace in the background, showing each snapshot as it arrives
+     */
+    private void startLoading() {
+        ProgressBar progressBar = new ProgressBar();
+        Label progressLabel = new Label("Loading...");
+        Button cancelButton = new Button("Cancel");
+        HBox progressRow = new HBox(progressBar, progressLabel, cancelButton);
+        progressRow.getStyleClass().add("load-progress");
+        HBox.setHgrow(progressBar, Priority.ALWAYS);
+        progressBar.setMaxWidth(Double.MAX_VALUE);
+        timelineContainer.getChildren().add(0, progressRow);
+        
+        loadTask = new TraceLoadTask(Paths.get(traceFilePath));
+        progressBar.progressProperty().bind(loadTask.progressProperty());
+        loadTask.progressProperty().addListener((observable, oldValue, newValue) -> {
+            double progress = newValue.doubleValue();
+            progressLabel.setText(progress < 0 ? "Loading..." : String.format("Loading... %.0f%%", progress * 100));
+        });
+        loadTask.valueProperty().addListener((observable, oldValue, snapshot) -> {
+            if (snapshot != null) {
+                showSnapshot(snapshot);
+            }
+        });
+        cancelButton.setOnAction(event -> loadTask.cancel());
+        
+        loadTask.setOnSucceeded(event -> timelineContainer.getChildren().remove(progressRow));
+        loadTask.setOnCancelled(event -> {
+            timelineContainer.getChildren().remove(progressRow);
+            fileNameLabel.setText(fileNameLabel.getText() + " (partially loaded)");
+        });
+        loadTask.setOnFailed(event -> {
+            Throwable error = loadTask.getException();
+            logger.error("Failed to read trace file: {}", traceFilePath, error);
+            timelineContainer.getChildren().clear();
+            Label errorLabel = new Label("Could not read trace: " + error.getMessage());
+            errorLabel.getStyleClass().add("timeline-placeholder-label");
+            timelineContainer.getChildren().add(errorLabel);
+        });
+        
+        Thread loader = new Thread(loadTask, "traceview-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+    
+    /**
+     * Follow the event stream of a running agent, showing its most recent stretch
+     */
+    private void startLive() {
+        Label statusLabel = new Label();
+        Button disconnectButton = new Button("Disconnect");
+        HBox statusRow = new HBox(statusLabel, disconnectButton);
+        statusRow.getStyleClass().add("load-progress");
+        HBox.setHgrow(statusLabel, Priority.ALWAYS);
+        statusLabel.setMaxWidth(Double.MAX_VALUE);
+        timelineContainer.getChildren().add(0, statusRow);
+        
+        loadTask = new LiveTraceTask(livePort);
+        statusLabel.textProperty().bind(loadTask.messageProperty());
+        loadTask.valueProperty().addListener((observable, oldValue, snapshot) -> {
+            if (snapshot != null) {
+                showSnapshot(snapshot);
+            }
+        });
+        disconnectButton.setOnAction(event -> loadTask.cancel());
+        
+        loadTask.setOnSucceeded(event -> statusRow.getChildren().remove(disconnectButton));
+        loadTask.setOnCancelled(event -> {
+            statusLabel.textProperty().unbind();
+            statusLabel.setText("Disconnected");
+            statusRow.getChildren().remove(disconnectButton);
+        });
+        loadTask.setOnFailed(event -> {
+            Throwable error = loadTask.getException();
+            logger.error("Failed to follow live agent on port {}", livePort, error);
+            statusLabel.textProperty().unbind();
+            statusLabel.setText("Could not follow live agent on port " + livePort + ": " + error.getMessage());
+            statusRow.getChildren().remove(disconnectButton);
+        });
+        
+        Thread reader = new Thread(loadTask, "traceview-live");
+        reader.setDaemon(true);
+        reader.start();
+    }
+    
+    private void showSnapshot(TraceLoadTask.Snapshot snapshot) {
+        stackTraces = snapshot.stackTraces;
+        lanes = snapshot.lanes;
+        threadNames = snapshot.threadNames;
+        timeline.setLanes(snapshot.lanes);
+        contentionPanel.setLocks(snapshot.locks, snapshot.lockCount, snapshot.lockTotals, snapshot.threadNames);
+        logger.debug("Showing {} lanes{}", snapshot.lanes.size(), snapshot.complete ? "" : " (partial)");
     }
     
     /**
@@ -104,6 +239,7 @@ public class TraceViewController {
     private void toggleTheme() {
         application.toggleTheme();
         updateThemeToggleButton();
+        timeline.setDarkTheme(application.isDarkTheme());
     }
     
     /**
@@ -132,22 +268,84 @@ public class TraceViewController {
     
     /**
      * Handle clicks on timeline segments
-     * This is a placeholder for the actual implementation
      */
-    private void handleTimelineSegmentClick(String eventId) {
-        // TODO: Implement actual event lookup and context panel population
-        // For now, show sample data
+    private void handleTimelineSegmentClick(TimelineCanvas.Hit hit) {
+        ThreadIntervals intervals = hit.lane.intervals;
+        long objectId = intervals.objectId(hit.interval);
+        
+        String waitingFor = "-";
+        if (hit.state() == TraceFormat.ThreadState.BLOCKED_SYNC) {
+            waitingFor = String.format("Lock 0x%x", objectId);
+            if (hit.holderName != null) {
+                waitingFor += (hit.notified ? ", notified by " : ", released by ") + hit.holderName;
+            }
+        } else if (hit.state() == TraceFormat.ThreadState.BLOCKED_IO) {
+            waitingFor = "I/O on " + objectId;
+        }
         
+        int stackId = intervals.stackId(hit.interval);
+        String stackTrace = stackId >= 0 && stackId < stackTraces.size()
+            ? stackTraces.get(stackId)
+            : "No stack captured";
+        
+        selectedHit = hit;
+        criticalPathArea.clear();
         showContextPanel(
-            "Blocked on Sync",
-            "15.2 ms",
-            "Mutex 'RenderLock'",
-            "at com.example.MyClass.doWork(MyClass.java:42)\n" +
-            "at com.example.Worker.run(Worker.java:28)\n" +
-            "at java.lang.Thread.run(Thread.java:748)"
+            TimelineCanvas.stateLabel(hit.state()) + " (" + hit.lane.name + ")",
+            TimelineCanvas.formatDuration(hit.durationNs()),
+            waitingFor,
+            stackTrace
         );
     }
     
+    /**
+     * Walk the critical path back from the end of the selected interval in the
+     * background, then report it and underline it on the timeline
+     */
+    @FXML
+    private void showCriticalPath() {
+        if (selectedHit == null) {
+            return;
+        }
+        Map<Integer, ThreadIntervals> intervals = new HashMap<>();
+        Map<Integer, LockHandoffs> handoffs = new HashMap<>();
+        for (TimelineCanvas.Lane lane : lanes) {
+            intervals.put(lane.threadId, lane.intervals);
+            if (lane.handoffs != null) {
+                handoffs.put(lane.threadId, lane.handoffs);
+            }
+        }
+        int threadId = selectedHit.lane.threadId;
+        long endNs = selectedHit.lane.intervals.end(selectedHit.interval);
+        Map<Integer, String> names = threadNames;
+        
+        if (criticalPathTask != null) {
+            criticalPathTask.cancel();
+        }
+        Task<CriticalPath> task = new Task<CriticalPath>() {
+            @Override
+            protected CriticalPath call() {
+                return CriticalPath.walk(intervals, handoffs, threadId, endNs);
+            }
+        };
+        criticalPathTask = task;
+        criticalPathArea.setText("Walking back from " + selectedHit.lane.name + "...");
+        task.setOnSucceeded(event -> {
+            CriticalPath path = task.getValue();
+            criticalPathArea.setText(path.report(names, CRITICAL_PATH_LIMIT));
+            timeline.setCriticalPath(path);
+            logger.debug("Critical path of {} segments, {} handoffs", path.size(), path.getHandoffCount());
+        });
+        task.setOnFailed(event -> {
+            logger.error("Failed to walk the critical path", task.getException());
+            criticalPathArea.setText("Could not walk the critical path: " + task.getException().getMessage());
+        });
+        
+        Thread walker = new Thread(task, "traceview-critical-path");
+        walker.setDaemon(true);
+        walker.start();
+    }
+    
     /**
      * Get the trace file path
      */
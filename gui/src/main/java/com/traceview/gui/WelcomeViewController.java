@@ -1,8 +1,10 @@
 package com.traceview.gui;
 
+import com.traceview.shared.TraceFormat;
 import javafx.geometry.Pos;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.TextInputDialog;
 import javafx.scene.input.DragEvent;
 import javafx.scene.input.Dragboard;
 import javafx.scene.input.TransferMode;
@@ -44,13 +46,15 @@ public class WelcomeViewController {
         Label titleLabel = createTitleLabel();
         Label subtitleLabel = createSubtitleLabel();
         Button openFileButton = createOpenFileButton();
+        Button connectLiveButton = createConnectLiveButton();
         
         // Add elements to container
         rootContainer.getChildren().addAll(
             iconLabel,
             titleLabel,
             subtitleLabel,
-            openFileButton
+            openFileButton,
+            connectLiveButton
         );
         
         // Set up drag and drop
@@ -96,6 +100,16 @@ public class WelcomeViewController {
         return openFileButton;
     }
     
+    /**
+     * Create the button that follows a running agent started with live=PORT
+     */
+    private Button createConnectLiveButton() {
+        Button connectLiveButton = new Button("Connect to Live Agent...");
+        connectLiveButton.getStyleClass().add("connect-live-button");
+        connectLiveButton.setOnAction(event -> connectLiveDialog());
+        return connectLiveButton;
+    }
+    
     /**
      * Set up drag and drop functionality
      */
@@ -188,6 +202,29 @@ public class WelcomeViewController {
         }
     }
     
+    /**
+     * Ask for the port of a live agent and transition to the live view
+     */
+    private void connectLiveDialog() {
+        TextInputDialog dialog = new TextInputDialog(String.valueOf(TraceFormat.DEFAULT_LIVE_PORT));
+        dialog.initOwner(application.getPrimaryStage());
+        dialog.setTitle("Connect to Live Agent");
+        dialog.setHeaderText("Agent started with -javaagent:trace-agent.jar=live=PORT");
+        dialog.setContentText("Port:");
+        dialog.showAndWait().ifPresent(text -> {
+            try {
+                int port = Integer.parseInt(text.trim());
+                if (port <= 0 || port > 65535) {
+                    throw new NumberFormatException(text);
+                }
+                logger.info("Connecting to live agent on port {}", port);
+                application.showLiveView(port);
+            } catch (NumberFormatException e) {
+                showErrorDialog("Invalid port: " + text);
+            }
+        });
+    }
+    
     /**
      * Load a trace file and transition to main view
      */
@@ -200,9 +237,8 @@ public class WelcomeViewController {
                 return;
             }
             
-            // TODO: Add basic validation of trace file format
-            
-            // Transition to main view
+            // The main view opens at once and decodes the trace in the background,
+            // reporting an invalid format there
             application.showMainView(traceFile.getAbsolutePath());
             
         } catch (Exception e) {
@@ -0,0 +1,308 @@
+package com.traceview.shared;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongLongHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+
+/**
+ * ContentionStats - Per-lock contention statistics in one pass over the events
+ *
+ * Every contended acquisition adds its wait to the lock's wait-time
+ * histogram and to the blocked time of the waiting thread. Hold times run
+ * from a contended acquisition to the release the agent records for it: an
+ * unlock, a monitor exit, or a monitor wait, which gives up the monitor
+ * until it returns and the hold resumes. Uncontended acquisitions are not
+ * recorded and have no hold time. A hold is dropped when another thread
+ * acquired the lock in between, as its release was then lost, e.g. with a
+ * full buffer.
+ *
+ * Histograms have a fixed number of buckets, so memory grows with the
+ * number of locks and threads but not with the number of events. Like
+ * {@link IntervalBuilder}, the events of each thread must arrive in time
+ * order; feed JFR traces from the sorted {@link ThreadEvents}, for example
+ * with {@link TraceLoader#replay}.
+ *
+ * <pre>
+ *   ContentionStats stats = new ContentionStats();
+ *   reader.forEachEvent(stats);
+ *   System.out.print(stats.report(threadNames, 10));
+ * </pre>
+ */
+public class ContentionStats implements TraceReader.EventVisitor {
+
+    private static final Comparator<LockStats> BY_BLOCKED_TIME =
+        Comparator.comparingLong(LockStats::getBlockedNs).reversed()
+            .thenComparing(Comparator.comparingLong(LockStats::getAcquisitions).reversed())
+            .thenComparingLong(LockStats::getObjectId);
+
+    // Threads listed per lock in the report
+    private static final int REPORT_TOP_THREADS = 3;
+
+    private final LongObjectHashMap<LockStats> locks = new LongObjectHashMap<>();
+    // Latest acquisition of every lock and the thread that made it
+    private final LongLongHashMap lastAcquiredNs = new LongLongHashMap();
+    private final LongIntHashMap lastAcquirer = new LongIntHashMap();
+    private final IntObjectHashMap<Waiter> waiters = new IntObjectHashMap<>();
+    private Waiter last;
+
+    @Override
+    public void onEvent(long timestampNs, int threadId, TraceFormat.EventType type, long arg0, long arg1) {
+        // Consecutive events usually come from the same thread
+        Waiter waiter = last;
+        if (waiter == null || waiter.threadId != threadId) {
+            waiter = waiters.getIfAbsentPutWithKey(threadId, Waiter::new);
+            last = waiter;
+        }
+        // Collection order can lag by a few microseconds; never step back in time
+        long time = Math.max(timestampNs, waiter.lastTimestamp);
+        waiter.lastTimestamp = time;
+
+        switch (type) {
+            case MUTEX_LOCK_ATTEMPT:
+                waiter.startWaiting(Waiter.ACQUIRING, arg0, time);
+                break;
+            case MONITOR_WAIT: {
+                // wait() gives up the monitor until it returns
+                boolean held = released(waiter, arg0, time);
+                waiter.startWaiting(Waiter.MONITOR_WAIT, arg0, time);
+                waiter.resumeHold = held;
+                break;
+            }
+            case MUTEX_LOCK_ACQUIRED:
+                acquired(waiter, arg0, time);
+                break;
+            case MUTEX_UNLOCK:
+                lock(arg0).recordRelease();
+                released(waiter, arg0, time);
+                break;
+            case MONITOR_EXIT:
+                released(waiter, arg0, time);
+                break;
+            case MONITOR_NOTIFY:
+                lock(arg0).recordNotify();
+                break;
+            case LOCK_ORDER_INVERSION:
+                lock(arg1).recordInversion();
+                break;
+            case DEADLOCK:
+                lock(arg0).recordDeadlock();
+                break;
+            case THREAD_END:
+                waiters.remove(threadId);
+                last = null;
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Feed the events of a single, already loaded thread
+     */
+    public void add(ThreadEvents events) {
+        for (int i = 0; i < events.size(); i++) {
+            onEvent(events.timestampNs(i), events.threadId(), events.type(i), events.arg0(i), events.arg1(i));
+        }
+    }
+
+    /**
+     * Number of locks seen so far
+     */
+    public int getLockCount() {
+        return locks.size();
+    }
+
+    /**
+     * Copies of the statistics of the locks threads waited longest for, longest first
+     */
+    public List<LockStats> getTopLocks(int limit) {
+        List<LockStats> top = new ArrayList<>(locks.values());
+        top.sort(BY_BLOCKED_TIME);
+        List<LockStats> copies = new ArrayList<>(Math.min(limit, top.size()));
+        for (int i = 0; i < top.size() && i < limit; i++) {
+            copies.add(new LockStats(top.get(i)));
+        }
+        return copies;
+    }
+
+    /**
+     * Statistics of all locks together, with object id 0: every contended
+     * acquisition in one wait-time histogram, and each thread's blocked time on any lock
+     */
+    public LockStats getTotals() {
+        LockStats totals = new LockStats(0);
+        for (LockStats lock : locks) {
+            totals.add(lock);
+        }
+        return totals;
+    }
+
+    /**
+     * Plain text summary of the locks threads waited longest for
+     *
+     * @param threadNames Names by thread id; threads without one are shown by id
+     * @param limit Maximum number of locks listed
+     */
+    public String report(Map<Integer, String> threadNames, int limit) {
+        return report(locks.size(), getTotals(), getTopLocks(limit), threadNames);
+    }
+
+    /**
+     * Plain text summary of statistics taken from a ContentionStats earlier
+     *
+     * @param lockCount Number of locks in the trace
+     * @param totals Statistics of all locks together, see {@link #getTotals()}
+     * @param topLocks Locks to list, in order
+     * @param threadNames Names by thread id; threads without one are shown by id
+     */
+    public static String report(int lockCount, LockStats totals, List<LockStats> topLocks,
+                                Map<Integer, String> threadNames) {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Lock contention: %,d locks, %,d contended acquisitions, %s blocked",
+            lockCount, totals.getAcquisitions(), formatDuration(totals.getBlockedNs())));
+        if (totals.getInversions() > 0 || totals.getDeadlocks() > 0) {
+            report.append(String.format(", %,d lock-order inversions, %,d deadlocked waits",
+                totals.getInversions(), totals.getDeadlocks()));
+        }
+        report.append('\n');
+
+        for (LockStats lock : topLocks) {
+            report.append('\n');
+            report.append(String.format("%s 0x%x: %,d contended acquisitions, %s blocked%n",
+                lock.getType() == TraceFormat.SYNC_OBJECT_MUTEX ? "Lock" : "Monitor", lock.getObjectId(),
+                lock.getAcquisitions(), formatDuration(lock.getBlockedNs())));
+            appendHistogram(report, "wait", lock.getWaitTimes());
+            appendHistogram(report, "hold", lock.getHoldTimes());
+            if (lock.getMonitorWaits() > 0 || lock.getNotifies() > 0) {
+                report.append(String.format("  monitor  %,d waits for %s, %,d notifies%n",
+                    lock.getMonitorWaits(), formatDuration(lock.getMonitorWaitNs()), lock.getNotifies()));
+            }
+            if (lock.getInversions() > 0 || lock.getDeadlocks() > 0) {
+                report.append(String.format("  order    %,d inversions, %,d deadlocked waits%n",
+                    lock.getInversions(), lock.getDeadlocks()));
+            }
+            List<LockStats.ThreadContention> threads = lock.getTopThreads(REPORT_TOP_THREADS);
+            if (!threads.isEmpty()) {
+                report.append("  threads ");
+                for (int i = 0; i < threads.size(); i++) {
+                    LockStats.ThreadContention thread = threads.get(i);
+                    report.append(i == 0 ? " " : ", ").append(String.format("%s %s (%,d)",
+                        threadName(threadNames, thread.getThreadId()), formatDuration(thread.getBlockedNs()),
+                        thread.getAcquisitions()));
+                }
+                report.append('\n');
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * Name of the thread, or "Thread id" if it has none
+     */
+    public static String threadName(Map<Integer, String> threadNames, int threadId) {
+        String name = threadNames.get(threadId);
+        return name != null ? name : "Thread " + threadId;
+    }
+
+    /**
+     * Duration with three significant digits and an ASCII unit, e.g. "1.25 ms",
+     * so reports survive any console encoding
+     */
+    public static String formatDuration(long ns) {
+        if (ns >= 1_000_000_000L) {
+            return String.format("%.3g s", ns / 1e9);
+        } else if (ns >= 1_000_000L) {
+            return String.format("%.3g ms", ns / 1e6);
+        } else if (ns >= 1_000L) {
+            return String.format("%.3g us", ns / 1e3);
+        }
+        return ns + " ns";
+    }
+
+    private static void appendHistogram(StringBuilder report, String label, LogHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        report.append(String.format("  %-8s p50 %s, p90 %s, p99 %s, max %s (%,d)%n", label,
+            formatDuration(histogram.getValueAtPercentile(50)), formatDuration(histogram.getValueAtPercentile(90)),
+            formatDuration(histogram.getValueAtPercentile(99)), formatDuration(histogram.getMax()),
+            histogram.getCount()));
+    }
+
+    private LockStats lock(long objectId) {
+        return locks.getIfAbsentPutWithKey(objectId, LockStats::new);
+    }
+
+    private void acquired(Waiter waiter, long lockId, long time) {
+        LockStats lock = lock(lockId);
+        // The agent records the release of contended acquisitions only
+        boolean hold = false;
+        if (waiter.waitingFor == lockId) {
+            if (waiter.waitKind == Waiter.ACQUIRING) {
+                lock.recordAcquisition(waiter.threadId, time - waiter.waitStart);
+                hold = true;
+            } else if (waiter.waitKind == Waiter.MONITOR_WAIT) {
+                lock.recordMonitorWait(time - waiter.waitStart);
+                hold = waiter.resumeHold;
+            }
+        }
+        waiter.waitKind = Waiter.NONE;
+        if (hold) {
+            waiter.heldSince.put(lockId, time);
+        }
+        lastAcquiredNs.put(lockId, time);
+        lastAcquirer.put(lockId, waiter.threadId);
+    }
+
+    /**
+     * @return false if the thread had no hold of the lock open
+     */
+    private boolean released(Waiter waiter, long lockId, long time) {
+        if (!waiter.heldSince.containsKey(lockId)) {
+            return false;
+        }
+        long acquiredNs = waiter.heldSince.removeKeyIfAbsent(lockId, time);
+        // Another thread's acquisition in between means this one released the lock unrecorded
+        long otherNs = lastAcquiredNs.getIfAbsent(lockId, Long.MIN_VALUE);
+        if (lastAcquirer.getIfAbsent(lockId, waiter.threadId) == waiter.threadId
+                || otherNs <= acquiredNs || otherNs >= time) {
+            lock(lockId).recordHold(time - acquiredNs);
+        }
+        return true;
+    }
+
+    /**
+     * What one thread is waiting for and the locks it acquired
+     */
+    private static final class Waiter {
+        static final int NONE = 0;
+        static final int ACQUIRING = 1;
+        static final int MONITOR_WAIT = 2;
+
+        final int threadId;
+        // Acquisition time of the locks the thread may still hold
+        final LongLongHashMap heldSince = new LongLongHashMap();
+        int waitKind = NONE;
+        long waitingFor;
+        long waitStart;
+        // The monitor wait interrupted a hold, which resumes when it returns
+        boolean resumeHold;
+        long lastTimestamp = Long.MIN_VALUE;
+
+        Waiter(int threadId) {
+            this.threadId = threadId;
+        }
+
+        void startWaiting(int kind, long lockId, long time) {
+            waitKind = kind;
+            waitingFor = lockId;
+            waitStart = time;
+        }
+    }
+}
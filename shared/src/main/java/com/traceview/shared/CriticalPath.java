@@ -0,0 +1,384 @@
+package com.traceview.shared;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.collections.impl.list.mutable.primitive.ByteArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+
+/**
+ * CriticalPath - The chain of threads and locks that an end point waited on
+ *
+ * The walk starts at a thread and time and steps back one interval at a
+ * time. Time the thread spent executing, in I/O or sleeping is on the path
+ * as it is. A lock wait ended by a handoff jumps to the thread that released
+ * the lock, or notified the monitor, at the time it did so: that thread is
+ * what the wait was for. The time from the release to the acquisition stays
+ * on the waiting thread as wake-up latency. A lock wait without a recorded
+ * handoff, such as a wait that timed out, stays on the waiting thread. The
+ * walk ends at the start of the trace or of a thread, so the path covers
+ * its span exactly once.
+ *
+ * Intervals and handoffs are built in one pass over the events by
+ * {@link IntervalBuilder}; every step of the walk is a binary search, so a
+ * path costs O(steps * log n) and never rescans the events.
+ *
+ * Segments are stored in primitive columns in time order.
+ */
+public final class CriticalPath {
+
+    private static final TraceFormat.ThreadState[] STATES = TraceFormat.ThreadState.values();
+
+    private static final Comparator<LockDelay> BY_HELD_UP =
+        Comparator.comparingLong(LockDelay::getHeldUpNs).reversed().thenComparingLong(LockDelay::getObjectId);
+
+    private final int endThreadId;
+    private final long endNs;
+    private final IntArrayList threadIds = new IntArrayList();
+    private final LongArrayList starts = new LongArrayList();
+    private final LongArrayList ends = new LongArrayList();
+    private final ByteArrayList states = new ByteArrayList();
+    private final LongArrayList objectIds = new LongArrayList();
+    private final IntArrayList wakers = new IntArrayList();
+    // Time on the path of every thread, by state value
+    private final IntObjectHashMap<long[]> threadStateNs = new IntObjectHashMap<>();
+    private final LongObjectHashMap<LockDelay> locks = new LongObjectHashMap<>();
+    private int handoffCount;
+    // Totals of the latest segment's thread and lock; the path stays on one for long stretches
+    private int lastThreadId = -1;
+    private long[] lastStateNs;
+    private LockDelay lastLock;
+
+    private CriticalPath(int endThreadId, long endNs) {
+        this.endThreadId = endThreadId;
+        this.endNs = endNs;
+    }
+
+    /**
+     * Walk back from a thread at a time to the start of the trace
+     *
+     * @param intervals Intervals by thread id, see {@link IntervalBuilder#build()}
+     * @param handoffs Handoffs by acquiring thread id, see {@link IntervalBuilder#buildHandoffs()}
+     */
+    public static CriticalPath walk(Map<Integer, ThreadIntervals> intervals, Map<Integer, LockHandoffs> handoffs,
+                                    int threadId, long endNs) {
+        CriticalPath path = new CriticalPath(threadId, endNs);
+        int thread = threadId;
+        long time = endNs;
+        // A handoff at the very time the walk reached a thread would not move back in
+        // time; allowing only one in a row keeps two threads from handing back and forth
+        boolean jumped = false;
+        ThreadIntervals lane = null;
+        int index = 0;
+        while (true) {
+            if (lane == null) {
+                lane = intervals.get(thread);
+                if (lane == null || lane.size() == 0) {
+                    break;
+                }
+                index = lane.firstEndingAfter(time - 1);
+                if (index == lane.size()) {
+                    // The thread had ended; continue from its last interval
+                    index--;
+                    time = lane.lastEnd();
+                }
+            }
+            long start = lane.start(index);
+            if (start >= time) {
+                break;
+            }
+            long end = Math.min(lane.end(index), time);
+            TraceFormat.ThreadState state = lane.state(index);
+            long objectId = lane.objectId(index);
+
+            if (state == TraceFormat.ThreadState.BLOCKED_SYNC) {
+                LockHandoffs received = handoffs.get(thread);
+                long acquireNs = lane.end(index);
+                int handoff = received != null ? received.firstAcquiredFrom(acquireNs) : 0;
+                if (received != null && handoff < received.size() && received.acquireNs(handoff) == acquireNs) {
+                    // Releases are recorded just after the unlock and may trail the acquisition
+                    long wakeNs = Math.min(received.releaseNs(handoff), acquireNs);
+                    if (wakeNs < time || (wakeNs == time && !jumped)) {
+                        int from = received.fromThread(handoff);
+                        path.add(thread, wakeNs, end, state, objectId, from, end - start);
+                        thread = from;
+                        time = wakeNs;
+                        jumped = true;
+                        lane = null;
+                        continue;
+                    }
+                }
+            }
+            path.add(thread, start, end, state, objectId, -1, end - start);
+            time = start;
+            jumped = false;
+            // Staying on the thread, the walk goes on with the previous interval unless there is a gap
+            index--;
+            if (index < 0 || lane.end(index) < time) {
+                break;
+            }
+        }
+        path.reverse();
+        return path;
+    }
+
+    /**
+     * The thread the walk started from
+     */
+    public int getEndThreadId() {
+        return endThreadId;
+    }
+
+    /**
+     * Start of the earliest segment, or the end if the path is empty
+     */
+    public long getStartNs() {
+        return starts.isEmpty() ? endNs : starts.getFirst();
+    }
+
+    public long getEndNs() {
+        return endNs;
+    }
+
+    public int size() {
+        return starts.size();
+    }
+
+    public int threadId(int index) {
+        return threadIds.get(index);
+    }
+
+    public long start(int index) {
+        return starts.get(index);
+    }
+
+    public long end(int index) {
+        return ends.get(index);
+    }
+
+    public TraceFormat.ThreadState state(int index) {
+        return TraceFormat.ThreadState.fromValue(states.get(index));
+    }
+
+    /**
+     * Lock, monitor or I/O target id of a blocked segment, 0 otherwise
+     */
+    public long objectId(int index) {
+        return objectIds.get(index);
+    }
+
+    /**
+     * Thread whose release or notify ended the wait, for the wake-up latency
+     * segment of a handoff; the path continues on that thread. -1 otherwise.
+     */
+    public int wakerThread(int index) {
+        return wakers.get(index);
+    }
+
+    /**
+     * Index of the first segment ending after the given time, or {@link #size()} if none
+     */
+    public int firstEndingAfter(long timeNs) {
+        int low = 0;
+        int high = ends.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ends.get(middle) <= timeNs) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Number of times the path crossed from one thread to another
+     */
+    public int getHandoffCount() {
+        return handoffCount;
+    }
+
+    /**
+     * Nanoseconds each thread spends on the path in every state, indexed by
+     * {@link TraceFormat.ThreadState#getValue()}; over all threads they add up to the span of the path
+     */
+    public Map<Integer, long[]> getThreadStateNs() {
+        Map<Integer, long[]> threads = new HashMap<>();
+        threadStateNs.forEachKeyValue((threadId, stateNs) -> threads.put(threadId, stateNs.clone()));
+        return threads;
+    }
+
+    /**
+     * The locks the path waited on, longest held up first
+     */
+    public List<LockDelay> getLocks() {
+        List<LockDelay> sorted = new ArrayList<>(locks.values());
+        sorted.sort(BY_HELD_UP);
+        return sorted;
+    }
+
+    /**
+     * Readable report of the time each thread and lock took on the path
+     *
+     * @param limit Number of threads and of locks listed
+     */
+    public String report(Map<Integer, String> threadNames, int limit) {
+        StringBuilder report = new StringBuilder();
+        long spanNs = endNs - getStartNs();
+        report.append(String.format("Critical path to %s at %s: %s from %s, %,d handoffs between %,d threads%n",
+            ContentionStats.threadName(threadNames, endThreadId), ContentionStats.formatDuration(endNs),
+            ContentionStats.formatDuration(spanNs), ContentionStats.formatDuration(getStartNs()), handoffCount,
+            threadStateNs.size()));
+
+        List<Map.Entry<Integer, long[]>> threads = new ArrayList<>(getThreadStateNs().entrySet());
+        threads.sort(Comparator.comparingLong((Map.Entry<Integer, long[]> entry) -> total(entry.getValue()))
+            .reversed().thenComparingInt(Map.Entry::getKey));
+        report.append(String.format("%n%-28s %10s", "Threads on the path", "Time"));
+        for (TraceFormat.ThreadState state : STATES) {
+            report.append(String.format(" %12s", state.name().toLowerCase()));
+        }
+        report.append('\n');
+        for (int i = 0; i < threads.size() && i < limit; i++) {
+            String name = ContentionStats.threadName(threadNames, threads.get(i).getKey());
+            long[] stateNs = threads.get(i).getValue();
+            long totalNs = total(stateNs);
+            report.append(String.format("  %-26s %10s", name.length() > 26 ? name.substring(0, 25) + "~" : name,
+                ContentionStats.formatDuration(totalNs)));
+            for (TraceFormat.ThreadState state : STATES) {
+                report.append(String.format(" %11.1f%%", spanNs == 0 ? 0.0 : 100.0 * stateNs[state.getValue()] / spanNs));
+            }
+            report.append('\n');
+        }
+        if (threads.size() > limit) {
+            report.append(String.format("  ... %,d more threads%n", threads.size() - limit));
+        }
+
+        List<LockDelay> delays = getLocks();
+        if (!delays.isEmpty()) {
+            report.append(String.format("%n%-28s %10s %10s %10s%n", "Locks holding up the path", "Held up", "Handoffs",
+                "Wake-up"));
+            for (int i = 0; i < delays.size() && i < limit; i++) {
+                LockDelay lock = delays.get(i);
+                report.append(String.format("  0x%-24x %10s %,10d %10s%n", lock.getObjectId(),
+                    ContentionStats.formatDuration(lock.getHeldUpNs()), lock.getHandoffs(),
+                    ContentionStats.formatDuration(lock.getWakeUpNs())));
+            }
+            if (delays.size() > limit) {
+                report.append(String.format("  ... %,d more locks%n", delays.size() - limit));
+            }
+        }
+        return report.toString();
+    }
+
+    private static long total(long[] stateNs) {
+        long total = 0;
+        for (long ns : stateNs) {
+            total += ns;
+        }
+        return total;
+    }
+
+    /**
+     * Append a segment; the walk goes back in time, so segments arrive latest first
+     */
+    private void add(int threadId, long start, long end, TraceFormat.ThreadState state, long objectId, int waker,
+                     long blockedNs) {
+        threadIds.add(threadId);
+        starts.add(start);
+        ends.add(end);
+        states.add(state.getValue());
+        objectIds.add(objectId);
+        wakers.add(waker);
+
+        if (threadId != lastThreadId) {
+            lastStateNs = threadStateNs.get(threadId);
+            if (lastStateNs == null) {
+                lastStateNs = new long[STATES.length + 1];
+                threadStateNs.put(threadId, lastStateNs);
+            }
+            lastThreadId = threadId;
+        }
+        lastStateNs[state.getValue()] += end - start;
+        if (waker >= 0) {
+            handoffCount++;
+        }
+        if (state == TraceFormat.ThreadState.BLOCKED_SYNC) {
+            LockDelay lock = lastLock;
+            if (lock == null || lock.objectId != objectId) {
+                lock = locks.get(objectId);
+                if (lock == null) {
+                    lock = new LockDelay(objectId);
+                    locks.put(objectId, lock);
+                }
+                lastLock = lock;
+            }
+            lock.heldUpNs += blockedNs;
+            if (waker >= 0) {
+                lock.handoffs++;
+                lock.wakeUpNs += end - start;
+            }
+        }
+    }
+
+    private void reverse() {
+        threadIds.reverseThis();
+        starts.reverseThis();
+        ends.reverseThis();
+        states.reverseThis();
+        objectIds.reverseThis();
+        wakers.reverseThis();
+        threadIds.trimToSize();
+        starts.trimToSize();
+        ends.trimToSize();
+        states.trimToSize();
+        objectIds.trimToSize();
+        wakers.trimToSize();
+    }
+
+    /**
+     * How long the path waited on one lock or monitor
+     */
+    public static final class LockDelay {
+        private final long objectId;
+        private long heldUpNs;
+        private int handoffs;
+        private long wakeUpNs;
+
+        LockDelay(long objectId) {
+            this.objectId = objectId;
+        }
+
+        public long getObjectId() {
+            return objectId;
+        }
+
+        /**
+         * Time threads on the path were blocked on the lock, including the time
+         * spent on the path by the threads that released it
+         */
+        public long getHeldUpNs() {
+            return heldUpNs;
+        }
+
+        /**
+         * Number of times the path moved to the thread that released the lock
+         */
+        public int getHandoffs() {
+            return handoffs;
+        }
+
+        /**
+         * Time from the releases to the acquisitions they let through
+         */
+        public long getWakeUpNs() {
+            return wakeUpNs;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.traceview.shared;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * EventCursor - Flyweight iterator over the events of a trace
+ *
+ * The cursor decodes one event at a time straight from the mapped file and
+ * exposes it through its getters; the values are overwritten by the next
+ * call to {@link #next()}, so walking a trace allocates nothing per event.
+ * Uncompressed chunks are read in place; compressed chunks are inflated into
+ * a single buffer that is reused for the whole walk.
+ *
+ * <pre>
+ *   try (EventCursor cursor = reader.cursor()) {
+ *       while (cursor.next()) {
+ *           use(cursor.timestampNs(), cursor.threadId(), cursor.type());
+ *       }
+ *   }
+ * </pre>
+ */
+public final class EventCursor implements Closeable {
+
+    private final TraceReader reader;
+    private final List<TraceFormat.ChunkIndexEntry> chunks;
+    private final long fromNs;
+    private final long toNs;
+    private final int filterThreadId;
+    private final boolean filtered;
+    private final boolean v1;
+
+    private int nextChunk;
+    private final int endChunk;
+    private ByteBuffer payload;
+    private int remaining;
+    private Inflater inflater;
+    private ByteBuffer raw;
+
+    private long timestampNs;
+    private int threadId;
+    private TraceFormat.EventType type;
+    private long arg0;
+    private long arg1;
+
+    EventCursor(TraceReader reader, long fromNs, long toNs, int threadId) throws IOException {
+        this(reader, 0, reader.getChunks().size(), fromNs, toNs, threadId);
+    }
+
+    /**
+     * Cursor restricted to the chunks {@code [firstChunk, endChunk)}; v1 files have no chunks and ignore the range
+     */
+    EventCursor(TraceReader reader, int firstChunk, int endChunk, long fromNs, long toNs, int threadId)
+            throws IOException {
+        this.reader = reader;
+        this.chunks = reader.getChunks();
+        this.nextChunk = firstChunk;
+        this.endChunk = endChunk;
+        this.fromNs = fromNs;
+        this.toNs = toNs;
+        this.filterThreadId = threadId;
+        this.filtered = fromNs != Long.MIN_VALUE || toNs != Long.MAX_VALUE || threadId >= 0;
+        this.v1 = reader.getVersion() == TraceFormat.TRACE_FORMAT_VERSION_1;
+        if (v1) {
+            payload = reader.v1Events();
+        }
+    }
+
+    /**
+     * Cursor over a single uncompressed block of version 3 events, such as a live stream frame
+     */
+    EventCursor(ByteBuffer block, int eventCount) {
+        this.reader = null;
+        this.chunks = Collections.emptyList();
+        this.nextChunk = 0;
+        this.endChunk = 0;
+        this.fromNs = Long.MIN_VALUE;
+        this.toNs = Long.MAX_VALUE;
+        this.filterThreadId = -1;
+        this.filtered = false;
+        this.v1 = false;
+        this.payload = block;
+        this.remaining = eventCount;
+    }
+
+    /**
+     * Advance to the next matching event
+     *
+     * @return false once the trace is exhausted
+     * @throws IOException if a chunk is corrupt
+     */
+    public boolean next() throws IOException {
+        if (v1) {
+            while (payload.remaining() >= TraceFormat.EVENT_HEADER_SIZE) {
+                decodeV1();
+                if (matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        while (true) {
+            while (remaining > 0) {
+                remaining--;
+                decodeV2();
+                if (matches()) {
+                    return true;
+                }
+            }
+            if (!openNextChunk()) {
+                return false;
+            }
+        }
+    }
+
+    public long timestampNs() {
+        return timestampNs;
+    }
+
+    public int threadId() {
+        return threadId;
+    }
+
+    public TraceFormat.EventType type() {
+        return type;
+    }
+
+    public long arg0() {
+        return arg0;
+    }
+
+    public long arg1() {
+        return arg1;
+    }
+
+    @Override
+    public void close() {
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    private boolean matches() {
+        return !filtered || (timestampNs >= fromNs && timestampNs <= toNs
+            && (filterThreadId < 0 || threadId == filterThreadId));
+    }
+
+    private boolean openNextChunk() throws IOException {
+        while (nextChunk < endChunk) {
+            TraceFormat.ChunkIndexEntry chunk = chunks.get(nextChunk++);
+            if (!filtered || chunk.covers(fromNs, toNs, filterThreadId)) {
+                openChunk(chunk.offset);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void openChunk(long offset) throws IOException {
+        ByteBuffer block = reader.region(offset, TraceFormat.BLOCK_HEADER_SIZE);
+        int storedSize = block.getInt();
+        int rawSize = block.getInt();
+        int eventCount = block.getInt();
+        byte flags = block.get();
+        if (storedSize < 0 || rawSize < 0 || eventCount < 0
+                || offset + TraceFormat.BLOCK_HEADER_SIZE + storedSize > reader.getHeader().stringTableOffset) {
+            throw new IOException("Corrupt event chunk at offset " + offset);
+        }
+
+        payload = reader.region(offset + TraceFormat.BLOCK_HEADER_SIZE, storedSize);
+        if ((flags & TraceFormat.BLOCK_FLAG_DEFLATE) != 0) {
+            payload = inflate(payload, rawSize, offset);
+        }
+        remaining = eventCount;
+        timestampNs = 0;
+        threadId = 0;
+    }
+
+    private ByteBuffer inflate(ByteBuffer stored, int rawSize, long offset) throws IOException {
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        if (raw == null || raw.capacity() < rawSize) {
+            raw = ByteBuffer.allocate(rawSize).order(TraceFormat.BYTE_ORDER);
+        }
+        raw.clear().limit(rawSize);
+        inflater.reset();
+        inflater.setInput(stored);
+        try {
+            while (raw.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(raw) == 0 && inflater.needsInput()) {
+                    throw new IOException("Truncated compressed chunk at offset " + offset);
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed chunk at offset " + offset, e);
+        }
+        raw.flip();
+        return raw;
+    }
+
+    private void decodeV2() throws IOException {
+        try {
+            int tag = Byte.toUnsignedInt(payload.get());
+            type = TraceFormat.EventType.fromValue((byte) (tag & TraceFormat.TAG_TYPE_MASK));
+            timestampNs += VarInt.unzigzag(VarInt.getVarLong(payload));
+            if ((tag & TraceFormat.TAG_SAME_THREAD) == 0) {
+                threadId = (int) VarInt.getVarLong(payload);
+            }
+            int argCount = type.getArgCount();
+            arg0 = argCount > 0 ? VarInt.getVarLong(payload) : 0L;
+            arg1 = argCount > 1 ? VarInt.getVarLong(payload) : 0L;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt event chunk", e);
+        }
+    }
+
+    private void decodeV1() throws IOException {
+        try {
+            timestampNs = payload.getLong();
+            threadId = payload.getInt();
+            type = TraceFormat.EventType.fromValue(payload.get());
+            int dataSize = Byte.toUnsignedInt(payload.get());
+            payload.getShort();
+            int dataStart = payload.position();
+            arg0 = 0;
+            arg1 = 0;
+            switch (dataSize) {
+                case 4:
+                    arg0 = payload.getInt();
+                    break;
+                case 8:
+                    if (type.getArgCount() == 2) {
+                        arg0 = payload.getInt();
+                        arg1 = payload.getInt();
+                    } else {
+                        arg0 = payload.getLong();
+                    }
+                    break;
+                case 16:
+                    arg0 = payload.getLong();
+                    arg1 = payload.getLong();
+                    break;
+                default:
+                    break;
+            }
+            payload.position(dataStart + dataSize);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt event record", e);
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package com.traceview.shared;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+
+/**
+ * IntervalBuilder - Turns a stream of events into per-thread state intervals
+ *
+ * Each thread runs a small state machine: it is EXECUTING from its first
+ * event, BLOCKED_SYNC from a lock attempt or monitor wait until the lock is
+ * acquired, BLOCKED_IO between I/O start and end and SLEEPING between sleep
+ * start and end. Every state change closes one interval, so the events are
+ * consumed once, in file order, and never kept. Threads without an explicit
+ * end are closed at their last event.
+ *
+ * Lock handoffs pair every contended acquisition with the release of that
+ * lock by another thread during the wait that is closest to the
+ * acquisition: an unlock, a monitor exit, or a monitor wait, which gives up
+ * the monitor. A thread returning from a monitor wait may also be paired
+ * with the notify that woke it; a contended monitor entry never is, as the
+ * notifier still holds the monitor. The agent records the release of
+ * contended holds and explicit lock handoffs, so a release by a holder that
+ * acquired the lock without contention may be missing.
+ *
+ * A builder that only totals states keeps no intervals or handoffs, so its
+ * memory does not grow with the number of events.
+ *
+ * Instrumented traces store each thread's events in time order. JFR traces
+ * do not (see {@link TraceReader#isTimeOrdered()}), so build those from the
+ * sorted {@link ThreadEvents} of a {@link TraceLoader} instead.
+ *
+ * <pre>
+ *   IntervalBuilder builder = new IntervalBuilder();
+ *   reader.forEachEvent(builder);
+ *   Map&lt;Integer, ThreadIntervals&gt; intervals = builder.build();
+ * </pre>
+ */
+public class IntervalBuilder implements TraceReader.EventVisitor {
+
+    // Releases are recorded just after the unlock, so they may trail the acquisition slightly
+    private static final long HANDOFF_SLACK_NS = 50_000;
+
+    private final IntObjectHashMap<Machine> machines = new IntObjectHashMap<>();
+    // Release times, including monitor waits, by lock id and releasing thread
+    private final LongObjectHashMap<IntObjectHashMap<LongArrayList>> releases = new LongObjectHashMap<>();
+    // Notify times by monitor id and notifying thread
+    private final LongObjectHashMap<IntObjectHashMap<LongArrayList>> notifies = new LongObjectHashMap<>();
+    private final boolean keepIntervals;
+    private Machine last;
+
+    public IntervalBuilder() {
+        this(true);
+    }
+
+    /**
+     * @param keepIntervals false to only total the time spent in each state, see {@link #buildStateTotals()}
+     */
+    public IntervalBuilder(boolean keepIntervals) {
+        this.keepIntervals = keepIntervals;
+    }
+
+    /**
+     * Build the intervals of a single, already loaded thread
+     */
+    public static ThreadIntervals build(ThreadEvents events) {
+        Machine machine = new Machine(events.threadId(), true);
+        for (int i = 0; i < events.size(); i++) {
+            machine.onEvent(events.timestampNs(i), events.type(i), events.arg0(i));
+        }
+        return machine.finish();
+    }
+
+    @Override
+    public void onEvent(long timestampNs, int threadId, TraceFormat.EventType type, long arg0, long arg1) {
+        // Consecutive events usually come from the same thread
+        Machine machine = last;
+        if (machine == null || machine.intervals.threadId() != threadId) {
+            machine = machines.get(threadId);
+            if (machine == null) {
+                machine = new Machine(threadId, keepIntervals);
+                machines.put(threadId, machine);
+            }
+            last = machine;
+        }
+        machine.onEvent(timestampNs, type, arg0);
+        if (isRelease(type) && keepIntervals) {
+            releases.getIfAbsentPut(arg0, IntObjectHashMap::new)
+                .getIfAbsentPut(threadId, LongArrayList::new)
+                .add(timestampNs);
+        } else if (type == TraceFormat.EventType.MONITOR_NOTIFY && keepIntervals) {
+            notifies.getIfAbsentPut(arg0, IntObjectHashMap::new)
+                .getIfAbsentPut(threadId, LongArrayList::new)
+                .add(timestampNs);
+        }
+    }
+
+    private static boolean isRelease(TraceFormat.EventType type) {
+        return type == TraceFormat.EventType.MUTEX_UNLOCK || type == TraceFormat.EventType.MONITOR_EXIT
+            || type == TraceFormat.EventType.MONITOR_WAIT;
+    }
+
+    /**
+     * Close the open interval of every thread and return the intervals by thread id
+     */
+    public Map<Integer, ThreadIntervals> build() {
+        Map<Integer, ThreadIntervals> threads = new HashMap<>();
+        machines.forEachKeyValue((threadId, machine) -> threads.put(threadId, machine.finish()));
+        return Collections.unmodifiableMap(threads);
+    }
+
+    /**
+     * Close the open interval of every thread and return the nanoseconds each
+     * thread spent in every state, indexed by {@link TraceFormat.ThreadState#getValue()}
+     */
+    public Map<Integer, long[]> buildStateTotals() {
+        Map<Integer, long[]> threads = new HashMap<>();
+        machines.forEachKeyValue((threadId, machine) -> {
+            machine.finish();
+            threads.put(threadId, machine.stateNs.clone());
+        });
+        return Collections.unmodifiableMap(threads);
+    }
+
+    /**
+     * Copy the intervals built so far, each thread's open interval ending at its
+     * latest event, while the builder keeps consuming events
+     */
+    public Map<Integer, ThreadIntervals> snapshot() {
+        Map<Integer, ThreadIntervals> threads = new HashMap<>();
+        machines.forEachKeyValue((threadId, machine) -> threads.put(threadId, machine.snapshot()));
+        return Collections.unmodifiableMap(threads);
+    }
+
+    /**
+     * Match the contended acquisitions of every thread with the thread that released or notified the lock
+     */
+    public Map<Integer, LockHandoffs> buildHandoffs() {
+        Map<Integer, LockHandoffs> threads = new HashMap<>();
+        machines.forEachKeyValue((threadId, machine) -> {
+            LongArrayList acquisitions = machine.acquisitions;
+            int count = acquisitions.size() / Machine.STRIDE;
+
+            // Acquisitions of each lock in time order, so every releasing thread's
+            // release times are searched forward from the previous match
+            LongObjectHashMap<IntArrayList> byLock = new LongObjectHashMap<>();
+            if (!releases.isEmpty() || !notifies.isEmpty()) {
+                for (int i = 0; i < count; i++) {
+                    long lockId = acquisitions.get(Machine.STRIDE * i + 2);
+                    if (releases.containsKey(lockId) || notifies.containsKey(lockId)) {
+                        byLock.getIfAbsentPut(lockId, IntArrayList::new).add(i);
+                    }
+                }
+            }
+            Match best = new Match(byLock.isEmpty() ? 0 : count);
+            byLock.forEachKeyValue((lockId, indices) -> {
+                // Releases first, so a release wins a tie with a notify
+                best.match(threadId, acquisitions, indices, releases.get(lockId), false);
+                best.match(threadId, acquisitions, indices, notifies.get(lockId), true);
+            });
+
+            LockHandoffs handoffs = new LockHandoffs(threadId);
+            for (int i = 0; i < best.from.length; i++) {
+                if (best.from[i] >= 0) {
+                    handoffs.add(best.release[i], best.from[i], acquisitions.get(Machine.STRIDE * i + 1),
+                        acquisitions.get(Machine.STRIDE * i + 2), best.notify[i]);
+                }
+            }
+            handoffs.trim();
+            threads.put(threadId, handoffs);
+        });
+        return Collections.unmodifiableMap(threads);
+    }
+
+    /**
+     * The release or notify closest to each acquisition of one thread found so far
+     */
+    private static final class Match {
+        final long[] release;
+        final int[] from;
+        final boolean[] notify;
+
+        Match(int count) {
+            release = new long[count];
+            from = new int[count];
+            notify = new boolean[count];
+            Arrays.fill(from, -1);
+        }
+
+        /**
+         * Offer the releases or notifies of one lock by every other thread to the acquisitions of that
+         * lock; notifies only to acquisitions that end a monitor wait
+         */
+        void match(int threadId, LongArrayList acquisitions, IntArrayList indices,
+                   IntObjectHashMap<LongArrayList> byThread, boolean notifies) {
+            if (byThread == null) {
+                return;
+            }
+            byThread.forEachKeyValue((fromThread, times) -> {
+                if (fromThread == threadId) {
+                    return;
+                }
+                int next = 0;
+                for (int j = 0; j < indices.size(); j++) {
+                    int i = indices.get(j);
+                    if (notifies && acquisitions.get(Machine.STRIDE * i + 3) != Machine.MONITOR_WAIT) {
+                        continue;
+                    }
+                    long blockedNs = acquisitions.get(Machine.STRIDE * i);
+                    long acquireNs = acquisitions.get(Machine.STRIDE * i + 1);
+                    next = firstAfter(times, next, acquireNs + HANDOFF_SLACK_NS);
+                    if (next > 0) {
+                        long releaseNs = times.get(next - 1);
+                        if (releaseNs >= blockedNs && (from[i] < 0
+                                || Math.abs(releaseNs - acquireNs) < Math.abs(release[i] - acquireNs))) {
+                            release[i] = releaseNs;
+                            from[i] = fromThread;
+                            notify[i] = notifies;
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Index of the first value after the limit in a sorted list, searching from the given index
+     * by galloping, so that a series of increasing limits costs little more than one pass
+     */
+    private static int firstAfter(LongArrayList values, int from, long limitNs) {
+        int low = from;
+        int bound = 1;
+        while (low + bound <= values.size() && values.get(low + bound - 1) <= limitNs) {
+            low += bound;
+            bound <<= 1;
+        }
+        int high = Math.min(values.size(), low + bound);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values.get(middle) <= limitNs) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Forget everything that ended at or before the given time, keeping the
+     * memory of a builder fed from a live stream bounded by a time window
+     */
+    public void discardBefore(long timeNs) {
+        IntArrayList endedThreads = new IntArrayList();
+        machines.forEachKeyValue((threadId, machine) -> {
+            if (machine.discardBefore(timeNs)) {
+                endedThreads.add(threadId);
+            }
+        });
+        endedThreads.forEach(machines::remove);
+        last = null;
+
+        discardBefore(releases, timeNs);
+        discardBefore(notifies, timeNs);
+    }
+
+    /**
+     * Forget the release or notify times at or before the given time
+     */
+    private static void discardBefore(LongObjectHashMap<IntObjectHashMap<LongArrayList>> byLock, long timeNs) {
+        LongArrayList unusedLocks = new LongArrayList();
+        byLock.forEachKeyValue((lockId, byThread) -> {
+            IntArrayList idleThreads = new IntArrayList();
+            byThread.forEachKeyValue((threadId, times) -> {
+                discardBefore(times, 1, 0, timeNs);
+                if (times.isEmpty()) {
+                    idleThreads.add(threadId);
+                }
+            });
+            idleThreads.forEach(byThread::remove);
+            if (byThread.isEmpty()) {
+                unusedLocks.add(lockId);
+            }
+        });
+        unusedLocks.forEach(byLock::remove);
+    }
+
+    /**
+     * Remove the leading records of a list of fixed-size records ordered by the
+     * value at the given offset, up to the first whose value is after the given time
+     */
+    private static void discardBefore(LongArrayList records, int stride, int timeOffset, long timeNs) {
+        int count = 0;
+        while (count < records.size() && records.get(count + timeOffset) <= timeNs) {
+            count += stride;
+        }
+        if (count == 0) {
+            return;
+        }
+        int kept = records.size() - count;
+        for (int i = 0; i < kept; i++) {
+            records.set(i, records.get(i + count));
+        }
+        for (int i = records.size() - 1; i >= kept; i--) {
+            records.removeAtIndex(i);
+        }
+    }
+
+    private static final class Machine {
+        // Values per acquisition, and the kinds of wait they end
+        static final int STRIDE = 4;
+        static final long LOCK_ATTEMPT = 0;
+        static final long MONITOR_WAIT = 1;
+
+        private final ThreadIntervals intervals;
+        private final boolean keepIntervals;
+        // Blocked-since, acquired-at, lock id and kind of wait of every contended acquisition
+        private final LongArrayList acquisitions = new LongArrayList();
+        // Time spent in each state, by state value
+        private final long[] stateNs = new long[TraceFormat.ThreadState.values().length + 1];
+        private TraceFormat.ThreadState state;
+        private long stateStart;
+        private long objectId;
+        private long waitKind = LOCK_ATTEMPT;
+        private int stackId = -1;
+        private long lastTimestamp;
+        private boolean ended;
+
+        Machine(int threadId, boolean keepIntervals) {
+            this.intervals = new ThreadIntervals(threadId);
+            this.keepIntervals = keepIntervals;
+        }
+
+        void onEvent(long timestampNs, TraceFormat.EventType type, long arg0) {
+            if (ended) {
+                return;
+            }
+            if (state == null) {
+                state = TraceFormat.ThreadState.EXECUTING;
+                stateStart = timestampNs;
+                lastTimestamp = timestampNs;
+            }
+            // Collection order can lag by a few microseconds; never step back in time
+            long time = Math.max(timestampNs, lastTimestamp);
+            lastTimestamp = time;
+
+            switch (type) {
+                case MUTEX_LOCK_ATTEMPT:
+                case MONITOR_WAIT:
+                    enter(time, TraceFormat.ThreadState.BLOCKED_SYNC, arg0);
+                    waitKind = type == TraceFormat.EventType.MONITOR_WAIT ? MONITOR_WAIT : LOCK_ATTEMPT;
+                    break;
+                case IO_START:
+                    enter(time, TraceFormat.ThreadState.BLOCKED_IO, arg0);
+                    break;
+                case SLEEP_START:
+                    enter(time, TraceFormat.ThreadState.SLEEPING, 0L);
+                    break;
+                case MUTEX_LOCK_ACQUIRED:
+                    if (state == TraceFormat.ThreadState.BLOCKED_SYNC && keepIntervals) {
+                        acquisitions.add(stateStart);
+                        acquisitions.add(time);
+                        acquisitions.add(objectId);
+                        acquisitions.add(waitKind);
+                    }
+                    enter(time, TraceFormat.ThreadState.EXECUTING, 0L);
+                    break;
+                case IO_END:
+                case SLEEP_END:
+                    enter(time, TraceFormat.ThreadState.EXECUTING, 0L);
+                    break;
+                case STACK_TRACE:
+                    // Stacks are captured at the start of a wait
+                    if (time == stateStart && state != TraceFormat.ThreadState.EXECUTING) {
+                        stackId = (int) arg0;
+                    }
+                    break;
+                case THREAD_END:
+                    close(time);
+                    ended = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        ThreadIntervals finish() {
+            if (!ended && state != null) {
+                close(lastTimestamp);
+                ended = true;
+            }
+            intervals.trim();
+            return intervals;
+        }
+
+        ThreadIntervals snapshot() {
+            ThreadIntervals copy = intervals.copy();
+            if (!ended && state != null && lastTimestamp > stateStart) {
+                copy.add(stateStart, lastTimestamp, state, objectId, stackId);
+            }
+            copy.trim();
+            return copy;
+        }
+
+        /**
+         * @return true once the thread has ended and nothing of it is left
+         */
+        boolean discardBefore(long timeNs) {
+            intervals.discardBefore(timeNs);
+            IntervalBuilder.discardBefore(acquisitions, STRIDE, 1, timeNs);
+            return ended && intervals.size() == 0;
+        }
+
+        private void enter(long time, TraceFormat.ThreadState next, long nextObjectId) {
+            if (next == state && nextObjectId == objectId) {
+                return;
+            }
+            close(time);
+            state = next;
+            stateStart = time;
+            objectId = nextObjectId;
+            stackId = -1;
+        }
+
+        private void close(long time) {
+            if (time > stateStart) {
+                stateNs[state.getValue()] += time - stateStart;
+                if (keepIntervals) {
+                    intervals.add(stateStart, time, state, objectId, stackId);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.traceview.shared;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * LiveStream - Client side of the live event stream of a running agent
+ *
+ * The agent sends a {@link TraceFormat#LIVE_HEADER_SIZE}-byte header and then
+ * a sequence of frames, each an 8-byte kind and length followed by the
+ * payload: a batch of events encoded as in a version 3 block, the name of a
+ * thread, or the number of events dropped because the viewer fell behind.
+ * Frames are read with a blocking channel into one reused buffer, and events
+ * are decoded with an {@link EventCursor}, so reading allocates nothing per
+ * event.
+ *
+ * <pre>
+ *   try (LiveStream stream = LiveStream.connect(TraceFormat.DEFAULT_LIVE_PORT)) {
+ *       while (stream.readFrame(listener)) {
+ *           ...
+ *       }
+ *   }
+ * </pre>
+ */
+public final class LiveStream implements Closeable {
+
+    /**
+     * Receives the contents of live stream frames
+     */
+    public interface Listener extends TraceReader.EventVisitor {
+        void onThread(int threadId, String name);
+
+        void onDropped(long eventCount);
+    }
+
+    // Largest frame accepted; the agent sends events in frames of about 64 KB
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private final SocketChannel channel;
+    private final long startEpochNs;
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(TraceFormat.LIVE_FRAME_HEADER_SIZE)
+        .order(TraceFormat.BYTE_ORDER);
+    private ByteBuffer payload = ByteBuffer.allocate(256 * 1024).order(TraceFormat.BYTE_ORDER);
+
+    private LiveStream(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = ByteBuffer.allocate(TraceFormat.LIVE_HEADER_SIZE).order(TraceFormat.BYTE_ORDER);
+        if (!readFully(header)) {
+            throw new EOFException("Live stream closed before its header");
+        }
+        int magic = header.getInt();
+        int version = header.getInt();
+        if (magic != TraceFormat.TRACE_MAGIC || version != TraceFormat.TRACE_FORMAT_VERSION) {
+            throw new IOException(String.format("Not a live trace stream (magic 0x%x, version %d)", magic, version));
+        }
+        this.startEpochNs = header.getLong();
+    }
+
+    /**
+     * Connect to an agent streaming on the given loopback port
+     *
+     * @throws IOException if nothing listens on the port or it is not a live stream
+     */
+    public static LiveStream connect(int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        try {
+            return new LiveStream(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Wall-clock start of the traced run in nanoseconds since the epoch
+     */
+    public long getStartEpochNs() {
+        return startEpochNs;
+    }
+
+    /**
+     * Block until the next frame arrives and pass its contents to the listener
+     *
+     * @return false once the agent has closed the stream
+     * @throws IOException if the stream is corrupt or the connection fails
+     */
+    public boolean readFrame(Listener listener) throws IOException {
+        frameHeader.clear();
+        if (!readFully(frameHeader)) {
+            return false;
+        }
+        int kind = frameHeader.getInt();
+        int length = frameHeader.getInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Corrupt live frame of " + length + " bytes");
+        }
+        if (payload.capacity() < length) {
+            payload = ByteBuffer.allocate(length).order(TraceFormat.BYTE_ORDER);
+        }
+        payload.clear().limit(length);
+        if (!readFully(payload)) {
+            throw new EOFException("Live stream ended inside a frame");
+        }
+
+        switch (kind) {
+            case TraceFormat.LIVE_FRAME_EVENTS:
+                int eventCount = payload.getInt();
+                EventCursor cursor = new EventCursor(payload, eventCount);
+                while (cursor.next()) {
+                    listener.onEvent(cursor.timestampNs(), cursor.threadId(), cursor.type(),
+                        cursor.arg0(), cursor.arg1());
+                }
+                break;
+            case TraceFormat.LIVE_FRAME_THREAD:
+                int threadId = payload.getInt();
+                listener.onThread(threadId, StandardCharsets.UTF_8.decode(payload).toString());
+                break;
+            case TraceFormat.LIVE_FRAME_DROPPED:
+                listener.onDropped(payload.getLong());
+                break;
+            default:
+                // Frames of later versions are skipped
+                break;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Fill the buffer and flip it
+     *
+     * @return false if the stream ended before the first byte
+     */
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                if (buffer.position() == start) {
+                    return false;
+                }
+                throw new EOFException("Live stream ended inside a frame");
+            }
+        }
+        buffer.flip();
+        return true;
+    }
+}
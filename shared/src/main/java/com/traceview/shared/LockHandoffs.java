@@ -0,0 +1,98 @@
+package com.traceview.shared;
+
+import org.eclipse.collections.impl.list.mutable.primitive.BooleanArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+
+/**
+ * LockHandoffs - The contended lock acquisitions of one thread, with the releasing thread
+ *
+ * Handoff i is thread {@link #fromThread(int)} releasing lock
+ * {@link #objectId(int)} at {@link #releaseNs(int)} while this thread waited
+ * for it, and this thread acquiring it at {@link #acquireNs(int)}. For a
+ * return from a monitor wait the release time may be that of the notify
+ * that woke this thread, see {@link #isNotify(int)}; the notifier still held
+ * the monitor until it left the synchronized block. Handoffs are stored in
+ * columns sorted by acquisition time.
+ */
+public final class LockHandoffs {
+
+    private final int threadId;
+    private final LongArrayList releases = new LongArrayList();
+    private final IntArrayList fromThreads = new IntArrayList();
+    private final LongArrayList acquires = new LongArrayList();
+    private final LongArrayList objectIds = new LongArrayList();
+    private BooleanArrayList notifies = new BooleanArrayList();
+
+    LockHandoffs(int threadId) {
+        this.threadId = threadId;
+    }
+
+    /**
+     * The acquiring thread
+     */
+    public int threadId() {
+        return threadId;
+    }
+
+    public int size() {
+        return acquires.size();
+    }
+
+    public long releaseNs(int index) {
+        return releases.get(index);
+    }
+
+    public int fromThread(int index) {
+        return fromThreads.get(index);
+    }
+
+    public long acquireNs(int index) {
+        return acquires.get(index);
+    }
+
+    public long objectId(int index) {
+        return objectIds.get(index);
+    }
+
+    /**
+     * Whether the handoff was a monitor notify rather than a lock release
+     */
+    public boolean isNotify(int index) {
+        return notifies.get(index);
+    }
+
+    /**
+     * Index of the first handoff acquired at or after the given time, or {@link #size()} if none
+     */
+    public int firstAcquiredFrom(long timeNs) {
+        int low = 0;
+        int high = acquires.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (acquires.get(middle) < timeNs) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    void add(long releaseNs, int fromThread, long acquireNs, long objectId, boolean notify) {
+        releases.add(releaseNs);
+        fromThreads.add(fromThread);
+        acquires.add(acquireNs);
+        objectIds.add(objectId);
+        notifies.add(notify);
+    }
+
+    void trim() {
+        releases.trimToSize();
+        fromThreads.trimToSize();
+        acquires.trimToSize();
+        objectIds.trimToSize();
+        // BooleanArrayList has no trimToSize(); a copy is sized to its elements
+        notifies = BooleanArrayList.newListWith(notifies.toArray());
+    }
+}
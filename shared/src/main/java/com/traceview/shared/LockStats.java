@@ -0,0 +1,227 @@
+package com.traceview.shared;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.collections.impl.map.mutable.primitive.IntObjectHashMap;
+
+/**
+ * LockStats - Contention statistics of one synchronization object
+ *
+ * Collected by {@link ContentionStats}. Wait times are those of contended
+ * acquisitions, from the attempt to the acquisition; waits for a
+ * notification in Object.wait() are counted separately, as they wait for
+ * another thread's signal rather than for the lock. Memory depends on the
+ * number of threads that contended for the lock, not on the number of
+ * events.
+ */
+public final class LockStats {
+
+    private static final Comparator<ThreadContention> BY_BLOCKED_TIME =
+        Comparator.comparingLong(ThreadContention::getBlockedNs).reversed()
+            .thenComparingInt(ThreadContention::getThreadId);
+
+    private final long objectId;
+    private int type = TraceFormat.SYNC_OBJECT_MONITOR;
+    private final LogHistogram waitTimes;
+    private final LogHistogram holdTimes;
+    private final IntObjectHashMap<ThreadContention> threads;
+    private long monitorWaits;
+    private long monitorWaitNs;
+    private long notifies;
+    private long inversions;
+    private long deadlocks;
+
+    /**
+     * Blocked time of one thread on a lock
+     */
+    public static final class ThreadContention {
+        private final int threadId;
+        private long acquisitions;
+        private long blockedNs;
+
+        ThreadContention(int threadId) {
+            this.threadId = threadId;
+        }
+
+        ThreadContention(ThreadContention other) {
+            this.threadId = other.threadId;
+            this.acquisitions = other.acquisitions;
+            this.blockedNs = other.blockedNs;
+        }
+
+        public int getThreadId() {
+            return threadId;
+        }
+
+        /**
+         * Contended acquisitions by the thread
+         */
+        public long getAcquisitions() {
+            return acquisitions;
+        }
+
+        /**
+         * Total time the thread waited to acquire the lock
+         */
+        public long getBlockedNs() {
+            return blockedNs;
+        }
+    }
+
+    LockStats(long objectId) {
+        this.objectId = objectId;
+        this.waitTimes = new LogHistogram();
+        this.holdTimes = new LogHistogram();
+        this.threads = new IntObjectHashMap<>();
+    }
+
+    /**
+     * Copy of another lock's statistics that no longer changes with it
+     */
+    public LockStats(LockStats other) {
+        this.objectId = other.objectId;
+        this.type = other.type;
+        this.waitTimes = new LogHistogram(other.waitTimes);
+        this.holdTimes = new LogHistogram(other.holdTimes);
+        this.threads = new IntObjectHashMap<>(other.threads.size());
+        other.threads.forEachKeyValue((threadId, thread) -> threads.put(threadId, new ThreadContention(thread)));
+        this.monitorWaits = other.monitorWaits;
+        this.monitorWaitNs = other.monitorWaitNs;
+        this.notifies = other.notifies;
+        this.inversions = other.inversions;
+        this.deadlocks = other.deadlocks;
+    }
+
+    /**
+     * Identity of the lock, as in {@link TraceFormat.SyncObjectInfo#objectId} and the event arguments
+     */
+    public long getObjectId() {
+        return objectId;
+    }
+
+    /**
+     * {@link TraceFormat#SYNC_OBJECT_MUTEX} once the lock recorded an unlock, which only
+     * explicit locks do (monitors record MONITOR_EXIT), otherwise {@link TraceFormat#SYNC_OBJECT_MONITOR}
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Number of contended acquisitions
+     */
+    public long getAcquisitions() {
+        return waitTimes.getCount();
+    }
+
+    /**
+     * Total time threads waited to acquire the lock
+     */
+    public long getBlockedNs() {
+        return waitTimes.getSum();
+    }
+
+    /**
+     * Times from attempt to acquisition of the contended acquisitions
+     */
+    public LogHistogram getWaitTimes() {
+        return waitTimes;
+    }
+
+    /**
+     * Times from a contended acquisition to the same thread's release; see {@link ContentionStats}
+     */
+    public LogHistogram getHoldTimes() {
+        return holdTimes;
+    }
+
+    /**
+     * Number of Object.wait() calls on the monitor
+     */
+    public long getMonitorWaits() {
+        return monitorWaits;
+    }
+
+    public long getMonitorWaitNs() {
+        return monitorWaitNs;
+    }
+
+    public long getNotifies() {
+        return notifies;
+    }
+
+    /**
+     * Lock-order inversions in which this lock was acquired out of order
+     */
+    public long getInversions() {
+        return inversions;
+    }
+
+    /**
+     * Threads reported deadlocked waiting for this lock
+     */
+    public long getDeadlocks() {
+        return deadlocks;
+    }
+
+    /**
+     * The threads that waited longest for the lock, longest first
+     */
+    public List<ThreadContention> getTopThreads(int limit) {
+        List<ThreadContention> top = new ArrayList<>(threads.values());
+        top.sort(BY_BLOCKED_TIME);
+        return top.size() > limit ? new ArrayList<>(top.subList(0, limit)) : top;
+    }
+
+    /**
+     * Add the statistics of another lock, e.g. to total all locks of a trace
+     */
+    void add(LockStats other) {
+        waitTimes.add(other.waitTimes);
+        holdTimes.add(other.holdTimes);
+        other.threads.forEachKeyValue((threadId, thread) -> {
+            ThreadContention total = threads.getIfAbsentPutWithKey(threadId, ThreadContention::new);
+            total.acquisitions += thread.acquisitions;
+            total.blockedNs += thread.blockedNs;
+        });
+        monitorWaits += other.monitorWaits;
+        monitorWaitNs += other.monitorWaitNs;
+        notifies += other.notifies;
+        inversions += other.inversions;
+        deadlocks += other.deadlocks;
+    }
+
+    void recordAcquisition(int threadId, long waitNs) {
+        waitTimes.record(waitNs);
+        ThreadContention thread = threads.getIfAbsentPutWithKey(threadId, ThreadContention::new);
+        thread.acquisitions++;
+        thread.blockedNs += Math.max(0, waitNs);
+    }
+
+    void recordHold(long holdNs) {
+        holdTimes.record(holdNs);
+    }
+
+    void recordRelease() {
+        type = TraceFormat.SYNC_OBJECT_MUTEX;
+    }
+
+    void recordMonitorWait(long waitNs) {
+        monitorWaits++;
+        monitorWaitNs += Math.max(0, waitNs);
+    }
+
+    void recordNotify() {
+        notifies++;
+    }
+
+    void recordInversion() {
+        inversions++;
+    }
+
+    void recordDeadlock() {
+        deadlocks++;
+    }
+}
@@ -0,0 +1,147 @@
+package com.traceview.shared;
+
+import java.util.Arrays;
+
+/**
+ * LogHistogram - Fixed-size histogram of non-negative values with log buckets
+ *
+ * Values below 8 have a bucket each; above that, every power of two is split
+ * into 8 equal buckets, so a bucket is never wider than 1/8 of its lowest
+ * value and percentiles are within 12.5% of the exact value. The count, sum,
+ * minimum and maximum are exact. There are at most 488 buckets whatever the
+ * number of values; the count array only grows to the highest bucket used,
+ * about 220 for nanosecond durations up to a second.
+ */
+public final class LogHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Enough for Long.MAX_VALUE
+    private static final int MAX_BUCKETS = (64 - SUB_BUCKET_BITS) << SUB_BUCKET_BITS;
+    private static final long[] NO_COUNTS = new long[0];
+
+    private long[] counts = NO_COUNTS;
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public LogHistogram() {
+    }
+
+    /**
+     * Copy of another histogram
+     */
+    public LogHistogram(LogHistogram other) {
+        this.counts = other.counts.clone();
+        this.count = other.count;
+        this.sum = other.sum;
+        this.min = other.min;
+        this.max = other.max;
+    }
+
+    /**
+     * Record a value; negative values count as 0
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        int bucket = bucketOf(v);
+        if (bucket >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.min(MAX_BUCKETS, Math.max(bucket + 1, counts.length * 2)));
+        }
+        counts[bucket]++;
+        count++;
+        sum += v;
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+    }
+
+    /**
+     * Add every value recorded in another histogram
+     */
+    public void add(LogHistogram other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (other.counts.length > counts.length) {
+            counts = Arrays.copyOf(counts, other.counts.length);
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * Smallest value recorded, 0 if none
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Value below or at which the given percentage of the recorded values fall,
+     * reported as the highest value of its bucket, 0 if none
+     *
+     * @param percentile Between 0 and 100
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100.0, percentile) / 100.0 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, highestValue(bucket)));
+            }
+        }
+        return max;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    static long lowestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket & (SUB_BUCKETS - 1);
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        return lowestValue(bucket) + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
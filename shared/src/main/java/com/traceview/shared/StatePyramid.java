@@ -0,0 +1,190 @@
+package com.traceview.shared;
+
+/**
+ * StatePyramid - Level-of-detail summary of one thread's state intervals
+ *
+ * Level 0 splits the thread's lifetime into fixed-width time buckets that
+ * each cover a few intervals on average; every further level merges
+ * {@value #FANOUT} buckets of the level below, up to a single bucket. A
+ * bucket stores the fraction of its width spent in each state, quantized to
+ * a byte, and its dominant state, so a zoomed-out timeline draws one bucket
+ * per pixel whatever the number of intervals behind it. The pyramid costs
+ * about 7 bytes per level 0 bucket.
+ */
+public final class StatePyramid {
+
+    /** Buckets of one level merged into a bucket of the next */
+    public static final int FANOUT = 4;
+
+    // Narrowest bucket; finer zoom levels draw the intervals themselves
+    private static final long MIN_BUCKET_NS = 1024;
+    // Average number of intervals covered by a level 0 bucket
+    private static final int INTERVALS_PER_BUCKET = 4;
+    private static final int STATES = TraceFormat.ThreadState.values().length;
+    private static final int FULL = 255;
+
+    private final long originNs;
+    private final long baseWidthNs;
+    private final byte[][] dominant;
+    private final byte[][] fractions;
+
+    private StatePyramid(long originNs, long baseWidthNs, byte[][] dominant, byte[][] fractions) {
+        this.originNs = originNs;
+        this.baseWidthNs = baseWidthNs;
+        this.dominant = dominant;
+        this.fractions = fractions;
+    }
+
+    /**
+     * Summarize the intervals of one thread
+     */
+    public static StatePyramid build(ThreadIntervals intervals) {
+        int count = intervals.size();
+        if (count == 0) {
+            return new StatePyramid(0L, MIN_BUCKET_NS, new byte[0][], new byte[0][]);
+        }
+        long first = intervals.firstStart();
+        long span = Math.max(1L, intervals.lastEnd() - first);
+        long width = MIN_BUCKET_NS;
+        while (width < span / count * INTERVALS_PER_BUCKET) {
+            width <<= 1;
+        }
+        long origin = Math.floorDiv(first, width) * width;
+        int buckets = (int) Math.min(Integer.MAX_VALUE / STATES,
+            (intervals.lastEnd() - origin + width - 1) / width);
+
+        int levels = 1;
+        for (int n = buckets; n > 1; n = (n + FANOUT - 1) / FANOUT) {
+            levels++;
+        }
+        byte[][] dominant = new byte[levels][];
+        byte[][] fractions = new byte[levels][];
+        fractions[0] = new byte[buckets * STATES];
+
+        // Intervals are sorted and disjoint, so one sweep fills level 0 bucket by bucket
+        long[] time = new long[STATES];
+        int current = 0;
+        for (int i = 0; i < count; i++) {
+            int state = intervals.state(i).getValue() - 1;
+            long start = intervals.start(i);
+            long end = intervals.end(i);
+            while (start < end) {
+                int bucket = (int) Math.min(buckets - 1, (start - origin) / width);
+                if (bucket != current) {
+                    quantize(time, width, fractions[0], current);
+                    current = bucket;
+                }
+                long stop = bucket == buckets - 1 ? end : Math.min(end, origin + (bucket + 1L) * width);
+                time[state] += stop - start;
+                start = stop;
+            }
+        }
+        quantize(time, width, fractions[0], current);
+        dominant[0] = dominant(fractions[0], buckets);
+
+        for (int level = 1; level < levels; level++) {
+            buckets = (buckets + FANOUT - 1) / FANOUT;
+            fractions[level] = merge(fractions[level - 1], buckets);
+            dominant[level] = dominant(fractions[level], buckets);
+        }
+        return new StatePyramid(origin, width, dominant, fractions);
+    }
+
+    public int levelCount() {
+        return dominant.length;
+    }
+
+    /**
+     * Start of bucket 0 on every level, in nanoseconds since trace start
+     */
+    public long originNs() {
+        return originNs;
+    }
+
+    public long bucketWidthNs(int level) {
+        long width = baseWidthNs;
+        for (int i = 0; i < level; i++) {
+            width *= FANOUT;
+        }
+        return width;
+    }
+
+    public int bucketCount(int level) {
+        return dominant[level].length;
+    }
+
+    /**
+     * Bucket of a level containing the given time, clamped to the level
+     */
+    public int bucketAt(int level, long timeNs) {
+        long bucket = Math.floorDiv(timeNs - originNs, bucketWidthNs(level));
+        return (int) Math.max(0, Math.min(bucketCount(level) - 1, bucket));
+    }
+
+    /**
+     * Coarsest level whose buckets are no wider than the given resolution
+     *
+     * @return The level, or -1 if the intervals are coarse enough to be drawn one by one
+     */
+    public int levelFor(double nsPerPixel) {
+        int level = -1;
+        long width = baseWidthNs;
+        while (level + 1 < levelCount() && width <= nsPerPixel) {
+            level++;
+            width *= FANOUT;
+        }
+        return level;
+    }
+
+    /**
+     * State covering most of a bucket, or null if the thread was not alive during it
+     */
+    public TraceFormat.ThreadState dominantState(int level, int bucket) {
+        byte value = dominant[level][bucket];
+        return value == 0 ? null : TraceFormat.ThreadState.fromValue(value);
+    }
+
+    /**
+     * Fraction of a bucket spent in the given state, between 0 and 1
+     */
+    public double fraction(int level, int bucket, TraceFormat.ThreadState state) {
+        return Byte.toUnsignedInt(fractions[level][bucket * STATES + state.getValue() - 1]) / (double) FULL;
+    }
+
+    private static void quantize(long[] time, long width, byte[] fractions, int bucket) {
+        for (int state = 0; state < STATES; state++) {
+            fractions[bucket * STATES + state] = (byte) Math.min(FULL, (time[state] * FULL + width / 2) / width);
+            time[state] = 0;
+        }
+    }
+
+    private static byte[] merge(byte[] fine, int buckets) {
+        byte[] coarse = new byte[buckets * STATES];
+        int fineBuckets = fine.length / STATES;
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            for (int state = 0; state < STATES; state++) {
+                int sum = 0;
+                for (int child = bucket * FANOUT; child < Math.min(fineBuckets, (bucket + 1) * FANOUT); child++) {
+                    sum += Byte.toUnsignedInt(fine[child * STATES + state]);
+                }
+                coarse[bucket * STATES + state] = (byte) ((sum + FANOUT / 2) / FANOUT);
+            }
+        }
+        return coarse;
+    }
+
+    private static byte[] dominant(byte[] fractions, int buckets) {
+        byte[] dominant = new byte[buckets];
+        for (int bucket = 0; bucket < buckets; bucket++) {
+            int best = 0;
+            for (int state = 0; state < STATES; state++) {
+                int fraction = Byte.toUnsignedInt(fractions[bucket * STATES + state]);
+                if (fraction > best) {
+                    best = fraction;
+                    dominant[bucket] = (byte) (state + 1);
+                }
+            }
+        }
+        return dominant;
+    }
+}
@@ -0,0 +1,170 @@
+package com.traceview.shared;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ThreadEvents - The events of one thread, stored column by column
+ *
+ * Timestamps, types and arguments are kept in parallel primitive arrays
+ * (25 bytes per event) instead of one object per event, and are sorted by
+ * timestamp once loading is complete.
+ */
+public final class ThreadEvents {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int threadId;
+    private long[] timestamps;
+    private byte[] types;
+    private long[] arg0s;
+    private long[] arg1s;
+    private int size;
+
+    ThreadEvents(int threadId) {
+        this(threadId, INITIAL_CAPACITY);
+    }
+
+    private ThreadEvents(int threadId, int capacity) {
+        this.threadId = threadId;
+        this.timestamps = new long[capacity];
+        this.types = new byte[capacity];
+        this.arg0s = new long[capacity];
+        this.arg1s = new long[capacity];
+    }
+
+    public int threadId() {
+        return threadId;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long timestampNs(int index) {
+        return timestamps[index];
+    }
+
+    public TraceFormat.EventType type(int index) {
+        return TraceFormat.EventType.fromValue(types[index]);
+    }
+
+    public long arg0(int index) {
+        return arg0s[index];
+    }
+
+    public long arg1(int index) {
+        return arg1s[index];
+    }
+
+    void add(long timestampNs, TraceFormat.EventType type, long arg0, long arg1) {
+        if (size == timestamps.length) {
+            grow(size + 1);
+        }
+        timestamps[size] = timestampNs;
+        types[size] = type.getValue();
+        arg0s[size] = arg0;
+        arg1s[size] = arg1;
+        size++;
+    }
+
+    /**
+     * Concatenate the parts of one thread, in order, into sorted, exactly sized columns
+     */
+    public static ThreadEvents concat(int threadId, List<ThreadEvents> parts) {
+        ThreadEvents events;
+        if (parts.size() == 1) {
+            events = parts.get(0);
+        } else {
+            int total = 0;
+            for (ThreadEvents part : parts) {
+                total += part.size;
+            }
+            events = new ThreadEvents(threadId, total);
+            for (ThreadEvents part : parts) {
+                System.arraycopy(part.timestamps, 0, events.timestamps, events.size, part.size);
+                System.arraycopy(part.types, 0, events.types, events.size, part.size);
+                System.arraycopy(part.arg0s, 0, events.arg0s, events.size, part.size);
+                System.arraycopy(part.arg1s, 0, events.arg1s, events.size, part.size);
+                events.size += part.size;
+            }
+        }
+        events.complete();
+        return events;
+    }
+
+    /**
+     * Trim the columns and sort them by timestamp, keeping the order of equal timestamps
+     */
+    private void complete() {
+        if (!isSorted()) {
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            mergeSort(order, new int[size], 0, size);
+            long[] sortedTimestamps = new long[size];
+            byte[] sortedTypes = new byte[size];
+            long[] sortedArg0s = new long[size];
+            long[] sortedArg1s = new long[size];
+            for (int i = 0; i < size; i++) {
+                int from = order[i];
+                sortedTimestamps[i] = timestamps[from];
+                sortedTypes[i] = types[from];
+                sortedArg0s[i] = arg0s[from];
+                sortedArg1s[i] = arg1s[from];
+            }
+            timestamps = sortedTimestamps;
+            types = sortedTypes;
+            arg0s = sortedArg0s;
+            arg1s = sortedArg1s;
+        } else if (size < timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size);
+            types = Arrays.copyOf(types, size);
+            arg0s = Arrays.copyOf(arg0s, size);
+            arg1s = Arrays.copyOf(arg1s, size);
+        }
+    }
+
+    private boolean isSorted() {
+        for (int i = 1; i < size; i++) {
+            if (timestamps[i] < timestamps[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, timestamps.length + (timestamps.length >> 1));
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        types = Arrays.copyOf(types, capacity);
+        arg0s = Arrays.copyOf(arg0s, capacity);
+        arg1s = Arrays.copyOf(arg1s, capacity);
+    }
+
+    /**
+     * Stable sort of event indices by timestamp; events are mostly in order already
+     */
+    private void mergeSort(int[] order, int[] scratch, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(order, scratch, from, middle);
+        mergeSort(order, scratch, middle, to);
+        if (timestamps[order[middle - 1]] <= timestamps[order[middle]]) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && timestamps[scratch[left]] <= timestamps[scratch[right]])) {
+                order[i] = scratch[left++];
+            } else {
+                order[i] = scratch[right++];
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.traceview.shared;
+
+import org.eclipse.collections.impl.list.mutable.primitive.ByteArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.list.mutable.primitive.LongArrayList;
+
+/**
+ * ThreadIntervals - The state timeline of one thread as columnar intervals
+ *
+ * Interval i covers [start(i), end(i)) in nanoseconds since trace start and
+ * has one {@link TraceFormat.ThreadState}; blocked intervals also carry the
+ * id of the lock, monitor or I/O target involved and the stack captured
+ * when the thread blocked. Intervals are stored in primitive columns
+ * (29 bytes each) in time order and never overlap.
+ */
+public final class ThreadIntervals {
+
+    private final int threadId;
+    private final LongArrayList starts = new LongArrayList();
+    private final LongArrayList ends = new LongArrayList();
+    private final ByteArrayList states = new ByteArrayList();
+    private final LongArrayList objectIds = new LongArrayList();
+    private final IntArrayList stackIds = new IntArrayList();
+
+    ThreadIntervals(int threadId) {
+        this.threadId = threadId;
+    }
+
+    public int threadId() {
+        return threadId;
+    }
+
+    public int size() {
+        return starts.size();
+    }
+
+    public long start(int index) {
+        return starts.get(index);
+    }
+
+    public long end(int index) {
+        return ends.get(index);
+    }
+
+    public TraceFormat.ThreadState state(int index) {
+        return TraceFormat.ThreadState.fromValue(states.get(index));
+    }
+
+    /**
+     * Lock, monitor or I/O target id of a blocked interval, 0 otherwise
+     */
+    public long objectId(int index) {
+        return objectIds.get(index);
+    }
+
+    /**
+     * Stack table id of the stack captured when the interval began, or -1 if none was
+     */
+    public int stackId(int index) {
+        return stackIds.get(index);
+    }
+
+    /**
+     * Start of the first interval, or 0 if there is none
+     */
+    public long firstStart() {
+        return starts.isEmpty() ? 0L : starts.getFirst();
+    }
+
+    /**
+     * End of the last interval, or 0 if there is none
+     */
+    public long lastEnd() {
+        return ends.isEmpty() ? 0L : ends.getLast();
+    }
+
+    /**
+     * Index of the first interval ending after the given time, or {@link #size()} if none
+     */
+    public int firstEndingAfter(long timeNs) {
+        int low = 0;
+        int high = ends.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ends.get(middle) <= timeNs) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Index of the interval containing the given time, or -1 if the thread has none then
+     */
+    public int indexAt(long timeNs) {
+        int index = firstEndingAfter(timeNs);
+        return index < starts.size() && starts.get(index) <= timeNs ? index : -1;
+    }
+
+    /**
+     * Independent copy that later additions to this thread do not affect
+     */
+    ThreadIntervals copy() {
+        ThreadIntervals copy = new ThreadIntervals(threadId);
+        copy.starts.addAll(starts);
+        copy.ends.addAll(ends);
+        copy.states.addAll(states);
+        copy.objectIds.addAll(objectIds);
+        copy.stackIds.addAll(stackIds);
+        return copy;
+    }
+
+    void add(long start, long end, TraceFormat.ThreadState state, long objectId, int stackId) {
+        starts.add(start);
+        ends.add(end);
+        states.add(state.getValue());
+        objectIds.add(objectId);
+        stackIds.add(stackId);
+    }
+
+    /**
+     * Drop the intervals that end at or before the given time
+     */
+    void discardBefore(long timeNs) {
+        int count = firstEndingAfter(timeNs);
+        if (count == 0) {
+            return;
+        }
+        int kept = starts.size() - count;
+        for (int i = 0; i < kept; i++) {
+            starts.set(i, starts.get(i + count));
+            ends.set(i, ends.get(i + count));
+            states.set(i, states.get(i + count));
+            objectIds.set(i, objectIds.get(i + count));
+            stackIds.set(i, stackIds.get(i + count));
+        }
+        for (int i = starts.size() - 1; i >= kept; i--) {
+            starts.removeAtIndex(i);
+            ends.removeAtIndex(i);
+            states.removeAtIndex(i);
+            objectIds.removeAtIndex(i);
+            stackIds.removeAtIndex(i);
+        }
+    }
+
+    void trim() {
+        starts.trimToSize();
+        ends.trimToSize();
+        states.trimToSize();
+        objectIds.trimToSize();
+        stackIds.trimToSize();
+    }
+}
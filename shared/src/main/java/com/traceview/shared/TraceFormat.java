@@ -1,15 +1,64 @@
 package com.traceview.shared;
 
+import java.nio.ByteOrder;
+
 /**
  * TraceView Binary Format Specification
  * 
  * This class defines the binary format for .tview trace files.
  * The format is designed to be compact, fast to write, and easy to parse.
+ * 
+ * File layout (all values little-endian):
+ * <pre>
+ *   TraceHeader        HEADER_SIZE bytes, patched when the trace is finalized
+ *   Events             v1: numEvents fixed EventRecords
+ *                      v2/v3: chunks, each a BlockHeader + encoded events
+ *   String table       stringTableSize bytes at stringTableOffset; each entry is
+ *                      a u16 length followed by UTF-8 bytes, referenced by offset
+ *   ThreadInfo[]       numThreads entries of THREAD_INFO_SIZE bytes, directly
+ *                      after the string table
+ *   Chunk index        v3 only, at indexOffset: u32 chunk count, u32 reserved,
+ *                      then per chunk INDEX_ENTRY_SIZE bytes (offset, min and
+ *                      max timestamp, event count, thread count) followed by
+ *                      its u32 thread ids
+ *   Stack table        v3 with HEADER_FLAG_STACK_TABLE, directly after the
+ *                      index: u32 stack count, u32 reserved, then per stack a
+ *                      u32 frame count and the frames' u32 string offsets,
+ *                      innermost first; a stack id is its position
+ *   Agent metrics      v3 with HEADER_FLAG_AGENT_METRICS, directly after the
+ *                      stack table or, without one, the index: u32 metric
+ *                      count, u32 reserved, then per metric a u16 name
+ *                      length, the UTF-8 name and an i64 value
+ * </pre>
+ *
+ * Version 3 widens event counts and offsets to 64 bits so traces can grow
+ * past 2 GB, and the index lets readers go straight to the chunks covering
+ * a time window or thread. Version 1 and 2 headers use 32-bit fields (see
+ * the HEADER_V1_* offsets).
+ *
+ * A chunk payload (after optional deflate compression is undone) holds
+ * eventCount events, each encoded as:
+ * <pre>
+ *   u8       tag: event type in the low 5 bits, TAG_SAME_THREAD if the
+ *            thread id equals the previous event's
+ *   varint   zigzag timestamp delta to the previous event in the block
+ *            (the first event is relative to 0)
+ *   varint   thread id, unless TAG_SAME_THREAD is set
+ *   varint   argument 0 and 1, as many as the type's getArgCount()
+ * </pre>
+ * Varints are unsigned LEB128. Every block starts from a fresh state, so
+ * blocks decode independently of each other.
  */
 public class TraceFormat {
     
-    // File format version
-    public static final int TRACE_FORMAT_VERSION = 1;
+    // File format version written by the agent
+    public static final int TRACE_FORMAT_VERSION = 3;
+    
+    // Original fixed-size record layout, still accepted by readers
+    public static final int TRACE_FORMAT_VERSION_1 = 1;
+    
+    // Encoded blocks with a 32-bit header and no index, still accepted by readers
+    public static final int TRACE_FORMAT_VERSION_2 = 2;
     
     // Magic number for .tview files: "TVIEW" in ASCII
     public static final int TRACE_MAGIC = 0x54564945;
@@ -17,40 +66,150 @@ public class TraceFormat {
     // Fixed header size in bytes
     public static final int HEADER_SIZE = 64;
     
+    // Byte order of every multi-byte value in the file (matches trace_format.h on x86/ARM)
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    
+    // Size of the fixed part of an EventRecord, before the event-specific data
+    public static final int EVENT_HEADER_SIZE = 16;
+    
+    // Size of a serialized ThreadInfo entry
+    public static final int THREAD_INFO_SIZE = 24;
+    
+    // Size of the header in front of every event chunk
+    public static final int BLOCK_HEADER_SIZE = 16;
+    
+    // Largest chunk (header plus stored payload) a writer may produce
+    public static final int MAX_CHUNK_SIZE = 1024 * 1024;
+    
+    // Size of the chunk index header and of the fixed part of each index entry
+    public static final int INDEX_HEADER_SIZE = 8;
+    public static final int INDEX_ENTRY_SIZE = 32;
+    
+    // Header flag: a stack table follows the chunk index
+    public static final int HEADER_FLAG_STACK_TABLE = 1;
+    
+    // Size of the stack table header
+    public static final int STACK_TABLE_HEADER_SIZE = 8;
+    
+    // Header flag: the agent's self-metrics follow the stack table or the chunk index
+    public static final int HEADER_FLAG_AGENT_METRICS = 2;
+    
+    // Size of the agent metrics header
+    public static final int AGENT_METRICS_HEADER_SIZE = 8;
+    
+    // Header flag: some thread's events are not stored in time order, as in traces
+    // translated from JFR; sort each thread's events before building intervals
+    public static final int HEADER_FLAG_UNORDERED = 4;
+    
+    // Block flag: the payload is raw deflate data
+    public static final int BLOCK_FLAG_DEFLATE = 1;
+    
+    // v2 event tag bits
+    public static final int TAG_TYPE_MASK = 0x1F;
+    public static final int TAG_SAME_THREAD = 0x80;
+    
+    // Upper bound of one v2 encoded event: tag, three varints of up to 10 bytes and the thread id
+    public static final int MAX_ENCODED_EVENT_SIZE = 1 + 10 + 5 + 10 + 10;
+    
+    // Live stream: loopback port the agent listens on by default
+    public static final int DEFAULT_LIVE_PORT = 7077;
+    
+    // Live stream header (magic u32, version u32, start epoch ns i64) and frame header (kind u32, length u32)
+    public static final int LIVE_HEADER_SIZE = 16;
+    public static final int LIVE_FRAME_HEADER_SIZE = 8;
+    
+    // Live frame kinds: u32 event count and encoded events as in a block;
+    // u32 thread id and UTF-8 name; u64 events dropped for a slow viewer
+    public static final int LIVE_FRAME_EVENTS = 1;
+    public static final int LIVE_FRAME_THREAD = 2;
+    public static final int LIVE_FRAME_DROPPED = 3;
+    
+    // SyncObjectInfo types: explicit java.util.concurrent lock, or object monitor
+    public static final int SYNC_OBJECT_MUTEX = 0;
+    public static final int SYNC_OBJECT_MONITOR = 1;
+    
+    // Byte offsets of the TraceHeader fields
+    public static final int HEADER_MAGIC_OFFSET = 0;
+    public static final int HEADER_VERSION_OFFSET = 4;
+    public static final int HEADER_START_TIME_OFFSET = 8;
+    public static final int HEADER_END_TIME_OFFSET = 16;
+    public static final int HEADER_NUM_THREADS_OFFSET = 24;
+    public static final int HEADER_FLAGS_OFFSET = 28;
+    public static final int HEADER_NUM_EVENTS_OFFSET = 32;
+    public static final int HEADER_STRING_TABLE_OFFSET_OFFSET = 40;
+    public static final int HEADER_STRING_TABLE_SIZE_OFFSET = 48;
+    public static final int HEADER_INDEX_OFFSET_OFFSET = 56;
+    
+    // 32-bit TraceHeader fields of format versions 1 and 2
+    public static final int HEADER_V1_NUM_EVENTS_OFFSET = 28;
+    public static final int HEADER_V1_STRING_TABLE_OFFSET_OFFSET = 32;
+    public static final int HEADER_V1_STRING_TABLE_SIZE_OFFSET = 36;
+    
     /**
      * Event types that can be recorded in a trace
      */
     public enum EventType {
-        THREAD_START(1),
-        THREAD_END(2),
-        MUTEX_LOCK_ATTEMPT(3),
-        MUTEX_LOCK_ACQUIRED(4),
-        MUTEX_UNLOCK(5),
-        MONITOR_WAIT(6),
-        MONITOR_NOTIFY(7),
-        ANNOTATION(8),
-        SLEEP_START(9),
-        SLEEP_END(10),
-        IO_START(11),
-        IO_END(12);
+        THREAD_START(1, 0, 0),
+        THREAD_END(2, 0, 0),
+        MUTEX_LOCK_ATTEMPT(3, 8, 1),      // MutexLockData
+        MUTEX_LOCK_ACQUIRED(4, 8, 1),     // MutexLockData
+        MUTEX_UNLOCK(5, 8, 1),            // MutexLockData
+        MONITOR_WAIT(6, 16, 2),           // MonitorWaitData
+        MONITOR_NOTIFY(7, 8, 1),          // MutexLockData (monitor id)
+        ANNOTATION(8, 4, 1),              // AnnotationData
+        SLEEP_START(9, 8, 1),             // SleepData
+        SLEEP_END(10, 8, 1),              // SleepData
+        IO_START(11, 8, 2),               // IOData
+        IO_END(12, 8, 2),                 // IOData
+        SAMPLING_RATE(13, 8, 2),          // SamplingData
+        STACK_TRACE(14, 4, 1),            // StackData
+        LOCK_ORDER_INVERSION(15, 16, 2),  // LockOrderData
+        DEADLOCK(16, 16, 2),              // DeadlockData
+        MONITOR_EXIT(17, 8, 1);           // MutexLockData (monitor id)
         
         private final byte value;
+        private final int dataSize;
+        private final int argCount;
         
-        EventType(int value) {
+        EventType(int value, int dataSize, int argCount) {
             this.value = (byte) value;
+            this.dataSize = dataSize;
+            this.argCount = argCount;
         }
         
         public byte getValue() {
             return value;
         }
         
-        public static EventType fromValue(byte value) {
+        /**
+         * Size in bytes of the event-specific data following a v1 record
+         */
+        public int getDataSize() {
+            return dataSize;
+        }
+        
+        /**
+         * Number of varint arguments following a v2 encoded event
+         */
+        public int getArgCount() {
+            return argCount;
+        }
+        
+        // Indexed by value; every encoded type fits in TAG_TYPE_MASK
+        private static final EventType[] BY_VALUE = new EventType[TAG_TYPE_MASK + 1];
+        
+        static {
             for (EventType type : values()) {
-                if (type.value == value) {
-                    return type;
-                }
+                BY_VALUE[type.value] = type;
+            }
+        }
+        
+        public static EventType fromValue(byte value) {
+            EventType type = value >= 0 && value < BY_VALUE.length ? BY_VALUE[value] : null;
+            if (type == null) {
+                throw new IllegalArgumentException("Unknown event type: " + value);
             }
-            throw new IllegalArgumentException("Unknown event type: " + value);
+            return type;
         }
     }
     
@@ -73,13 +232,20 @@ public class TraceFormat {
             return value;
         }
         
-        public static ThreadState fromValue(byte value) {
+        private static final ThreadState[] BY_VALUE = new ThreadState[8];
+        
+        static {
             for (ThreadState state : values()) {
-                if (state.value == value) {
-                    return state;
-                }
+                BY_VALUE[state.value] = state;
             }
-            throw new IllegalArgumentException("Unknown thread state: " + value);
+        }
+        
+        public static ThreadState fromValue(byte value) {
+            ThreadState state = value >= 0 && value < BY_VALUE.length ? BY_VALUE[value] : null;
+            if (state == null) {
+                throw new IllegalArgumentException("Unknown thread state: " + value);
+            }
+            return state;
         }
     }
     
@@ -92,10 +258,11 @@ public class TraceFormat {
         public long startTimeNs;       // Trace start time (nanoseconds since epoch)
         public long endTimeNs;         // Trace end time (nanoseconds since epoch)
         public int numThreads;         // Number of threads in trace
-        public int numEvents;          // Total number of events
-        public int stringTableOffset;  // Offset to string table
-        public int stringTableSize;    // Size of string table
-        public byte[] padding = new byte[16]; // Reserved for future use
+        public int flags;              // HEADER_FLAG_* bits
+        public long numEvents;         // Total number of events
+        public long stringTableOffset; // Offset to string table
+        public long stringTableSize;   // Size of string table
+        public long indexOffset;       // Offset to the chunk index (0 if absent)
         
         public TraceHeader() {
             this.magic = TRACE_MAGIC;
@@ -103,6 +270,68 @@ public class TraceFormat {
         }
     }
     
+    /**
+     * Header of an event chunk (16 bytes)
+     */
+    public static class BlockHeader {
+        public int storedSize;         // Payload bytes following this header
+        public int rawSize;            // Payload bytes after decompression
+        public int eventCount;         // Number of events in the block
+        public byte flags;             // BLOCK_FLAG_* bits
+        public byte[] padding = new byte[3]; // Reserved
+        
+        public BlockHeader() {}
+        
+        public BlockHeader(int storedSize, int rawSize, int eventCount, byte flags) {
+            this.storedSize = storedSize;
+            this.rawSize = rawSize;
+            this.eventCount = eventCount;
+            this.flags = flags;
+        }
+    }
+    
+    /**
+     * Chunk index entry: where a chunk is and which times and threads it covers
+     */
+    public static class ChunkIndexEntry {
+        public long offset;            // File offset of the chunk's BlockHeader
+        public long minTimestampNs;    // Earliest event in the chunk
+        public long maxTimestampNs;    // Latest event in the chunk
+        public int eventCount;         // Number of events in the chunk
+        public int[] threadIds;        // Threads with events in the chunk, null if unknown
+        
+        public ChunkIndexEntry() {}
+        
+        public ChunkIndexEntry(long offset, long minTimestampNs, long maxTimestampNs,
+                               int eventCount, int[] threadIds) {
+            this.offset = offset;
+            this.minTimestampNs = minTimestampNs;
+            this.maxTimestampNs = maxTimestampNs;
+            this.eventCount = eventCount;
+            this.threadIds = threadIds;
+        }
+        
+        /**
+         * Whether the chunk may hold events of the thread in the time window
+         *
+         * @param threadId Thread to look for, or -1 for any thread
+         */
+        public boolean covers(long fromNs, long toNs, int threadId) {
+            if (maxTimestampNs < fromNs || minTimestampNs > toNs) {
+                return false;
+            }
+            if (threadId < 0 || threadIds == null) {
+                return true;
+            }
+            for (int id : threadIds) {
+                if (id == threadId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+    
     /**
      * Event record structure (variable size)
      */
@@ -150,7 +379,7 @@ public class TraceFormat {
     public static class SyncObjectInfo {
         public long objectId;          // Memory address/hash of sync object
         public int nameOffset;         // Offset into string table for object name
-        public int type;               // Type of sync object (0=mutex, 1=monitor, etc.)
+        public int type;               // SYNC_OBJECT_MUTEX or SYNC_OBJECT_MONITOR
         
         public SyncObjectInfo() {}
         
@@ -207,6 +436,70 @@ public class TraceFormat {
         }
     }
     
+    /**
+     * Records that from this event on only one in {@code period} operations of
+     * {@code eventType} is traced; counts must be multiplied by period to
+     * estimate the real totals. Applies to all threads of the trace.
+     */
+    public static class SamplingData {
+        public int eventType;          // EventType value being sampled
+        public int period;             // 1 = every operation is recorded
+        
+        public SamplingData() {}
+        
+        public SamplingData(int eventType, int period) {
+            this.eventType = eventType;
+            this.period = period;
+        }
+    }
+    
+    /**
+     * Call stack of the preceding event of the same thread (e.g. a contended
+     * lock attempt), as an id into the stack table
+     */
+    public static class StackData {
+        public int stackId;            // Index into the stack table
+        
+        public StackData() {}
+        
+        public StackData(int stackId) {
+            this.stackId = stackId;
+        }
+    }
+    
+    /**
+     * The current thread acquired {@code acquiredLockId} while holding
+     * {@code heldLockId}, although some thread earlier took them the other way
+     * round, possibly through other locks; the two orders can deadlock
+     */
+    public static class LockOrderData {
+        public long heldLockId;        // Lock held while acquiring
+        public long acquiredLockId;    // Lock acquired out of order
+        
+        public LockOrderData() {}
+        
+        public LockOrderData(long heldLockId, long acquiredLockId) {
+            this.heldLockId = heldLockId;
+            this.acquiredLockId = acquiredLockId;
+        }
+    }
+    
+    /**
+     * The thread waits for {@code lockId}, held by {@code holderThreadId}, as
+     * part of a cycle of waiting threads; one event per thread of the cycle
+     */
+    public static class DeadlockData {
+        public long lockId;            // Lock the thread waits for
+        public long holderThreadId;    // Thread holding it
+        
+        public DeadlockData() {}
+        
+        public DeadlockData(long lockId, long holderThreadId) {
+            this.lockId = lockId;
+            this.holderThreadId = holderThreadId;
+        }
+    }
+    
     public static class IOData {
         public int operationOffset;    // Offset into string table (e.g., "read", "write")
         public int targetOffset;       // Offset into string table (e.g., filename, socket)
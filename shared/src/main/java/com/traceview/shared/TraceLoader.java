@@ -0,0 +1,255 @@
+package com.traceview.shared;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+
+/**
+ * TraceLoader - Decodes all events of a trace into per-thread columns
+ *
+ * Chunks decode independently, so the chunk list is split recursively on a
+ * dedicated {@link ForkJoinPool}; every leaf decodes a run of chunks into
+ * per-thread {@link ThreadEvents} parts, which are collected per thread in
+ * file order on the way back up and concatenated once at the end, again in
+ * parallel across threads. The parallelism limit keeps a
+ * core free for the UI by default. v1 files have no chunks and are decoded
+ * on a single thread. A loader keeps its pool between loads until it is
+ * closed, so a trace can be decoded batch by batch.
+ *
+ * {@link #replay} feeds decoded threads to an {@link TraceReader.EventVisitor}
+ * in time order, which is also the way to analyze traces whose threads'
+ * events are not stored in time order (see {@link TraceReader#isTimeOrdered()}).
+ *
+ * <pre>
+ *   try (TraceLoader loader = new TraceLoader(reader)) {
+ *       TraceLoader.replay(loader.load().values(), builder);
+ *   }
+ * </pre>
+ */
+public class TraceLoader implements Closeable {
+
+    // Chunks decoded by one leaf task; small enough to balance, large enough to amortize the task
+    private static final int CHUNKS_PER_TASK = 16;
+
+    private final TraceReader reader;
+    private final int parallelism;
+    private ForkJoinPool pool;
+
+    /**
+     * Loader using all cores but one
+     */
+    public TraceLoader(TraceReader reader) {
+        this(reader, defaultParallelism());
+    }
+
+    /**
+     * @param parallelism Maximum number of decoding threads
+     */
+    public TraceLoader(TraceReader reader, int parallelism) {
+        this.reader = reader;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * All cores but one, so the JavaFX application thread stays responsive
+     */
+    public static int defaultParallelism() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    /**
+     * Maximum number of decoding threads
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Decode every event, grouped by thread id and sorted by timestamp
+     *
+     * @throws IOException if a chunk is corrupt
+     */
+    public Map<Integer, ThreadEvents> load() throws IOException {
+        return load(0, reader.getChunks().size());
+    }
+
+    /**
+     * Decode the events of the chunks {@code [firstChunk, endChunk)} of
+     * {@link TraceReader#getChunks()}, grouped by thread id and sorted by timestamp
+     *
+     * @throws IOException if a chunk is corrupt
+     */
+    public Map<Integer, ThreadEvents> load(int firstChunk, int endChunk) throws IOException {
+        int chunkCount = endChunk - firstChunk;
+        if (reader.getChunks().isEmpty() || chunkCount <= 1 || parallelism == 1) {
+            Map<Integer, List<ThreadEvents>> parts = decode(firstChunk, endChunk);
+            Map<Integer, ThreadEvents> threads = new HashMap<>();
+            for (Map.Entry<Integer, List<ThreadEvents>> entry : parts.entrySet()) {
+                threads.put(entry.getKey(), ThreadEvents.concat(entry.getKey(), entry.getValue()));
+            }
+            return Collections.unmodifiableMap(threads);
+        }
+
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        // Leaves small enough that a batch of a few chunks still spreads over every thread
+        int chunksPerTask = Math.max(1, Math.min(CHUNKS_PER_TASK, (chunkCount + parallelism - 1) / parallelism));
+        try {
+            Map<Integer, List<ThreadEvents>> parts = pool.invoke(new DecodeTask(firstChunk, endChunk, chunksPerTask));
+            // Streams submitted from inside the pool run their parallel work on it
+            Map<Integer, ThreadEvents> threads = pool.submit(() -> parts.entrySet().parallelStream()
+                .collect(Collectors.toMap(Map.Entry::getKey,
+                    entry -> ThreadEvents.concat(entry.getKey(), entry.getValue())))).get();
+            return Collections.unmodifiableMap(threads);
+        } catch (UncheckedIOException e) {
+            // The pool may rethrow a copy wrapping the original exception
+            Throwable cause = e;
+            while (cause instanceof UncheckedIOException) {
+                cause = cause.getCause();
+            }
+            throw cause instanceof IOException ? (IOException) cause : new IOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading trace", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to merge decoded events", e.getCause());
+        }
+    }
+
+    /**
+     * Feed the events of several threads to a visitor in time order, each
+     * thread's events in their own order, by merging the threads on a heap
+     */
+    public static void replay(Collection<ThreadEvents> threads, TraceReader.EventVisitor visitor) {
+        ThreadEvents[] heap = new ThreadEvents[threads.size()];
+        int[] next = new int[heap.length];
+        int size = 0;
+        for (ThreadEvents events : threads) {
+            if (events.size() > 0) {
+                heap[size++] = events;
+            }
+        }
+        // The position of each thread's next event travels with it through the heap
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(heap, next, i, size);
+        }
+        while (size > 0) {
+            ThreadEvents events = heap[0];
+            int i = next[0];
+            visitor.onEvent(events.timestampNs(i), events.threadId(), events.type(i), events.arg0(i), events.arg1(i));
+            if (i + 1 < events.size()) {
+                next[0] = i + 1;
+            } else {
+                size--;
+                heap[0] = heap[size];
+                next[0] = next[size];
+                heap[size] = null;
+            }
+            siftDown(heap, next, 0, size);
+        }
+    }
+
+    private static void siftDown(ThreadEvents[] heap, int[] next, int index, int size) {
+        ThreadEvents events = heap[index];
+        int position = next[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && earlier(heap[child + 1], next[child + 1], heap[child], next[child])) {
+                child++;
+            }
+            if (!earlier(heap[child], next[child], events, position)) {
+                break;
+            }
+            heap[index] = heap[child];
+            next[index] = next[child];
+            index = child;
+        }
+        heap[index] = events;
+        next[index] = position;
+    }
+
+    private static boolean earlier(ThreadEvents a, int i, ThreadEvents b, int j) {
+        long difference = a.timestampNs(i) - b.timestampNs(j);
+        return difference < 0 || (difference == 0 && a.threadId() < b.threadId());
+    }
+
+    /**
+     * Shut down the decoding threads
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private Map<Integer, List<ThreadEvents>> decode(int firstChunk, int endChunk) throws IOException {
+        Map<Integer, List<ThreadEvents>> threads = new HashMap<>();
+        ThreadEvents current = null;
+        try (EventCursor cursor = reader.chunkCursor(firstChunk, endChunk)) {
+            while (cursor.next()) {
+                int threadId = cursor.threadId();
+                if (current == null || current.threadId() != threadId) {
+                    List<ThreadEvents> parts = threads.computeIfAbsent(threadId, id -> new ArrayList<>());
+                    if (parts.isEmpty()) {
+                        parts.add(new ThreadEvents(threadId));
+                    }
+                    current = parts.get(0);
+                }
+                current.add(cursor.timestampNs(), cursor.type(), cursor.arg0(), cursor.arg1());
+            }
+        }
+        return threads;
+    }
+
+    private static Map<Integer, List<ThreadEvents>> merge(Map<Integer, List<ThreadEvents>> first,
+                                                          Map<Integer, List<ThreadEvents>> second) {
+        for (Map.Entry<Integer, List<ThreadEvents>> entry : second.entrySet()) {
+            first.computeIfAbsent(entry.getKey(), id -> new ArrayList<>()).addAll(entry.getValue());
+        }
+        return first;
+    }
+
+    private final class DecodeTask extends RecursiveTask<Map<Integer, List<ThreadEvents>>> {
+        private final int firstChunk;
+        private final int endChunk;
+        private final int chunksPerTask;
+
+        DecodeTask(int firstChunk, int endChunk, int chunksPerTask) {
+            this.firstChunk = firstChunk;
+            this.endChunk = endChunk;
+            this.chunksPerTask = chunksPerTask;
+        }
+
+        @Override
+        protected Map<Integer, List<ThreadEvents>> compute() {
+            if (endChunk - firstChunk <= chunksPerTask) {
+                try {
+                    return decode(firstChunk, endChunk);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int middle = (firstChunk + endChunk) >>> 1;
+            DecodeTask second = new DecodeTask(middle, endChunk, chunksPerTask);
+            second.fork();
+            Map<Integer, List<ThreadEvents>> first = new DecodeTask(firstChunk, middle, chunksPerTask).compute();
+            return merge(first, second.join());
+        }
+    }
+}
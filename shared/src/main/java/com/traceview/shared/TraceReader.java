@@ -0,0 +1,368 @@
+package com.traceview.shared;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TraceReader - Reads .tview files of any supported format version
+ *
+ * The header, string table, thread table, chunk index, stack table and
+ * agent metrics are loaded on open; events are decoded on demand, without copying or per-event
+ * allocation, by an {@link EventCursor} or by {@link #forEachEvent}, which
+ * hands every event to a visitor as primitive values whatever the format
+ * version. The file is mapped in overlapping segments of SEGMENT_SIZE bytes, so traces
+ * larger than 2 GB can be read and a chunk never straddles two mappings.
+ * For v3 files, a time window or thread query only decodes the chunks the
+ * index says can contain matching events.
+ */
+public class TraceReader implements Closeable {
+
+    /**
+     * Receives decoded events in file order
+     */
+    public interface EventVisitor {
+        void onEvent(long timestampNs, int threadId, TraceFormat.EventType type, long arg0, long arg1);
+    }
+
+    // Distance between segment starts; each segment maps MAX_CHUNK_SIZE more so chunks fit whole
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final ByteBuffer[] segments;
+    private final TraceFormat.TraceHeader header = new TraceFormat.TraceHeader();
+    private final List<TraceFormat.ThreadInfo> threads = new ArrayList<>();
+    private final List<TraceFormat.ChunkIndexEntry> chunks = new ArrayList<>();
+    private final ByteBuffer stringTable;
+    private int[][] stacks = new int[0][];
+    private Map<String, Long> agentMetrics = Collections.emptyMap();
+
+    private TraceReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        if (fileSize < TraceFormat.HEADER_SIZE) {
+            throw new IOException("File too small to be a trace: " + fileSize + " bytes");
+        }
+        this.segments = new ByteBuffer[(int) ((fileSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = i * SEGMENT_SIZE;
+            long length = Math.min(fileSize - start, SEGMENT_SIZE + TraceFormat.MAX_CHUNK_SIZE);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length).order(TraceFormat.BYTE_ORDER);
+        }
+
+        readHeader(segments[0]);
+        long threadsEnd = header.stringTableOffset + header.stringTableSize
+            + (long) header.numThreads * TraceFormat.THREAD_INFO_SIZE;
+        if (header.stringTableOffset < TraceFormat.HEADER_SIZE || header.stringTableSize > Integer.MAX_VALUE
+                || threadsEnd > fileSize) {
+            throw new IOException("Trace is truncated or was not finalized");
+        }
+        this.stringTable = region(header.stringTableOffset, (int) header.stringTableSize);
+
+        ByteBuffer threadTable = region(header.stringTableOffset + header.stringTableSize,
+            header.numThreads * TraceFormat.THREAD_INFO_SIZE);
+        for (int i = 0; i < header.numThreads; i++) {
+            threads.add(new TraceFormat.ThreadInfo(
+                threadTable.getInt(), threadTable.getInt(), threadTable.getLong(), threadTable.getLong()));
+        }
+
+        if (header.version == TraceFormat.TRACE_FORMAT_VERSION) {
+            readIndex();
+        } else if (header.version == TraceFormat.TRACE_FORMAT_VERSION_2) {
+            scanChunks();
+        }
+    }
+
+    /**
+     * Open a trace file and load its header and tables
+     *
+     * @throws IOException if the file is not a readable, finalized trace
+     */
+    public static TraceReader open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new TraceReader(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public TraceFormat.TraceHeader getHeader() {
+        return header;
+    }
+
+    public int getVersion() {
+        return header.version;
+    }
+
+    public long getNumEvents() {
+        return header.numEvents;
+    }
+
+    /**
+     * Whether every thread's events are stored in time order; if not, as in
+     * JFR traces, analyze the sorted threads of a {@link TraceLoader} instead
+     * of the file order
+     */
+    public boolean isTimeOrdered() {
+        return (header.flags & TraceFormat.HEADER_FLAG_UNORDERED) == 0;
+    }
+
+    public List<TraceFormat.ThreadInfo> getThreads() {
+        return Collections.unmodifiableList(threads);
+    }
+
+    /**
+     * Event chunks in file order; empty for v1 files, without time ranges for v2 files
+     */
+    public List<TraceFormat.ChunkIndexEntry> getChunks() {
+        return Collections.unmodifiableList(chunks);
+    }
+
+    /**
+     * Resolve a string table offset, or null if it is out of range
+     */
+    public String getString(int offset) {
+        if (offset < 0 || offset + 2 > stringTable.limit()) {
+            return null;
+        }
+        int length = Short.toUnsignedInt(stringTable.getShort(offset));
+        if (offset + 2 + length > stringTable.limit()) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        for (int i = 0; i < length; i++) {
+            utf8[i] = stringTable.get(offset + 2 + i);
+        }
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Number of distinct stacks in the stack table
+     */
+    public int getStackCount() {
+        return stacks.length;
+    }
+
+    /**
+     * Frames of a stack referenced by a STACK_TRACE event, innermost first
+     *
+     * @return the frames, or an empty list for an unknown stack id
+     */
+    public List<String> getStackFrames(int stackId) {
+        if (stackId < 0 || stackId >= stacks.length) {
+            return Collections.emptyList();
+        }
+        List<String> frames = new ArrayList<>(stacks[stackId].length);
+        for (int offset : stacks[stackId]) {
+            String frame = getString(offset);
+            frames.add(frame != null ? frame : "<unknown>");
+        }
+        return frames;
+    }
+
+    /**
+     * Self-metrics the agent recorded when it finished the trace, by name in
+     * the order written, e.g. "droppedEvents"; empty for traces without them
+     */
+    public Map<String, Long> getAgentMetrics() {
+        return agentMetrics;
+    }
+
+    /**
+     * Decode every event of the trace in file order
+     *
+     * @throws IOException if an event chunk is corrupt
+     */
+    public void forEachEvent(EventVisitor visitor) throws IOException {
+        forEachEvent(Long.MIN_VALUE, Long.MAX_VALUE, -1, visitor);
+    }
+
+    /**
+     * Decode the events of a time window, optionally of a single thread
+     *
+     * @param fromNs First timestamp of the window (inclusive, ns since trace start)
+     * @param toNs Last timestamp of the window (inclusive)
+     * @param threadId Thread to return events for, or -1 for all threads
+     * @throws IOException if an event chunk is corrupt
+     */
+    public void forEachEvent(long fromNs, long toNs, int threadId, EventVisitor visitor) throws IOException {
+        try (EventCursor cursor = cursor(fromNs, toNs, threadId)) {
+            while (cursor.next()) {
+                visitor.onEvent(cursor.timestampNs(), cursor.threadId(), cursor.type(), cursor.arg0(), cursor.arg1());
+            }
+        }
+    }
+
+    /**
+     * Open a flyweight cursor over every event in file order
+     */
+    public EventCursor cursor() throws IOException {
+        return new EventCursor(this, Long.MIN_VALUE, Long.MAX_VALUE, -1);
+    }
+
+    /**
+     * Open a flyweight cursor over the events of a time window, optionally of a single thread
+     *
+     * @param threadId Thread to return events for, or -1 for all threads
+     */
+    public EventCursor cursor(long fromNs, long toNs, int threadId) throws IOException {
+        return new EventCursor(this, fromNs, toNs, threadId);
+    }
+
+    /**
+     * Open a cursor over the chunks {@code [firstChunk, endChunk)} of {@link #getChunks()}
+     *
+     * Cursors over disjoint chunk ranges can be used from different threads at once.
+     */
+    public EventCursor chunkCursor(int firstChunk, int endChunk) throws IOException {
+        return new EventCursor(this, firstChunk, endChunk, Long.MIN_VALUE, Long.MAX_VALUE, -1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readHeader(ByteBuffer file) throws IOException {
+        header.magic = file.getInt(TraceFormat.HEADER_MAGIC_OFFSET);
+        header.version = file.getInt(TraceFormat.HEADER_VERSION_OFFSET);
+        if (header.magic != TraceFormat.TRACE_MAGIC) {
+            throw new IOException("Not a TraceView file (bad magic)");
+        }
+        header.startTimeNs = file.getLong(TraceFormat.HEADER_START_TIME_OFFSET);
+        header.endTimeNs = file.getLong(TraceFormat.HEADER_END_TIME_OFFSET);
+        header.numThreads = file.getInt(TraceFormat.HEADER_NUM_THREADS_OFFSET);
+
+        switch (header.version) {
+            case TraceFormat.TRACE_FORMAT_VERSION_1:
+            case TraceFormat.TRACE_FORMAT_VERSION_2:
+                header.flags = 0;
+                header.numEvents = Integer.toUnsignedLong(file.getInt(TraceFormat.HEADER_V1_NUM_EVENTS_OFFSET));
+                header.stringTableOffset = Integer.toUnsignedLong(
+                    file.getInt(TraceFormat.HEADER_V1_STRING_TABLE_OFFSET_OFFSET));
+                header.stringTableSize = Integer.toUnsignedLong(
+                    file.getInt(TraceFormat.HEADER_V1_STRING_TABLE_SIZE_OFFSET));
+                header.indexOffset = 0;
+                break;
+            case TraceFormat.TRACE_FORMAT_VERSION:
+                header.flags = file.getInt(TraceFormat.HEADER_FLAGS_OFFSET);
+                header.numEvents = file.getLong(TraceFormat.HEADER_NUM_EVENTS_OFFSET);
+                header.stringTableOffset = file.getLong(TraceFormat.HEADER_STRING_TABLE_OFFSET_OFFSET);
+                header.stringTableSize = file.getLong(TraceFormat.HEADER_STRING_TABLE_SIZE_OFFSET);
+                header.indexOffset = file.getLong(TraceFormat.HEADER_INDEX_OFFSET_OFFSET);
+                break;
+            default:
+                throw new IOException("Unsupported trace format version: " + header.version);
+        }
+    }
+
+    private void readIndex() throws IOException {
+        if (header.indexOffset < TraceFormat.HEADER_SIZE
+                || header.indexOffset + TraceFormat.INDEX_HEADER_SIZE > fileSize) {
+            throw new IOException("Chunk index is missing or out of range");
+        }
+        int chunkCount = region(header.indexOffset, TraceFormat.INDEX_HEADER_SIZE).getInt();
+        long position = header.indexOffset + TraceFormat.INDEX_HEADER_SIZE;
+        ByteBuffer index = region(position, (int) Math.min(fileSize - position, Integer.MAX_VALUE));
+        try {
+            for (int i = 0; i < chunkCount; i++) {
+                long offset = index.getLong();
+                long minTimestampNs = index.getLong();
+                long maxTimestampNs = index.getLong();
+                int eventCount = index.getInt();
+                int[] threadIds = new int[index.getInt()];
+                for (int t = 0; t < threadIds.length; t++) {
+                    threadIds[t] = index.getInt();
+                }
+                chunks.add(new TraceFormat.ChunkIndexEntry(offset, minTimestampNs, maxTimestampNs, eventCount, threadIds));
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt chunk index", e);
+        }
+
+        if ((header.flags & TraceFormat.HEADER_FLAG_STACK_TABLE) != 0) {
+            try {
+                // The stack table follows the index directly
+                stacks = new int[index.getInt()][];
+                index.getInt();
+                for (int i = 0; i < stacks.length; i++) {
+                    int[] frames = new int[index.getInt()];
+                    for (int f = 0; f < frames.length; f++) {
+                        frames[f] = index.getInt();
+                    }
+                    stacks[i] = frames;
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt stack table", e);
+            }
+        }
+
+        if ((header.flags & TraceFormat.HEADER_FLAG_AGENT_METRICS) != 0) {
+            try {
+                // The metrics follow the stack table, or the index without one
+                int count = index.getInt();
+                index.getInt();
+                Map<String, Long> metrics = new LinkedHashMap<>();
+                for (int i = 0; i < count; i++) {
+                    byte[] name = new byte[Short.toUnsignedInt(index.getShort())];
+                    index.get(name);
+                    metrics.put(new String(name, StandardCharsets.UTF_8), index.getLong());
+                }
+                agentMetrics = Collections.unmodifiableMap(metrics);
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt agent metrics", e);
+            }
+        }
+    }
+
+    /**
+     * v2 files have no index; walk the chunk headers to find the chunks
+     */
+    private void scanChunks() throws IOException {
+        long position = TraceFormat.HEADER_SIZE;
+        while (position + TraceFormat.BLOCK_HEADER_SIZE <= header.stringTableOffset) {
+            ByteBuffer block = region(position, TraceFormat.BLOCK_HEADER_SIZE);
+            int storedSize = block.getInt(0);
+            int eventCount = block.getInt(8);
+            chunks.add(new TraceFormat.ChunkIndexEntry(position, Long.MIN_VALUE, Long.MAX_VALUE, eventCount, null));
+            position += TraceFormat.BLOCK_HEADER_SIZE + (long) storedSize;
+        }
+    }
+
+    /**
+     * The fixed-size event records of a v1 file
+     */
+    ByteBuffer v1Events() throws IOException {
+        return region(TraceFormat.HEADER_SIZE,
+            (int) Math.min(header.stringTableOffset - TraceFormat.HEADER_SIZE, Integer.MAX_VALUE));
+    }
+
+    /**
+     * View of a file region, from its segment when it fits or from a dedicated mapping
+     */
+    ByteBuffer region(long offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > fileSize) {
+            throw new IOException("Region out of range: " + offset + "+" + length);
+        }
+        ByteBuffer segment = segments[(int) (offset / SEGMENT_SIZE)];
+        int start = (int) (offset % SEGMENT_SIZE);
+        if (start + length <= segment.limit()) {
+            ByteBuffer view = segment.duplicate();
+            view.position(start).limit(start + length);
+            return view.slice().order(TraceFormat.BYTE_ORDER);
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(TraceFormat.BYTE_ORDER);
+    }
+}
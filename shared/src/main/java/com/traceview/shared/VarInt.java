@@ -0,0 +1,55 @@
+package com.traceview.shared;
+
+import java.nio.ByteBuffer;
+
+/**
+ * VarInt - Unsigned LEB128 and zigzag helpers used by the v2 event encoding
+ */
+public final class VarInt {
+
+    private VarInt() {
+    }
+
+    /**
+     * Write a value as an unsigned varint (1 to 10 bytes)
+     */
+    public static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Read an unsigned varint written by {@link #putVarLong}
+     */
+    public static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 63) {
+                throw new IllegalArgumentException("Malformed varint");
+            }
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Map a signed value onto an unsigned one so small magnitudes stay short
+     */
+    public static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Inverse of {@link #zigzag}
+     */
+    public static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
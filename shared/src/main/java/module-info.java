@@ -4,6 +4,8 @@ module com.traceview.shared {
     requires com.fasterxml.jackson.annotation;
     requires org.apache.commons.lang3;
     requires com.google.common;
+    requires org.eclipse.collections.api;
+    requires org.eclipse.collections.impl;
     
     exports com.traceview.shared;
 }
@@ -0,0 +1,97 @@
+package com.traceview.shared;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class ContentionStatsTest {
+
+    private static final long LOCK = 1;
+    private static final long MONITOR = 2;
+
+    private final ContentionStats stats = new ContentionStats();
+
+    @Test
+    void holdRunsFromAContendedAcquisitionToItsRelease() {
+        event(0, TraceFormat.EventType.MUTEX_LOCK_ATTEMPT, LOCK);
+        event(100, TraceFormat.EventType.MUTEX_LOCK_ACQUIRED, LOCK);
+        event(600, TraceFormat.EventType.MUTEX_UNLOCK, LOCK);
+        event(1_000, TraceFormat.EventType.MUTEX_LOCK_ATTEMPT, MONITOR);
+        event(1_200, TraceFormat.EventType.MUTEX_LOCK_ACQUIRED, MONITOR);
+        event(1_500, TraceFormat.EventType.MONITOR_EXIT, MONITOR);
+
+        LockStats lock = lock(LOCK);
+        assertThat(lock.getType()).isEqualTo(TraceFormat.SYNC_OBJECT_MUTEX);
+        assertThat(lock.getBlockedNs()).isEqualTo(100);
+        assertThat(lock.getHoldTimes().getCount()).isEqualTo(1);
+        assertThat(lock.getHoldTimes().getSum()).isEqualTo(500);
+
+        LockStats monitor = lock(MONITOR);
+        assertThat(monitor.getType()).isEqualTo(TraceFormat.SYNC_OBJECT_MONITOR);
+        assertThat(monitor.getHoldTimes().getCount()).isEqualTo(1);
+        assertThat(monitor.getHoldTimes().getSum()).isEqualTo(300);
+    }
+
+    @Test
+    void acquisitionsWithoutAnAttemptHaveNoHold() {
+        event(0, TraceFormat.EventType.MUTEX_LOCK_ATTEMPT, MONITOR);
+        event(100, TraceFormat.EventType.MUTEX_LOCK_ACQUIRED, MONITOR);
+        event(200, TraceFormat.EventType.MONITOR_EXIT, MONITOR);
+        // A monitor wait returning in a hold whose entry was not recorded
+        event(1_000, TraceFormat.EventType.MONITOR_WAIT, MONITOR);
+        event(2_000, TraceFormat.EventType.MUTEX_LOCK_ACQUIRED, MONITOR);
+        event(9_000, TraceFormat.EventType.MONITOR_EXIT, MONITOR);
+
+        LockStats monitor = lock(MONITOR);
+        assertThat(monitor.getHoldTimes().getCount()).isEqualTo(1);
+        assertThat(monitor.getHoldTimes().getSum()).isEqualTo(100);
+        assertThat(monitor.getMonitorWaits()).isEqualTo(1);
+    }
+
+    @Test
+    void monitorWaitSplitsTheHold() {
+        event(0, TraceFormat.EventType.MUTEX_LOCK_ATTEMPT, MONITOR);
+        event(100, TraceFormat.EventType.MUTEX_LOCK_ACQUIRED, MONITOR);
+        event(400, TraceFormat.EventType.MONITOR_WAIT, MONITOR);
+        event(1_000, TraceFormat.EventType.MUTEX_LOCK_ACQUIRED, MONITOR);
+        event(1_100, TraceFormat.EventType.MONITOR_EXIT, MONITOR);
+
+        LockStats monitor = lock(MONITOR);
+        assertThat(monitor.getHoldTimes().getCount()).isEqualTo(2);
+        assertThat(monitor.getHoldTimes().getSum()).isEqualTo(400);
+        assertThat(monitor.getMonitorWaitNs()).isEqualTo(600);
+    }
+
+    @Test
+    void holdIsDroppedWhenAnotherThreadAcquiredInBetween() {
+        event(0, 1, TraceFormat.EventType.MUTEX_LOCK_ATTEMPT, LOCK);
+        event(100, 1, TraceFormat.EventType.MUTEX_LOCK_ACQUIRED, LOCK);
+        // Thread 1's release was lost
+        event(200, 2, TraceFormat.EventType.MUTEX_LOCK_ATTEMPT, LOCK);
+        event(300, 2, TraceFormat.EventType.MUTEX_LOCK_ACQUIRED, LOCK);
+        event(400, 2, TraceFormat.EventType.MUTEX_UNLOCK, LOCK);
+        event(500, 1, TraceFormat.EventType.MUTEX_UNLOCK, LOCK);
+
+        LockStats lock = lock(LOCK);
+        assertThat(lock.getAcquisitions()).isEqualTo(2);
+        assertThat(lock.getHoldTimes().getCount()).isEqualTo(1);
+        assertThat(lock.getHoldTimes().getSum()).isEqualTo(100);
+    }
+
+    private void event(long timestampNs, TraceFormat.EventType type, long lockId) {
+        event(timestampNs, 1, type, lockId);
+    }
+
+    private void event(long timestampNs, int threadId, TraceFormat.EventType type, long lockId) {
+        stats.onEvent(timestampNs, threadId, type, lockId, 0L);
+    }
+
+    private LockStats lock(long lockId) {
+        for (LockStats lock : stats.getTopLocks(Integer.MAX_VALUE)) {
+            if (lock.getObjectId() == lockId) {
+                return lock;
+            }
+        }
+        throw new AssertionError("No lock " + lockId);
+    }
+}
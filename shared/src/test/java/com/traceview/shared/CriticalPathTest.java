@@ -0,0 +1,143 @@
+package com.traceview.shared;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.Map;
+
+import com.traceview.shared.TraceFormat.EventType;
+import com.traceview.shared.TraceFormat.ThreadState;
+import org.junit.jupiter.api.Test;
+
+class CriticalPathTest {
+
+    @Test
+    void lockWaitJumpsToTheReleasingThread() {
+        IntervalBuilder builder = new IntervalBuilder();
+        IntervalBuilderTest.feedLockWait(builder);
+
+        CriticalPath path = CriticalPath.walk(builder.build(), builder.buildHandoffs(), 1, 100);
+
+        assertThat(path.size()).isEqualTo(7);
+        assertSegment(path, 0, 2, 0, 28, ThreadState.EXECUTING, -1);
+        // Only the wake-up latency after the release stays on the waiting thread
+        assertSegment(path, 1, 1, 28, 30, ThreadState.BLOCKED_SYNC, 2);
+        assertSegment(path, 2, 1, 30, 40, ThreadState.EXECUTING, -1);
+        assertSegment(path, 3, 1, 40, 60, ThreadState.BLOCKED_IO, -1);
+        assertSegment(path, 4, 1, 60, 70, ThreadState.EXECUTING, -1);
+        assertSegment(path, 5, 1, 70, 90, ThreadState.SLEEPING, -1);
+        assertSegment(path, 6, 1, 90, 100, ThreadState.EXECUTING, -1);
+        assertThat(path.getStartNs()).isZero();
+        assertThat(path.getEndNs()).isEqualTo(100);
+        assertThat(path.getEndThreadId()).isEqualTo(1);
+        assertThat(path.getHandoffCount()).isEqualTo(1);
+
+        List<CriticalPath.LockDelay> locks = path.getLocks();
+        assertThat(locks).hasSize(1);
+        assertThat(locks.get(0).getObjectId()).isEqualTo(7);
+        assertThat(locks.get(0).getHeldUpNs()).isEqualTo(20);
+        assertThat(locks.get(0).getWakeUpNs()).isEqualTo(2);
+        assertThat(locks.get(0).getHandoffs()).isEqualTo(1);
+    }
+
+    @Test
+    void pathCoversItsSpanExactlyOnce() {
+        IntervalBuilder builder = new IntervalBuilder();
+        IntervalBuilderTest.feedLockWait(builder);
+
+        for (long endNs = 1; endNs <= 100; endNs++) {
+            CriticalPath path = CriticalPath.walk(builder.build(), builder.buildHandoffs(), 1, endNs);
+
+            long covered = 0;
+            for (int i = 0; i < path.size(); i++) {
+                // A handoff right at the end time leaves an empty wake-up segment
+                assertThat(path.start(i)).isLessThanOrEqualTo(path.end(i));
+                if (i > 0) {
+                    assertThat(path.start(i)).as("segment %d at end %d", i, endNs).isEqualTo(path.end(i - 1));
+                }
+                covered += path.end(i) - path.start(i);
+            }
+            assertThat(path.end(path.size() - 1)).isEqualTo(endNs);
+            assertThat(covered).isEqualTo(endNs - path.getStartNs());
+
+            long onThreads = 0;
+            for (long[] stateNs : path.getThreadStateNs().values()) {
+                for (long ns : stateNs) {
+                    onThreads += ns;
+                }
+            }
+            assertThat(onThreads).isEqualTo(covered);
+        }
+    }
+
+    @Test
+    void waitWithoutAHandoffStaysOnTheThread() {
+        IntervalBuilder builder = new IntervalBuilder();
+        builder.onEvent(0, 1, EventType.THREAD_START, 0, 0);
+        builder.onEvent(0, 2, EventType.THREAD_START, 0, 0);
+        builder.onEvent(10, 1, EventType.MONITOR_WAIT, 9, 20);
+        builder.onEvent(30, 1, EventType.MUTEX_LOCK_ACQUIRED, 9, 0);
+        builder.onEvent(40, 1, EventType.THREAD_END, 0, 0);
+        builder.onEvent(40, 2, EventType.THREAD_END, 0, 0);
+
+        CriticalPath path = CriticalPath.walk(builder.build(), builder.buildHandoffs(), 1, 40);
+
+        assertThat(path.size()).isEqualTo(3);
+        assertSegment(path, 0, 1, 0, 10, ThreadState.EXECUTING, -1);
+        assertSegment(path, 1, 1, 10, 30, ThreadState.BLOCKED_SYNC, -1);
+        assertSegment(path, 2, 1, 30, 40, ThreadState.EXECUTING, -1);
+        assertThat(path.getHandoffCount()).isZero();
+        assertThat(path.getLocks().get(0).getHeldUpNs()).isEqualTo(20);
+    }
+
+    @Test
+    void walkFollowsAChainOfHandoffs() {
+        // Thread 3 waits for thread 2, which waited for thread 1
+        IntervalBuilder builder = new IntervalBuilder();
+        builder.onEvent(0, 1, EventType.THREAD_START, 0, 0);
+        builder.onEvent(0, 2, EventType.THREAD_START, 0, 0);
+        builder.onEvent(0, 3, EventType.THREAD_START, 0, 0);
+        builder.onEvent(5, 2, EventType.MUTEX_LOCK_ATTEMPT, 7, 0);
+        builder.onEvent(10, 3, EventType.MUTEX_LOCK_ATTEMPT, 8, 0);
+        builder.onEvent(20, 1, EventType.MUTEX_UNLOCK, 7, 0);
+        builder.onEvent(21, 2, EventType.MUTEX_LOCK_ACQUIRED, 7, 0);
+        builder.onEvent(40, 2, EventType.MUTEX_UNLOCK, 8, 0);
+        builder.onEvent(42, 3, EventType.MUTEX_LOCK_ACQUIRED, 8, 0);
+        builder.onEvent(50, 3, EventType.THREAD_END, 0, 0);
+        builder.onEvent(50, 2, EventType.THREAD_END, 0, 0);
+        builder.onEvent(50, 1, EventType.THREAD_END, 0, 0);
+
+        CriticalPath path = CriticalPath.walk(builder.build(), builder.buildHandoffs(), 3, 50);
+
+        assertThat(path.size()).isEqualTo(5);
+        assertSegment(path, 0, 1, 0, 20, ThreadState.EXECUTING, -1);
+        assertSegment(path, 1, 2, 20, 21, ThreadState.BLOCKED_SYNC, 1);
+        assertSegment(path, 2, 2, 21, 40, ThreadState.EXECUTING, -1);
+        assertSegment(path, 3, 3, 40, 42, ThreadState.BLOCKED_SYNC, 2);
+        assertSegment(path, 4, 3, 42, 50, ThreadState.EXECUTING, -1);
+        assertThat(path.getHandoffCount()).isEqualTo(2);
+        assertThat(path.firstEndingAfter(30)).isEqualTo(2);
+
+        Map<Integer, long[]> stateNs = path.getThreadStateNs();
+        assertThat(stateNs.get(1)[ThreadState.EXECUTING.getValue()]).isEqualTo(20);
+        assertThat(stateNs.get(2)[ThreadState.BLOCKED_SYNC.getValue()]).isEqualTo(1);
+        assertThat(stateNs.get(3)[ThreadState.BLOCKED_SYNC.getValue()]).isEqualTo(2);
+    }
+
+    @Test
+    void unknownThreadGivesAnEmptyPath() {
+        CriticalPath path = CriticalPath.walk(Map.of(), Map.of(), 1, 100);
+
+        assertThat(path.size()).isZero();
+        assertThat(path.getStartNs()).isEqualTo(100);
+    }
+
+    private static void assertSegment(CriticalPath path, int index, int threadId, long start, long end,
+                                      ThreadState state, int waker) {
+        assertThat(path.threadId(index)).as("threadId(%d)", index).isEqualTo(threadId);
+        assertThat(path.start(index)).as("start(%d)", index).isEqualTo(start);
+        assertThat(path.end(index)).as("end(%d)", index).isEqualTo(end);
+        assertThat(path.state(index)).as("state(%d)", index).isEqualTo(state);
+        assertThat(path.wakerThread(index)).as("wakerThread(%d)", index).isEqualTo(waker);
+    }
+}
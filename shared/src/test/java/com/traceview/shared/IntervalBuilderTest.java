@@ -0,0 +1,227 @@
+package com.traceview.shared;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+
+import com.traceview.shared.TraceFormat.EventType;
+import com.traceview.shared.TraceFormat.ThreadState;
+import org.junit.jupiter.api.Test;
+
+class IntervalBuilderTest {
+
+    private static final long LOCK = 7;
+    private static final long MONITOR = 9;
+    private static final long FILE = 3;
+
+    /**
+     * Thread 1 waits for a lock that threads 2 and 3 release, then does I/O and
+     * sleeps; thread 2 holds the lock without contention
+     */
+    static void feedLockWait(TraceReader.EventVisitor visitor) {
+        visitor.onEvent(0, 1, EventType.THREAD_START, 0, 0);
+        visitor.onEvent(0, 2, EventType.THREAD_START, 0, 0);
+        visitor.onEvent(0, 3, EventType.THREAD_START, 0, 0);
+        visitor.onEvent(5, 2, EventType.MUTEX_LOCK_ACQUIRED, LOCK, 0);
+        // Before thread 1 blocks, so it cannot have woken it
+        visitor.onEvent(8, 3, EventType.MUTEX_UNLOCK, LOCK, 0);
+        visitor.onEvent(10, 1, EventType.MUTEX_LOCK_ATTEMPT, LOCK, 0);
+        visitor.onEvent(10, 1, EventType.STACK_TRACE, 4, 0);
+        visitor.onEvent(20, 3, EventType.MUTEX_UNLOCK, LOCK, 0);
+        visitor.onEvent(28, 2, EventType.MUTEX_UNLOCK, LOCK, 0);
+        visitor.onEvent(30, 1, EventType.MUTEX_LOCK_ACQUIRED, LOCK, 0);
+        visitor.onEvent(40, 1, EventType.IO_START, FILE, 0);
+        visitor.onEvent(60, 1, EventType.IO_END, FILE, 0);
+        visitor.onEvent(70, 1, EventType.SLEEP_START, 20, 0);
+        visitor.onEvent(90, 1, EventType.SLEEP_END, 20, 0);
+        visitor.onEvent(100, 1, EventType.THREAD_END, 0, 0);
+        visitor.onEvent(100, 2, EventType.THREAD_END, 0, 0);
+        visitor.onEvent(100, 3, EventType.THREAD_END, 0, 0);
+    }
+
+    @Test
+    void everyStateChangeClosesAnInterval() {
+        IntervalBuilder builder = new IntervalBuilder();
+        feedLockWait(builder);
+        Map<Integer, ThreadIntervals> intervals = builder.build();
+
+        ThreadIntervals waiter = intervals.get(1);
+        assertInterval(waiter, 0, 0, 10, ThreadState.EXECUTING, 0);
+        assertInterval(waiter, 1, 10, 30, ThreadState.BLOCKED_SYNC, LOCK);
+        assertInterval(waiter, 2, 30, 40, ThreadState.EXECUTING, 0);
+        assertInterval(waiter, 3, 40, 60, ThreadState.BLOCKED_IO, FILE);
+        assertInterval(waiter, 4, 60, 70, ThreadState.EXECUTING, 0);
+        assertInterval(waiter, 5, 70, 90, ThreadState.SLEEPING, 0);
+        assertInterval(waiter, 6, 90, 100, ThreadState.EXECUTING, 0);
+        assertThat(waiter.size()).isEqualTo(7);
+        assertThat(waiter.stackId(1)).isEqualTo(4);
+        assertThat(waiter.stackId(0)).isEqualTo(-1);
+
+        // An uncontended acquisition does not change the state
+        ThreadIntervals holder = intervals.get(2);
+        assertThat(holder.size()).isEqualTo(1);
+        assertInterval(holder, 0, 0, 100, ThreadState.EXECUTING, 0);
+    }
+
+    @Test
+    void threadsWithoutAnEndCloseAtTheirLastEvent() {
+        IntervalBuilder builder = new IntervalBuilder();
+        builder.onEvent(0, 1, EventType.THREAD_START, 0, 0);
+        builder.onEvent(10, 1, EventType.SLEEP_START, 5, 0);
+        builder.onEvent(25, 1, EventType.SLEEP_END, 5, 0);
+        builder.onEvent(40, 1, EventType.ANNOTATION, 0, 0);
+
+        ThreadIntervals intervals = builder.build().get(1);
+
+        assertThat(intervals.size()).isEqualTo(3);
+        assertInterval(intervals, 2, 25, 40, ThreadState.EXECUTING, 0);
+    }
+
+    @Test
+    void stateTotalsMatchTheIntervals() {
+        IntervalBuilder totalsOnly = new IntervalBuilder(false);
+        feedLockWait(totalsOnly);
+        Map<Integer, long[]> totals = totalsOnly.buildStateTotals();
+
+        long[] waiter = totals.get(1);
+        assertThat(waiter[ThreadState.EXECUTING.getValue()]).isEqualTo(40);
+        assertThat(waiter[ThreadState.BLOCKED_SYNC.getValue()]).isEqualTo(20);
+        assertThat(waiter[ThreadState.BLOCKED_IO.getValue()]).isEqualTo(20);
+        assertThat(waiter[ThreadState.SLEEPING.getValue()]).isEqualTo(20);
+        assertThat(totals.get(2)[ThreadState.EXECUTING.getValue()]).isEqualTo(100);
+    }
+
+    @Test
+    void handoffIsTheClosestReleaseDuringTheWait() {
+        IntervalBuilder builder = new IntervalBuilder();
+        feedLockWait(builder);
+        Map<Integer, LockHandoffs> handoffs = builder.buildHandoffs();
+
+        LockHandoffs received = handoffs.get(1);
+        assertThat(received.size()).isEqualTo(1);
+        assertThat(received.fromThread(0)).isEqualTo(2);
+        assertThat(received.releaseNs(0)).isEqualTo(28);
+        assertThat(received.acquireNs(0)).isEqualTo(30);
+        assertThat(received.objectId(0)).isEqualTo(LOCK);
+        assertThat(received.isNotify(0)).isFalse();
+        assertThat(handoffs.get(2).size()).isZero();
+        assertThat(handoffs.get(3).size()).isZero();
+    }
+
+    @Test
+    void releaseJustAfterTheAcquisitionIsMatched() {
+        IntervalBuilder builder = new IntervalBuilder();
+        builder.onEvent(0, 1, EventType.MUTEX_LOCK_ATTEMPT, LOCK, 0);
+        builder.onEvent(0, 2, EventType.THREAD_START, 0, 0);
+        builder.onEvent(30, 1, EventType.MUTEX_LOCK_ACQUIRED, LOCK, 0);
+        // Recorded after the unlock returned, so after the waiter already has the lock
+        builder.onEvent(32, 2, EventType.MUTEX_UNLOCK, LOCK, 0);
+        builder.onEvent(50, 1, EventType.THREAD_END, 0, 0);
+
+        LockHandoffs received = builder.buildHandoffs().get(1);
+
+        assertThat(received.size()).isEqualTo(1);
+        assertThat(received.fromThread(0)).isEqualTo(2);
+        assertThat(received.releaseNs(0)).isEqualTo(32);
+    }
+
+    @Test
+    void monitorWaitIsMatchedWithTheNotify() {
+        IntervalBuilder builder = new IntervalBuilder();
+        builder.onEvent(0, 1, EventType.THREAD_START, 0, 0);
+        builder.onEvent(0, 2, EventType.THREAD_START, 0, 0);
+        builder.onEvent(10, 1, EventType.MONITOR_WAIT, MONITOR, 0);
+        builder.onEvent(25, 2, EventType.MONITOR_NOTIFY, MONITOR, 0);
+        builder.onEvent(26, 1, EventType.MUTEX_LOCK_ACQUIRED, MONITOR, 0);
+        // A notify of another monitor does not count
+        builder.onEvent(26, 2, EventType.MONITOR_NOTIFY, LOCK, 0);
+
+        LockHandoffs received = builder.buildHandoffs().get(1);
+
+        assertThat(received.size()).isEqualTo(1);
+        assertThat(received.fromThread(0)).isEqualTo(2);
+        assertThat(received.releaseNs(0)).isEqualTo(25);
+        assertThat(received.acquireNs(0)).isEqualTo(26);
+        assertThat(received.objectId(0)).isEqualTo(MONITOR);
+        assertThat(received.isNotify(0)).isTrue();
+    }
+
+    @Test
+    void ownNotifyIsNoHandoff() {
+        IntervalBuilder builder = new IntervalBuilder();
+        builder.onEvent(0, 1, EventType.MONITOR_WAIT, MONITOR, 10);
+        // The thread's own notify does not wake it
+        builder.onEvent(5, 1, EventType.MONITOR_NOTIFY, MONITOR, 0);
+        builder.onEvent(10, 1, EventType.MUTEX_LOCK_ACQUIRED, MONITOR, 0);
+
+        assertThat(builder.buildHandoffs().get(1).size()).isZero();
+    }
+
+
+    @Test
+    void contendedMonitorEntryIsMatchedWithTheExitNotTheNotify() {
+        IntervalBuilder builder = new IntervalBuilder();
+        builder.onEvent(0, 1, EventType.THREAD_START, 0, 0);
+        builder.onEvent(0, 2, EventType.THREAD_START, 0, 0);
+        builder.onEvent(10, 1, EventType.MUTEX_LOCK_ATTEMPT, MONITOR, 0);
+        // The notifier keeps the monitor until it leaves the synchronized block
+        builder.onEvent(20, 2, EventType.MONITOR_NOTIFY, MONITOR, 0);
+        builder.onEvent(24, 2, EventType.MONITOR_EXIT, MONITOR, 0);
+        builder.onEvent(26, 1, EventType.MUTEX_LOCK_ACQUIRED, MONITOR, 0);
+
+        LockHandoffs received = builder.buildHandoffs().get(1);
+
+        assertThat(received.size()).isEqualTo(1);
+        assertThat(received.releaseNs(0)).isEqualTo(24);
+        assertThat(received.isNotify(0)).isFalse();
+    }
+
+    @Test
+    void notifyAloneWakesNoContendedEntry() {
+        IntervalBuilder builder = new IntervalBuilder();
+        builder.onEvent(0, 1, EventType.THREAD_START, 0, 0);
+        builder.onEvent(0, 2, EventType.THREAD_START, 0, 0);
+        builder.onEvent(10, 1, EventType.MUTEX_LOCK_ATTEMPT, MONITOR, 0);
+        builder.onEvent(20, 2, EventType.MONITOR_NOTIFY, MONITOR, 0);
+        builder.onEvent(26, 1, EventType.MUTEX_LOCK_ACQUIRED, MONITOR, 0);
+
+        assertThat(builder.buildHandoffs().get(1).size()).isZero();
+    }
+
+    @Test
+    void monitorWaitReleasesTheMonitor() {
+        IntervalBuilder builder = new IntervalBuilder();
+        builder.onEvent(0, 1, EventType.MUTEX_LOCK_ATTEMPT, MONITOR, 0);
+        builder.onEvent(0, 2, EventType.THREAD_START, 0, 0);
+        builder.onEvent(15, 2, EventType.MONITOR_WAIT, MONITOR, 0);
+        builder.onEvent(16, 1, EventType.MUTEX_LOCK_ACQUIRED, MONITOR, 0);
+
+        LockHandoffs received = builder.buildHandoffs().get(1);
+
+        assertThat(received.size()).isEqualTo(1);
+        assertThat(received.fromThread(0)).isEqualTo(2);
+        assertThat(received.releaseNs(0)).isEqualTo(15);
+    }
+
+    @Test
+    void acquisitionAtTimeZeroIsMatched() {
+        IntervalBuilder builder = new IntervalBuilder();
+        builder.onEvent(0, 1, EventType.MUTEX_LOCK_ATTEMPT, LOCK, 0);
+        builder.onEvent(0, 2, EventType.MUTEX_UNLOCK, LOCK, 0);
+        builder.onEvent(0, 1, EventType.MUTEX_LOCK_ACQUIRED, LOCK, 0);
+
+        LockHandoffs received = builder.buildHandoffs().get(1);
+
+        assertThat(received.size()).isEqualTo(1);
+        assertThat(received.fromThread(0)).isEqualTo(2);
+        assertThat(received.acquireNs(0)).isZero();
+    }
+
+    static void assertInterval(ThreadIntervals intervals, int index, long start, long end, ThreadState state,
+                               long objectId) {
+        assertThat(intervals.start(index)).as("start(%d)", index).isEqualTo(start);
+        assertThat(intervals.end(index)).as("end(%d)", index).isEqualTo(end);
+        assertThat(intervals.state(index)).as("state(%d)", index).isEqualTo(state);
+        assertThat(intervals.objectId(index)).as("objectId(%d)", index).isEqualTo(objectId);
+    }
+}
@@ -0,0 +1,109 @@
+package com.traceview.shared;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class LogHistogramTest {
+
+    @Test
+    void emptyHistogramReportsZero() {
+        LogHistogram histogram = new LogHistogram();
+
+        assertThat(histogram.getCount()).isZero();
+        assertThat(histogram.getValueAtPercentile(50)).isZero();
+        assertThat(histogram.getValueAtPercentile(99)).isZero();
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        LogHistogram histogram = new LogHistogram();
+        for (long value = 0; value < 8; value++) {
+            histogram.record(value);
+        }
+
+        assertThat(histogram.getValueAtPercentile(0)).isZero();
+        assertThat(histogram.getValueAtPercentile(50)).isEqualTo(3);
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(7);
+        assertThat(histogram.getMin()).isZero();
+        assertThat(histogram.getMax()).isEqualTo(7);
+        assertThat(histogram.getSum()).isEqualTo(28);
+    }
+
+    @Test
+    void percentilesAreWithinOneBucketOfTheExactValue() {
+        Random random = new Random(42);
+        LogHistogram histogram = new LogHistogram();
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            // Log-uniform from 1 ns to about a second, like lock wait times
+            values[i] = (long) Math.exp(random.nextDouble() * Math.log(1e9));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double percentile : new double[] {1, 10, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            long reported = histogram.getValueAtPercentile(percentile);
+            assertThat(reported).as("p%s", percentile).isGreaterThanOrEqualTo(exact);
+            assertThat((double) reported).as("p%s", percentile).isCloseTo(exact, within(exact * 0.125 + 1));
+        }
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(values[values.length - 1]);
+        assertThat(histogram.getCount()).isEqualTo(values.length);
+        assertThat(histogram.getMax()).isEqualTo(values[values.length - 1]);
+    }
+
+    @Test
+    void negativeValuesCountAsZero() {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(-5);
+
+        assertThat(histogram.getCount()).isEqualTo(1);
+        assertThat(histogram.getMin()).isZero();
+        assertThat(histogram.getValueAtPercentile(50)).isZero();
+    }
+
+    @Test
+    void addingHistogramsMatchesRecordingEveryValue() {
+        Random random = new Random(7);
+        LogHistogram all = new LogHistogram();
+        LogHistogram low = new LogHistogram();
+        LogHistogram high = new LogHistogram();
+        for (int i = 0; i < 10_000; i++) {
+            long value = random.nextInt(1_000);
+            all.record(value);
+            low.record(value);
+            long large = 1_000_000 + random.nextInt(1_000_000_000);
+            all.record(large);
+            high.record(large);
+        }
+        LogHistogram merged = new LogHistogram(low);
+        merged.add(high);
+
+        assertThat(merged.getCount()).isEqualTo(all.getCount());
+        assertThat(merged.getSum()).isEqualTo(all.getSum());
+        assertThat(merged.getMin()).isEqualTo(all.getMin());
+        assertThat(merged.getMax()).isEqualTo(all.getMax());
+        for (double percentile : new double[] {1, 25, 50, 75, 99}) {
+            assertThat(merged.getValueAtPercentile(percentile)).isEqualTo(all.getValueAtPercentile(percentile));
+        }
+        // The copy is independent of the histogram it was taken from
+        assertThat(low.getCount()).isEqualTo(10_000);
+    }
+
+    @Test
+    void everyValueFallsWithinItsBucket() {
+        Random random = new Random(3);
+        for (int i = 0; i < 100_000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int bucket = LogHistogram.bucketOf(value);
+            assertThat(LogHistogram.lowestValue(bucket)).isLessThanOrEqualTo(value);
+            assertThat(LogHistogram.highestValue(bucket)).isGreaterThanOrEqualTo(value);
+        }
+        assertThat(LogHistogram.highestValue(LogHistogram.bucketOf(Long.MAX_VALUE))).isEqualTo(Long.MAX_VALUE);
+    }
+}
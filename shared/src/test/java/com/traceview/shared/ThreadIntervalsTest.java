@@ -0,0 +1,90 @@
+package com.traceview.shared;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ThreadIntervalsTest {
+
+    private static final TraceFormat.ThreadState[] STATES = TraceFormat.ThreadState.values();
+
+    @Test
+    void searchesMatchALinearScan() {
+        Random random = new Random(11);
+        for (int round = 0; round < 50; round++) {
+            ThreadIntervals intervals = randomIntervals(random, random.nextInt(200));
+            long last = intervals.lastEnd() + 10;
+            for (long time = -5; time <= last; time++) {
+                assertThat(intervals.firstEndingAfter(time)).as("firstEndingAfter(%d)", time)
+                    .isEqualTo(linearFirstEndingAfter(intervals, time));
+                assertThat(intervals.indexAt(time)).as("indexAt(%d)", time)
+                    .isEqualTo(linearIndexAt(intervals, time));
+            }
+        }
+    }
+
+    @Test
+    void emptyThreadHasNoIntervals() {
+        ThreadIntervals intervals = new ThreadIntervals(1);
+
+        assertThat(intervals.firstEndingAfter(0)).isZero();
+        assertThat(intervals.indexAt(0)).isEqualTo(-1);
+        assertThat(intervals.firstStart()).isZero();
+        assertThat(intervals.lastEnd()).isZero();
+    }
+
+    @Test
+    void discardBeforeKeepsTheIntervalsEndingLater() {
+        Random random = new Random(5);
+        ThreadIntervals intervals = randomIntervals(random, 100);
+        long cut = (intervals.firstStart() + intervals.lastEnd()) / 2;
+        int first = linearFirstEndingAfter(intervals, cut);
+        ThreadIntervals expected = intervals.copy();
+
+        intervals.discardBefore(cut);
+
+        assertThat(intervals.size()).isEqualTo(expected.size() - first);
+        for (int i = 0; i < intervals.size(); i++) {
+            assertThat(intervals.start(i)).isEqualTo(expected.start(first + i));
+            assertThat(intervals.end(i)).isEqualTo(expected.end(first + i));
+            assertThat(intervals.state(i)).isEqualTo(expected.state(first + i));
+            assertThat(intervals.objectId(i)).isEqualTo(expected.objectId(first + i));
+            assertThat(intervals.stackId(i)).isEqualTo(expected.stackId(first + i));
+        }
+    }
+
+    /**
+     * Intervals in time order, some back to back and some with gaps between them
+     */
+    private static ThreadIntervals randomIntervals(Random random, int count) {
+        ThreadIntervals intervals = new ThreadIntervals(1);
+        long time = random.nextInt(10);
+        for (int i = 0; i < count; i++) {
+            long start = time + (random.nextInt(3) == 0 ? random.nextInt(5) : 0);
+            long end = start + 1 + random.nextInt(8);
+            intervals.add(start, end, STATES[random.nextInt(STATES.length)], random.nextInt(4), random.nextInt(3) - 1);
+            time = end;
+        }
+        return intervals;
+    }
+
+    private static int linearFirstEndingAfter(ThreadIntervals intervals, long time) {
+        for (int i = 0; i < intervals.size(); i++) {
+            if (intervals.end(i) > time) {
+                return i;
+            }
+        }
+        return intervals.size();
+    }
+
+    private static int linearIndexAt(ThreadIntervals intervals, long time) {
+        for (int i = 0; i < intervals.size(); i++) {
+            if (intervals.start(i) <= time && time < intervals.end(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,93 @@
+package com.traceview.shared;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TraceLoaderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void loadGroupsTheEventsByThread() throws IOException {
+        List<long[]> events = TraceReaderTest.randomEvents(new Random(3), 5_000);
+        Path trace = TraceReaderTest.writeV2(directory, events, 400);
+
+        try (TraceReader reader = TraceReader.open(trace);
+             TraceLoader loader = new TraceLoader(reader, 4)) {
+            Map<Integer, ThreadEvents> threads = loader.load();
+
+            assertThat(threads).hasSize(TraceReaderTest.THREAD_NAMES.length);
+            for (ThreadEvents thread : threads.values()) {
+                List<long[]> expected = new ArrayList<>();
+                for (long[] event : events) {
+                    if (event[1] == thread.threadId()) {
+                        expected.add(event);
+                    }
+                }
+                TraceReaderTest.assertSameEvents(toList(thread), expected);
+            }
+        }
+    }
+
+    @Test
+    void batchesAddUpToTheWholeTrace() throws IOException {
+        List<long[]> events = TraceReaderTest.randomEvents(new Random(5), 5_000);
+        Path trace = TraceReaderTest.writeV2(directory, events, 300);
+
+        try (TraceReader reader = TraceReader.open(trace);
+             TraceLoader loader = new TraceLoader(reader, 3)) {
+            int chunks = reader.getChunks().size();
+            List<long[]> batched = new ArrayList<>();
+            for (int first = 0; first < chunks; first += 5) {
+                Map<Integer, ThreadEvents> batch = loader.load(first, Math.min(chunks, first + 5));
+                TraceLoader.replay(batch.values(), (timestampNs, threadId, type, arg0, arg1) ->
+                    batched.add(new long[] {timestampNs, threadId, type.getValue(), arg0, arg1}));
+            }
+
+            TraceReaderTest.assertSameEvents(batched, byTimeThenThread(events));
+        }
+    }
+
+    @Test
+    void replayMergesThreadsInTimeOrder() throws IOException {
+        List<long[]> events = TraceReaderTest.randomEvents(new Random(6), 5_000);
+        Path trace = TraceReaderTest.writeV2(directory, events, 400);
+
+        try (TraceReader reader = TraceReader.open(trace);
+             TraceLoader loader = new TraceLoader(reader, 4)) {
+            List<long[]> replayed = new ArrayList<>();
+            TraceLoader.replay(loader.load().values(), (timestampNs, threadId, type, arg0, arg1) ->
+                replayed.add(new long[] {timestampNs, threadId, type.getValue(), arg0, arg1}));
+
+            TraceReaderTest.assertSameEvents(replayed, byTimeThenThread(events));
+        }
+    }
+
+    /**
+     * The events in replay order: by timestamp, ties by thread id, each thread's events in their own order
+     */
+    private static List<long[]> byTimeThenThread(List<long[]> events) {
+        List<long[]> sorted = new ArrayList<>(events);
+        sorted.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        return sorted;
+    }
+
+    private static List<long[]> toList(ThreadEvents thread) {
+        List<long[]> events = new ArrayList<>();
+        for (int i = 0; i < thread.size(); i++) {
+            events.add(new long[] {thread.timestampNs(i), thread.threadId(), thread.type(i).getValue(),
+                thread.arg0(i), thread.arg1(i)});
+        }
+        return events;
+    }
+}
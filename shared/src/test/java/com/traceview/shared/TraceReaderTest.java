@@ -0,0 +1,238 @@
+package com.traceview.shared;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TraceReaderTest {
+
+    static final String[] THREAD_NAMES = {"main", "worker-1", "worker-2"};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void decodesV1Records() throws IOException {
+        List<long[]> events = randomEvents(new Random(4), 2_000);
+        Path trace = writeV1(directory, events);
+
+        try (TraceReader reader = TraceReader.open(trace)) {
+            assertThat(reader.getVersion()).isEqualTo(TraceFormat.TRACE_FORMAT_VERSION_1);
+            assertThat(reader.getNumEvents()).isEqualTo(events.size());
+            assertThat(reader.getChunks()).isEmpty();
+            assertThreadNames(reader);
+            assertSameEvents(readAll(reader), events);
+        }
+    }
+
+    @Test
+    void decodesV2Chunks() throws IOException {
+        List<long[]> events = randomEvents(new Random(1), 3_000);
+        Path trace = writeV2(directory, events, 1_000);
+
+        try (TraceReader reader = TraceReader.open(trace)) {
+            assertThat(reader.getVersion()).isEqualTo(TraceFormat.TRACE_FORMAT_VERSION_2);
+            assertThat(reader.getNumEvents()).isEqualTo(events.size());
+            assertThat(reader.getChunks()).hasSize(3);
+            assertThreadNames(reader);
+            assertSameEvents(readAll(reader), events);
+        }
+    }
+
+    @Test
+    void cursorFiltersByThreadAndTime() throws IOException {
+        List<long[]> events = randomEvents(new Random(2), 2_000);
+        Path trace = writeV2(directory, events, 700);
+
+        try (TraceReader reader = TraceReader.open(trace);
+             EventCursor cursor = reader.cursor(1_000_000, 2_000_000, 1)) {
+            List<long[]> read = new ArrayList<>();
+            while (cursor.next()) {
+                read.add(new long[] {cursor.timestampNs(), cursor.threadId(), cursor.type().getValue(),
+                    cursor.arg0(), cursor.arg1()});
+            }
+
+            List<long[]> expected = new ArrayList<>();
+            for (long[] event : events) {
+                if (event[1] == 1 && event[0] >= 1_000_000 && event[0] <= 2_000_000) {
+                    expected.add(event);
+                }
+            }
+            assertThat(expected).isNotEmpty();
+            assertSameEvents(read, expected);
+        }
+    }
+
+    private static void assertThreadNames(TraceReader reader) {
+        assertThat(reader.getThreads()).hasSize(THREAD_NAMES.length);
+        for (TraceFormat.ThreadInfo thread : reader.getThreads()) {
+            assertThat(reader.getString(thread.nameOffset)).isEqualTo(THREAD_NAMES[thread.threadId]);
+        }
+    }
+
+    static List<long[]> readAll(TraceReader reader) throws IOException {
+        List<long[]> read = new ArrayList<>();
+        reader.forEachEvent((timestampNs, threadId, type, arg0, arg1) ->
+            read.add(new long[] {timestampNs, threadId, type.getValue(), arg0, arg1}));
+        return read;
+    }
+
+    /**
+     * Events in time order on three threads: timestamp, thread id, type value, arg0, arg1.
+     * Arguments stored as 32-bit fields in v1 records stay within an int.
+     */
+    static List<long[]> randomEvents(Random random, int count) {
+        TraceFormat.EventType[] types = TraceFormat.EventType.values();
+        List<long[]> events = new ArrayList<>();
+        long time = 0;
+        for (int i = 0; i < count; i++) {
+            time += random.nextInt(2_000);
+            TraceFormat.EventType type = types[random.nextInt(types.length)];
+            boolean intArgs = type.getDataSize() == 4 || (type.getDataSize() == 8 && type.getArgCount() == 2);
+            long arg0 = type.getArgCount() > 0 ? randomArg(random, intArgs) : 0;
+            long arg1 = type.getArgCount() > 1 ? randomArg(random, intArgs) : 0;
+            events.add(new long[] {time, random.nextInt(THREAD_NAMES.length), type.getValue(), arg0, arg1});
+        }
+        return events;
+    }
+
+    private static long randomArg(Random random, boolean intArg) {
+        return intArg ? random.nextInt(Integer.MAX_VALUE) : (random.nextLong() >>> 1) >>> random.nextInt(63);
+    }
+
+    static void assertSameEvents(List<long[]> actual, List<long[]> expected) {
+        assertThat(actual).hasSameSizeAs(expected);
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(actual.get(i)).as("event %d", i).containsExactly(expected.get(i));
+        }
+    }
+
+    /**
+     * Write the events as fixed-size v1 records
+     */
+    static Path writeV1(Path directory, List<long[]> events) throws IOException {
+        ByteBuffer file = ByteBuffer.allocate(1 << 20).order(TraceFormat.BYTE_ORDER);
+        file.position(TraceFormat.HEADER_SIZE);
+        for (long[] event : events) {
+            TraceFormat.EventType type = TraceFormat.EventType.fromValue((byte) event[2]);
+            file.putLong(event[0]).putInt((int) event[1]).put(type.getValue())
+                .put((byte) type.getDataSize()).putShort((short) 0);
+            switch (type.getDataSize()) {
+                case 4:
+                    file.putInt((int) event[3]);
+                    break;
+                case 8:
+                    if (type.getArgCount() == 2) {
+                        file.putInt((int) event[3]).putInt((int) event[4]);
+                    } else {
+                        file.putLong(event[3]);
+                    }
+                    break;
+                case 16:
+                    file.putLong(event[3]).putLong(event[4]);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return finish(directory.resolve("v1.tview"), file, events, TraceFormat.TRACE_FORMAT_VERSION_1);
+    }
+
+    /**
+     * Write the events as a v2 trace, every other chunk deflated
+     */
+    static Path writeV2(Path directory, List<long[]> events, int eventsPerChunk) throws IOException {
+        ByteBuffer file = ByteBuffer.allocate(1 << 20).order(TraceFormat.BYTE_ORDER);
+        file.position(TraceFormat.HEADER_SIZE);
+        for (int first = 0, chunk = 0; first < events.size(); first += eventsPerChunk, chunk++) {
+            List<long[]> chunkEvents = events.subList(first, Math.min(events.size(), first + eventsPerChunk));
+            writeChunk(file, chunkEvents, chunk % 2 == 1);
+        }
+        return finish(directory.resolve("v2.tview"), file, events, TraceFormat.TRACE_FORMAT_VERSION_2);
+    }
+
+    /**
+     * Append the string and thread tables after the events and write the v1/v2 header
+     */
+    private static Path finish(Path trace, ByteBuffer file, List<long[]> events, int version) throws IOException {
+        long endNs = events.get(events.size() - 1)[0];
+        long stringTableOffset = file.position();
+        int[] nameOffsets = new int[THREAD_NAMES.length];
+        for (int i = 0; i < THREAD_NAMES.length; i++) {
+            byte[] utf8 = THREAD_NAMES[i].getBytes(StandardCharsets.UTF_8);
+            nameOffsets[i] = file.position() - (int) stringTableOffset;
+            file.putShort((short) utf8.length).put(utf8);
+        }
+        int stringTableSize = file.position() - (int) stringTableOffset;
+        for (int i = 0; i < THREAD_NAMES.length; i++) {
+            file.putInt(i).putInt(nameOffsets[i]).putLong(0L).putLong(endNs);
+        }
+
+        file.putInt(TraceFormat.HEADER_MAGIC_OFFSET, TraceFormat.TRACE_MAGIC);
+        file.putInt(TraceFormat.HEADER_VERSION_OFFSET, version);
+        file.putLong(TraceFormat.HEADER_START_TIME_OFFSET, 0L);
+        file.putLong(TraceFormat.HEADER_END_TIME_OFFSET, endNs);
+        file.putInt(TraceFormat.HEADER_NUM_THREADS_OFFSET, THREAD_NAMES.length);
+        file.putInt(TraceFormat.HEADER_V1_NUM_EVENTS_OFFSET, events.size());
+        file.putInt(TraceFormat.HEADER_V1_STRING_TABLE_OFFSET_OFFSET, (int) stringTableOffset);
+        file.putInt(TraceFormat.HEADER_V1_STRING_TABLE_SIZE_OFFSET, stringTableSize);
+
+        Files.write(trace, Arrays.copyOf(file.array(), file.position()));
+        return trace;
+    }
+
+    private static void writeChunk(ByteBuffer file, List<long[]> events, boolean deflate) {
+        ByteBuffer raw = ByteBuffer.allocate(events.size() * TraceFormat.MAX_ENCODED_EVENT_SIZE)
+            .order(TraceFormat.BYTE_ORDER);
+        long lastTimestampNs = 0;
+        long lastThreadId = -1;
+        for (long[] event : events) {
+            TraceFormat.EventType type = TraceFormat.EventType.fromValue((byte) event[2]);
+            boolean sameThread = event[1] == lastThreadId;
+            raw.put((byte) (sameThread ? event[2] | TraceFormat.TAG_SAME_THREAD : event[2]));
+            VarInt.putVarLong(raw, VarInt.zigzag(event[0] - lastTimestampNs));
+            if (!sameThread) {
+                VarInt.putVarLong(raw, event[1]);
+            }
+            if (type.getArgCount() > 0) {
+                VarInt.putVarLong(raw, event[3]);
+            }
+            if (type.getArgCount() > 1) {
+                VarInt.putVarLong(raw, event[4]);
+            }
+            lastTimestampNs = event[0];
+            lastThreadId = event[1];
+        }
+        raw.flip();
+        int rawSize = raw.remaining();
+
+        ByteBuffer stored = raw;
+        if (deflate) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+            deflater.setInput(raw);
+            deflater.finish();
+            stored = ByteBuffer.allocate(rawSize * 2 + 64);
+            while (!deflater.finished()) {
+                deflater.deflate(stored);
+            }
+            deflater.end();
+            stored.flip();
+        }
+
+        file.putInt(stored.remaining()).putInt(rawSize).putInt(events.size())
+            .put((byte) (deflate ? TraceFormat.BLOCK_FLAG_DEFLATE : 0)).put(new byte[3]);
+        file.put(stored);
+    }
+}
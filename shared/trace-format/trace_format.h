@@ -11,8 +11,9 @@
 
 namespace traceview {
 
-// File format version
-constexpr uint32_t TRACE_FORMAT_VERSION = 1;
+// File format version. Version 1 files use fixed EventRecords instead of
+// chunks; versions 1 and 2 use TraceHeaderV1 and have no chunk index.
+constexpr uint32_t TRACE_FORMAT_VERSION = 3;
 
 // Magic number for .tview files: "TVIEW" in ASCII
 constexpr uint32_t TRACE_MAGIC = 0x54564945;
@@ -30,7 +31,12 @@ enum class EventType : uint8_t {
     SLEEP_START = 9,
     SLEEP_END = 10,
     IO_START = 11,
-    IO_END = 12
+    IO_END = 12,
+    SAMPLING_RATE = 13,
+    STACK_TRACE = 14,
+    LOCK_ORDER_INVERSION = 15,
+    DEADLOCK = 16,
+    MONITOR_EXIT = 17
 };
 
 // Thread states (derived from events)
@@ -48,13 +54,112 @@ struct TraceHeader {
     uint64_t start_time_ns;   // Trace start time (nanoseconds since epoch)
     uint64_t end_time_ns;     // Trace end time (nanoseconds since epoch)
     uint32_t num_threads;     // Number of threads in trace
+    uint32_t flags;           // HEADER_FLAG_* bits
+    uint64_t num_events;      // Total number of events
+    uint64_t string_table_offset; // Offset to string table
+    uint64_t string_table_size;   // Size of string table
+    uint64_t index_offset;    // Offset to the chunk index
+};
+
+// File header of format versions 1 and 2 (fixed size: 64 bytes)
+struct TraceHeaderV1 {
+    uint32_t magic;           // TRACE_MAGIC
+    uint32_t version;         // 1 or 2
+    uint64_t start_time_ns;   // Trace start time (nanoseconds since epoch)
+    uint64_t end_time_ns;     // Trace end time (nanoseconds since epoch)
+    uint32_t num_threads;     // Number of threads in trace
     uint32_t num_events;      // Total number of events
     uint32_t string_table_offset; // Offset to string table
     uint32_t string_table_size;   // Size of string table
     uint8_t  padding[16];     // Reserved for future use
 };
 
-// Event record (variable size)
+// Largest chunk (header plus stored payload) a writer may produce
+constexpr uint32_t MAX_CHUNK_SIZE = 1024 * 1024;
+
+// Header of an event chunk (16 bytes). The payload (raw deflate if
+// BLOCK_FLAG_DEFLATE) holds event_count events, each encoded as:
+//   u8 tag (type in the low 5 bits, 0x80 = same thread as previous event),
+//   varint zigzag timestamp delta, varint thread id (unless 0x80),
+//   then 0-2 varint arguments depending on the event type.
+// Varints are unsigned LEB128; delta state restarts with every block.
+constexpr uint8_t BLOCK_FLAG_DEFLATE = 1;
+
+struct BlockHeader {
+    uint32_t stored_size;     // Payload bytes following this header
+    uint32_t raw_size;        // Payload bytes after decompression
+    uint32_t event_count;     // Number of events in the block
+    uint8_t  flags;           // BLOCK_FLAG_* bits
+    uint8_t  padding[3];      // Reserved
+};
+
+// The chunk index follows the thread table at TraceHeader::index_offset:
+// a ChunkIndexHeader, then chunk_count entries, each a ChunkIndexEntry
+// followed by thread_count uint32_t thread ids.
+// Header flag: a stack table follows the chunk index. It is a
+// StackTableHeader, then stack_count stacks, each a uint32_t frame count
+// followed by that many uint32_t frame string offsets (innermost first).
+constexpr uint32_t HEADER_FLAG_STACK_TABLE = 1;
+
+struct StackTableHeader {
+    uint32_t stack_count;     // Number of stacks; a stack id is its position
+    uint32_t reserved;        // 0
+};
+
+// Header flag: the agent's self-metrics follow the stack table, or the
+// chunk index if there is none. It is an AgentMetricsHeader, then
+// metric_count metrics, each a uint16_t name length, the UTF-8 name and
+// an int64_t value.
+constexpr uint32_t HEADER_FLAG_AGENT_METRICS = 2;
+
+struct AgentMetricsHeader {
+    uint32_t metric_count;    // Number of metrics
+    uint32_t reserved;        // 0
+};
+
+// Header flag: some thread's events are not stored in time order, as in
+// traces translated from JFR. Readers must sort each thread's events by
+// timestamp before building intervals from them.
+constexpr uint32_t HEADER_FLAG_UNORDERED = 4;
+
+struct ChunkIndexHeader {
+    uint32_t chunk_count;     // Number of chunks in the file
+    uint32_t reserved;        // 0
+};
+
+struct ChunkIndexEntry {
+    uint64_t offset;          // File offset of the chunk's BlockHeader
+    uint64_t min_timestamp_ns; // Earliest event in the chunk
+    uint64_t max_timestamp_ns; // Latest event in the chunk
+    uint32_t event_count;     // Number of events in the chunk
+    uint32_t thread_count;    // Number of thread ids that follow
+};
+
+// Live stream sent by the agent over a loopback socket: a LiveHeader, then
+// frames of a LiveFrameHeader and length bytes of payload. An events frame
+// holds a uint32_t event count and events encoded as in a block; a thread
+// frame a uint32_t thread id and the UTF-8 name; a dropped frame the
+// uint64_t number of events dropped because the viewer fell behind.
+constexpr uint16_t DEFAULT_LIVE_PORT = 7077;
+
+enum class LiveFrameKind : uint32_t {
+    EVENTS = 1,
+    THREAD = 2,
+    DROPPED = 3
+};
+
+struct LiveHeader {
+    uint32_t magic;           // TRACE_MAGIC
+    uint32_t version;         // TRACE_FORMAT_VERSION
+    uint64_t start_time_ns;   // Trace start, nanoseconds since the epoch
+};
+
+struct LiveFrameHeader {
+    uint32_t kind;            // LiveFrameKind
+    uint32_t length;          // Payload bytes that follow
+};
+
+// Event record of version 1 files (variable size)
 struct EventRecord {
     uint64_t timestamp_ns;    // Event timestamp (nanoseconds since trace start)
     uint32_t thread_id;       // Thread ID
@@ -72,11 +177,17 @@ struct ThreadInfo {
     uint64_t end_time_ns;     // Thread end time
 };
 
+// Types of synchronization object
+enum class SyncObjectType : uint32_t {
+    MUTEX = 0,                // Explicit lock
+    MONITOR = 1               // Object monitor
+};
+
 // Mutex/synchronization object metadata
 struct SyncObjectInfo {
     uint64_t object_id;       // Memory address of mutex/condition
     uint32_t name_offset;     // Offset into string table for object name
-    uint32_t type;            // Type of sync object (mutex, condition, etc.)
+    uint32_t type;            // SyncObjectType
 };
 
 // Event-specific data structures
@@ -98,6 +209,29 @@ struct SleepData {
     uint64_t duration_ns;     // Sleep duration in nanoseconds
 };
 
+// From this event on only one in `period` operations of `event_type` is traced
+struct SamplingData {
+    uint32_t event_type;      // EventType value being sampled
+    uint32_t period;          // 1 = every operation is recorded
+};
+
+// Call stack of the preceding event of the same thread
+struct StackData {
+    uint32_t stack_id;        // Index into the stack table
+};
+
+// Two locks taken in the opposite order of an earlier acquisition
+struct LockOrderData {
+    uint64_t held_lock_id;     // Lock held while acquiring
+    uint64_t acquired_lock_id; // Lock acquired out of order
+};
+
+// One thread of a cycle of threads waiting for each other's locks
+struct DeadlockData {
+    uint64_t lock_id;          // Lock the thread waits for
+    uint64_t holder_thread_id; // Thread holding it
+};
+
 struct IOData {
     uint32_t operation_offset; // Offset into string table (e.g., "read", "write")
     uint32_t target_offset;    // Offset into string table (e.g., filename, socket)